@@ -0,0 +1,54 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.io.File;
+
+/**
+ * A recording of the {@link RecordingCatalog}.
+ */
+public final class CatalogEntry {
+
+    public static final int PEAK_UNKNOWN = -1;
+    public static final float LOUDNESS_UNKNOWN = Float.NEGATIVE_INFINITY;
+
+    public final File file;
+    public final long durationMillis;
+    public final long sizeBytes;
+    public final long createdMillis;
+    // Modification time of the file when it was read, to detect a change.
+    public final long modifiedMillis;
+    // Largest absolute sample value, or PEAK_UNKNOWN when the recording has no peak file.
+    public final int peak;
+    // Integrated loudness in LUFS, or LOUDNESS_UNKNOWN when the recording has no loudness
+    // summary or was too short or silent to be measured.
+    public final float loudness;
+
+    public CatalogEntry(File file, long durationMillis, long sizeBytes, long createdMillis, long modifiedMillis,
+                        int peak, float loudness) {
+        this.file = file;
+        this.durationMillis = durationMillis;
+        this.sizeBytes = sizeBytes;
+        this.createdMillis = createdMillis;
+        this.modifiedMillis = modifiedMillis;
+        this.peak = peak;
+        this.loudness = loudness;
+    }
+
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CatalogEntry)) return false;
+        CatalogEntry entry = (CatalogEntry) o;
+        return durationMillis == entry.durationMillis && sizeBytes == entry.sizeBytes
+                && createdMillis == entry.createdMillis && modifiedMillis == entry.modifiedMillis
+                && peak == entry.peak && loudness == entry.loudness && file.equals(entry.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return file.hashCode() * 31 + (int) (modifiedMillis ^ (modifiedMillis >>> 32));
+    }
+}
@@ -0,0 +1,51 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The recordings of a directory, as indexed by a {@link RecordingCatalog}.
+ */
+public final class CatalogLibraryStore implements LibraryStore {
+
+    private final RecordingCatalog catalog;
+    private final File directory;
+    private boolean loaded;
+
+    public CatalogLibraryStore(RecordingCatalog catalog, File directory) {
+        this.catalog = catalog;
+        this.directory = directory;
+    }
+
+    // The index saved by the previous scan is shown first, while the directory is scanned.
+    @Override
+    public boolean update() throws IOException {
+        if (load() && catalog.size() > 0) return true;
+        catalog.scan(directory);
+        return false;
+    }
+
+    // A recording written in place, which the scan of the directory would not see.
+    public void refresh(File recording) throws IOException {
+        load();
+        catalog.refresh(recording);
+    }
+
+    @Override
+    public String[] getNames() {
+        return catalog.getNames();
+    }
+
+    @Override
+    public CatalogEntry get(String name) {
+        return catalog.get(name);
+    }
+
+    // Returns true the first time, when the index is read.
+    private boolean load() {
+        if (loaded) return false;
+        loaded = true;
+        catalog.load();
+        return true;
+    }
+}
@@ -0,0 +1,270 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Paged source of the rows of the library list.
+ * <p>
+ * The list knows the names of all the recordings, but their entries are read from the
+ * {@link LibraryStore} by pages on the background executor, when a row of the page is bound or
+ * about to be scrolled into view, and kept in a bounded cache. When the store is updated the new
+ * names are compared with the shown ones on the background executor too: the main thread only
+ * applies the range updates found. The cached entries are still shown while their pages are read
+ * again, and only the rows whose entry changed are updated. Thumbnails are prefetched for the rows
+ * just outside the visible ones.
+ * <p>
+ * All the methods are called on the main thread, the listener and the prefetcher are called on
+ * it.
+ */
+public final class LibraryDataSource {
+
+    public interface Listener {
+
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        // The entries of the rows were loaded or changed.
+        void onChanged(int position, int count);
+
+        // The list changed too much to be updated by ranges.
+        void onReset();
+
+        void onError(IOException e);
+    }
+
+    public interface ThumbnailPrefetcher {
+
+        void prefetch(CatalogEntry entry);
+    }
+
+    // Beyond this many insertions and removals, the list is reset.
+    private static final int MAX_DIFF_EDITS = 500;
+
+    private final LibraryStore store;
+    private final int pageSize;
+    private final int prefetchRows;
+    private final Executor background;
+    private final Executor main;
+    private final Map<String, Row> cache;
+    private final Set<Integer> loadingPages = new HashSet<>();
+    // Rows whose thumbnail was prefetched recently, not asked again while scrolling.
+    private final Map<String, Boolean> prefetched;
+    private Listener listener;
+    private ThumbnailPrefetcher prefetcher;
+
+    private String[] names = new String[0];
+    // Incremented by each refresh: the rows cached before are read again.
+    private int generation;
+    private boolean refreshing;
+    private boolean refreshAgain;
+    private int firstVisible = -1;
+    private int lastVisible = -1;
+    private int pageLoads;
+
+    /**
+     * @param prefetchRows rows loaded, and whose thumbnails are prefetched, on each side of the
+     *                     visible ones.
+     * @param cachedPages  number of pages of entries kept.
+     */
+    public LibraryDataSource(LibraryStore store, int pageSize, int prefetchRows, int cachedPages,
+                             Executor background, Executor main) {
+        this.store = store;
+        this.pageSize = pageSize;
+        this.prefetchRows = prefetchRows;
+        this.background = background;
+        this.main = main;
+        final int capacity = pageSize * cachedPages;
+        cache = new LinkedHashMap<String, Row>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Row> eldest) {
+                return size() > capacity;
+            }
+        };
+        final int prefetchedCapacity = prefetchRows * 4;
+        prefetched = new LinkedHashMap<String, Boolean>(prefetchedCapacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > prefetchedCapacity;
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setThumbnailPrefetcher(ThumbnailPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the entry of the row, or null while its page is loaded.
+     */
+    public CatalogEntry get(int position) {
+        Row row = cache.get(names[position]);
+        if (row == null || row.generation != generation) loadPage(position / pageSize);
+        return row != null ? row.entry : null;
+    }
+
+    // Loads the pages around the visible rows, and prefetches the thumbnails of the rows around.
+    public void onVisibleRangeChanged(int first, int last) {
+        if (first == firstVisible && last == lastVisible) return;
+        firstVisible = first;
+        lastVisible = last;
+        if (first < 0 || names.length == 0) return;
+        int from = Math.max(0, first - prefetchRows);
+        int to = Math.min(names.length - 1, last + prefetchRows);
+        for (int page = from / pageSize; page <= to / pageSize; page++) {
+            if (!isLoaded(page)) loadPage(page);
+        }
+        prefetchThumbnails();
+    }
+
+    // Updates the store then the rows, in the background.
+    public void refresh() {
+        if (refreshing) {
+            refreshAgain = true;
+            return;
+        }
+        refreshing = true;
+        final String[] shown = names;
+        background.execute(() -> {
+            boolean more;
+            String[] updated;
+            try {
+                more = store.update();
+                updated = store.getNames();
+            } catch (IOException e) {
+                main.execute(() -> {
+                    refreshing = false;
+                    if (listener != null) listener.onError(e);
+                });
+                return;
+            }
+            final List<int[]> updates = new ArrayList<>();
+            final boolean ranges = ListDiff.diff(shown, updated, MAX_DIFF_EDITS, new ListDiff.Callback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    updates.add(new int[]{1, position, count});
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    updates.add(new int[]{-1, position, count});
+                }
+            });
+            main.execute(() -> onRefreshed(updated, ranges, updates, more));
+        });
+    }
+
+    public int getPageLoads() {
+        return pageLoads;
+    }
+
+    private void onRefreshed(String[] updated, boolean ranges, List<int[]> updates, boolean more) {
+        refreshing = false;
+        names = updated;
+        // Entries of recordings changed in place are read again.
+        generation++;
+        loadingPages.clear();
+        if (listener != null) {
+            if (!ranges) {
+                listener.onReset();
+            } else {
+                for (int[] update : updates) {
+                    if (update[0] > 0) {
+                        listener.onInserted(update[1], update[2]);
+                    } else {
+                        listener.onRemoved(update[1], update[2]);
+                    }
+                }
+            }
+        }
+        int first = firstVisible;
+        int last = lastVisible;
+        firstVisible = lastVisible = -1;
+        onVisibleRangeChanged(first, Math.min(last, names.length - 1));
+        if (more || refreshAgain) {
+            refreshAgain = false;
+            refresh();
+        }
+    }
+
+    private boolean isLoaded(int page) {
+        int end = Math.min(names.length, (page + 1) * pageSize);
+        for (int i = page * pageSize; i < end; i++) {
+            Row row = cache.get(names[i]);
+            if (row == null || row.generation != generation) return false;
+        }
+        return true;
+    }
+
+    private void loadPage(final int page) {
+        if (loadingPages.contains(page)) return;
+        loadingPages.add(page);
+        pageLoads++;
+        final String[] pageNames = names;
+        final int start = page * pageSize;
+        final int end = Math.min(pageNames.length, start + pageSize);
+        background.execute(() -> {
+            final CatalogEntry[] entries = new CatalogEntry[end - start];
+            for (int i = start; i < end; i++) entries[i - start] = store.get(pageNames[i]);
+            main.execute(() -> onPageLoaded(page, pageNames, entries));
+        });
+    }
+
+    private void onPageLoaded(int page, String[] pageNames, CatalogEntry[] entries) {
+        // Loaded for names replaced meanwhile: the page is loaded again when shown.
+        if (pageNames != names) return;
+        loadingPages.remove(page);
+        int start = page * pageSize;
+        int changedFrom = -1;
+        for (int i = 0; i <= entries.length; i++) {
+            boolean changed = false;
+            if (i < entries.length && entries[i] != null) {
+                Row previous = cache.put(names[start + i], new Row(entries[i], generation));
+                changed = previous == null || !previous.entry.equals(entries[i]);
+            }
+            if (changed && changedFrom < 0) {
+                changedFrom = i;
+            } else if (!changed && changedFrom >= 0) {
+                if (listener != null) listener.onChanged(start + changedFrom, i - changedFrom);
+                changedFrom = -1;
+            }
+        }
+        prefetchThumbnails();
+    }
+
+    private void prefetchThumbnails() {
+        if (prefetcher == null || firstVisible < 0) return;
+        int from = Math.max(0, firstVisible - prefetchRows);
+        int to = Math.min(names.length - 1, lastVisible + prefetchRows);
+        for (int i = from; i <= to; i++) {
+            if (i >= firstVisible && i <= lastVisible) continue;
+            Row row = cache.get(names[i]);
+            if (row != null && prefetched.put(names[i], Boolean.TRUE) == null) prefetcher.prefetch(row.entry);
+        }
+    }
+
+    private static final class Row {
+        final CatalogEntry entry;
+        final int generation;
+
+        Row(CatalogEntry entry, int generation) {
+            this.entry = entry;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.io.IOException;
+
+/**
+ * Recordings shown by the library, read by {@link LibraryDataSource} on a background thread.
+ */
+public interface LibraryStore {
+
+    /**
+     * Brings the recordings up to date, e.g. by scanning their directory.
+     *
+     * @return true if they are not up to date yet: they are shown, then update() is called again.
+     */
+    boolean update() throws IOException;
+
+    // Names of all the recordings, in the order they are shown.
+    String[] getNames();
+
+    // The recording with the name, or null if it was removed meanwhile.
+    CatalogEntry get(String name);
+}
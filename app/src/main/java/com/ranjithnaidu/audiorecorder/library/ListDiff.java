@@ -0,0 +1,131 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shortest sequence of insertions and removals turning a list of keys into another (Myers'
+ * algorithm), reported as the range updates of a list view.
+ * <p>
+ * The common start and end are skipped first: a new recording at the top of a library of
+ * thousands is found without comparing them all. The cost grows with the square of the number of
+ * edits, which is bounded by the caller: beyond it the lists are reported as unrelated.
+ */
+public final class ListDiff {
+
+    public interface Callback {
+
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+    }
+
+    private ListDiff() {
+    }
+
+    /**
+     * Reports the updates from the last position to the first one, so that each position is
+     * still the one of the old list when it is applied.
+     *
+     * @return false, with nothing reported, if more than maxEdits insertions and removals are
+     * needed.
+     */
+    public static boolean diff(Object[] oldKeys, Object[] newKeys, int maxEdits, Callback callback) {
+        int start = 0;
+        int oldEnd = oldKeys.length;
+        int newEnd = newKeys.length;
+        while (start < oldEnd && start < newEnd && oldKeys[start].equals(newKeys[start])) start++;
+        while (oldEnd > start && newEnd > start && oldKeys[oldEnd - 1].equals(newKeys[newEnd - 1])) {
+            oldEnd--;
+            newEnd--;
+        }
+        int n = oldEnd - start;
+        int m = newEnd - start;
+        // At least the difference of the lengths is inserted or removed.
+        if (Math.abs(n - m) > maxEdits) return false;
+
+        // trace.get(d) holds the furthest x reached on each diagonal k after d - 1 edits, at k + d.
+        int limit = Math.min(n + m, maxEdits);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        List<int[]> trace = new ArrayList<>();
+        int edits = -1;
+        for (int d = 0; d <= limit && edits < 0; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && oldKeys[start + x].equals(newKeys[start + y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    edits = d;
+                    break;
+                }
+            }
+        }
+        if (edits < 0) return false;
+
+        Updates updates = new Updates(callback);
+        int x = n;
+        int y = m;
+        for (int d = edits; d > 0; d--) {
+            int[] previous = trace.get(d);
+            int k = x - y;
+            boolean insertion = k == -d || (k != d && previous[k - 1 + d] < previous[k + 1 + d]);
+            int previousK = insertion ? k + 1 : k - 1;
+            int previousX = previous[previousK + d];
+            int previousY = previousX - previousK;
+            if (insertion) {
+                updates.insert(start + previousX);
+            } else {
+                updates.remove(start + previousX);
+            }
+            x = previousX;
+            y = previousY;
+        }
+        updates.flush();
+        return true;
+    }
+
+    // Merges the single edits found from the end into ranges.
+    private static final class Updates {
+
+        private final Callback callback;
+        private boolean insertion;
+        private int position = -1;
+        private int count;
+
+        Updates(Callback callback) {
+            this.callback = callback;
+        }
+
+        void insert(int at) {
+            if (count > 0 && (!insertion || at != position)) flush();
+            insertion = true;
+            position = at;
+            count++;
+        }
+
+        void remove(int at) {
+            if (count > 0 && (insertion || at != position - 1)) flush();
+            insertion = false;
+            position = at;
+            count++;
+        }
+
+        void flush() {
+            if (count == 0) return;
+            if (insertion) {
+                callback.onInserted(position, count);
+            } else {
+                callback.onRemoved(position, count);
+            }
+            count = 0;
+        }
+    }
+}
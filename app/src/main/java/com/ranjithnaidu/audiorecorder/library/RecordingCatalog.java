@@ -0,0 +1,328 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent index of the recordings of a directory, sorted and read by pages.
+ * <p>
+ * The index is loaded in one read and kept in memory. A scan first compares the modification time
+ * of the directory with the one of the previous scan: when no file was added, removed or renamed
+ * nothing else is read. Otherwise the directory is listed and only the files whose size or
+ * modification time changed are probed again. Files that are not recordings are remembered as
+ * such. The index is rewritten atomically after each scan that listed the directory.
+ * <p>
+ * Thread safe: scans run in the background while pages are read.
+ */
+public final class RecordingCatalog {
+
+    public enum Order {
+        NEWEST_FIRST, OLDEST_FIRST, LONGEST_FIRST, LARGEST_FIRST
+    }
+
+    private static final int MAGIC = 0x54434152; // "RACT" little endian
+    private static final int VERSION = 2;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // File systems store times in seconds at worst: a directory changed within the same second as
+    // the scan could keep the time seen by it.
+    private static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 2000;
+
+    private final File indexFile;
+    private final RecordingProbe probe;
+    private final Object scanLock = new Object();
+
+    // Guarded by this.
+    private final Map<String, CatalogEntry> entries = new HashMap<>();
+    // Names of the files that are not recordings, with their modification time.
+    private final Map<String, Long> ignored = new HashMap<>();
+    private long directoryModifiedMillis;
+    private long scanMillis;
+    private Order order = Order.NEWEST_FIRST;
+    private CatalogEntry[] sorted;
+    private int generation;
+    private int probeCount;
+
+    public RecordingCatalog(File indexFile, RecordingProbe probe) {
+        this.indexFile = indexFile;
+        this.probe = probe;
+    }
+
+    /**
+     * Reads the index written by a previous scan. A missing or unreadable index leaves the
+     * catalog empty, the next scan reads the whole directory.
+     */
+    public void load() {
+        Map<String, CatalogEntry> loaded = new HashMap<>();
+        Map<String, Long> loadedIgnored = new HashMap<>();
+        long loadedDirectoryModified;
+        long loadedScan;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile), BUFFER_BYTES))) {
+            if (Integer.reverseBytes(in.readInt()) != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a catalog: " + indexFile);
+            }
+            File directory = new File(in.readUTF());
+            loadedDirectoryModified = in.readLong();
+            loadedScan = in.readLong();
+            for (int i = 0, count = in.readInt(); i < count; i++) {
+                String name = in.readUTF();
+                loaded.put(name, new CatalogEntry(new File(directory, name), in.readLong(), in.readLong(),
+                        in.readLong(), in.readLong(), in.readInt(), in.readFloat()));
+            }
+            for (int i = 0, count = in.readInt(); i < count; i++) {
+                loadedIgnored.put(in.readUTF(), in.readLong());
+            }
+        } catch (IOException e) {
+            return;
+        }
+        synchronized (this) {
+            entries.clear();
+            entries.putAll(loaded);
+            ignored.clear();
+            ignored.putAll(loadedIgnored);
+            directoryModifiedMillis = loadedDirectoryModified;
+            scanMillis = loadedScan;
+            changed();
+        }
+    }
+
+    /**
+     * Brings the catalog up to date with the directory, and saves it if it changed.
+     *
+     * @return true if recordings were added, removed or changed.
+     */
+    public boolean scan(File directory) throws IOException {
+        synchronized (scanLock) {
+            long now = System.currentTimeMillis();
+            long modified = directory.lastModified();
+            Map<String, CatalogEntry> known;
+            Map<String, Long> knownIgnored;
+            synchronized (this) {
+                if (modified != 0 && modified == directoryModifiedMillis
+                        && scanMillis - modified >= MODIFICATION_TIME_RESOLUTION_MILLIS) {
+                    return false;
+                }
+                known = new HashMap<>(entries);
+                knownIgnored = new HashMap<>(ignored);
+            }
+
+            File[] files = directory.listFiles();
+            if (files == null) throw new IOException("Cannot list " + directory);
+            Map<String, CatalogEntry> scanned = new HashMap<>();
+            Map<String, Long> scannedIgnored = new HashMap<>();
+            boolean changed = files.length != known.size() + knownIgnored.size();
+            int probes = 0;
+            for (File file : files) {
+                String name = file.getName();
+                long fileModified = file.lastModified();
+                // The size of a directory is the one of its files, as told by the probe.
+                boolean isDirectory = file.isDirectory();
+                long size = isDirectory ? 0 : file.length();
+                CatalogEntry entry = known.get(name);
+                if (entry != null && entry.modifiedMillis == fileModified && (isDirectory || entry.sizeBytes == size)) {
+                    scanned.put(name, entry);
+                    continue;
+                }
+                Long ignoredModified = knownIgnored.get(name);
+                if (ignoredModified != null && ignoredModified == fileModified) {
+                    scannedIgnored.put(name, fileModified);
+                    continue;
+                }
+
+                changed = true;
+                probes++;
+                try {
+                    entry = probe.probe(file, size, fileModified);
+                } catch (IOException e) {
+                    // Not remembered: probed again by the next scan.
+                    continue;
+                }
+                if (entry != null) {
+                    scanned.put(name, entry);
+                } else {
+                    scannedIgnored.put(name, fileModified);
+                }
+            }
+
+            synchronized (this) {
+                probeCount += probes;
+                directoryModifiedMillis = modified;
+                scanMillis = now;
+                if (changed) {
+                    entries.clear();
+                    entries.putAll(scanned);
+                    ignored.clear();
+                    ignored.putAll(scannedIgnored);
+                    changed();
+                }
+            }
+            save(directory);
+            return changed;
+        }
+    }
+
+    /**
+     * Probes a file again, e.g. a recording that was just completed: a file written in place
+     * does not change the modification time of the directory.
+     */
+    public void refresh(File file) throws IOException {
+        synchronized (scanLock) {
+            CatalogEntry entry = file.exists() ? probe.probe(file, file.isDirectory() ? 0 : file.length(),
+                    file.lastModified()) : null;
+            synchronized (this) {
+                probeCount++;
+                String name = file.getName();
+                ignored.remove(name);
+                if (entry != null) {
+                    entries.put(name, entry);
+                } else {
+                    entries.remove(name);
+                }
+                changed();
+            }
+            save(file.getParentFile());
+        }
+    }
+
+    public synchronized void setOrder(Order order) {
+        if (order == this.order) return;
+        this.order = order;
+        changed();
+    }
+
+    public synchronized Order getOrder() {
+        return order;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return up to limit recordings from the position, in the current order.
+     */
+    public synchronized List<CatalogEntry> getPage(int offset, int limit) {
+        CatalogEntry[] all = sorted();
+        if (offset >= all.length || limit <= 0) return Collections.emptyList();
+        return new ArrayList<>(Arrays.asList(all).subList(offset, Math.min(all.length, offset + limit)));
+    }
+
+    // Names of all the recordings, in the current order.
+    public synchronized String[] getNames() {
+        CatalogEntry[] all = sorted();
+        String[] names = new String[all.length];
+        for (int i = 0; i < all.length; i++) names[i] = all[i].getName();
+        return names;
+    }
+
+    public synchronized CatalogEntry get(String name) {
+        return entries.get(name);
+    }
+
+    // Incremented whenever the pages change.
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    // Number of files probed since the catalog was created.
+    public synchronized int getProbeCount() {
+        return probeCount;
+    }
+
+    private void changed() {
+        sorted = null;
+        generation++;
+    }
+
+    private CatalogEntry[] sorted() {
+        if (sorted == null) {
+            sorted = entries.values().toArray(new CatalogEntry[0]);
+            Arrays.sort(sorted, comparator(order));
+        }
+        return sorted;
+    }
+
+    private static Comparator<CatalogEntry> comparator(final Order order) {
+        return (a, b) -> {
+            int result;
+            switch (order) {
+                case OLDEST_FIRST:
+                    result = compare(a.createdMillis, b.createdMillis);
+                    break;
+                case LONGEST_FIRST:
+                    result = compare(b.durationMillis, a.durationMillis);
+                    break;
+                case LARGEST_FIRST:
+                    result = compare(b.sizeBytes, a.sizeBytes);
+                    break;
+                default:
+                    result = compare(b.createdMillis, a.createdMillis);
+            }
+            // The pages do not change between two sorts of the same entries.
+            return result != 0 ? result : a.getName().compareTo(b.getName());
+        };
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    // Written to a temporary file then renamed, so that a crash leaves the previous index.
+    private void save(File directory) throws IOException {
+        CatalogEntry[] snapshot;
+        String[] ignoredNames;
+        long[] ignoredModified;
+        long directoryModified;
+        long scan;
+        synchronized (this) {
+            snapshot = entries.values().toArray(new CatalogEntry[0]);
+            ignoredNames = ignored.keySet().toArray(new String[0]);
+            ignoredModified = new long[ignoredNames.length];
+            for (int i = 0; i < ignoredNames.length; i++) ignoredModified[i] = ignored.get(ignoredNames[i]);
+            directoryModified = directoryModifiedMillis;
+            scan = scanMillis;
+        }
+
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary), BUFFER_BYTES))) {
+            out.writeInt(Integer.reverseBytes(MAGIC));
+            out.writeInt(VERSION);
+            out.writeUTF(directory.getPath());
+            out.writeLong(directoryModified);
+            out.writeLong(scan);
+            out.writeInt(snapshot.length);
+            for (CatalogEntry entry : snapshot) {
+                out.writeUTF(entry.getName());
+                out.writeLong(entry.durationMillis);
+                out.writeLong(entry.sizeBytes);
+                out.writeLong(entry.createdMillis);
+                out.writeLong(entry.modifiedMillis);
+                out.writeInt(entry.peak);
+                out.writeFloat(entry.loudness);
+            }
+            out.writeInt(ignoredNames.length);
+            for (int i = 0; i < ignoredNames.length; i++) {
+                out.writeUTF(ignoredNames[i]);
+                out.writeLong(ignoredModified[i]);
+            }
+        }
+        if (!temporary.renameTo(indexFile)) {
+            temporary.delete();
+            throw new IOException("Cannot write " + indexFile);
+        }
+    }
+}
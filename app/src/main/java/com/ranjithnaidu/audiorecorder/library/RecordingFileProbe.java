@@ -0,0 +1,80 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import com.ranjithnaidu.audiorecorder.record.metering.LoudnessSummary;
+import com.ranjithnaidu.audiorecorder.record.output.Mp4File;
+import com.ranjithnaidu.audiorecorder.record.output.SegmentIndex;
+import com.ranjithnaidu.audiorecorder.record.output.WavReader;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the recordings written by RecordingService: WAV files, segmented sessions and the MP4
+ * files of MediaRecorder. Only headers are read; the peak and the loudness come from the side
+ * files written with the recording or after it, when there are some.
+ */
+public final class RecordingFileProbe implements RecordingProbe {
+
+    // RecordingService names the recordings after the time they were started.
+    private static final String NAME_PREFIX = "myrec";
+
+    @Override
+    public CatalogEntry probe(File file, long sizeBytes, long modifiedMillis) throws IOException {
+        String name = file.getName();
+        long durationMillis;
+        if (file.isDirectory()) {
+            if (!SegmentIndex.isSession(file)) return null;
+            SegmentIndex.Contents contents = SegmentIndex.read(file);
+            durationMillis = contents.getFrameCount() * 1000 / contents.sampleRate;
+            sizeBytes = 0;
+            for (SegmentIndex.Segment segment : contents.segments) sizeBytes += segment.file.length();
+        } else if (name.endsWith(".wav")) {
+            try (WavReader reader = new WavReader(file)) {
+                durationMillis = reader.getFrameCount() * 1000 / reader.getSampleRate();
+            }
+        } else if (name.indexOf('.') < 0) {
+            durationMillis = Mp4File.open(file).getDurationMillis();
+        } else {
+            // Peak files, silence timelines and other side files.
+            return null;
+        }
+        return new CatalogEntry(file, durationMillis, sizeBytes, createdMillis(name, modifiedMillis),
+                modifiedMillis, peak(file), loudness(file));
+    }
+
+    private static long createdMillis(String name, long modifiedMillis) {
+        int end = NAME_PREFIX.length();
+        while (end < name.length() && Character.isDigit(name.charAt(end))) end++;
+        if (!name.startsWith(NAME_PREFIX) || end == NAME_PREFIX.length()) return modifiedMillis;
+        try {
+            return Long.parseLong(name.substring(NAME_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return modifiedMillis;
+        }
+    }
+
+    private static int peak(File recording) {
+        File peakFile = WaveformPeaks.fileFor(recording);
+        if (!peakFile.exists()) return CatalogEntry.PEAK_UNKNOWN;
+        try {
+            WaveformPeaks peaks = WaveformPeaks.open(peakFile);
+            short[] min = new short[1];
+            short[] max = new short[1];
+            peaks.render(0, Math.max(1, peaks.getTotalFrames()), 1, min, max, null);
+            return Math.max(-min[0], max[0]);
+        } catch (IOException e) {
+            return CatalogEntry.PEAK_UNKNOWN;
+        }
+    }
+
+    private static float loudness(File recording) {
+        File summaryFile = LoudnessSummary.fileFor(recording);
+        if (!summaryFile.exists()) return CatalogEntry.LOUDNESS_UNKNOWN;
+        try {
+            return LoudnessSummary.read(summaryFile).integratedLoudness;
+        } catch (IOException e) {
+            return CatalogEntry.LOUDNESS_UNKNOWN;
+        }
+    }
+}
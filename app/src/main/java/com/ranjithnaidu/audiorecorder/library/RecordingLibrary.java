@@ -0,0 +1,66 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.ranjithnaidu.audiorecorder.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The catalog of the app's recordings, shared by the library screen and the components that
+ * save recordings. It is read, scanned and updated on one background thread.
+ */
+public final class RecordingLibrary {
+    private static final String TAG = "AUDIO_RECORDER_TAG";
+    private static final String CLASS_NAME = "RecordingLibrary";
+
+    private static final String CATALOG_FILE = "recordings.catalog";
+
+    private static CatalogLibraryStore sStore;
+    private static ExecutorService sExecutor;
+
+    private RecordingLibrary() {
+    }
+
+    /**
+     * Adds or updates a recording once it is completely saved, its loudness summary included,
+     * without waiting for the library to be shown.
+     */
+    public static void onRecordingSaved(Context context, final String path) {
+        final CatalogLibraryStore store = getStore(context);
+        getExecutor().execute(() -> {
+            try {
+                store.refresh(new File(path));
+            } catch (IOException e) {
+                Log.e(TAG, CLASS_NAME + " - onRecordingSaved(): " + e.toString());
+            }
+        });
+    }
+
+    public static synchronized CatalogLibraryStore getStore(Context context) {
+        if (sStore == null) {
+            Context appContext = context.getApplicationContext();
+            RecordingCatalog catalog = new RecordingCatalog(
+                    new File(appContext.getFilesDir(), CATALOG_FILE), new RecordingFileProbe());
+            sStore = new CatalogLibraryStore(catalog, new File(Utils.getDirectoryPath(appContext)));
+        }
+        return sStore;
+    }
+
+    // The only thread the store is used on.
+    public static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Library");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads what the {@link RecordingCatalog} stores about a file of the recordings directory.
+ */
+public interface RecordingProbe {
+
+    /**
+     * @param sizeBytes      and
+     * @param modifiedMillis of the file, as listed by the catalog.
+     * @return the entry of the recording, or null if the file is not a recording.
+     * @throws IOException if the recording cannot be read; it is probed again by the next scan.
+     */
+    CatalogEntry probe(File file, long sizeBytes, long modifiedMillis) throws IOException;
+}
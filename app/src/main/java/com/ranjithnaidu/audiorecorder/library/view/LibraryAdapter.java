@@ -0,0 +1,176 @@
+package com.ranjithnaidu.audiorecorder.library.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.ranjithnaidu.audiorecorder.R;
+import com.ranjithnaidu.audiorecorder.library.CatalogEntry;
+import com.ranjithnaidu.audiorecorder.library.LibraryDataSource;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformCache;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
+import com.ranjithnaidu.audiorecorder.utils.WaveformThumbnailView;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Rows of the library, bound from the pages of the {@link LibraryDataSource}. A row whose page is
+ * being read is shown empty, and its thumbnail is set when its peaks are loaded, unless the row was
+ * bound to another recording meanwhile.
+ */
+public class LibraryAdapter extends RecyclerView.Adapter<LibraryAdapter.RecordingHolder>
+        implements LibraryDataSource.Listener {
+    private static final String TAG = "AUDIO_RECORDER_TAG";
+    private static final String CLASS_NAME = "LibraryAdapter";
+
+    public interface OnRecordingClickListener {
+
+        void onRecordingClick(CatalogEntry entry);
+    }
+
+    public interface OnRecordingLongClickListener {
+
+        void onRecordingLongClick(CatalogEntry entry);
+    }
+
+    private final LibraryDataSource dataSource;
+    private final WaveformCache waveformCache;
+    private final OnRecordingClickListener clickListener;
+    private final OnRecordingLongClickListener longClickListener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Formatters and buffers reused by all the rows, bound on the main thread.
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+    private final Date date = new Date();
+    private final StringBuilder details = new StringBuilder();
+
+    public LibraryAdapter(LibraryDataSource dataSource, WaveformCache waveformCache,
+                          OnRecordingClickListener clickListener, OnRecordingLongClickListener longClickListener) {
+        this.dataSource = dataSource;
+        this.waveformCache = waveformCache;
+        this.clickListener = clickListener;
+        this.longClickListener = longClickListener;
+    }
+
+    @NonNull
+    @Override
+    public RecordingHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_recording, parent, false);
+        return new RecordingHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecordingHolder holder, int position) {
+        holder.bind(dataSource.get(position));
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RecordingHolder holder) {
+        holder.bind(null);
+    }
+
+    @Override
+    public int getItemCount() {
+        return dataSource.size();
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onChanged(int position, int count) {
+        notifyItemRangeChanged(position, count);
+    }
+
+    @Override
+    public void onReset() {
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onError(IOException e) {
+        Log.e(TAG, CLASS_NAME + " - onError(): " + e.toString());
+    }
+
+    class RecordingHolder extends RecyclerView.ViewHolder implements WaveformCache.Callback {
+
+        private final TextView name;
+        private final TextView detailsText;
+        private final WaveformThumbnailView thumbnail;
+        private CatalogEntry entry;
+
+        RecordingHolder(View view) {
+            super(view);
+            name = view.findViewById(R.id.recording_name);
+            detailsText = view.findViewById(R.id.recording_details);
+            thumbnail = view.findViewById(R.id.recording_waveform);
+            view.setOnClickListener(v -> {
+                if (entry != null) clickListener.onRecordingClick(entry);
+            });
+            view.setOnLongClickListener(v -> {
+                if (entry != null) longClickListener.onRecordingLongClick(entry);
+                return entry != null;
+            });
+        }
+
+        void bind(CatalogEntry entry) {
+            if (entry != null && entry.equals(this.entry)) return;
+            // The peaks of the recording shown before are not wanted any more.
+            if (this.entry != null) waveformCache.cancel(this.entry.file, this);
+            this.entry = entry;
+            thumbnail.setWaveform(null);
+            if (entry == null) {
+                name.setText(null);
+                detailsText.setText(null);
+                return;
+            }
+
+            name.setText(entry.getName());
+            date.setTime(entry.createdMillis);
+            details.setLength(0);
+            details.append(dateFormat.format(date)).append("  ")
+                    .append(DateUtils.formatElapsedTime(entry.durationMillis / 1000));
+            if (entry.loudness != CatalogEntry.LOUDNESS_UNKNOWN) {
+                details.append("  ").append(Math.round(entry.loudness * 10) / 10f).append(" LUFS");
+            }
+            detailsText.setText(details);
+            // Set now when the peaks are in memory, e.g. prefetched.
+            waveformCache.load(entry.file, entry.modifiedMillis, this);
+        }
+
+        @Override
+        public void onWaveformLoaded(final File recording, final WaveformPeaks peaks) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                showWaveform(recording, peaks);
+            } else {
+                mainHandler.post(() -> showWaveform(recording, peaks));
+            }
+        }
+
+        @Override
+        public void onWaveformFailed(File recording, IOException e) {
+            Log.e(TAG, CLASS_NAME + " - onWaveformFailed(): " + e.toString());
+        }
+
+        private void showWaveform(File recording, WaveformPeaks peaks) {
+            if (entry != null && entry.file.equals(recording)) thumbnail.setWaveform(peaks);
+        }
+    }
+}
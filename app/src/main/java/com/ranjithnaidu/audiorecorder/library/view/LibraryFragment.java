@@ -0,0 +1,129 @@
+package com.ranjithnaidu.audiorecorder.library.view;
+
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.databinding.Observable;
+import androidx.databinding.ObservableInt;
+import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProviders;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.ranjithnaidu.audiorecorder.R;
+import com.ranjithnaidu.audiorecorder.library.CatalogEntry;
+import com.ranjithnaidu.audiorecorder.library.LibraryDataSource;
+import com.ranjithnaidu.audiorecorder.library.viewmodel.LibraryViewModel;
+import com.ranjithnaidu.audiorecorder.model.Recording;
+import com.ranjithnaidu.audiorecorder.playback.view.PlaybackFragment;
+import com.ranjithnaidu.audiorecorder.playback.viewmodel.PlaybackViewModel;
+
+import java.util.Objects;
+
+public class LibraryFragment extends Fragment {
+    private LibraryViewModel libraryViewModel;
+    private LibraryDataSource dataSource;
+    private LinearLayoutManager layoutManager;
+    private View noiseReductionBar;
+    private ProgressBar noiseReductionProgress;
+    private Observable.OnPropertyChangedCallback progressCallback;
+
+    public static LibraryFragment newInstance() {
+
+        return new LibraryFragment();
+    }
+
+    public LibraryFragment() {
+    }
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        libraryViewModel = ViewModelProviders.of(this).get(LibraryViewModel.class);
+        dataSource = libraryViewModel.getDataSource();
+    }
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+
+        View rootView = inflater.inflate(R.layout.fragment_library, container, false);
+
+        LibraryAdapter adapter = new LibraryAdapter(dataSource,
+                PlaybackViewModel.getWaveformCache(Objects.requireNonNull(getContext())), this::startPlaying,
+                libraryViewModel::reduceNoise);
+        dataSource.setListener(adapter);
+
+        layoutManager = new LinearLayoutManager(getContext());
+        RecyclerView recyclerView = rootView.findViewById(R.id.recordings);
+        // The rows have a fixed height: inserting rows does not measure the list again.
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                onVisibleRangeChanged();
+            }
+        });
+        // Also called after the first layout, without a scroll.
+        recyclerView.addOnLayoutChangeListener((v, left, top, right, bottom,
+                                                oldLeft, oldTop, oldRight, oldBottom) -> onVisibleRangeChanged());
+
+        // Shown while the noise of a recording, chosen by a long press, is reduced.
+        noiseReductionBar = rootView.findViewById(R.id.noise_reduction_bar);
+        noiseReductionProgress = rootView.findViewById(R.id.noise_reduction_progress);
+        rootView.findViewById(R.id.btn_cancel_noise_reduction).setOnClickListener(
+                v -> libraryViewModel.cancelNoiseReduction());
+        // Set on the main thread.
+        progressCallback = new Observable.OnPropertyChangedCallback() {
+            @Override
+            public void onPropertyChanged(Observable sender, int propertyId) {
+                showNoiseReduction(((ObservableInt) sender).get());
+            }
+        };
+        libraryViewModel.noiseReductionProgress.addOnPropertyChangedCallback(progressCallback);
+        showNoiseReduction(libraryViewModel.noiseReductionProgress.get());
+
+        return rootView;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        dataSource.refresh();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        dataSource.setListener(null);
+        libraryViewModel.noiseReductionProgress.removeOnPropertyChangedCallback(progressCallback);
+    }
+
+    private void showNoiseReduction(int percent) {
+        boolean reducing = percent != LibraryViewModel.NOT_REDUCING;
+        noiseReductionBar.setVisibility(reducing ? View.VISIBLE : View.GONE);
+        if (reducing) noiseReductionProgress.setProgress(percent);
+    }
+
+    private void onVisibleRangeChanged() {
+        dataSource.onVisibleRangeChanged(layoutManager.findFirstVisibleItemPosition(),
+                layoutManager.findLastVisibleItemPosition());
+    }
+
+    private void startPlaying(CatalogEntry entry) {
+        // A session is expanded into its segments by the playback, in the background.
+        PlaybackFragment playbackFragment = new PlaybackFragment().newInstance(
+                new Recording(entry.file.getPath(), entry.durationMillis));
+        playbackFragment.show(Objects.requireNonNull(getFragmentManager()), "dialog_playback");
+    }
+}
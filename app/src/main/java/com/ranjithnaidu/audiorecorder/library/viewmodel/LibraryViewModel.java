@@ -0,0 +1,133 @@
+package com.ranjithnaidu.audiorecorder.library.viewmodel;
+
+import android.app.Application;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.databinding.ObservableInt;
+import androidx.lifecycle.AndroidViewModel;
+
+import com.ranjithnaidu.audiorecorder.library.CatalogEntry;
+import com.ranjithnaidu.audiorecorder.library.LibraryDataSource;
+import com.ranjithnaidu.audiorecorder.library.RecordingLibrary;
+import com.ranjithnaidu.audiorecorder.playback.viewmodel.PlaybackViewModel;
+import com.ranjithnaidu.audiorecorder.processing.denoise.SpectralNoiseReducer;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+public class LibraryViewModel extends AndroidViewModel {
+    private static final String TAG = "AUDIO_RECORDER_TAG";
+    private static final String CLASS_NAME = "LibraryViewModel";
+
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_ROWS = 10;
+    private static final int CACHED_PAGES = 8;
+    public static final int NOT_REDUCING = -1;
+
+    // Drives the reductions, one at a time; the FFTs of each run in the pool.
+    private static ExecutorService sNoiseReductionExecutor;
+    private static ForkJoinPool sNoiseReductionPool;
+
+    private final LibraryDataSource dataSource;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Percent done of the noise reduction running, or NOT_REDUCING.
+    public final ObservableInt noiseReductionProgress = new ObservableInt(NOT_REDUCING);
+    private SpectralNoiseReducer noiseReducer;
+
+    public LibraryViewModel(@NonNull Application application) {
+        super(application);
+
+        final WaveformCache waveformCache = PlaybackViewModel.getWaveformCache(application);
+        dataSource = new LibraryDataSource(RecordingLibrary.getStore(application), PAGE_SIZE, PREFETCH_ROWS,
+                CACHED_PAGES, RecordingLibrary.getExecutor(), mainHandler::post);
+        // Only the cache is filled: the rows bind the peaks when they are shown.
+        dataSource.setThumbnailPrefetcher(entry -> waveformCache.prefetch(entry.file, entry.modifiedMillis));
+    }
+
+    public LibraryDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Writes a copy of a WAV recording with its noise reduced next to it, and adds it to the
+     * library when done. One reduction runs at a time.
+     */
+    public void reduceNoise(CatalogEntry entry) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || noiseReducer != null
+                || !entry.file.getName().endsWith(".wav")) return;
+
+        startNoiseReduction(entry.file);
+    }
+
+    public void cancelNoiseReduction() {
+        if (noiseReducer != null) noiseReducer.cancel();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private void startNoiseReduction(final File recording) {
+        final SpectralNoiseReducer reducer = new SpectralNoiseReducer(getNoiseReductionPool());
+        noiseReducer = reducer;
+        noiseReductionProgress.set(0);
+        final File output = SpectralNoiseReducer.outputFileFor(recording);
+        getNoiseReductionExecutor().execute(() -> {
+            final int[] percent = {0};
+            try {
+                reducer.reduce(recording, output, progress -> {
+                    // The view is only told of whole percents.
+                    int done = (int) (progress * 100);
+                    if (done == percent[0]) return;
+                    percent[0] = done;
+                    mainHandler.post(() -> {
+                        if (noiseReducer == reducer) noiseReductionProgress.set(done);
+                    });
+                });
+                RecordingLibrary.onRecordingSaved(getApplication(), output.getPath());
+            } catch (IOException e) {
+                Log.e(TAG, CLASS_NAME + " - startNoiseReduction(): " + e.toString());
+            }
+            mainHandler.post(() -> {
+                if (noiseReducer != reducer) return;
+                noiseReducer = null;
+                noiseReductionProgress.set(NOT_REDUCING);
+                dataSource.refresh();
+            });
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        cancelNoiseReduction();
+        noiseReducer = null;
+    }
+
+    private static synchronized ExecutorService getNoiseReductionExecutor() {
+        if (sNoiseReductionExecutor == null) {
+            sNoiseReductionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "NoiseReduction");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return sNoiseReductionExecutor;
+    }
+
+    // Its workers end when idle, so the pool is kept for the next reduction.
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static synchronized ForkJoinPool getNoiseReductionPool() {
+        if (sNoiseReductionPool == null) {
+            sNoiseReductionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sNoiseReductionPool;
+    }
+}
@@ -1,51 +1,117 @@
 package com.ranjithnaidu.audiorecorder.playback;
 
 import android.media.MediaPlayer;
-import android.util.Log;
+import android.os.Build;
+import android.os.SystemClock;
 
-import com.ranjithnaidu.audiorecorder.playback.viewmodel.PlaybackViewModel;
+import androidx.annotation.RequiresApi;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import com.ranjithnaidu.audiorecorder.playback.viewmodel.PlaybackViewModel;
+import com.ranjithnaidu.audiorecorder.record.metering.MeteringScheduler;
 
 /**
  * Exposes the functionality of the {@link MediaPlayer} and implements the {@link PlayerAdapter}
  * so that {@link PlaybackViewModel} can control music playback.
+ * <p>
+ * A playlist is played on one timeline: the player of the next item is prepared while the current
+ * one plays and chained to it with {@link MediaPlayer#setNextMediaPlayer}, so that the platform
+ * starts it without a gap.
+ * <p>
+ * The speed is changed by the platform from Marshmallow; it is ignored by older versions.
  */
 public final class MediaPlayerHolder implements PlayerAdapter {
 
-    public static final int PLAYBACK_POSITION_REFRESH_INTERVAL_MS = 1000;
+    public static final int PLAYBACK_POSITION_REFRESH_INTERVAL_MS = 16;
+    // How often the player is asked its position, interpolated in between.
+    public static final int PLAYBACK_POSITION_SYNC_INTERVAL_MS = 500;
+
+    // One thread for the positions of all the players, alive only while one of them plays.
+    private static final MeteringScheduler sPositionScheduler =
+            new MeteringScheduler(PLAYBACK_POSITION_REFRESH_INTERVAL_MS, "PlaybackPosition");
+
+    private final PreparedPlayerPool mPlayerPool;
+    private String[] mPaths = new String[0];
+    private final PlaylistTimeline mTimeline = new PlaylistTimeline();
+
+    // Current item.
+    private volatile int mIndex;
+    private volatile MediaPlayer mMediaPlayer;
+    private boolean mPrepared;
+    private boolean mPlayWhenPrepared;
+    private int mSeekWhenPrepared;
+
+    // Item after the current one, prepared while it plays.
+    private int mNextIndex = -1;
+    private MediaPlayer mNextPlayer;
+    private boolean mNextPrepared;
+    private boolean mNextChained;
+
+    private float mSpeed = 1f;
 
-    private MediaPlayer mMediaPlayer;
-    private String path;
     private PlaybackInfoListener mPlaybackInfoListener;
-    private ScheduledExecutorService mExecutor;
-    private Runnable mSeekbarPositionUpdateTask;
+    private final PositionClock mPositionClock = new PositionClock(PLAYBACK_POSITION_SYNC_INTERVAL_MS);
+    private MeteringScheduler.Session mPositionSession;
+
+    // Open-to-first-audio latency: from loadMedia() to the first sample played.
+    private long mOpenTimeMillis;
+    private volatile long mFirstAudioLatencyMillis = -1;
+
+    private final MediaPlayer.OnCompletionListener mCompletionListener = new MediaPlayer.OnCompletionListener() {
+        @Override
+        public void onCompletion(MediaPlayer mediaPlayer) {
+            if (mediaPlayer != mMediaPlayer) return;
+            if (mNextPlayer != null) {
+                advanceToNextItem();
+                return;
+            }
+            stopUpdatingCallbackWithPosition(true);
+            if (mPlaybackInfoListener != null) {
+                mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.COMPLETED);
+                mPlaybackInfoListener.onPlaybackCompleted();
+            }
+            // Played again from the start of the playlist.
+            if (mPaths.length > 1) openItem(0, 0);
+        }
+    };
+
+    public MediaPlayerHolder(PreparedPlayerPool playerPool) {
+        mPlayerPool = playerPool;
+    }
 
     /**
-     * Once the {@link MediaPlayer} is released, it can't be used again, and another one has to be
-     * created. In the onStop() method of the {@link PlaybackViewModel} the {@link MediaPlayer} is
-     * released. Then in the onStart() of the {@link PlaybackViewModel} a new {@link MediaPlayer}
-     * object has to be created. That's why this method is private, and called by load(int) and
-     * not the constructor.
+     * The {@link MediaPlayer} of an item is taken from the pool, prepared for a recording played
+     * before or being prepared asynchronously, and given back to it when another item plays or by
+     * release(). Playback starts when it is prepared, if play() was called meanwhile.
      */
-    private void initializeMediaPlayer() {
-        if (mMediaPlayer == null) {
-            mMediaPlayer = new MediaPlayer();
-            mMediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer mediaPlayer) {
-                    stopUpdatingCallbackWithPosition(true);
-                    if (mPlaybackInfoListener != null) {
-                        mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.COMPLETED);
-                        mPlaybackInfoListener.onPlaybackCompleted();
-                    }
-                }
-            });
+    private void openItem(int index, int offsetMillis) {
+        MediaPlayer player = null;
+        boolean prepared = false;
+        if (index == mNextIndex && mNextPlayer != null) {
+            player = mNextPlayer;
+            prepared = mNextPrepared;
+            unchainNextItem();
+            mNextPlayer = null;
+            mNextIndex = -1;
+        } else {
+            releaseNextItem();
+        }
+        if (mMediaPlayer != null) {
+            mPlayerPool.recycle(mMediaPlayer);
+            mMediaPlayer = null;
+        }
 
-//            createVisualizer(mMediaPlayer);
+        mIndex = index;
+        mPrepared = false;
+        mSeekWhenPrepared = offsetMillis;
+        mPositionClock.invalidate();
+        if (player != null) {
+            mMediaPlayer = player;
+            if (prepared) onItemPrepared(player);
+        } else {
+            mMediaPlayer = mPlayerPool.acquire(mPaths[index], new ItemCallback(index));
         }
+
+//            createVisualizer(mMediaPlayer);
     }
 
 //    private Visualizer audioOutput = null;
@@ -76,36 +142,35 @@ public final class MediaPlayerHolder implements PlayerAdapter {
     // Implements PlaybackControl.
     @Override
     public void loadMedia(String path) {
-        this.path = path;
-
-        initializeMediaPlayer();
-
-        try {
-            mMediaPlayer.setDataSource(path);
-        } catch (Exception e) {
-            Log.e("load()", e.toString());
-        }
+        loadPlaylist(new String[]{path}, new long[]{0});
+    }
 
-        try {
-            mMediaPlayer.prepare();
-        } catch (Exception e) {
-            Log.e("prepare()", e.toString());
-        }
+    @Override
+    public void loadPlaylist(String[] paths, long[] durationsMillis) {
+        release();
+        mPaths = paths.clone();
+        mTimeline.reset(durationsMillis);
+        mOpenTimeMillis = SystemClock.elapsedRealtime();
+        mFirstAudioLatencyMillis = -1;
 
-        initializeProgressCallback();
+        openItem(0, 0);
     }
 
     @Override
     public void release() {
+        stopUpdatingCallbackWithPosition(false);
+        mPlayWhenPrepared = false;
+        releaseNextItem();
         if (mMediaPlayer != null) {
-            mMediaPlayer.release();
+            mPlayerPool.recycle(mMediaPlayer);
             mMediaPlayer = null;
+            mPrepared = false;
         }
     }
 
     @Override
     public boolean isPlaying() {
-        if (mMediaPlayer != null) {
+        if (mMediaPlayer != null && mPrepared) {
             return mMediaPlayer.isPlaying();
         }
         return false;
@@ -113,20 +178,32 @@ public final class MediaPlayerHolder implements PlayerAdapter {
 
     @Override
     public void play() {
-        if (mMediaPlayer != null && !mMediaPlayer.isPlaying()) {
+        if (mMediaPlayer != null && !mPrepared) {
+            mPlayWhenPrepared = true;
+        } else if (mMediaPlayer != null && !mMediaPlayer.isPlaying()) {
             mMediaPlayer.start();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mSpeed != 1f) applySpeed(mMediaPlayer);
             if (mPlaybackInfoListener != null) {
                 mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.PLAYING);
             }
+            mPositionClock.invalidate();
             startUpdatingCallbackWithPosition();
         }
     }
 
+    // Back to the start, still prepared.
     @Override
     public void reset() {
-        if (mMediaPlayer != null) {
-            mMediaPlayer.reset();
-            loadMedia(path);
+        mPlayWhenPrepared = false;
+        if (mIndex != 0) {
+            stopUpdatingCallbackWithPosition(true);
+            openItem(0, 0);
+            if (mPlaybackInfoListener != null) {
+                mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.RESET);
+            }
+        } else if (mMediaPlayer != null && mPrepared) {
+            if (mMediaPlayer.isPlaying()) mMediaPlayer.pause();
+            mMediaPlayer.seekTo(0);
             if (mPlaybackInfoListener != null) {
                 mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.RESET);
             }
@@ -136,50 +213,152 @@ public final class MediaPlayerHolder implements PlayerAdapter {
 
     @Override
     public void pause() {
-        if (mMediaPlayer != null && mMediaPlayer.isPlaying()) {
+        mPlayWhenPrepared = false;
+        if (mMediaPlayer != null && mPrepared && mMediaPlayer.isPlaying()) {
             mMediaPlayer.pause();
+            stopUpdatingCallbackWithPosition(false);
+            long position = mTimeline.getStart(mIndex) + mMediaPlayer.getCurrentPosition();
+            mPositionClock.sync(position, System.nanoTime(), false);
             if (mPlaybackInfoListener != null) {
                 mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.PAUSED);
+                mPlaybackInfoListener.onPositionChanged((int) position);
             }
         }
     }
 
+    // Position on the timeline of the playlist; another item is opened if needed.
     @Override
     public void seekTo(int position) {
-        if (mMediaPlayer != null) {
-            mMediaPlayer.seekTo(position);
+        if (mMediaPlayer == null) return;
+        int index = mTimeline.indexAt(position);
+        int offset = (int) (position - mTimeline.getStart(index));
+        if (index == mIndex && mPrepared) {
+            mMediaPlayer.seekTo(offset);
+            mPositionClock.sync(position, System.nanoTime(), mMediaPlayer.isPlaying());
+        } else if (index == mIndex) {
+            mSeekWhenPrepared = offset;
+            mPositionClock.sync(position, System.nanoTime(), false);
+        } else {
+            boolean playing = isPlaying() || mPlayWhenPrepared;
+            stopUpdatingCallbackWithPosition(false);
+            openItem(index, offset);
+            if (playing) play();
+        }
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onPositionChanged(position);
+        }
+    }
+
+    @Override
+    public void setSpeed(float speed) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || speed == mSpeed) return;
+        mSpeed = speed;
+        mPositionClock.setRate(speed, System.nanoTime());
+        // Setting the parameters of a paused player starts it: they are applied by play().
+        if (isPlaying()) applySpeed(mMediaPlayer);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private void applySpeed(MediaPlayer player) {
+        try {
+            player.setPlaybackParams(player.getPlaybackParams().setSpeed(mSpeed));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            mSpeed = 1f;
+            mPositionClock.setRate(1f, System.nanoTime());
+        }
+    }
+
+    private void onItemPrepared(MediaPlayer player) {
+        mMediaPlayer = player;
+        mPrepared = true;
+        player.setOnCompletionListener(mCompletionListener);
+        if (mSeekWhenPrepared > 0) player.seekTo(mSeekWhenPrepared);
+        mPositionClock.sync(mTimeline.getStart(mIndex) + mSeekWhenPrepared, System.nanoTime(), false);
+        mSeekWhenPrepared = 0;
+        mTimeline.setDuration(mIndex, player.getDuration());
+        initializeProgressCallback();
+        prepareNextItem();
+        if (mPlayWhenPrepared) {
+            mPlayWhenPrepared = false;
+            play();
+        }
+    }
+
+    private void prepareNextItem() {
+        int next = mIndex + 1;
+        if (next >= mPaths.length || mNextPlayer != null) return;
+        mNextIndex = next;
+        mNextPrepared = false;
+        mNextPlayer = mPlayerPool.acquire(mPaths[next], new ItemCallback(next));
+        if (mNextPlayer == null) mNextIndex = -1;
+    }
+
+    private void onNextItemPrepared(MediaPlayer player) {
+        mNextPlayer = player;
+        mNextPrepared = true;
+        player.setOnCompletionListener(mCompletionListener);
+        if (mTimeline.setDuration(mNextIndex, player.getDuration())) initializeProgressCallback();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && mPrepared) {
+            mMediaPlayer.setNextMediaPlayer(player);
+            mNextChained = true;
         }
     }
 
+    // The current item completed: the next one was started by the platform, or is started here.
+    private void advanceToNextItem() {
+        MediaPlayer finished = mMediaPlayer;
+        boolean chained = mNextChained;
+        boolean prepared = mNextPrepared;
+        unchainNextItem();
+        mMediaPlayer = mNextPlayer;
+        mIndex = mNextIndex;
+        mPrepared = prepared;
+        mNextPlayer = null;
+        mNextIndex = -1;
+        mPlayerPool.recycle(finished);
+
+        // The jitter of the clock absorbs the handoff, the position does not jump back.
+        mPositionClock.invalidate();
+        if (!prepared) {
+            mPlayWhenPrepared = true;
+        } else {
+            if (!chained) mMediaPlayer.start();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mSpeed != 1f) applySpeed(mMediaPlayer);
+            prepareNextItem();
+        }
+    }
+
+    private void unchainNextItem() {
+        if (mNextChained && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && mMediaPlayer != null) {
+            mMediaPlayer.setNextMediaPlayer(null);
+        }
+        mNextChained = false;
+    }
+
+    private void releaseNextItem() {
+        unchainNextItem();
+        if (mNextPlayer != null) {
+            mPlayerPool.recycle(mNextPlayer);
+            mNextPlayer = null;
+        }
+        mNextIndex = -1;
+        mNextPrepared = false;
+    }
+
     /**
-     * Syncs the mMediaPlayer position with mPlaybackProgressCallback via recurring task.
+     * Reports the position at the frame rate while playing, from the shared scheduler.
      */
     private void startUpdatingCallbackWithPosition() {
-        if (mExecutor == null) {
-            mExecutor = Executors.newSingleThreadScheduledExecutor();
-        }
-        if (mSeekbarPositionUpdateTask == null) {
-            mSeekbarPositionUpdateTask = new Runnable() {
-                @Override
-                public void run() {
-                    updateProgressCallbackTask();
-                }
-            };
+        if (mPositionSession == null) {
+            mPositionSession = sPositionScheduler.start((elapsedNanos, missedTicks) -> updateProgressCallbackTask());
         }
-        mExecutor.scheduleAtFixedRate(
-                mSeekbarPositionUpdateTask,
-                0,
-                PLAYBACK_POSITION_REFRESH_INTERVAL_MS,
-                TimeUnit.MILLISECONDS
-        );
     }
 
     // Reports media playback position to mPlaybackProgressCallback.
     private void stopUpdatingCallbackWithPosition(boolean resetUIPlaybackPosition) {
-        if (mExecutor != null) {
-            mExecutor.shutdownNow();
-            mExecutor = null;
-            mSeekbarPositionUpdateTask = null;
+        if (mPositionSession != null) {
+            mPositionSession.cancel();
+            mPositionSession = null;
             if (resetUIPlaybackPosition && mPlaybackInfoListener != null) {
                 mPlaybackInfoListener.onPositionChanged(0);
             }
@@ -187,20 +366,86 @@ public final class MediaPlayerHolder implements PlayerAdapter {
     }
 
     private void updateProgressCallbackTask() {
-        if (mMediaPlayer != null && mMediaPlayer.isPlaying()) {
-            int currentPosition = mMediaPlayer.getCurrentPosition();
-            if (mPlaybackInfoListener != null) {
-                mPlaybackInfoListener.onPositionChanged(currentPosition);
+        MediaPlayer mediaPlayer = mMediaPlayer;
+        int index = mIndex;
+        if (mediaPlayer == null) return;
+
+        long now = System.nanoTime();
+        if (mPositionClock.needsSync(now)) {
+            int currentPosition;
+            try {
+                if (!mediaPlayer.isPlaying()) return;
+                currentPosition = mediaPlayer.getCurrentPosition();
+            } catch (IllegalStateException e) {
+                // Released on the main thread meanwhile, the session is being cancelled.
+                return;
+            }
+            mPositionClock.sync(mTimeline.getStart(index) + currentPosition, now, true);
+            if (mFirstAudioLatencyMillis < 0 && currentPosition > 0) {
+                // The first audio was played as long before as the position played since.
+                mFirstAudioLatencyMillis = Math.max(0, SystemClock.elapsedRealtime() - mOpenTimeMillis - currentPosition);
+                if (mPlaybackInfoListener != null) {
+                    mPlaybackInfoListener.onFirstAudio(mFirstAudioLatencyMillis);
+                }
             }
         }
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onPositionChanged((int) mPositionClock.positionAt(now));
+        }
     }
 
+    @Override
+    public long getOpenToFirstAudioMillis() {
+        return mFirstAudioLatencyMillis;
+    }
+
+    // Reports the duration of the whole playlist and the position on it.
     @Override
     public void initializeProgressCallback() {
-        final int duration = mMediaPlayer.getDuration();
+        if (mMediaPlayer == null || !mPrepared) return;
+        final long duration = mTimeline.getDuration();
+        mPositionClock.setDuration(duration);
         if (mPlaybackInfoListener != null) {
-            mPlaybackInfoListener.onDurationChanged(duration);
-            mPlaybackInfoListener.onPositionChanged(0);
+            mPlaybackInfoListener.onDurationChanged((int) duration);
+            mPlaybackInfoListener.onPositionChanged((int) mPositionClock.positionAt(System.nanoTime()));
+        }
+    }
+
+    private final class ItemCallback implements PreparedPlayerPool.Callback {
+        private final int index;
+
+        ItemCallback(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer player) {
+            if (index == mIndex) {
+                onItemPrepared(player);
+            } else if (index == mNextIndex) {
+                onNextItemPrepared(player);
+            }
+        }
+
+        @Override
+        public void onError(String failedPath) {
+            if (index == mNextIndex) {
+                // The playlist ends with the current item.
+                releaseNextItem();
+                return;
+            }
+            if (index != mIndex) return;
+            // Released by the pool, as it failed.
+            if (mMediaPlayer != null) {
+                mPlayerPool.recycle(mMediaPlayer);
+                mMediaPlayer = null;
+            }
+            mPrepared = false;
+            mPlayWhenPrepared = false;
+            stopUpdatingCallbackWithPosition(true);
+            if (mPlaybackInfoListener != null) {
+                mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.INVALID);
+            }
         }
     }
 }
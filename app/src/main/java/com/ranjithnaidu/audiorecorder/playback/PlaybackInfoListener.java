@@ -62,4 +62,7 @@ public abstract class PlaybackInfoListener {
 
     public void onPlaybackCompleted() {
     }
+
+    public void onFirstAudio(long openToFirstAudioMillis) {
+    }
 }
\ No newline at end of file
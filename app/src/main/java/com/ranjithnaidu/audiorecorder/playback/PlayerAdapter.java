@@ -9,6 +9,12 @@ public interface PlayerAdapter {
 
     void loadMedia(String path);
 
+    /**
+     * Plays the recordings back to back on one timeline, for positions, durations and seeks. The
+     * durations may be 0 or estimates, they are corrected as the items are prepared.
+     */
+    void loadPlaylist(String[] paths, long[] durationsMillis);
+
     void release();
 
     boolean isPlaying();
@@ -22,4 +28,13 @@ public interface PlayerAdapter {
     void initializeProgressCallback();
 
     void seekTo(int position);
+
+    /**
+     * Playback speed, 1 for normal speed. The pitch is kept; players that cannot change the speed
+     * ignore it.
+     */
+    void setSpeed(float speed);
+
+    // Milliseconds from loadMedia() to the first audio played, or -1 until then.
+    long getOpenToFirstAudioMillis();
 }
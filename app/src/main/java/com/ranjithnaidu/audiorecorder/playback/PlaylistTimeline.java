@@ -0,0 +1,58 @@
+package com.ranjithnaidu.audiorecorder.playback;
+
+/**
+ * One timeline over the items of a playlist played back to back. Durations may be estimates
+ * until the item is prepared, and are corrected then.
+ */
+public final class PlaylistTimeline {
+
+    private long[] durations = new long[0];
+    private long[] starts = new long[1];
+
+    public synchronized void reset(long[] durationsMillis) {
+        durations = durationsMillis.clone();
+        starts = new long[durations.length + 1];
+        updateStarts();
+    }
+
+    // True if the duration changed.
+    public synchronized boolean setDuration(int index, long durationMillis) {
+        if (durationMillis < 0 || durations[index] == durationMillis) return false;
+        durations[index] = durationMillis;
+        updateStarts();
+        return true;
+    }
+
+    public synchronized int size() {
+        return durations.length;
+    }
+
+    public synchronized long getDuration() {
+        return starts[durations.length];
+    }
+
+    public synchronized long getStart(int index) {
+        return starts[index];
+    }
+
+    // Item playing at the position, the last one past the end.
+    public synchronized int indexAt(long positionMillis) {
+        int low = 0;
+        int high = durations.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= positionMillis) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void updateStarts() {
+        for (int i = 0; i < durations.length; i++) {
+            starts[i + 1] = starts[i] + durations[i];
+        }
+    }
+}
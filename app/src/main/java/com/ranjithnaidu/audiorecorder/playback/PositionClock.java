@@ -0,0 +1,81 @@
+package com.ranjithnaidu.audiorecorder.playback;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playback position between two reads of the player: the last position read is advanced by the
+ * monotonic time elapsed since, so the position can be drawn every frame while the player is only
+ * asked a few times per second.
+ * <p>
+ * While playing, a position read slightly behind the one interpolated is taken as jitter and the
+ * position never moves back; a larger difference is a seek and is followed.
+ */
+public final class PositionClock {
+
+    private static final long JITTER_MILLIS = 80;
+
+    private final long syncIntervalNanos;
+
+    private long basePositionMillis;
+    private long baseNanos;
+    private long durationMillis = Long.MAX_VALUE;
+    private float rate = 1f;
+    private boolean running;
+    private boolean synced;
+    private int syncCount;
+
+    public PositionClock(long syncIntervalMillis) {
+        syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+    }
+
+    public synchronized void setDuration(long durationMillis) {
+        this.durationMillis = durationMillis > 0 ? durationMillis : Long.MAX_VALUE;
+    }
+
+    // Playback speed: the position advances by this many milliseconds per millisecond.
+    public synchronized void setRate(float rate, long nowNanos) {
+        basePositionMillis = positionAt(nowNanos);
+        baseNanos = nowNanos;
+        this.rate = rate;
+    }
+
+    // True when the player should be read again.
+    public synchronized boolean needsSync(long nowNanos) {
+        return !synced || nowNanos - baseNanos >= syncIntervalNanos;
+    }
+
+    /**
+     * Sets the position read from the player at the given time, and whether it is advancing.
+     */
+    public synchronized void sync(long positionMillis, long nowNanos, boolean running) {
+        if (synced && this.running && running) {
+            long interpolated = positionAt(nowNanos);
+            long behind = interpolated - positionMillis;
+            if (behind > 0 && behind <= JITTER_MILLIS) positionMillis = interpolated;
+        }
+        basePositionMillis = positionMillis;
+        baseNanos = nowNanos;
+        this.running = running;
+        synced = true;
+        syncCount++;
+    }
+
+    // Forgets the position: the next call to needsSync() is true.
+    public synchronized void invalidate() {
+        synced = false;
+    }
+
+    public synchronized long positionAt(long nowNanos) {
+        long position = basePositionMillis;
+        if (running) position += (long) (TimeUnit.NANOSECONDS.toMillis(nowNanos - baseNanos) * rate);
+        return Math.min(position, durationMillis);
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public synchronized int getSyncCount() {
+        return syncCount;
+    }
+}
@@ -0,0 +1,168 @@
+package com.ranjithnaidu.audiorecorder.playback;
+
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link MediaPlayer}s of the recordings played last, prepared and at their start, so
+ * that playing one of them again starts at once. New players are prepared asynchronously. A
+ * recording that changed on disk since its player was prepared gets a new one.
+ * <p>
+ * Used on the main thread, where the callbacks of the players are delivered.
+ */
+public final class PreparedPlayerPool {
+
+    private static final String TAG = "AUDIO_RECORDER_TAG";
+    private static final String CLASS_NAME = "PreparedPlayerPool";
+
+    public interface Callback {
+
+        void onPrepared(MediaPlayer player);
+
+        void onError(String path);
+    }
+
+    private final int capacity;
+    // Least recently used first.
+    private final LinkedHashMap<String, Entry> pooled = new LinkedHashMap<>();
+    private final Map<MediaPlayer, Entry> leased = new HashMap<>();
+    private int hits;
+    private int misses;
+
+    public PreparedPlayerPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Takes the player of the recording, from the pool or new. The callback is called once the
+     * player is prepared, before this method returns if it already is.
+     *
+     * @return the player, or null if the recording cannot be opened
+     */
+    public MediaPlayer acquire(String path, Callback callback) {
+        String key = keyFor(path);
+        Entry entry = pooled.remove(key);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+            entry = open(path, key);
+            if (entry == null) {
+                callback.onError(path);
+                return null;
+            }
+        }
+        entry.callback = callback;
+        leased.put(entry.player, entry);
+        if (entry.prepared) callback.onPrepared(entry.player);
+        return entry.player;
+    }
+
+    /**
+     * Gives back a player taken with {@link #acquire}. It is rewound and kept for its recording,
+     * unless it failed; the least recently used players beyond the capacity are released.
+     */
+    public void recycle(MediaPlayer player) {
+        Entry entry = leased.remove(player);
+        if (entry == null) {
+            player.release();
+            return;
+        }
+        entry.callback = null;
+        player.setOnCompletionListener(null);
+        if (entry.failed) {
+            player.release();
+            return;
+        }
+        if (entry.prepared) {
+            if (player.isPlaying()) player.pause();
+            player.seekTo(0);
+        }
+        Entry previous = pooled.put(entry.key, entry);
+        if (previous != null) previous.player.release();
+
+        Iterator<Entry> entries = pooled.values().iterator();
+        while (pooled.size() > capacity && entries.hasNext()) {
+            entries.next().player.release();
+            entries.remove();
+        }
+    }
+
+    // Releases the pooled players; those taken are released by their users.
+    public void clear() {
+        for (Entry entry : pooled.values()) {
+            entry.player.release();
+        }
+        pooled.clear();
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    // As the keys of WaveformCache: the size and the modification time tell a file that changed.
+    private static String keyFor(String path) {
+        File file = new File(path);
+        return path + "_" + file.length() + "_" + file.lastModified();
+    }
+
+    private Entry open(String path, String key) {
+        MediaPlayer player = new MediaPlayer();
+        Entry entry = new Entry(path, key, player);
+        player.setOnPreparedListener(entry);
+        player.setOnErrorListener(entry);
+        try {
+            player.setDataSource(path);
+            player.prepareAsync();
+            return entry;
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, CLASS_NAME + " - open(): " + e.toString());
+            player.release();
+            return null;
+        }
+    }
+
+    private final class Entry implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+        final String path;
+        final String key;
+        final MediaPlayer player;
+        boolean prepared;
+        boolean failed;
+        Callback callback;
+
+        Entry(String path, String key, MediaPlayer player) {
+            this.path = path;
+            this.key = key;
+            this.player = player;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mediaPlayer) {
+            prepared = true;
+            if (callback != null) callback.onPrepared(player);
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
+            Log.e(TAG, CLASS_NAME + " - onError(): " + what + ", " + extra + " for " + path);
+            failed = true;
+            if (pooled.get(key) == this) {
+                pooled.remove(key);
+                player.release();
+            }
+            if (callback != null) callback.onError(path);
+            return true;
+        }
+    }
+}
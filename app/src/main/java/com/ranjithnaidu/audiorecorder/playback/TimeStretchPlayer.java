@@ -0,0 +1,511 @@
+package com.ranjithnaidu.audiorecorder.playback;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ranjithnaidu.audiorecorder.playback.stretch.WsolaTimeStretcher;
+import com.ranjithnaidu.audiorecorder.record.metering.MeteringScheduler;
+import com.ranjithnaidu.audiorecorder.record.output.WavReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Implements the {@link PlayerAdapter} for WAV recordings played at any speed without changing
+ * their pitch, on every Android version.
+ * <p>
+ * A playback thread reads the samples in blocks, time-stretches them with a
+ * {@link WsolaTimeStretcher} and writes them to a streaming {@link AudioTrack}. The items of a
+ * playlist are read one after the other into the same track. The position is the frame of the
+ * recordings whose stretched samples are being played.
+ */
+public final class TimeStretchPlayer implements PlayerAdapter {
+
+    private static final String TAG = "AUDIO_RECORDER_TAG";
+    private static final String CLASS_NAME = "TimeStretchPlayer";
+
+    private static final int BLOCK_FRAMES = 4096;
+    // The position computed from the track is exact: it is read often and interpolated in between.
+    private static final int POSITION_SYNC_INTERVAL_MS = 100;
+
+    private static final MeteringScheduler sPositionScheduler = new MeteringScheduler(
+            MediaPlayerHolder.PLAYBACK_POSITION_REFRESH_INTERVAL_MS, "StretchPosition");
+
+    private final Object mLock = new Object();
+    private final PlaylistTimeline mTimeline = new PlaylistTimeline();
+    private final PositionClock mPositionClock = new PositionClock(POSITION_SYNC_INTERVAL_MS);
+    private PlaybackInfoListener mPlaybackInfoListener;
+    private MeteringScheduler.Session mPositionSession;
+
+    // Commands to the playback thread, guarded by mLock.
+    private PlaybackThread mThread;
+    private boolean mPlaying;
+    private long mSeekPosition = -1;
+    private volatile float mSpeed = 1f;
+
+    // Written by the playback thread after each write to the track, guarded by mLock.
+    private AudioTrack mTrack;
+    private int mSampleRate;
+    private long mItemStartMillis;
+    private long mSourceFrame;
+    private long mWrittenFrames;
+    private float mWrittenSpeed = 1f;
+
+    private long mOpenTimeMillis;
+    private volatile long mFirstAudioLatencyMillis = -1;
+
+    public void setPlaybackInfoListener(PlaybackInfoListener listener) {
+        mPlaybackInfoListener = listener;
+    }
+
+    // True when all the recordings can be read by this player.
+    public static boolean canPlay(String[] paths) {
+        for (String path : paths) {
+            if (!path.endsWith(".wav")) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void loadMedia(String path) {
+        loadPlaylist(new String[]{path}, new long[]{0});
+    }
+
+    @Override
+    public void loadPlaylist(String[] paths, long[] durationsMillis) {
+        release();
+        mTimeline.reset(durationsMillis);
+        mOpenTimeMillis = SystemClock.elapsedRealtime();
+        mFirstAudioLatencyMillis = -1;
+        mPositionClock.sync(0, System.nanoTime(), false);
+        synchronized (mLock) {
+            mSeekPosition = 0;
+            mThread = new PlaybackThread(paths.clone());
+            mThread.start();
+        }
+    }
+
+    @Override
+    public void release() {
+        stopUpdatingCallbackWithPosition(false);
+        synchronized (mLock) {
+            if (mThread != null) {
+                // The thread releases the track and the file once its current write returns.
+                mThread.released = true;
+                mThread = null;
+                mLock.notifyAll();
+            }
+            mPlaying = false;
+            mSeekPosition = -1;
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        synchronized (mLock) {
+            return mPlaying;
+        }
+    }
+
+    @Override
+    public void play() {
+        synchronized (mLock) {
+            if (mThread == null || mPlaying) return;
+            mPlaying = true;
+            mLock.notifyAll();
+        }
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.PLAYING);
+        }
+        mPositionClock.invalidate();
+        startUpdatingCallbackWithPosition();
+    }
+
+    @Override
+    public void reset() {
+        synchronized (mLock) {
+            if (mThread == null) return;
+            mPlaying = false;
+            mSeekPosition = 0;
+            mLock.notifyAll();
+        }
+        stopUpdatingCallbackWithPosition(true);
+        mPositionClock.sync(0, System.nanoTime(), false);
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.RESET);
+        }
+    }
+
+    @Override
+    public void pause() {
+        synchronized (mLock) {
+            if (!mPlaying) return;
+            mPlaying = false;
+            mLock.notifyAll();
+        }
+        stopUpdatingCallbackWithPosition(false);
+        long position = currentPosition();
+        mPositionClock.sync(position, System.nanoTime(), false);
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.PAUSED);
+            mPlaybackInfoListener.onPositionChanged((int) position);
+        }
+    }
+
+    @Override
+    public void seekTo(int position) {
+        synchronized (mLock) {
+            if (mThread == null) return;
+            mSeekPosition = Math.max(0, position);
+            // Until the thread has written from there, the position is the one sought.
+            mItemStartMillis = mSeekPosition;
+            mSourceFrame = 0;
+            mWrittenFrames = 0;
+            mLock.notifyAll();
+        }
+        mPositionClock.sync(position, System.nanoTime(), false);
+        mPositionClock.invalidate();
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onPositionChanged(position);
+        }
+    }
+
+    @Override
+    public void setSpeed(float speed) {
+        speed = Math.max(WsolaTimeStretcher.MIN_SPEED, Math.min(WsolaTimeStretcher.MAX_SPEED, speed));
+        mSpeed = speed;
+        mPositionClock.setRate(speed, System.nanoTime());
+    }
+
+    @Override
+    public long getOpenToFirstAudioMillis() {
+        return mFirstAudioLatencyMillis;
+    }
+
+    @Override
+    public void initializeProgressCallback() {
+        long duration = mTimeline.getDuration();
+        mPositionClock.setDuration(duration);
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onDurationChanged((int) duration);
+            mPlaybackInfoListener.onPositionChanged((int) mPositionClock.positionAt(System.nanoTime()));
+        }
+    }
+
+    /**
+     * Position on the timeline of the frame being played: the frame of the recording reached by
+     * the samples written, minus the samples the track has not played yet, at the speed they were
+     * stretched to.
+     */
+    private long currentPosition() {
+        synchronized (mLock) {
+            if (mTrack == null || mSampleRate == 0) return mPositionClock.positionAt(System.nanoTime());
+            long played = mTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+            long pending = Math.max(0, mWrittenFrames - played);
+            long frame = Math.max(0, mSourceFrame - (long) (pending * mWrittenSpeed));
+            return mItemStartMillis + frame * 1000 / mSampleRate;
+        }
+    }
+
+    // Also stopped by the playback thread when the playlist completes.
+    private synchronized void startUpdatingCallbackWithPosition() {
+        if (mPositionSession == null) {
+            mPositionSession = sPositionScheduler.start((elapsedNanos, missedTicks) -> updateProgressCallbackTask());
+        }
+    }
+
+    private synchronized void stopUpdatingCallbackWithPosition(boolean resetUIPlaybackPosition) {
+        if (mPositionSession != null) {
+            mPositionSession.cancel();
+            mPositionSession = null;
+            if (resetUIPlaybackPosition && mPlaybackInfoListener != null) {
+                mPlaybackInfoListener.onPositionChanged(0);
+            }
+        }
+    }
+
+    private void updateProgressCallbackTask() {
+        long now = System.nanoTime();
+        if (mPositionClock.needsSync(now)) {
+            long position = currentPosition();
+            mPositionClock.sync(position, now, isPlaying());
+            if (mFirstAudioLatencyMillis < 0 && position > 0) {
+                mFirstAudioLatencyMillis = Math.max(0, SystemClock.elapsedRealtime() - mOpenTimeMillis
+                        - (long) (position / mSpeed));
+                if (mPlaybackInfoListener != null) {
+                    mPlaybackInfoListener.onFirstAudio(mFirstAudioLatencyMillis);
+                }
+            }
+        }
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onPositionChanged((int) mPositionClock.positionAt(now));
+        }
+    }
+
+    // The last item has been played out: back to the start of the playlist, paused.
+    private void onPlaylistCompleted(PlaybackThread thread) {
+        synchronized (mLock) {
+            if (thread != mThread || mSeekPosition >= 0) return;
+            mPlaying = false;
+            mSeekPosition = 0;
+        }
+        stopUpdatingCallbackWithPosition(true);
+        mPositionClock.sync(0, System.nanoTime(), false);
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.COMPLETED);
+            mPlaybackInfoListener.onPlaybackCompleted();
+        }
+    }
+
+    private void onPlaybackFailed(PlaybackThread thread, IOException e) {
+        Log.e(TAG, CLASS_NAME + " - onPlaybackFailed(): " + e.toString());
+        synchronized (mLock) {
+            if (thread != mThread) return;
+            mThread = null;
+            mPlaying = false;
+        }
+        stopUpdatingCallbackWithPosition(true);
+        if (mPlaybackInfoListener != null) {
+            mPlaybackInfoListener.onStateChanged(PlaybackInfoListener.State.INVALID);
+        }
+    }
+
+    private final class PlaybackThread extends Thread {
+
+        private final String[] paths;
+        // Set under mLock by release().
+        boolean released;
+
+        private WavReader reader;
+        private int index;
+        private WsolaTimeStretcher stretcher;
+        private short[] block;
+        private short[] output;
+        private AudioTrack track;
+        private int trackRate;
+        private int trackChannels;
+        // The frame of the item at which the stretcher had consumed consumedAtBaseFrame frames.
+        private long baseFrame;
+        private long consumedAtBaseFrame;
+        private long writtenFrames;
+        private boolean ended;
+
+        PlaybackThread(String[] paths) {
+            super("TimeStretchPlayer");
+            this.paths = paths;
+        }
+
+        @Override
+        public void run() {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+            try {
+                readDurations();
+                while (true) {
+                    long seek;
+                    boolean playing;
+                    synchronized (mLock) {
+                        while (!released && mSeekPosition < 0 && (!mPlaying || ended)) {
+                            if (track != null && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) track.pause();
+                            mLock.wait();
+                        }
+                        if (released) return;
+                        seek = mSeekPosition;
+                        mSeekPosition = -1;
+                        playing = mPlaying;
+                    }
+                    if (seek >= 0) {
+                        seekTo(seek);
+                        continue;
+                    }
+                    if (playing && track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) track.play();
+                    step();
+                }
+            } catch (IOException e) {
+                onPlaybackFailed(this, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        // The durations given are estimates: the headers tell the exact ones.
+        private void readDurations() throws IOException {
+            boolean changed = false;
+            for (int i = 0; i < paths.length; i++) {
+                WavReader wav = new WavReader(new File(paths[i]));
+                try {
+                    changed |= mTimeline.setDuration(i, wav.getFrameCount() * 1000 / wav.getSampleRate());
+                } finally {
+                    wav.close();
+                }
+            }
+            if (changed || mTimeline.getDuration() > 0) initializeProgressCallback();
+        }
+
+        private void seekTo(long position) throws IOException {
+            int target = mTimeline.indexAt(position);
+            if (reader == null || target != index) openItem(target);
+            long frame = Math.max(0, (position - mTimeline.getStart(target)) * reader.getSampleRate() / 1000);
+            frame = Math.min(frame, reader.getFrameCount());
+            reader.seekToFrame(frame);
+            stretcher.clear();
+            baseFrame = frame;
+            consumedAtBaseFrame = stretcher.getConsumedFrames();
+            ended = false;
+
+            track.pause();
+            track.flush();
+            // Whether flush() resets the head position depends on the version.
+            writtenFrames = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+            publish();
+        }
+
+        private void openItem(int target) throws IOException {
+            if (reader != null) reader.close();
+            reader = null;
+            WavReader wav = new WavReader(new File(paths[target]));
+            index = target;
+            reader = wav;
+            int rate = wav.getSampleRate();
+            int channels = wav.getChannelCount();
+            if (track == null || rate != trackRate || channels != trackChannels) {
+                openTrack(rate, channels);
+            }
+            // The end of the previous item may still be in the stretcher.
+            baseFrame = 0;
+            consumedAtBaseFrame = stretcher.getConsumedFrames() + stretcher.getBufferedFrames();
+        }
+
+        private void openTrack(int rate, int channels) throws IOException {
+            if (track != null) {
+                track.release();
+                track = null;
+            }
+            int channelMask = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+            int minBufferSize = AudioTrack.getMinBufferSize(rate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+            if (channels > 2 || minBufferSize <= 0) {
+                throw new IOException("Unsupported format: " + rate + " Hz, " + channels + " channels");
+            }
+            AudioTrack created = new AudioTrack(AudioManager.STREAM_MUSIC, rate, channelMask,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, BLOCK_FRAMES * channels * 2),
+                    AudioTrack.MODE_STREAM);
+            if (created.getState() != AudioTrack.STATE_INITIALIZED) {
+                created.release();
+                throw new IOException("Cannot open an audio track");
+            }
+            track = created;
+            trackRate = rate;
+            trackChannels = channels;
+            writtenFrames = 0;
+            stretcher = new WsolaTimeStretcher(rate, channels, BLOCK_FRAMES);
+            block = new short[BLOCK_FRAMES * channels];
+            output = new short[stretcher.getStepSamples() * 4];
+            synchronized (mLock) {
+                if (released) return;
+                mTrack = created;
+                mSampleRate = rate;
+            }
+        }
+
+        // Reads one block, writes its stretched samples, and moves to the next item at the end.
+        private void step() throws IOException, InterruptedException {
+            stretcher.setSpeed(mSpeed);
+            int read = reader.read(block, 0, block.length);
+            if (read > 0) {
+                for (int offset = 0; offset < read; ) {
+                    offset += stretcher.putSamples(block, offset, read - offset);
+                    write(stretcher);
+                }
+                return;
+            }
+
+            if (index + 1 < paths.length) {
+                // The stretcher carries on with the next item, in the same track when possible.
+                int rate = trackRate;
+                int channels = trackChannels;
+                WavReader next = new WavReader(new File(paths[index + 1]));
+                boolean sameFormat = next.getSampleRate() == rate && next.getChannelCount() == channels;
+                next.close();
+                if (!sameFormat) drain();
+                openItem(index + 1);
+                return;
+            }
+
+            drain();
+            // Waits for the track to play what was written, paused with the player.
+            while ((track.getPlaybackHeadPosition() & 0xFFFFFFFFL) < writtenFrames) {
+                synchronized (mLock) {
+                    if (released || mSeekPosition >= 0) return;
+                    if (!mPlaying) {
+                        track.pause();
+                        mLock.wait();
+                        continue;
+                    }
+                }
+                if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) track.play();
+                SystemClock.sleep(10);
+            }
+            ended = true;
+            onPlaylistCompleted(this);
+        }
+
+        private void write(WsolaTimeStretcher source) {
+            int received;
+            while ((received = source.receiveSamples(output, 0, output.length)) > 0) {
+                writeOutput(received);
+            }
+        }
+
+        private void drain() {
+            write(stretcher);
+            int drained = stretcher.drain(output, 0);
+            if (drained > 0) writeOutput(drained);
+        }
+
+        private void writeOutput(int samples) {
+            for (int offset = 0; offset < samples; ) {
+                int written = track.write(output, offset, samples - offset);
+                if (written <= 0) break;
+                offset += written;
+            }
+            writtenFrames += samples / trackChannels;
+            publish();
+        }
+
+        // The position of the samples written, for currentPosition().
+        private void publish() {
+            long frame = baseFrame + stretcher.getConsumedFrames() - consumedAtBaseFrame;
+            synchronized (mLock) {
+                if (released) return;
+                mItemStartMillis = mTimeline.getStart(index);
+                mSourceFrame = Math.max(0, frame);
+                mWrittenFrames = writtenFrames;
+                mWrittenSpeed = stretcher.getSpeed();
+            }
+        }
+
+        private void close() {
+            synchronized (mLock) {
+                if (mThread == this) mThread = null;
+                if (mTrack == track) {
+                    mTrack = null;
+                    mSampleRate = 0;
+                }
+            }
+            if (track != null) {
+                track.pause();
+                track.flush();
+                track.release();
+            }
+            try {
+                if (reader != null) reader.close();
+            } catch (IOException e) {
+                Log.e(TAG, CLASS_NAME + " - close(): " + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.ranjithnaidu.audiorecorder.playback.stretch;
+
+/**
+ * Streaming time-stretcher (WSOLA): changes the speed of 16-bit PCM without changing its pitch.
+ * <p>
+ * The output is made of sequences of the input, each crossfaded with the end of the previous one.
+ * Sequences are taken every (sequence - overlap) * speed input frames, at the offset of the seek
+ * window where the input best matches the previous overlap, so the crossfade joins similar
+ * waveforms. The match is searched on a mono mix, first every {@link #COARSE_STEP} frames, then
+ * around the best coarse offset. At speed 1 the natural continuation is taken and the input comes
+ * out unchanged.
+ * <p>
+ * All buffers are allocated by the constructor; not thread safe.
+ */
+public final class WsolaTimeStretcher {
+
+    public static final float MIN_SPEED = 0.5f;
+    public static final float MAX_SPEED = 4f;
+
+    private static final int SEQUENCE_MILLIS = 40;
+    private static final int OVERLAP_MILLIS = 8;
+    private static final int SEEK_MILLIS = 15;
+    private static final int COARSE_STEP = 4;
+
+    private final int channelCount;
+    private final int sequenceFrames;
+    private final int overlapFrames;
+    private final int seekFrames;
+
+    private final short[] input;
+    private int inputFrames;
+    private final short[] overlap;
+    private final float[] overlapMix;
+    private final float[] searchMix;
+    private final double[] searchEnergy;
+    private boolean primed;
+    private int lastOffset;
+
+    private float speed = 1f;
+    private double skipRemainder;
+    private long consumedFrames;
+    private long producedFrames;
+
+    /**
+     * @param maxBlockFrames largest number of frames given at once to {@link #putSamples}.
+     */
+    public WsolaTimeStretcher(int sampleRate, int channelCount, int maxBlockFrames) {
+        this.channelCount = channelCount;
+        sequenceFrames = sampleRate * SEQUENCE_MILLIS / 1000;
+        overlapFrames = sampleRate * OVERLAP_MILLIS / 1000;
+        seekFrames = sampleRate * SEEK_MILLIS / 1000;
+
+        // One step consumes at most (sequence - overlap) * MAX_SPEED frames.
+        int inputCapacity = maxBlockFrames + seekFrames + sequenceFrames
+                + (int) Math.ceil((sequenceFrames - overlapFrames) * MAX_SPEED);
+        input = new short[inputCapacity * channelCount];
+        overlap = new short[overlapFrames * channelCount];
+        overlapMix = new float[overlapFrames];
+        searchMix = new float[seekFrames + overlapFrames];
+        searchEnergy = new double[seekFrames + overlapFrames + 1];
+    }
+
+    public void setSpeed(float speed) {
+        this.speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    // Output samples produced by one step: receiveSamples() needs at least this much room.
+    public int getStepSamples() {
+        return (sequenceFrames - overlapFrames) * channelCount;
+    }
+
+    /**
+     * Appends interleaved samples to the input.
+     *
+     * @return the number of samples taken, less than given once the input is full: receive the
+     * output, then put the rest.
+     */
+    public int putSamples(short[] samples, int offset, int length) {
+        int room = input.length - inputFrames * channelCount;
+        int count = Math.min(room, length - length % channelCount);
+        count -= count % channelCount;
+        System.arraycopy(samples, offset, input, inputFrames * channelCount, count);
+        inputFrames += count / channelCount;
+        return count;
+    }
+
+    /**
+     * Writes the output of as many steps as the input and the room given allow.
+     *
+     * @return the number of interleaved samples written.
+     */
+    public int receiveSamples(short[] output, int offset, int length) {
+        int stepFrames = sequenceFrames - overlapFrames;
+        int written = 0;
+        while (length - written >= stepFrames * channelCount) {
+            double skip = stepFrames * (double) speed + skipRemainder;
+            int whole = (int) skip;
+            // Above speed 2 a step skips more than the window it reads.
+            if (inputFrames < Math.max(seekFrames + sequenceFrames, whole) + 1) break;
+            int best;
+            if (!primed) {
+                best = 0;
+            } else if (speed == 1f) {
+                best = lastOffset;
+            } else {
+                best = seekBestOffset();
+            }
+            written += writeSequence(best, output, offset + written);
+            lastOffset = best;
+
+            skipRemainder = skip - whole;
+            consume(whole);
+            // At speed 1 the continuation of the overlap is at the same offset of the new input.
+            if (speed == 1f && whole != stepFrames) lastOffset = Math.max(0, Math.min(seekFrames - 1,
+                    lastOffset + stepFrames - whole));
+        }
+        producedFrames += written / channelCount;
+        return written;
+    }
+
+    /**
+     * Ends the stream: writes the overlap kept for the next step, which needs room for
+     * {@link #getStepSamples()}, and clears the input.
+     */
+    public int drain(short[] output, int offset) {
+        int written = 0;
+        if (primed) {
+            System.arraycopy(overlap, 0, output, offset, overlap.length);
+            written = overlap.length;
+        }
+        producedFrames += written / channelCount;
+        clear();
+        return written;
+    }
+
+    // Forgets the input and the overlap, e.g. after a seek.
+    public void clear() {
+        inputFrames = 0;
+        primed = false;
+        lastOffset = 0;
+        skipRemainder = 0;
+    }
+
+    public int getBufferedFrames() {
+        return inputFrames;
+    }
+
+    public long getConsumedFrames() {
+        return consumedFrames;
+    }
+
+    public long getProducedFrames() {
+        return producedFrames;
+    }
+
+    private int writeSequence(int start, short[] output, int offset) {
+        int channels = channelCount;
+        int position = offset;
+        int source = start * channels;
+        if (primed) {
+            // Linear crossfade from the previous overlap to the new sequence.
+            for (int frame = 0; frame < overlapFrames; frame++) {
+                int in = overlapFrames - frame;
+                for (int channel = 0; channel < channels; channel++) {
+                    int index = frame * channels + channel;
+                    output[position++] = (short) ((overlap[index] * in + input[source + index] * frame) / overlapFrames);
+                }
+            }
+        } else {
+            System.arraycopy(input, source, output, position, overlapFrames * channels);
+            position += overlapFrames * channels;
+        }
+
+        int middle = (sequenceFrames - 2 * overlapFrames) * channels;
+        System.arraycopy(input, source + overlapFrames * channels, output, position, middle);
+        position += middle;
+
+        // The end of the sequence is crossfaded with the next one.
+        int tail = (start + sequenceFrames - overlapFrames) * channels;
+        System.arraycopy(input, tail, overlap, 0, overlap.length);
+        for (int frame = 0; frame < overlapFrames; frame++) {
+            float sum = 0;
+            for (int channel = 0; channel < channels; channel++) sum += overlap[frame * channels + channel];
+            overlapMix[frame] = sum;
+        }
+        primed = true;
+        return position - offset;
+    }
+
+    private int seekBestOffset() {
+        int channels = channelCount;
+        int searchFrames = seekFrames + overlapFrames;
+        double energy = 0;
+        searchEnergy[0] = 0;
+        for (int frame = 0; frame < searchFrames; frame++) {
+            float sum = 0;
+            int base = frame * channels;
+            for (int channel = 0; channel < channels; channel++) sum += input[base + channel];
+            searchMix[frame] = sum;
+            energy += sum * sum;
+            searchEnergy[frame + 1] = energy;
+        }
+
+        int best = 0;
+        double bestScore = -Double.MAX_VALUE;
+        for (int offset = 0; offset < seekFrames; offset += COARSE_STEP) {
+            double score = score(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        int from = Math.max(0, best - COARSE_STEP + 1);
+        int to = Math.min(seekFrames - 1, best + COARSE_STEP - 1);
+        int coarse = best;
+        for (int offset = from; offset <= to; offset++) {
+            if (offset == coarse) continue;
+            double score = score(offset);
+            if (score > bestScore) {
+                bestScore = score;
+                best = offset;
+            }
+        }
+        return best;
+    }
+
+    // Correlation of the overlap with the input at the offset, normalized by the input energy.
+    private double score(int offset) {
+        float[] reference = overlapMix;
+        float[] candidate = searchMix;
+        float correlation = 0;
+        for (int i = 0, length = overlapFrames; i < length; i++) {
+            correlation += reference[i] * candidate[offset + i];
+        }
+        double energy = searchEnergy[offset + overlapFrames] - searchEnergy[offset];
+        return correlation / Math.sqrt(energy + 1);
+    }
+
+    private void consume(int frames) {
+        int remaining = (inputFrames - frames) * channelCount;
+        System.arraycopy(input, frames * channelCount, input, 0, remaining);
+        inputFrames -= frames;
+        consumedFrames += frames;
+    }
+}
@@ -4,6 +4,7 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.SeekBar;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -18,11 +19,13 @@ import com.ranjithnaidu.audiorecorder.model.Recording;
 import com.ranjithnaidu.audiorecorder.playback.viewmodel.PlaybackViewModel;
 import com.ranjithnaidu.audiorecorder.utils.AudioLevelView;
 
+import java.util.ArrayList;
 import java.util.Objects;
 
 public class PlaybackFragment extends BottomSheetDialogFragment {
 
     private static final String ARG_ITEM = "recording_item";
+    private static final String ARG_ITEMS = "recording_items";
 
     private PlaybackViewModel playbackViewModel;
 
@@ -37,15 +40,31 @@ public class PlaybackFragment extends BottomSheetDialogFragment {
         return playbackFragment;
     }
 
+    // Plays the recordings one after the other, as one.
+    public PlaybackFragment newInstance(ArrayList<Recording> recordings) {
+        PlaybackFragment playbackFragment = new PlaybackFragment();
+        Bundle b = new Bundle();
+        b.putParcelableArrayList(ARG_ITEMS, recordings);
+        playbackFragment.setArguments(b);
+
+        return playbackFragment;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         playbackViewModel = ViewModelProviders.of(Objects.requireNonNull(getActivity())).get(PlaybackViewModel.class);
-        playbackViewModel.setRecordingData(Objects.requireNonNull(getArguments()).getParcelable(ARG_ITEM));
-
-        playbackViewModel.getAmplitudeLive().observe(this, integer ->
-                audioView.addAmplitude(integer));
+        Bundle arguments = Objects.requireNonNull(getArguments());
+        ArrayList<Recording> recordings = arguments.getParcelableArrayList(ARG_ITEMS);
+        if (recordings != null) {
+            playbackViewModel.setPlaylist(recordings);
+        } else {
+            playbackViewModel.setRecordingData(arguments.getParcelable(ARG_ITEM));
+        }
+
+        playbackViewModel.getWaveformLive().observe(this, peaks ->
+                audioView.setWaveform(peaks));
     }
 
     @Nullable
@@ -59,12 +78,31 @@ public class PlaybackFragment extends BottomSheetDialogFragment {
         audioView = view.findViewById(R.id.audio_view);
 
         view.findViewById(R.id.fab_play).setOnClickListener(v -> playbackViewModel.onPlay());
+        view.findViewById(R.id.playback_speed).setOnClickListener(v -> playbackViewModel.onSpeed());
+
+        ((SeekBar) view.findViewById(R.id.seek_bar)).setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) playbackViewModel.seekTo(progress);
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
 
         return view;
     }
 
     private boolean firstCallback = true;
     private Observable.OnPropertyChangedCallback secsCallback;
+    private Observable.OnPropertyChangedCallback positionCallback;
+    private final Runnable positionUpdate = () ->
+            audioView.setPlaybackPosition(playbackViewModel.positionMillis.get());
 
     @Override
     public void onResume() {
@@ -84,6 +122,17 @@ public class PlaybackFragment extends BottomSheetDialogFragment {
             }
         };
         playbackViewModel.secondsElapsed.addOnPropertyChangedCallback(secsCallback);
+
+        // Moves the position over the waveform, when the recording has one. Set at the frame
+        // rate from the position thread: the view reads the last value when the post runs.
+        positionCallback = new Observable.OnPropertyChangedCallback() {
+            @Override
+            public void onPropertyChanged(Observable sender, int propertyId) {
+                audioView.removeCallbacks(positionUpdate);
+                audioView.post(positionUpdate);
+            }
+        };
+        playbackViewModel.positionMillis.addOnPropertyChangedCallback(positionCallback);
     }
 
     @Override
@@ -91,6 +140,8 @@ public class PlaybackFragment extends BottomSheetDialogFragment {
         super.onPause();
 
         playbackViewModel.secondsElapsed.removeOnPropertyChangedCallback(secsCallback);
+        playbackViewModel.positionMillis.removeOnPropertyChangedCallback(positionCallback);
+        audioView.removeCallbacks(positionUpdate);
     }
 
     @Override
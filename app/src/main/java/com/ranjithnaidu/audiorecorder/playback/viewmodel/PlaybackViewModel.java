@@ -1,10 +1,15 @@
 package com.ranjithnaidu.audiorecorder.playback.viewmodel;
 
 import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.databinding.ObservableBoolean;
+import androidx.databinding.ObservableFloat;
 import androidx.databinding.ObservableInt;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
@@ -14,13 +19,42 @@ import com.ranjithnaidu.audiorecorder.model.Recording;
 import com.ranjithnaidu.audiorecorder.playback.MediaPlayerHolder;
 import com.ranjithnaidu.audiorecorder.playback.PlaybackInfoListener;
 import com.ranjithnaidu.audiorecorder.playback.PlayerAdapter;
+import com.ranjithnaidu.audiorecorder.playback.PreparedPlayerPool;
+import com.ranjithnaidu.audiorecorder.playback.TimeStretchPlayer;
+import com.ranjithnaidu.audiorecorder.record.output.Mp4File;
+import com.ranjithnaidu.audiorecorder.record.output.SegmentIndex;
+import com.ranjithnaidu.audiorecorder.record.vad.SilenceTimeline;
+import com.ranjithnaidu.audiorecorder.record.waveform.MediaCodecPcmDecoder;
+import com.ranjithnaidu.audiorecorder.record.waveform.PcmDecoder;
+import com.ranjithnaidu.audiorecorder.record.waveform.WavPcmDecoder;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformCache;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class PlaybackViewModel extends AndroidViewModel {
 
     private static final String TAG = "PlaybackViewModel";
 
+    private static final long WAVEFORM_MEMORY_BYTES = 4 * 1024 * 1024;
+    private static final long WAVEFORM_DISK_BYTES = 32 * 1024 * 1024;
+    private static final int WAVEFORM_EXTRACTION_THREADS = 1;
+    private static final int PREPARED_PLAYERS = 2;
+    // Speeds cycled through by the speed button.
+    private static final float[] SPEEDS = {1f, 1.25f, 1.5f, 2f, 3f, 0.75f};
+
+    // Shared by the view models of all the activities, so that the memory tier outlives them.
+    private static WaveformCache sWaveformCache;
+    // Reads the headers of the items of the playlists.
+    private static ExecutorService sProbeExecutor;
+
     public PlaybackViewModel(@NonNull Application application) {
         super(application);
     }
@@ -28,38 +62,258 @@ public class PlaybackViewModel extends AndroidViewModel {
     public final ObservableBoolean isPlaying = new ObservableBoolean(true);
 
     public final ObservableInt secondsElapsed = new ObservableInt(0);
-    private final MutableLiveData<Integer> amplitudeLive = new MutableLiveData<>();
+    public final ObservableInt positionMillis = new ObservableInt(0);
+    public final ObservableInt durationMillis = new ObservableInt(0);
+    public final ObservableFloat speed = new ObservableFloat(1f);
+    // WAV recordings are time-stretched by the app, the others only by the platform from API 23.
+    public final ObservableBoolean speedSupported = new ObservableBoolean(false);
+    private final MutableLiveData<WaveformPeaks> waveformLive = new MutableLiveData<>();
 
-    public LiveData<Integer> getAmplitudeLive() {
-        return amplitudeLive;
+    // Peaks of the whole recording, null until loaded or when it cannot be decoded.
+    public LiveData<WaveformPeaks> getWaveformLive() {
+        return waveformLive;
     }
 
     private Recording recording;
 
     private PlayerAdapter mPlayerAdapter;
+    private final PreparedPlayerPool mPlayerPool = new PreparedPlayerPool(PREPARED_PLAYERS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Incremented by every playlist opened and by release(), on the main thread.
+    private int openGeneration;
+
+    private final Object waveformLock = new Object();
+    private String waveformPath;
+    // Silence removed from a voice-gated recording, null for the others. The seek bar and the
+    // waveform follow the stored audio, the elapsed time shown is the time of the recording.
+    private volatile SilenceTimeline silenceTimeline;
 
     public void setRecordingData(Recording recording) {
+        if (isSession(recording)) {
+            setPlaylist(Collections.singletonList(recording));
+            return;
+        }
         this.recording = recording;
 
-        initializePlaybackController();
+        initializePlaybackController(new String[]{recording.getPath()});
+        loadWaveform(recording.getPath());
+        loadSilenceTimeline(recording.getPath(), ++openGeneration);
 
         mPlayerAdapter.loadMedia(recording.getPath());
         mPlayerAdapter.play();
     }
 
-    private void initializePlaybackController() {
-        MediaPlayerHolder mMediaPlayerHolder = new MediaPlayerHolder();
-        mMediaPlayerHolder.setPlaybackInfoListener(new PlaybackListener());
-        mPlayerAdapter = mMediaPlayerHolder;
+    /**
+     * Plays the parts of a long recording, or a set of takes, without gaps between them. The
+     * segments of crash-safe sessions are listed and the durations read in the background, the
+     * playback starts once they are known.
+     */
+    public void setPlaylist(List<Recording> recordings) {
+        if (recordings.size() == 1 && !isSession(recordings.get(0))) {
+            setRecordingData(recordings.get(0));
+            return;
+        }
+        this.recording = recordings.get(0);
+        final int generation = ++openGeneration;
+        // The waveform is drawn for single recordings only, sessions included.
+        if (recordings.size() == 1) {
+            loadWaveform(recording.getPath());
+            loadSilenceTimeline(recording.getPath(), generation);
+        } else {
+            synchronized (waveformLock) {
+                waveformPath = null;
+            }
+            waveformLive.setValue(null);
+            silenceTimeline = null;
+        }
+
+        final List<Recording> items = new ArrayList<>(recordings);
+        getProbeExecutor().execute(() -> {
+            List<String> itemPaths = new ArrayList<>();
+            List<Long> itemDurations = new ArrayList<>();
+            for (Recording item : items) {
+                if (isSession(item)) {
+                    addSegments(new File(item.getPath()), itemPaths, itemDurations);
+                } else {
+                    itemPaths.add(item.getPath());
+                    itemDurations.add(getDuration(item));
+                }
+            }
+            final String[] paths = itemPaths.toArray(new String[0]);
+            final long[] durations = new long[paths.length];
+            for (int i = 0; i < paths.length; i++) durations[i] = itemDurations.get(i);
+            mainHandler.post(() -> {
+                if (generation != openGeneration) return; // released or replaced meanwhile
+                if (paths.length == 0) {
+                    isPlaying.set(false);
+                    return;
+                }
+                initializePlaybackController(paths);
+                mPlayerAdapter.loadPlaylist(paths, durations);
+                mPlayerAdapter.play();
+            });
+        });
+    }
+
+    // Read in the background; the elapsed time is shown unmapped until then.
+    private void loadSilenceTimeline(final String path, final int generation) {
+        silenceTimeline = null;
+        final File file = SilenceTimeline.fileFor(new File(path));
+        getProbeExecutor().execute(() -> {
+            if (!file.exists()) return;
+            try {
+                final SilenceTimeline timeline = SilenceTimeline.read(file);
+                mainHandler.post(() -> {
+                    if (generation != openGeneration) return; // released or replaced meanwhile
+                    silenceTimeline = timeline;
+                    secondsElapsed.set(toRecordingSeconds(positionMillis.get()));
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "loadSilenceTimeline(): " + e.toString());
+            }
+        });
+    }
+
+    // Seconds of the recording at the given position of the stored audio.
+    private int toRecordingSeconds(int position) {
+        SilenceTimeline timeline = silenceTimeline;
+        if (timeline == null) return (int) TimeUnit.MILLISECONDS.toSeconds(position);
+
+        long storedFrame = (long) position * timeline.getSampleRate() / 1000;
+        return (int) (timeline.toWallClockFrame(storedFrame) / timeline.getSampleRate());
+    }
+
+    // Judged by the name, without reading the disk.
+    private static boolean isSession(Recording recording) {
+        return recording.getPath().endsWith(SegmentIndex.SESSION_SUFFIX);
+    }
+
+    // The segments of a session are played back to back, as the parts of a long recording.
+    private static void addSegments(File session, List<String> paths, List<Long> durations) {
+        try {
+            SegmentIndex.Contents contents = SegmentIndex.read(session);
+            for (SegmentIndex.Segment segment : contents.segments) {
+                paths.add(segment.file.getPath());
+                durations.add(segment.frameCount * 1000 / contents.sampleRate);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "addSegments(): " + e.toString());
+        }
+    }
+
+    private static synchronized ExecutorService getProbeExecutor() {
+        if (sProbeExecutor == null) {
+            sProbeExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "PlaylistProbe"));
+        }
+        return sProbeExecutor;
+    }
+
+    // Read from the MP4 header, so that the timeline is exact before the items are prepared.
+    private static long getDuration(Recording recording) {
+        if (recording.getPath().endsWith(".wav")) return recording.getLength();
+        try {
+            return Mp4File.open(new File(recording.getPath())).getDurationMillis();
+        } catch (IOException e) {
+            return recording.getLength();
+        }
+    }
+
+    // Shared with the thumbnails of the library.
+    public static synchronized WaveformCache getWaveformCache(Context context) {
+        if (sWaveformCache == null) {
+            final PcmDecoder wavDecoder = new WavPcmDecoder();
+            final PcmDecoder codecDecoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                    ? new MediaCodecPcmDecoder() : null;
+            PcmDecoder decoder = (file, consumer) -> {
+                if (file.getName().endsWith(".wav") || codecDecoder == null) {
+                    wavDecoder.decode(file, consumer);
+                } else {
+                    codecDecoder.decode(file, consumer);
+                }
+            };
+            sWaveformCache = new WaveformCache(new File(context.getCacheDir(), "waveforms"),
+                    WAVEFORM_MEMORY_BYTES, WAVEFORM_DISK_BYTES, decoder,
+                    WaveformCache.newExtractionExecutor(WAVEFORM_EXTRACTION_THREADS));
+        }
+        return sWaveformCache;
+    }
+
+    // From the peak file written with the recording, or extracted once in the background.
+    private void loadWaveform(final String path) {
+        synchronized (waveformLock) {
+            waveformPath = path;
+        }
+        waveformLive.setValue(null);
+        // Ahead of the thumbnails of the library.
+        getWaveformCache(getApplication()).loadFirst(new File(path), new WaveformCache.Callback() {
+            @Override
+            public void onWaveformLoaded(File recording, WaveformPeaks peaks) {
+                synchronized (waveformLock) {
+                    if (!path.equals(waveformPath)) return; // released or replaced meanwhile
+                }
+                waveformLive.postValue(peaks);
+            }
+
+            @Override
+            public void onWaveformFailed(File recording, IOException e) {
+                Log.e(TAG, "loadWaveform(): " + e.toString());
+            }
+        });
+    }
+
+    // WAV recordings are time-stretched by the app, the others by the platform when it can.
+    private void initializePlaybackController(String[] paths) {
+        if (mPlayerAdapter != null) mPlayerAdapter.release();
+        if (TimeStretchPlayer.canPlay(paths)) {
+            TimeStretchPlayer timeStretchPlayer = new TimeStretchPlayer();
+            timeStretchPlayer.setPlaybackInfoListener(new PlaybackListener());
+            mPlayerAdapter = timeStretchPlayer;
+        } else {
+            MediaPlayerHolder mMediaPlayerHolder = new MediaPlayerHolder(mPlayerPool);
+            mMediaPlayerHolder.setPlaybackInfoListener(new PlaybackListener());
+            mPlayerAdapter = mMediaPlayerHolder;
+        }
+        speedSupported.set(TimeStretchPlayer.canPlay(paths) || Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+        if (!speedSupported.get()) speed.set(1f);
+        mPlayerAdapter.setSpeed(speed.get());
     }
 
     public void release() {
-        mPlayerAdapter.release();
+        openGeneration++;
+        if (mPlayerAdapter != null) mPlayerAdapter.release();
+        synchronized (waveformLock) {
+            waveformPath = null;
+        }
+        waveformLive.setValue(null);
+        silenceTimeline = null;
         secondsElapsed.set(0);
+        positionMillis.set(0);
         isPlaying.set(true);
     }
 
+    @Override
+    protected void onCleared() {
+        openGeneration++;
+        mPlayerPool.clear();
+    }
+
+    // Position on the timeline of all the recordings played.
+    public void seekTo(int position) {
+        if (mPlayerAdapter != null) mPlayerAdapter.seekTo(position);
+    }
+
+    public void onSpeed() {
+        if (!speedSupported.get()) return;
+        int next = 0;
+        for (int i = 0; i < SPEEDS.length; i++) {
+            if (SPEEDS[i] == speed.get()) next = (i + 1) % SPEEDS.length;
+        }
+        speed.set(SPEEDS[next]);
+        if (mPlayerAdapter != null) mPlayerAdapter.setSpeed(SPEEDS[next]);
+    }
+
     public void onPlay() {
+        if (mPlayerAdapter == null) return; // the playlist is being opened
         mPlayerAdapter.play();
         isPlaying.set(mPlayerAdapter.isPlaying());
     }
@@ -68,20 +322,19 @@ public class PlaybackViewModel extends AndroidViewModel {
 
         @Override
         public void onDurationChanged(int duration) {
-
+            durationMillis.set(duration);
         }
 
         @Override
         public void onPositionChanged(int position) {
-
-            int time = (int) TimeUnit.MILLISECONDS.toSeconds(position);
-
-            secondsElapsed.set(time);
-            Log.e("Time", String.valueOf(time));
+            secondsElapsed.set(toRecordingSeconds(position));
+            positionMillis.set(position);
         }
 
         @Override
         public void onStateChanged(@State int state) {
+            // Playback starts once the player is prepared, after play() returned.
+            isPlaying.set(state == State.PLAYING);
             String stateToString = PlaybackInfoListener.convertStateToString(state);
             onLogUpdated(String.format("onStateChanged(%s)", stateToString));
         }
@@ -91,6 +344,12 @@ public class PlaybackViewModel extends AndroidViewModel {
             isPlaying.set(mPlayerAdapter.isPlaying());
         }
 
+        @Override
+        public void onFirstAudio(long openToFirstAudioMillis) {
+            Log.d(TAG, "Open to first audio: " + openToFirstAudioMillis + " ms, " + mPlayerPool.getHits()
+                    + " prepared players reused, " + mPlayerPool.getMisses() + " prepared");
+        }
+
         @Override
         public void onLogUpdated(String message) {
 
@@ -0,0 +1,412 @@
+package com.ranjithnaidu.audiorecorder.processing.denoise;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+import com.ranjithnaidu.audiorecorder.record.dsp.RealFft;
+import com.ranjithnaidu.audiorecorder.record.output.WavReader;
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Offline noise reduction of a WAV recording by spectral subtraction, for takes made in noisy
+ * rooms. The noise profile is the average spectrum of the quietest tenth of the recording; every
+ * bin of the short-time spectrum is then attenuated by how much of its power the noise explains,
+ * and the frames are overlap-added back.
+ * <p>
+ * The STFT frames are cut into chunks processed in parallel on a fork-join pool, once to build
+ * the noise profile and once to reduce the noise. Each chunk also analyses the frames preceding
+ * it, so that its smoothed spectra start from the same state as in a single pass, and the
+ * overlapping ends of the chunks are summed when they are written in order: the output does not
+ * depend on where the chunks are cut. Memory is bounded by one batch of chunks.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public final class SpectralNoiseReducer {
+
+    public static final String SUFFIX = "_denoised";
+
+    public interface ProgressListener {
+
+        // Called on the thread running reduce() after every batch of chunks, from 0 to 1.
+        void onProgress(float progress);
+    }
+
+    private static final int FFT_SIZE = 1024;
+    // Hann windows on analysis and synthesis, overlapping by three quarters: they sum to 1.5.
+    private static final int HOP = FFT_SIZE / 4;
+    private static final int OVERLAP = FFT_SIZE - HOP;
+    private static final float SYNTHESIS_SCALE = 1 / 1.5f;
+    private static final int BINS = FFT_SIZE / 2 + 1;
+
+    private static final int CHUNK_HOPS = 256;
+    // Frames analysed ahead of a chunk: the smoothed powers converge by POWER_SMOOTHING per frame.
+    private static final int WARM_UP_HOPS = 48;
+    private static final int CHUNKS_PER_WORKER = 2;
+    private static final int READ_FRAMES = 4096;
+
+    // Frames are ranked by level in bins of LEVEL_BIN_DB, from 0 dBFS down.
+    private static final int LEVEL_BIN_DB = 3;
+    private static final int LEVEL_BINS = 32;
+    private static final float QUIET_FRACTION = 0.1f;
+    private static final float OVER_SUBTRACTION = 2f;
+    // Bins are attenuated by 20 dB at most, which keeps the residual noise from warbling.
+    private static final float GAIN_FLOOR = 0.1f;
+    private static final float POWER_SMOOTHING = 0.7f;
+    // The analysis does one transform per frame, the reduction two.
+    private static final float ANALYSIS_SHARE = 1 / 3f;
+
+    private final ForkJoinPool pool;
+    private final int chunkHops;
+    private final RealFft fft = new RealFft(FFT_SIZE);
+    private final float[] synthesisWindow = new float[FFT_SIZE];
+    private volatile boolean cancelled;
+
+    public SpectralNoiseReducer(ForkJoinPool pool) {
+        this(pool, CHUNK_HOPS);
+    }
+
+    // Chunks of another size, for tests: the output is the same.
+    SpectralNoiseReducer(ForkJoinPool pool, int chunkHops) {
+        // Only neighbouring chunks overlap.
+        if (chunkHops * HOP < OVERLAP) throw new IllegalArgumentException("chunks too short: " + chunkHops);
+        this.pool = pool;
+        this.chunkHops = chunkHops;
+        for (int i = 0; i < FFT_SIZE; i++) {
+            synthesisWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE)) * SYNTHESIS_SCALE;
+        }
+    }
+
+    public static File outputFileFor(File wavFile) {
+        String name = wavFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(wavFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + SUFFIX + ".wav");
+    }
+
+    /**
+     * Stops the reduction running on another thread, which then throws an InterruptedIOException.
+     * A cancelled reducer stays cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Writes the recording with its noise reduced to a new 16 bit WAV file, deleted if the
+     * reduction fails or is cancelled.
+     *
+     * @return the number of sample frames written.
+     */
+    @WorkerThread
+    public long reduce(File wavFile, File outputFile, ProgressListener listener) throws IOException {
+        boolean completed = false;
+        try (WavReader reader = new WavReader(wavFile)) {
+            Batch batch = new Batch(reader, pool.getParallelism() * CHUNKS_PER_WORKER);
+
+            for (int first = 0; first < batch.chunkCount; first += batch.chunks.length) {
+                int count = batch.load(first);
+                pool.invoke(new ChunkTask(batch.chunks, 0, count, true));
+                checkCancelled();
+                batch.addLevelSpectra(count);
+                listener.onProgress(ANALYSIS_SHARE * (first + count) / batch.chunkCount);
+            }
+            batch.buildNoiseProfile();
+
+            try (WavWriter writer = new WavWriter(outputFile, reader.getSampleRate(), batch.channelCount)) {
+                for (int first = 0; first < batch.chunkCount; first += batch.chunks.length) {
+                    int count = batch.load(first);
+                    pool.invoke(new ChunkTask(batch.chunks, 0, count, false));
+                    checkCancelled();
+                    batch.write(writer, count);
+                    listener.onProgress(ANALYSIS_SHARE
+                            + (1 - ANALYSIS_SHARE) * (first + count) / batch.chunkCount);
+                }
+            }
+            completed = true;
+            return batch.frameCount;
+        } finally {
+            if (!completed) outputFile.delete();
+        }
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) throw new InterruptedIOException("Noise reduction cancelled");
+    }
+
+    /**
+     * The samples of the chunks in flight, reused across batches. Frame k of the recording covers
+     * the samples [k * HOP - OVERLAP, k * HOP + HOP): samples out of the recording read as zeros.
+     */
+    private final class Batch {
+
+        final WavReader reader;
+        final int channelCount;
+        final long frameCount;
+        final int chunkCount;
+        final Chunk[] chunks;
+        // Samples of the batch from the first warm-up frame of its first chunk, per channel.
+        final float[][] input;
+        final short[] staging;
+        // First frame of the STFT in the input.
+        int firstFrame;
+
+        final float[][] noise;
+        final long[] levelCounts = new long[LEVEL_BINS];
+        final double[][] levelSpectra;
+        final float[][] carry;
+
+        Batch(WavReader reader, int capacity) {
+            this.reader = reader;
+            channelCount = reader.getChannelCount();
+            frameCount = reader.getFrameCount();
+            long chunkSamples = (long) chunkHops * HOP;
+            chunkCount = (int) ((frameCount + OVERLAP + chunkSamples - 1) / chunkSamples);
+            chunks = new Chunk[Math.max(1, Math.min(capacity, chunkCount))];
+            for (int i = 0; i < chunks.length; i++) chunks[i] = new Chunk(this);
+            input = new float[channelCount][(chunks.length * chunkHops + WARM_UP_HOPS) * HOP + OVERLAP];
+            staging = new short[READ_FRAMES * channelCount];
+            noise = new float[channelCount][BINS];
+            levelSpectra = new double[channelCount][LEVEL_BINS * BINS];
+            carry = new float[channelCount][OVERLAP];
+        }
+
+        // Reads the samples of the chunks from the first one, returns the number of chunks.
+        int load(int firstChunk) throws IOException {
+            int count = Math.min(chunks.length, chunkCount - firstChunk);
+            firstFrame = firstChunk * chunkHops - WARM_UP_HOPS;
+            long first = (long) firstFrame * HOP - OVERLAP;
+            int length = (count * chunkHops + WARM_UP_HOPS) * HOP + OVERLAP;
+            for (float[] samples : input) Arrays.fill(samples, 0, length, 0f);
+
+            long from = Math.max(0, first);
+            long to = Math.min(frameCount, first + length);
+            int position = (int) (from - first);
+            if (from < to) reader.seekToFrame(from);
+            while (from < to) {
+                int frames = (int) Math.min(READ_FRAMES, to - from);
+                int read = reader.read(staging, 0, frames * channelCount);
+                if (read < frames * channelCount) throw new EOFException("Recording shorter than its header");
+                for (int i = 0, sample = 0; i < frames; i++) {
+                    for (int channel = 0; channel < channelCount; channel++) {
+                        input[channel][position + i] = staging[sample++] / 32768f;
+                    }
+                }
+                from += frames;
+                position += frames;
+            }
+
+            for (int i = 0; i < count; i++) chunks[i].index = firstChunk + i;
+            return count;
+        }
+
+        void addLevelSpectra(int count) {
+            for (int i = 0; i < count; i++) {
+                Chunk chunk = chunks[i];
+                for (int bin = 0; bin < LEVEL_BINS; bin++) levelCounts[bin] += chunk.levelCounts[bin];
+                for (int channel = 0; channel < channelCount; channel++) {
+                    double[] sums = levelSpectra[channel];
+                    double[] chunkSums = chunk.levelSpectra[channel];
+                    for (int j = 0; j < sums.length; j++) sums[j] += chunkSums[j];
+                }
+            }
+        }
+
+        // Average spectrum of the quietest frames, from the quietest level up. Silence has none.
+        void buildNoiseProfile() {
+            long total = 0;
+            for (long count : levelCounts) total += count;
+            long wanted = (long) Math.ceil(total * QUIET_FRACTION);
+            long counted = 0;
+            for (int bin = LEVEL_BINS - 1; bin >= 0 && counted < wanted; bin--) {
+                if (levelCounts[bin] == 0) continue;
+                counted += levelCounts[bin];
+                for (int channel = 0; channel < channelCount; channel++) {
+                    for (int k = 0; k < BINS; k++) noise[channel][k] += levelSpectra[channel][bin * BINS + k];
+                }
+            }
+            if (counted == 0) return;
+            for (float[] spectrum : noise) {
+                for (int k = 0; k < BINS; k++) spectrum[k] /= counted;
+            }
+        }
+
+        // Writes the chunks in order, each completing the end of the previous one.
+        void write(WavWriter writer, int count) throws IOException {
+            int chunkSamples = chunkHops * HOP;
+            for (int i = 0; i < count; i++) {
+                Chunk chunk = chunks[i];
+                float[][] output = chunk.output;
+                for (int channel = 0; channel < channelCount; channel++) {
+                    for (int j = 0; j < OVERLAP; j++) output[channel][j] += carry[channel][j];
+                    System.arraycopy(output[channel], chunkSamples, carry[channel], 0, OVERLAP);
+                }
+
+                long start = (long) chunk.index * chunkSamples - OVERLAP;
+                int from = (int) Math.max(0, -start);
+                int to = (int) Math.min(chunkSamples, frameCount - start);
+                while (from < to) {
+                    int frames = Math.min(READ_FRAMES, to - from);
+                    for (int j = 0, sample = 0; j < frames; j++) {
+                        for (int channel = 0; channel < channelCount; channel++) {
+                            float value = output[channel][from + j] * 32768f;
+                            staging[sample++] = (short) Math.max(Short.MIN_VALUE,
+                                    Math.min(Short.MAX_VALUE, Math.round(value)));
+                        }
+                    }
+                    writer.write(staging, 0, frames * channelCount);
+                    from += frames;
+                }
+            }
+        }
+    }
+
+    // A run of chunkHops frames, with its own buffers so that chunks run in parallel.
+    private final class Chunk {
+
+        final Batch batch;
+        int index;
+        final float[] frame = new float[FFT_SIZE];
+        final float[] power = new float[BINS];
+        final float[] gain = new float[BINS];
+        final float[][] smoothedPowers;
+        // Output from the start of the first frame, OVERLAP samples before the chunk.
+        final float[][] output;
+        final long[] levelCounts = new long[LEVEL_BINS];
+        final double[][] levelSpectra;
+
+        Chunk(Batch batch) {
+            this.batch = batch;
+            smoothedPowers = new float[batch.channelCount][BINS];
+            output = new float[batch.channelCount][chunkHops * HOP + OVERLAP];
+            levelSpectra = new double[batch.channelCount][LEVEL_BINS * BINS];
+        }
+
+        // Adds the spectra of the frames to the ones of their level.
+        void analyse() {
+            Arrays.fill(levelCounts, 0);
+            for (double[] sums : levelSpectra) Arrays.fill(sums, 0);
+            if (cancelled) return;
+
+            int channelCount = batch.channelCount;
+            for (int k = index * chunkHops, end = k + chunkHops; k < end && !pastTheEnd(k); k++) {
+                int offset = (k - batch.firstFrame) * HOP;
+                double squares = 0;
+                for (float[] samples : batch.input) {
+                    for (int i = offset; i < offset + FFT_SIZE; i++) squares += samples[i] * samples[i];
+                }
+                // Digital silence, e.g. padding, tells nothing about the noise of the room.
+                if (squares == 0) continue;
+                double levelDb = 10 * Math.log10(squares / (FFT_SIZE * channelCount));
+                int level = (int) Math.max(0, Math.min(LEVEL_BINS - 1, -levelDb / LEVEL_BIN_DB));
+                levelCounts[level]++;
+                for (int channel = 0; channel < channelCount; channel++) {
+                    transform(batch.input[channel], offset);
+                    double[] sums = levelSpectra[channel];
+                    for (int b = 0, i = level * BINS; b < BINS; b++, i++) sums[i] += power[b];
+                }
+            }
+        }
+
+        void reduce() {
+            for (float[] samples : output) Arrays.fill(samples, 0);
+            if (cancelled) return;
+
+            int firstFrame = index * chunkHops;
+            for (int channel = 0; channel < batch.channelCount; channel++) {
+                float[] input = batch.input[channel];
+                float[] noise = batch.noise[channel];
+                float[] smoothedPower = smoothedPowers[channel];
+                Arrays.fill(smoothedPower, 0f);
+                for (int k = Math.max(0, firstFrame - WARM_UP_HOPS), end = firstFrame + chunkHops;
+                     k < end && !pastTheEnd(k); k++) {
+                    transform(input, (k - batch.firstFrame) * HOP);
+                    applyGains(noise, smoothedPower);
+                    // The frames before the chunk only settle the smoothed powers.
+                    if (k < firstFrame) continue;
+
+                    fft.inverse(frame);
+                    float[] samples = output[channel];
+                    for (int i = 0, o = (k - firstFrame) * HOP; i < FFT_SIZE; i++, o++) {
+                        samples[o] += frame[i] * synthesisWindow[i];
+                    }
+                }
+            }
+        }
+
+        private boolean pastTheEnd(int k) {
+            return (long) k * HOP - OVERLAP >= batch.frameCount;
+        }
+
+        // Spectrum of the windowed frame, and its power in bins 0 to FFT_SIZE / 2.
+        private void transform(float[] samples, int offset) {
+            System.arraycopy(samples, offset, frame, 0, FFT_SIZE);
+            fft.window(frame);
+            fft.forward(frame);
+            power[0] = frame[0] * frame[0];
+            power[BINS - 1] = frame[1] * frame[1];
+            for (int b = 1; b < BINS - 1; b++) {
+                float re = frame[2 * b];
+                float im = frame[2 * b + 1];
+                power[b] = re * re + im * im;
+            }
+        }
+
+        // The power of each bin is smoothed over frames, which keeps noise peaks from passing.
+        private void applyGains(float[] noise, float[] smoothedPower) {
+            float floor = GAIN_FLOOR * GAIN_FLOOR;
+            for (int b = 0; b < BINS; b++) {
+                float p = power[b] + (smoothedPower[b] - power[b]) * POWER_SMOOTHING;
+                smoothedPower[b] = p;
+                float wanted = p > 0 ? Math.max(floor, 1 - OVER_SUBTRACTION * noise[b] / p) : floor;
+                gain[b] = (float) Math.sqrt(wanted);
+            }
+            frame[0] *= gain[0];
+            frame[1] *= gain[BINS - 1];
+            for (int b = 1; b < BINS - 1; b++) {
+                frame[2 * b] *= gain[b];
+                frame[2 * b + 1] *= gain[b];
+            }
+        }
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final boolean analysis;
+
+        ChunkTask(Chunk[] chunks, int from, int to, boolean analysis) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.analysis = analysis;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    if (analysis) {
+                        chunks[from].analyse();
+                    } else {
+                        chunks[from].reduce();
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(chunks, from, middle, analysis), new ChunkTask(chunks, middle, to, analysis));
+        }
+    }
+}
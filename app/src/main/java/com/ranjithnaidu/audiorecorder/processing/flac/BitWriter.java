@@ -0,0 +1,81 @@
+package com.ranjithnaidu.audiorecorder.processing.flac;
+
+import java.util.Arrays;
+
+/**
+ * Big endian bit packer backing a growable byte array.
+ */
+final class BitWriter {
+
+    private byte[] bytes;
+    private int length;
+    private long accumulator;
+    private int accumulatorBits;
+
+    BitWriter(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+        accumulator = 0;
+        accumulatorBits = 0;
+    }
+
+    // Writes the low bitCount bits of value, bitCount <= 32.
+    void writeBits(int bitCount, long value) {
+        if (bitCount == 0) return;
+        accumulator = (accumulator << bitCount) | (value & ((1L << bitCount) - 1));
+        accumulatorBits += bitCount;
+        while (accumulatorBits >= 8) {
+            accumulatorBits -= 8;
+            put((byte) (accumulator >>> accumulatorBits));
+        }
+    }
+
+    // Writes count zero bits followed by a one bit.
+    void writeUnary(long count) {
+        while (count >= 32) {
+            writeBits(32, 0);
+            count -= 32;
+        }
+        writeBits((int) count + 1, 1);
+    }
+
+    void writeRice(int value, int parameter) {
+        long folded = ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+        writeUnary(folded >>> parameter);
+        writeBits(parameter, folded);
+    }
+
+    void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits(8, value);
+            return;
+        }
+        int extraBytes = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3 : value < 0x4000000 ? 4 : 5;
+        int prefix = (0xFF00 >> (extraBytes + 1)) & 0xFF;
+        writeBits(8, prefix | (value >>> (6 * extraBytes)));
+        for (int i = extraBytes - 1; i >= 0; i--) {
+            writeBits(8, 0x80 | ((value >>> (6 * i)) & 0x3F));
+        }
+    }
+
+    void alignToByte() {
+        if (accumulatorBits > 0) writeBits(8 - accumulatorBits, 0);
+    }
+
+    // Bytes completed so far; call alignToByte() first to include every bit.
+    int length() {
+        return length;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    private void put(byte value) {
+        if (length == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        bytes[length++] = value;
+    }
+}
@@ -0,0 +1,42 @@
+package com.ranjithnaidu.audiorecorder.processing.flac;
+
+/**
+ * The CRC-8 (frame header) and CRC-16 (whole frame) checksums of the FLAC format.
+ */
+final class FlacCrc {
+
+    private static final int[] CRC8 = new int[256];
+    private static final int[] CRC16 = new int[256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc8 = n;
+            int crc16 = n << 8;
+            for (int k = 0; k < 8; k++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8[n] = crc8 & 0xFF;
+            CRC16[n] = crc16 & 0xFFFF;
+        }
+    }
+
+    private FlacCrc() {
+    }
+
+    static int crc8(byte[] bytes, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8[(crc ^ bytes[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] bytes, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC16[((crc >>> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,223 @@
+package com.ranjithnaidu.audiorecorder.processing.flac;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+import com.ranjithnaidu.audiorecorder.record.output.WavReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lossless WAV to FLAC encoder. The PCM stream is cut into fixed size frames that are
+ * independent of each other, so batches of frames are encoded in parallel on a fork-join pool
+ * and then written in order.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public final class FlacEncoder {
+
+    public static final String EXTENSION = ".flac";
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int STREAMINFO_OFFSET = 8;
+    private static final int STREAMINFO_LENGTH = 34;
+    private static final int FRAMES_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+
+    public FlacEncoder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Encodes a 16 bit PCM WAV file. The output file is overwritten.
+     *
+     * @return the number of sample frames encoded.
+     */
+    @WorkerThread
+    public long encode(File wavFile, File flacFile) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (WavReader reader = new WavReader(wavFile);
+             RandomAccessFile output = new RandomAccessFile(flacFile, "rw")) {
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+
+            int channelCount = reader.getChannelCount();
+            Batch batch = new Batch(pool.getParallelism() * FRAMES_PER_WORKER, channelCount);
+            ByteBuffer pcm = ByteBuffer.allocate(batch.capacity() * BLOCK_SIZE * channelCount * 2);
+
+            ByteBuffer header = ByteBuffer.allocate(STREAMINFO_OFFSET + STREAMINFO_LENGTH);
+            header.put(streamInfo(reader.getSampleRate(), channelCount, 0, 0, 0, new byte[16]));
+            header.flip();
+            writeFully(channel, header);
+
+            long frameNumber = 0;
+            long totalSamples = 0;
+            int minFrameSize = Integer.MAX_VALUE;
+            int maxFrameSize = 0;
+            while (true) {
+                pcm.clear();
+                while (pcm.hasRemaining() && reader.read(pcm) > 0) {
+                    // Fill the whole batch.
+                }
+                if (pcm.position() == 0) break;
+                md5.update(pcm.array(), 0, pcm.position());
+
+                int frames = batch.load(pcm.array(), pcm.position(), frameNumber);
+                pool.invoke(new EncodeTask(batch, 0, frames));
+                for (int i = 0; i < frames; i++) {
+                    int size = batch.encodedLengths[i];
+                    writeFully(channel, ByteBuffer.wrap(batch.encoded[i], 0, size));
+                    minFrameSize = Math.min(minFrameSize, size);
+                    maxFrameSize = Math.max(maxFrameSize, size);
+                    totalSamples += batch.blockSizes[i];
+                }
+                frameNumber += frames;
+            }
+
+            if (maxFrameSize == 0) minFrameSize = 0;
+            header.clear();
+            header.put(streamInfo(reader.getSampleRate(), channelCount, minFrameSize, maxFrameSize,
+                    totalSamples, md5.digest()));
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+            return totalSamples;
+        }
+    }
+
+    public static File flacFileFor(File wavFile) {
+        String name = wavFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(wavFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    // The "fLaC" marker followed by the STREAMINFO metadata block, the only one written.
+    private static byte[] streamInfo(int sampleRate, int channelCount, int minFrameSize,
+                                     int maxFrameSize, long totalSamples, byte[] md5) {
+        BitWriter bits = new BitWriter(STREAMINFO_OFFSET + STREAMINFO_LENGTH);
+        bits.writeBits(32, 0x664C6143);
+        bits.writeBits(1, 1);
+        bits.writeBits(7, 0);
+        bits.writeBits(24, STREAMINFO_LENGTH);
+        bits.writeBits(16, BLOCK_SIZE);
+        bits.writeBits(16, BLOCK_SIZE);
+        bits.writeBits(24, minFrameSize);
+        bits.writeBits(24, maxFrameSize);
+        bits.writeBits(20, sampleRate);
+        bits.writeBits(3, channelCount - 1);
+        bits.writeBits(5, BITS_PER_SAMPLE - 1);
+        bits.writeBits(4, totalSamples >>> 32);
+        bits.writeBits(32, totalSamples);
+        for (byte b : md5) bits.writeBits(8, b);
+        byte[] result = new byte[bits.length()];
+        System.arraycopy(bits.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    // Samples and encoded output of the frames in flight, reused across batches.
+    private static final class Batch {
+
+        final int channelCount;
+        final int[][][] samples;
+        final int[] blockSizes;
+        final long[] frameNumbers;
+        final byte[][] encoded;
+        final int[] encodedLengths;
+        final ThreadLocal<FlacFrameEncoder> encoders = new ThreadLocal<FlacFrameEncoder>() {
+            @Override
+            protected FlacFrameEncoder initialValue() {
+                return new FlacFrameEncoder(BLOCK_SIZE, BITS_PER_SAMPLE);
+            }
+        };
+
+        Batch(int capacity, int channelCount) {
+            this.channelCount = channelCount;
+            samples = new int[capacity][channelCount][BLOCK_SIZE];
+            blockSizes = new int[capacity];
+            frameNumbers = new long[capacity];
+            encoded = new byte[capacity][];
+            encodedLengths = new int[capacity];
+        }
+
+        int capacity() {
+            return blockSizes.length;
+        }
+
+        // De-interleaves little endian PCM into frames, returns the number of frames.
+        int load(byte[] pcm, int length, long firstFrameNumber) {
+            int frameBytes = 2 * channelCount;
+            int sampleFrames = length / frameBytes;
+            int frames = (sampleFrames + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            int position = 0;
+            for (int f = 0; f < frames; f++) {
+                int blockSize = Math.min(BLOCK_SIZE, sampleFrames - f * BLOCK_SIZE);
+                int[][] frame = samples[f];
+                for (int i = 0; i < blockSize; i++) {
+                    for (int c = 0; c < channelCount; c++) {
+                        frame[c][i] = (short) ((pcm[position] & 0xFF) | (pcm[position + 1] << 8));
+                        position += 2;
+                    }
+                }
+                blockSizes[f] = blockSize;
+                frameNumbers[f] = firstFrameNumber + f;
+            }
+            return frames;
+        }
+
+        void encode(int index) {
+            BitWriter frame = encoders.get().encode(samples[index], blockSizes[index], frameNumbers[index]);
+            int length = frame.length();
+            if (encoded[index] == null || encoded[index].length < length) {
+                encoded[index] = new byte[Math.max(length, BLOCK_SIZE * channelCount * 2)];
+            }
+            System.arraycopy(frame.array(), 0, encoded[index], 0, length);
+            encodedLengths[index] = length;
+        }
+    }
+
+    private static final class EncodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Batch batch;
+        private final int from;
+        private final int to;
+
+        EncodeTask(Batch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) batch.encode(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EncodeTask(batch, from, middle), new EncodeTask(batch, middle, to));
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.ranjithnaidu.audiorecorder.processing.flac;
+
+import java.util.Arrays;
+
+/**
+ * Encodes one FLAC frame. Every subframe is tried as CONSTANT, VERBATIM, FIXED (orders 0-4) and
+ * LPC, and the smallest encoding wins. The LPC order is chosen by estimating the residual size
+ * of every order from the Levinson-Durbin prediction error and encoding the most promising
+ * ones; the Rice partition order and parameters are optimised for each residual.
+ * <p>
+ * An instance holds all its scratch buffers and must only be used by one thread at a time.
+ */
+final class FlacFrameEncoder {
+
+    static final int MAX_LPC_ORDER = 12;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int QLP_PRECISION = 12;
+    private static final int LPC_CANDIDATES = 3;
+
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 2;
+    private static final int SUBFRAME_LPC = 3;
+
+    private final int bitsPerSample;
+    private final BitWriter writer;
+
+    private final int[] residual;
+    private final int[] bestResidual;
+    private final double[] windowed;
+    private final double[] autocorrelation = new double[MAX_LPC_ORDER + 1];
+    private final double[][] lpc = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    private final double[] lpcError = new double[MAX_LPC_ORDER];
+    private final double[] scratchLpc = new double[MAX_LPC_ORDER];
+    private final int[] qlp = new int[MAX_LPC_ORDER];
+    private final int[] bestQlp = new int[MAX_LPC_ORDER];
+    private final int[] orderByEstimate = new int[MAX_LPC_ORDER];
+    private final double[] orderEstimate = new double[MAX_LPC_ORDER];
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] bestRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+
+    private double[] window = new double[0];
+
+    // Outcome of the last Rice estimation.
+    private int ricePartitionOrder;
+    private int bestPartitionOrder;
+
+    FlacFrameEncoder(int maxBlockSize, int bitsPerSample) {
+        this.bitsPerSample = bitsPerSample;
+        residual = new int[maxBlockSize];
+        bestResidual = new int[maxBlockSize];
+        windowed = new double[maxBlockSize];
+        writer = new BitWriter(maxBlockSize * 2 + 64);
+    }
+
+    /**
+     * @param channels    one array of samples per channel.
+     * @param blockSize   samples per channel in this frame.
+     * @param frameNumber index of the frame in the stream.
+     * @return the encoded frame, valid until the next call.
+     */
+    BitWriter encode(int[][] channels, int blockSize, long frameNumber) {
+        writer.reset();
+
+        // Frame header: sync code, fixed block size, size from an explicit 16 bit field,
+        // sample rate from STREAMINFO, independent channels, 16 bits per sample.
+        writer.writeBits(14, 0x3FFE);
+        writer.writeBits(1, 0);
+        writer.writeBits(1, 0);
+        writer.writeBits(4, 0x7);
+        writer.writeBits(4, 0x0);
+        writer.writeBits(4, channels.length - 1);
+        writer.writeBits(3, bitsPerSample == 16 ? 0x4 : 0x0);
+        writer.writeBits(1, 0);
+        writer.writeUtf8(frameNumber);
+        writer.writeBits(16, blockSize - 1);
+        writer.writeBits(8, FlacCrc.crc8(writer.array(), 0, writer.length()));
+
+        for (int[] samples : channels) {
+            encodeSubframe(samples, blockSize);
+        }
+
+        writer.alignToByte();
+        writer.writeBits(16, FlacCrc.crc16(writer.array(), 0, writer.length()));
+        return writer;
+    }
+
+    private void encodeSubframe(int[] x, int n) {
+        boolean constant = true;
+        for (int i = 1; i < n && constant; i++) {
+            constant = x[i] == x[0];
+        }
+        if (constant) {
+            writer.writeBits(8, SUBFRAME_CONSTANT << 1);
+            writer.writeBits(bitsPerSample, x[0]);
+            return;
+        }
+
+        long bestBits = 8 + (long) bitsPerSample * n;
+        int bestType = SUBFRAME_VERBATIM;
+        int bestOrder = 0;
+        int bestShift = 0;
+
+        for (int order = 0; order <= MAX_FIXED_ORDER && order < n; order++) {
+            fixedResidual(x, n, order);
+            long bits = 8 + (long) order * bitsPerSample + riceBits(residual, n, order);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestType = SUBFRAME_FIXED;
+                bestOrder = order;
+                keepBest(n);
+            }
+        }
+
+        int maxLpcOrder = computeLpc(x, n);
+        if (maxLpcOrder > 0) {
+            int candidates = rankLpcOrders(n, maxLpcOrder);
+            for (int c = 0; c < candidates; c++) {
+                int order = orderByEstimate[c];
+                int shift = quantizeLpc(lpc[order - 1], order);
+                if (shift < 0) continue;
+                lpcResidual(x, n, order, shift);
+                long bits = 8 + (long) order * bitsPerSample + 4 + 5 + (long) order * QLP_PRECISION
+                        + riceBits(residual, n, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = SUBFRAME_LPC;
+                    bestOrder = order;
+                    bestShift = shift;
+                    System.arraycopy(qlp, 0, bestQlp, 0, order);
+                    keepBest(n);
+                }
+            }
+        }
+
+        switch (bestType) {
+            case SUBFRAME_VERBATIM:
+                writer.writeBits(8, SUBFRAME_VERBATIM << 1);
+                for (int i = 0; i < n; i++) writer.writeBits(bitsPerSample, x[i]);
+                break;
+            case SUBFRAME_FIXED:
+                writer.writeBits(8, (0x08 | bestOrder) << 1);
+                writeWarmUp(x, bestOrder);
+                writeResidual(n, bestOrder);
+                break;
+            default:
+                writer.writeBits(8, (0x20 | (bestOrder - 1)) << 1);
+                writeWarmUp(x, bestOrder);
+                writer.writeBits(4, QLP_PRECISION - 1);
+                writer.writeBits(5, bestShift);
+                for (int i = 0; i < bestOrder; i++) writer.writeBits(QLP_PRECISION, bestQlp[i]);
+                writeResidual(n, bestOrder);
+                break;
+        }
+    }
+
+    private void keepBest(int n) {
+        System.arraycopy(residual, 0, bestResidual, 0, n);
+        System.arraycopy(riceParameters, 0, bestRiceParameters, 0, 1 << ricePartitionOrder);
+        bestPartitionOrder = ricePartitionOrder;
+    }
+
+    private void writeWarmUp(int[] x, int order) {
+        for (int i = 0; i < order; i++) writer.writeBits(bitsPerSample, x[i]);
+    }
+
+    private void writeResidual(int n, int predictorOrder) {
+        writer.writeBits(2, 0); // Rice coding with 4 bit parameters
+        writer.writeBits(4, bestPartitionOrder);
+        int partitions = 1 << bestPartitionOrder;
+        int partitionSize = n >> bestPartitionOrder;
+        int i = predictorOrder;
+        for (int p = 0; p < partitions; p++) {
+            int parameter = bestRiceParameters[p];
+            writer.writeBits(4, parameter);
+            int end = (p + 1) * partitionSize;
+            for (; i < end; i++) writer.writeRice(bestResidual[i], parameter);
+        }
+    }
+
+    private void fixedResidual(int[] x, int n, int order) {
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, residual, 0, n);
+                break;
+            case 1:
+                for (int i = 1; i < n; i++) residual[i] = x[i] - x[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < n; i++) residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < n; i++) residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                break;
+            default:
+                for (int i = 4; i < n; i++) {
+                    residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    private void lpcResidual(int[] x, int n, int order, int shift) {
+        for (int i = order; i < n; i++) {
+            long prediction = 0;
+            for (int j = 0; j < order; j++) prediction += (long) qlp[j] * x[i - 1 - j];
+            residual[i] = x[i] - (int) (prediction >> shift);
+        }
+    }
+
+    /**
+     * Computes the predictor coefficients of every order up to the maximum from the
+     * autocorrelation of the Tukey windowed block (Levinson-Durbin recursion).
+     *
+     * @return the highest order computed, 0 if LPC does not apply to the block.
+     */
+    private int computeLpc(int[] x, int n) {
+        int maxOrder = Math.min(MAX_LPC_ORDER, n / 4);
+        if (maxOrder < 1) return 0;
+
+        if (window.length != n) window = tukeyWindow(n);
+        for (int i = 0; i < n; i++) windowed[i] = x[i] * window[i];
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < n; i++) sum += windowed[i] * windowed[i - lag];
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] == 0) return 0;
+
+        double[] a = scratchLpc;
+        Arrays.fill(a, 0);
+        double error = autocorrelation[0];
+        for (int i = 0; i < maxOrder; i++) {
+            double r = -autocorrelation[i + 1];
+            for (int j = 0; j < i; j++) r -= a[j] * autocorrelation[i - j];
+            r /= error;
+            a[i] = r;
+            int j = 0;
+            for (; j < (i >> 1); j++) {
+                double tmp = a[j];
+                a[j] += r * a[i - 1 - j];
+                a[i - 1 - j] += r * tmp;
+            }
+            if ((i & 1) != 0) a[j] += a[j] * r;
+            error *= 1.0 - r * r;
+
+            for (j = 0; j <= i; j++) lpc[i][j] = -a[j];
+            lpcError[i] = error;
+            if (error <= 0) return i + 1;
+        }
+        return maxOrder;
+    }
+
+    // Sorts the orders by estimated subframe size and returns how many should be encoded.
+    private int rankLpcOrders(int n, int maxOrder) {
+        for (int order = 1; order <= maxOrder; order++) {
+            double bitsPerResidual = lpcError[order - 1] > 0
+                    ? Math.max(0, 0.5 * Math.log(0.5 * lpcError[order - 1] / n) / Math.log(2)) : 0;
+            orderEstimate[order - 1] = bitsPerResidual * (n - order) + order * (bitsPerSample + QLP_PRECISION);
+            orderByEstimate[order - 1] = order;
+        }
+        // Insertion sort, at most 12 entries.
+        for (int i = 1; i < maxOrder; i++) {
+            int order = orderByEstimate[i];
+            int j = i - 1;
+            while (j >= 0 && orderEstimate[orderByEstimate[j] - 1] > orderEstimate[order - 1]) {
+                orderByEstimate[j + 1] = orderByEstimate[j];
+                j--;
+            }
+            orderByEstimate[j + 1] = order;
+        }
+        return Math.min(LPC_CANDIDATES, maxOrder);
+    }
+
+    /**
+     * Quantizes the coefficients to QLP_PRECISION bits, feeding the rounding error forward.
+     *
+     * @return the shift to apply to the prediction, or -1 if the coefficients cannot be
+     * represented.
+     */
+    private int quantizeLpc(double[] coefficients, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) max = Math.max(max, Math.abs(coefficients[i]));
+        if (max <= 0 || Double.isNaN(max) || Double.isInfinite(max)) return -1;
+
+        int qMax = (1 << (QLP_PRECISION - 1)) - 1;
+        int shift = (int) Math.floor(Math.log(qMax / max) / Math.log(2));
+        if (shift < 0) return -1;
+        if (shift > 15) shift = 15;
+
+        double error = 0;
+        double scale = 1 << shift;
+        for (int i = 0; i < order; i++) {
+            error += coefficients[i] * scale;
+            long q = Math.round(error);
+            if (q > qMax) q = qMax;
+            else if (q < -qMax - 1) q = -qMax - 1;
+            error -= q;
+            qlp[i] = (int) q;
+        }
+        return shift;
+    }
+
+    /**
+     * Estimates the size of the Rice coded residual for every usable partition order, and keeps
+     * the partition order and parameters of the smallest in ricePartitionOrder/riceParameters.
+     */
+    private long riceBits(int[] r, int n, int predictorOrder) {
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER && (n & ((2 << maxOrder) - 1)) == 0
+                && (n >> (maxOrder + 1)) > predictorOrder) {
+            maxOrder++;
+        }
+
+        int partitions = 1 << maxOrder;
+        int partitionSize = n >> maxOrder;
+        int i = predictorOrder;
+        for (int p = 0; p < partitions; p++) {
+            long sum = 0;
+            int end = (p + 1) * partitionSize;
+            for (; i < end; i++) {
+                int value = r[i];
+                sum += ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+            }
+            partitionSums[p] = sum;
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        for (int order = maxOrder; order >= 0; order--) {
+            partitions = 1 << order;
+            partitionSize = n >> order;
+            if (order < maxOrder) {
+                for (int p = 0; p < partitions; p++) {
+                    partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+                }
+            }
+            long bits = 2 + 4;
+            for (int p = 0; p < partitions; p++) {
+                int count = p == 0 ? partitionSize - predictorOrder : partitionSize;
+                bits += 4 + partitionBits(partitionSums[p], count);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                ricePartitionOrder = order;
+                for (int p = 0; p < partitions; p++) {
+                    int count = p == 0 ? partitionSize - predictorOrder : partitionSize;
+                    riceParameters[p] = riceParameter(partitionSums[p], count);
+                }
+            }
+        }
+        return bestBits;
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count == 0) return 0;
+        int parameter = 0;
+        while (parameter < MAX_RICE_PARAMETER && ((long) count << (parameter + 1)) < sum) parameter++;
+        // The estimate is close to the optimum: check the neighbours.
+        int best = parameter;
+        long bestBits = riceBits(sum, count, parameter);
+        if (parameter > 0 && riceBits(sum, count, parameter - 1) < bestBits) best = parameter - 1;
+        return best;
+    }
+
+    private static long partitionBits(long sum, int count) {
+        return riceBits(sum, count, riceParameter(sum, count));
+    }
+
+    private static long riceBits(long sum, int count, int parameter) {
+        return (long) count * (parameter + 1) + (sum >> parameter);
+    }
+
+    private static double[] tukeyWindow(int n) {
+        double[] w = new double[n];
+        double p = 0.5;
+        int taper = (int) (p / 2 * n);
+        for (int i = 0; i < n; i++) {
+            if (taper > 0 && i < taper) {
+                w[i] = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+            } else if (taper > 0 && i >= n - taper) {
+                w[i] = 0.5 - 0.5 * Math.cos(Math.PI * (n - 1 - i) / taper);
+            } else {
+                w[i] = 1;
+            }
+        }
+        return w;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+
+/**
+ * {@link PcmSource} reading 16 bit PCM from the microphone through {@link AudioRecord}.
+ */
+public final class AudioRecordSource implements PcmSource {
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bufferFrames;
+    private AudioRecord mAudioRecord;
+
+    /**
+     * @param bufferFrames minimum size of the AudioRecord internal buffer, in frames. It is
+     *                     raised to twice the platform minimum if smaller.
+     */
+    public AudioRecordSource(int sampleRate, int channelCount, int bufferFrames) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bufferFrames = bufferFrames;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public void start() throws IOException {
+        int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_IN_MONO : AudioFormat.CHANNEL_IN_STEREO;
+        int minBufferBytes = AudioRecord.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferBytes <= 0) {
+            throw new IOException("Unsupported capture format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        int bufferBytes = Math.max(minBufferBytes * 2, bufferFrames * channelCount * 2);
+
+        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, bufferBytes);
+        if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+            throw new IOException("AudioRecord initialization failed");
+        }
+        mAudioRecord.startRecording();
+    }
+
+    @Override
+    public int read(short[] buffer, int offset, int length) {
+        AudioRecord audioRecord = mAudioRecord;
+        if (audioRecord == null) return 0;
+        return audioRecord.read(buffer, offset, length);
+    }
+
+    @Override
+    public void stop() {
+        if (mAudioRecord != null) {
+            mAudioRecord.stop();
+            mAudioRecord.release();
+            mAudioRecord = null;
+        }
+    }
+}
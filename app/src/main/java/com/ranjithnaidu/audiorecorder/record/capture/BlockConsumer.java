@@ -0,0 +1,25 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import java.io.IOException;
+
+/**
+ * A stage fed by the {@link CaptureEngine}. Every consumer reads the ring on its own thread,
+ * so a slow consumer (e.g. one writing to disk) never holds up capture or the other consumers.
+ */
+public interface BlockConsumer {
+
+    // Called on the thread starting the engine, before any block is delivered.
+    void onStart(int sampleRate, int channelCount) throws IOException;
+
+    /**
+     * Called on the consumer thread for every captured block. The block belongs to the ring and
+     * is only valid until this method returns.
+     */
+    void onBlock(short[] block, int length) throws IOException;
+
+    /**
+     * Called on the consumer thread once all the captured blocks have been delivered, or after
+     * onBlock() failed. Called on the starting thread if the engine fails to start.
+     */
+    void onStop() throws IOException;
+}
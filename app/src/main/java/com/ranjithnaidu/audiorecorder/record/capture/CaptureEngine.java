@@ -0,0 +1,235 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Raw PCM capture pipeline.
+ * <p>
+ * A dedicated reader thread pulls blocks from a {@link PcmSource} into a {@link PcmRingBuffer}
+ * and every {@link BlockConsumer} (metering, encoding, file writing...) drains the ring on its
+ * own thread. The reader thread never waits for a consumer: when the ring is full the block is
+ * read into a scratch buffer and dropped, and the overrun is counted. The capture ends at the
+ * end of the stream or at the first read error.
+ * <p>
+ * An engine captures a single session: create a new one for every recording.
+ */
+public final class CaptureEngine {
+
+    private static final int DEFAULT_BLOCK_COUNT = 64;
+
+    private final PcmSource source;
+    private final PcmRingBuffer ring;
+    private final ThreadFactory readerThreadFactory;
+    private final short[] scratch;
+    private final long idleNanos;
+    private final List<Worker> workers = new ArrayList<>();
+
+    private final AtomicLong capturedFrames = new AtomicLong(0);
+    private final AtomicLong overruns = new AtomicLong(0);
+    private final AtomicLong readErrors = new AtomicLong(0);
+
+    private Thread readerThread;
+    private boolean started = false;
+    private volatile boolean running = false;
+    private volatile boolean captureFinished = false;
+    private volatile Exception consumerError;
+    private volatile IOException captureError;
+
+    public CaptureEngine(PcmSource source, int blockFrames) {
+        this(source, blockFrames, DEFAULT_BLOCK_COUNT, null);
+    }
+
+    /**
+     * @param blockFrames         frames per ring block.
+     * @param blockCount          number of preallocated blocks, a power of two.
+     * @param readerThreadFactory used to create the reader thread, so that the platform can raise
+     *                            its priority. A plain max priority thread is used if null.
+     */
+    public CaptureEngine(PcmSource source, int blockFrames, int blockCount, ThreadFactory readerThreadFactory) {
+        this.source = source;
+        this.ring = new PcmRingBuffer(blockCount, blockFrames * source.getChannelCount());
+        this.readerThreadFactory = readerThreadFactory;
+        this.scratch = new short[ring.getBlockSize()];
+        // Consumers poll twice per block duration when they run out of data.
+        this.idleNanos = TimeUnit.SECONDS.toNanos(blockFrames) / source.getSampleRate() / 2;
+    }
+
+    /**
+     * Adds a consumer. Consumers must be added before {@link #start()}.
+     */
+    public void addConsumer(BlockConsumer consumer) {
+        if (started) throw new IllegalStateException("Consumers must be added before start()");
+        workers.add(new Worker(consumer, ring.newReader()));
+    }
+
+    public void start() throws IOException {
+        if (started) return;
+
+        int startedConsumers = 0;
+        try {
+            for (Worker worker : workers) {
+                worker.consumer.onStart(source.getSampleRate(), source.getChannelCount());
+                startedConsumers++;
+            }
+            source.start();
+        } catch (IOException | RuntimeException e) {
+            // The consumers already started release their files.
+            for (int i = 0; i < startedConsumers; i++) {
+                stopQuietly(workers.get(i).consumer);
+            }
+            throw e;
+        }
+
+        started = true;
+        running = true;
+        captureFinished = false;
+        for (Worker worker : workers) {
+            worker.start();
+        }
+
+        Runnable readLoop = this::readLoop;
+        readerThread = readerThreadFactory != null
+                ? readerThreadFactory.newThread(readLoop)
+                : new Thread(readLoop, "PcmCaptureReader");
+        if (readerThreadFactory == null) readerThread.setPriority(Thread.MAX_PRIORITY);
+        readerThread.start();
+    }
+
+    /**
+     * Stops capturing and waits until every consumer has processed the blocks already captured.
+     */
+    public void stop() {
+        if (!started) return;
+        started = false;
+        running = false;
+
+        joinQuietly(readerThread);
+        readerThread = null;
+        source.stop();
+
+        captureFinished = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+            joinQuietly(worker);
+        }
+    }
+
+    // False once stopped or when the source reached the end of the stream.
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getSampleRate() {
+        return source.getSampleRate();
+    }
+
+    public long getCapturedFrames() {
+        return capturedFrames.get();
+    }
+
+    // Blocks dropped because the slowest consumer was a full ring behind.
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    public long getReadErrorCount() {
+        return readErrors.get();
+    }
+
+    // The first failure of a consumer, if any. A failed consumer stops receiving blocks.
+    public Exception getConsumerError() {
+        return consumerError;
+    }
+
+    // The read error that ended the capture, if any.
+    public IOException getCaptureError() {
+        return captureError;
+    }
+
+    private void readLoop() {
+        final int channels = source.getChannelCount();
+        while (running) {
+            short[] block = ring.claim();
+            boolean dropped = block == null;
+            if (dropped) block = scratch; // keep draining the source so it does not overflow
+
+            int read = source.read(block, 0, block.length);
+            if (read == 0) break; // end of stream
+            if (read < 0) {
+                // Errors of the source do not go away: retrying would only spin.
+                readErrors.incrementAndGet();
+                captureError = new IOException("read() failed with error " + read);
+                break;
+            }
+
+            if (dropped) {
+                overruns.incrementAndGet();
+            } else {
+                ring.publish(read);
+            }
+            capturedFrames.addAndGet(read / channels);
+        }
+        running = false;
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) return;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static void stopQuietly(BlockConsumer consumer) {
+        try {
+            consumer.onStop();
+        } catch (Exception ignored) {
+            // The first error is the one reported.
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        private final BlockConsumer consumer;
+        private final PcmRingBuffer.Reader reader;
+
+        Worker(BlockConsumer consumer, PcmRingBuffer.Reader reader) {
+            super("PcmConsumer-" + consumer.getClass().getSimpleName());
+            this.consumer = consumer;
+            this.reader = reader;
+        }
+
+        @Override
+        public void run() {
+            boolean stopping = false;
+            try {
+                while (true) {
+                    // Read the flag before draining, so the last blocks are never left behind.
+                    boolean finished = captureFinished;
+                    if (reader.drain(consumer) == 0) {
+                        if (finished) break;
+                        LockSupport.parkNanos(this, idleNanos);
+                    }
+                }
+                stopping = true;
+                consumer.onStop();
+            } catch (Exception e) {
+                if (consumerError == null) consumerError = e;
+                ring.removeReader(reader);
+                // Closes what the consumer has written so far.
+                if (!stopping) stopQuietly(consumer);
+            }
+        }
+    }
+}
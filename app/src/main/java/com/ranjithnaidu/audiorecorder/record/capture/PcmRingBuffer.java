@@ -0,0 +1,143 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/multi-consumer lock-free ring of preallocated PCM blocks.
+ * <p>
+ * The producer never waits: when the slowest {@link Reader} is a full ring behind, the claim
+ * is refused and the producer is expected to drop the data. Every reader walks the ring at its own pace and hands
+ * a slot back simply by advancing its sequence, so blocks are never copied.
+ */
+public final class PcmRingBuffer {
+
+    private final short[][] blocks;
+    private final int[] lengths;
+    private final int mask;
+
+    // Sequence of the next block to be published. Written by the producer only.
+    private final AtomicLong cursor = new AtomicLong(0);
+    private volatile Reader[] readers = new Reader[0];
+
+    public PcmRingBuffer(int blockCount, int blockSize) {
+        if (blockCount < 2 || Integer.bitCount(blockCount) != 1) {
+            throw new IllegalArgumentException("blockCount must be a power of two: " + blockCount);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        blocks = new short[blockCount][blockSize];
+        lengths = new int[blockCount];
+        mask = blockCount - 1;
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    public int getBlockSize() {
+        return blocks[0].length;
+    }
+
+    public long getPublishedCount() {
+        return cursor.get();
+    }
+
+    /**
+     * Registers a new reader, positioned at the next block to be published.
+     */
+    public synchronized Reader newReader() {
+        Reader reader = new Reader(cursor.get());
+        Reader[] current = readers;
+        Reader[] updated = new Reader[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = reader;
+        readers = updated;
+        return reader;
+    }
+
+    /**
+     * Unregisters the reader so it no longer holds the producer back.
+     */
+    public synchronized void removeReader(Reader reader) {
+        Reader[] current = readers;
+        int index = -1;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == reader) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) return;
+
+        Reader[] updated = new Reader[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        readers = updated;
+    }
+
+    /**
+     * Producer side: returns the block to fill next, or null if every slot is still in use by a
+     * reader.
+     */
+    public short[] claim() {
+        long next = cursor.get();
+        if (next - minimumReaderSequence(next) >= blocks.length) return null;
+        return blocks[(int) (next & mask)];
+    }
+
+    /**
+     * Producer side: makes the block returned by the last {@link #claim()} visible to readers.
+     */
+    public void publish(int length) {
+        long next = cursor.get();
+        lengths[(int) (next & mask)] = length;
+        cursor.lazySet(next + 1);
+    }
+
+    private long minimumReaderSequence(long fallback) {
+        long minimum = fallback;
+        for (Reader reader : readers) {
+            long sequence = reader.sequence.get();
+            if (sequence < minimum) minimum = sequence;
+        }
+        return minimum;
+    }
+
+    /**
+     * Cursor of a single consumer. A reader must only be used by one thread.
+     */
+    public final class Reader {
+
+        private final AtomicLong sequence;
+
+        private Reader(long start) {
+            sequence = new AtomicLong(start);
+        }
+
+        public int available() {
+            return (int) (cursor.get() - sequence.get());
+        }
+
+        /**
+         * Hands every block published so far to the consumer, releasing each slot as soon as
+         * the consumer returns.
+         *
+         * @return the number of blocks delivered.
+         */
+        public int drain(BlockConsumer consumer) throws IOException {
+            long next = sequence.get();
+            long end = cursor.get();
+            int delivered = 0;
+            while (next < end) {
+                int index = (int) (next & mask);
+                consumer.onBlock(blocks[index], lengths[index]);
+                next++;
+                sequence.lazySet(next);
+                delivered++;
+            }
+            return delivered;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import java.io.IOException;
+
+/**
+ * Source of interleaved 16 bit PCM samples read by the {@link CaptureEngine} reader thread.
+ * Implemented on top of AudioRecord on the device and by synthetic generators in unit tests.
+ */
+public interface PcmSource {
+
+    int getSampleRate();
+
+    int getChannelCount();
+
+    void start() throws IOException;
+
+    /**
+     * Blocks until samples are available.
+     *
+     * @return the number of samples read, 0 at the end of the stream or a negative error code.
+     */
+    int read(short[] buffer, int offset, int length);
+
+    void stop();
+}
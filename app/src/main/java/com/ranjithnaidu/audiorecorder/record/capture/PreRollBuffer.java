@@ -0,0 +1,119 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import java.io.IOException;
+
+/**
+ * Keeps the capture running ahead of a recording ("armed"): until an output is attached, the
+ * most recent audio is kept in a circular buffer preallocated at start. When the output is
+ * attached, the buffered audio is written to it first and then every following block, so the
+ * recording begins up to the buffer duration before the request to start it.
+ */
+public final class PreRollBuffer implements BlockConsumer {
+
+    private static final int FLUSH_FRAMES = 1024;
+
+    private final long preRollMillis;
+
+    private int sampleRate;
+    private int channelCount;
+    private short[] ring;
+    private short[] flushBlock;
+    private int ringHead;
+    private int ringFill;
+
+    private volatile BlockConsumer pendingOutput;
+    private BlockConsumer output;
+    private volatile long forwardedFrames;
+    private volatile long preRollFrames;
+
+    public PreRollBuffer(long preRollMillis) {
+        this.preRollMillis = preRollMillis;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        long frames = Math.max(1, preRollMillis * sampleRate / 1000);
+        ring = new short[(int) frames * channelCount];
+        flushBlock = new short[FLUSH_FRAMES * channelCount];
+        ringHead = 0;
+        ringFill = 0;
+        output = null;
+        pendingOutput = null;
+        forwardedFrames = 0;
+        preRollFrames = 0;
+    }
+
+    /**
+     * Starts the recording: output is started here, then receives the buffered audio and the
+     * following blocks on the consumer thread. Can be called once per capture.
+     */
+    public void attachOutput(BlockConsumer output) throws IOException {
+        if (ring == null) throw new IllegalStateException("The capture has not been started");
+        if (pendingOutput != null) throw new IllegalStateException("An output is already attached");
+        output.onStart(sampleRate, channelCount);
+        pendingOutput = output;
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        if (output == null && pendingOutput != null) flushTo(pendingOutput);
+
+        if (output != null) {
+            output.onBlock(block, length);
+            forwardedFrames += length / channelCount;
+            return;
+        }
+
+        // Not recording yet: keep the most recent samples.
+        int offset = 0;
+        if (length > ring.length) {
+            offset = length - ring.length;
+        }
+        while (offset < length) {
+            int tail = (ringHead + ringFill) % ring.length;
+            int count = Math.min(length - offset, ring.length - tail);
+            System.arraycopy(block, offset, ring, tail, count);
+            offset += count;
+            ringFill += count;
+            if (ringFill > ring.length) {
+                ringHead = (ringHead + ringFill - ring.length) % ring.length;
+                ringFill = ring.length;
+            }
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (output == null && pendingOutput != null) flushTo(pendingOutput);
+        if (output != null) output.onStop();
+    }
+
+    // Frames given to the output so far, buffered ones included.
+    public long getForwardedFrames() {
+        return forwardedFrames;
+    }
+
+    // Frames of the recording that were captured before the output was attached.
+    public long getPreRollFrames() {
+        return preRollFrames;
+    }
+
+    public boolean isOutputAttached() {
+        return pendingOutput != null;
+    }
+
+    private void flushTo(BlockConsumer newOutput) throws IOException {
+        output = newOutput;
+        preRollFrames = ringFill / channelCount;
+        while (ringFill > 0) {
+            int count = Math.min(Math.min(ringFill, flushBlock.length), ring.length - ringHead);
+            System.arraycopy(ring, ringHead, flushBlock, 0, count);
+            output.onBlock(flushBlock, count);
+            forwardedFrames += count / channelCount;
+            ringHead = (ringHead + count) % ring.length;
+            ringFill -= count;
+        }
+    }
+}
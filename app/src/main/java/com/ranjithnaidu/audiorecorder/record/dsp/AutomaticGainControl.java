@@ -0,0 +1,97 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+/**
+ * Brings the average level of the speech to a target, whatever the distance to the microphone.
+ * <p>
+ * The mean square of the input is followed over a few hundred milliseconds and the gain that
+ * would give it the target level is computed every few frames, within the allowed range. The
+ * gain falls in a fraction of a second when the input gets louder, but only rises over seconds.
+ * While the short term level is below the minimum (silence, or audio lowered by the noise gate)
+ * both the level and the gain are held, so that the pauses are not pumped up and the next phrase
+ * starts at the gain of the previous one. The peaks are left to the limiter.
+ */
+public final class AutomaticGainControl implements DspStage {
+
+    private static final float MIN_GAIN_DB = -12;
+    private static final float LEVEL_MILLIS = 300;
+    private static final float SHORT_TERM_LEVEL_MILLIS = 20;
+    private static final float ATTACK_MILLIS = 150;
+    private static final float RELEASE_MILLIS = 2000;
+    // Frames between two computations of the wanted gain.
+    private static final int CONTROL_FRAMES = 32;
+
+    private final float target;
+    private final float maxGain;
+    private final float minGain;
+    private final float minMeanSquare;
+
+    private int channelCount;
+    private float levelCoefficient;
+    private float shortTermCoefficient;
+    private float attackCoefficient;
+    private float releaseCoefficient;
+
+    private float meanSquare;
+    private float shortTermMeanSquare;
+    private float wantedGain;
+    private float gain;
+    private int controlLeft;
+
+    /**
+     * @param targetDb   RMS level of the output, in dBFS.
+     * @param maxGainDb  highest gain applied, in dB.
+     * @param minLevelDb RMS level of the input, in dBFS, below which the gain is held.
+     */
+    public AutomaticGainControl(float targetDb, float maxGainDb, float minLevelDb) {
+        this.target = Decibels.toGain(targetDb);
+        this.maxGain = Decibels.toGain(maxGainDb);
+        this.minGain = Decibels.toGain(MIN_GAIN_DB);
+        float minLevel = Decibels.toGain(minLevelDb);
+        this.minMeanSquare = minLevel * minLevel;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        levelCoefficient = Decibels.smoothingCoefficient(LEVEL_MILLIS, sampleRate);
+        shortTermCoefficient = Decibels.smoothingCoefficient(SHORT_TERM_LEVEL_MILLIS, sampleRate);
+        attackCoefficient = Decibels.smoothingCoefficient(ATTACK_MILLIS, sampleRate);
+        releaseCoefficient = Decibels.smoothingCoefficient(RELEASE_MILLIS, sampleRate);
+        meanSquare = 0;
+        shortTermMeanSquare = 0;
+        wantedGain = 1;
+        gain = 1;
+        controlLeft = 0;
+    }
+
+    @Override
+    public void process(float[] samples, int length) {
+        for (int frame = 0; frame < length; frame += channelCount) {
+            float power = 0;
+            for (int i = frame; i < frame + channelCount; i++) power = Math.max(power, samples[i] * samples[i]);
+            shortTermMeanSquare = power + (shortTermMeanSquare - power) * shortTermCoefficient;
+            boolean active = shortTermMeanSquare > minMeanSquare;
+            if (active) meanSquare = power + (meanSquare - power) * levelCoefficient;
+
+            if (--controlLeft < 0) {
+                controlLeft = CONTROL_FRAMES - 1;
+                if (active && meanSquare > minMeanSquare) {
+                    wantedGain = Math.max(minGain, Math.min(maxGain, target / (float) Math.sqrt(meanSquare)));
+                }
+            }
+
+            gain = wantedGain + (gain - wantedGain) * (wantedGain < gain ? attackCoefficient : releaseCoefficient);
+            for (int i = frame; i < frame + channelCount; i++) samples[i] *= gain;
+        }
+    }
+
+    @Override
+    public int getLatencyFrames() {
+        return 0;
+    }
+
+    // Current gain, in dB.
+    public float getGainDb() {
+        return Decibels.toDecibels(gain);
+    }
+}
@@ -0,0 +1,62 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+/**
+ * Second order Butterworth high-pass filter (12 dB per octave), removing rumble, handling noise
+ * and DC below the cutoff. Transposed direct form II, with the state of each channel kept in
+ * double precision: the poles of a low cutoff are close to the unit circle.
+ */
+public final class BiquadHighPass implements DspStage {
+
+    private static final double Q = 1 / Math.sqrt(2);
+    // Below this the state is flushed to zero, so that silence never runs on denormal numbers.
+    private static final double DENORMAL = 1e-25;
+
+    private final float cutoffHz;
+    private int channelCount;
+    private double b0, b1, b2, a1, a2;
+    private double[] z1 = new double[0];
+    private double[] z2 = new double[0];
+
+    public BiquadHighPass(float cutoffHz) {
+        this.cutoffHz = cutoffHz;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        // Coefficients of the audio EQ cookbook, normalized by a0.
+        double w0 = 2 * Math.PI * cutoffHz / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * Q);
+        double a0 = 1 + alpha;
+        b0 = (1 + cos) / 2 / a0;
+        b1 = -(1 + cos) / a0;
+        b2 = b0;
+        a1 = -2 * cos / a0;
+        a2 = (1 - alpha) / a0;
+        z1 = new double[channelCount];
+        z2 = new double[channelCount];
+    }
+
+    @Override
+    public void process(float[] samples, int length) {
+        for (int channel = 0; channel < channelCount; channel++) {
+            double s1 = z1[channel];
+            double s2 = z2[channel];
+            for (int i = channel; i < length; i += channelCount) {
+                double x = samples[i];
+                double y = b0 * x + s1;
+                s1 = b1 * x - a1 * y + s2;
+                s2 = b2 * x - a2 * y;
+                samples[i] = (float) y;
+            }
+            z1[channel] = Math.abs(s1) < DENORMAL ? 0 : s1;
+            z2[channel] = Math.abs(s2) < DENORMAL ? 0 : s2;
+        }
+    }
+
+    @Override
+    public int getLatencyFrames() {
+        return 0;
+    }
+}
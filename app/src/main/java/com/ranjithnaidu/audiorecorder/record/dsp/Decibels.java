@@ -0,0 +1,25 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+// Conversions shared by the stages.
+final class Decibels {
+
+    private Decibels() {
+    }
+
+    static float toGain(float decibels) {
+        return (float) Math.pow(10, decibels / 20);
+    }
+
+    static float toDecibels(double gain) {
+        return (float) (20 * Math.log10(gain));
+    }
+
+    /**
+     * Coefficient of a one pole smoother reaching 63% of a step in the given time: each frame,
+     * value = target + (value - target) * coefficient.
+     */
+    static float smoothingCoefficient(float millis, int sampleRate) {
+        if (millis <= 0) return 0;
+        return (float) Math.exp(-1000.0 / (millis * sampleRate));
+    }
+}
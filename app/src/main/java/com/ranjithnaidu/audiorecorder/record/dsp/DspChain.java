@@ -0,0 +1,118 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.IOException;
+
+/**
+ * Sits in front of a writing {@link BlockConsumer} and conditions the captured audio through a
+ * chain of {@link DspStage}s, e.g. high-pass filter, noise gate, gain control and limiter.
+ * <p>
+ * Each block is converted once to floats in a preallocated buffer, processed in place by every
+ * stage, and converted back into a second buffer: the captured block belongs to the ring and is
+ * read by the other consumers. The latency of the stages is removed, so that the output has the
+ * length of the input and lines up with it: the first frames out of the chain are dropped, and the
+ * last ones are flushed by silence when the capture stops.
+ */
+public final class DspChain implements BlockConsumer {
+
+    private static final float TO_FLOAT = 1f / 32768;
+
+    private final BlockConsumer downstream;
+    private final DspStage[] stages;
+
+    private int channelCount;
+    private float[] samples = new float[0];
+    private short[] output = new short[0];
+    private int latencySamples;
+    // Samples of the start still to drop.
+    private int skipLeft;
+
+    private long blocks = 0;
+    private long processNanos = 0;
+    private long maxProcessNanos = 0;
+
+    public DspChain(BlockConsumer downstream, DspStage... stages) {
+        this.downstream = downstream;
+        this.stages = stages;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.channelCount = channelCount;
+        int latencyFrames = 0;
+        for (DspStage stage : stages) {
+            stage.prepare(sampleRate, channelCount);
+            latencyFrames += stage.getLatencyFrames();
+        }
+        latencySamples = latencyFrames * channelCount;
+        skipLeft = latencySamples;
+        blocks = 0;
+        processNanos = 0;
+        maxProcessNanos = 0;
+        downstream.onStart(sampleRate, channelCount);
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        // The buffers grow to the largest block once, usually the first one.
+        if (samples.length < length) {
+            samples = new float[length];
+            output = new short[length];
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < length; i++) samples[i] = block[i] * TO_FLOAT;
+        int written = process(length);
+        long elapsed = System.nanoTime() - start;
+        blocks++;
+        processNanos += elapsed;
+        if (elapsed > maxProcessNanos) maxProcessNanos = elapsed;
+
+        if (written > 0) downstream.onBlock(output, written);
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            // The frames still in the stages, pushed out by as much silence as their latency.
+            int left = latencySamples;
+            while (left > 0) {
+                int length = Math.min(left, Math.max(channelCount, samples.length / channelCount * channelCount));
+                if (samples.length < length) {
+                    samples = new float[length];
+                    output = new short[length];
+                }
+                for (int i = 0; i < length; i++) samples[i] = 0;
+                int written = process(length);
+                if (written > 0) downstream.onBlock(output, written);
+                left -= length;
+            }
+        } finally {
+            downstream.onStop();
+        }
+    }
+
+    public long getAverageBlockNanos() {
+        return blocks > 0 ? processNanos / blocks : 0;
+    }
+
+    public long getMaxBlockNanos() {
+        return maxProcessNanos;
+    }
+
+    // Runs the stages over the samples and converts them to the output, less the start to drop.
+    private int process(int length) {
+        for (DspStage stage : stages) stage.process(samples, length);
+
+        int from = Math.min(skipLeft, length);
+        skipLeft -= from;
+        int written = 0;
+        for (int i = from; i < length; i++) {
+            float sample = samples[i] * 32768;
+            output[written++] = sample >= Short.MAX_VALUE ? Short.MAX_VALUE
+                    : sample <= Short.MIN_VALUE ? Short.MIN_VALUE : (short) Math.round(sample);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+/**
+ * A processing stage of a {@link DspChain}. Stages work in place on blocks of interleaved float
+ * samples, full scale being [-1, 1], and allocate nothing after {@link #prepare(int, int)}.
+ */
+public interface DspStage {
+
+    // Called before the first block of each recording: allocates the state and resets it.
+    void prepare(int sampleRate, int channelCount);
+
+    void process(float[] samples, int length);
+
+    // Frames by which the output lags the input, known once prepared.
+    int getLatencyFrames();
+}
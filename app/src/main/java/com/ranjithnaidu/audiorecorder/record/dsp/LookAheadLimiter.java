@@ -0,0 +1,115 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the peaks under a ceiling without clipping them.
+ * <p>
+ * The output is delayed by the look-ahead, so that the gain is lowered before a peak arrives
+ * instead of after it. The gain each frame needs is the ceiling over its peak. The lowest needed
+ * gain of the look-ahead window is followed with a monotonic queue, released slowly, then
+ * averaged over the window: the average ramps down smoothly, and is never above the gain needed
+ * by the frame leaving the delay line, since every value averaged is at most the one of that
+ * frame.
+ */
+public final class LookAheadLimiter implements DspStage {
+
+    private final float ceiling;
+    private final float lookAheadMillis;
+    private final float releaseMillis;
+
+    private int channelCount;
+    private int lookAheadFrames;
+    private float releaseCoefficient;
+
+    // Delayed samples, interleaved.
+    private float[] delay = new float[0];
+    private int delayPosition;
+    // Needed gains of the window, increasing from the head, with the frames they were needed at.
+    private float[] queueGains = new float[0];
+    private long[] queueFrames = new long[0];
+    private int queueHead;
+    private int queueSize;
+    // Released gains of the window, summed.
+    private float[] window = new float[0];
+    private int windowPosition;
+    private double windowSum;
+    private float released;
+    private long frameIndex;
+
+    /**
+     * @param ceilingDb highest peak of the output, in dBFS.
+     */
+    public LookAheadLimiter(float ceilingDb, float lookAheadMillis, float releaseMillis) {
+        this.ceiling = Decibels.toGain(ceilingDb);
+        this.lookAheadMillis = lookAheadMillis;
+        this.releaseMillis = releaseMillis;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        lookAheadFrames = Math.max(0, Math.round(lookAheadMillis * sampleRate / 1000));
+        releaseCoefficient = Decibels.smoothingCoefficient(releaseMillis, sampleRate);
+        int windowFrames = lookAheadFrames + 1;
+        delay = new float[lookAheadFrames * channelCount];
+        delayPosition = 0;
+        queueGains = new float[windowFrames];
+        queueFrames = new long[windowFrames];
+        queueHead = 0;
+        queueSize = 0;
+        window = new float[windowFrames];
+        Arrays.fill(window, 1f);
+        windowPosition = 0;
+        windowSum = windowFrames;
+        released = 1;
+        frameIndex = 0;
+    }
+
+    @Override
+    public void process(float[] samples, int length) {
+        final int windowFrames = window.length;
+        for (int frame = 0; frame < length; frame += channelCount) {
+            float peak = 0;
+            for (int i = frame; i < frame + channelCount; i++) peak = Math.max(peak, Math.abs(samples[i]));
+            float needed = peak > ceiling ? ceiling / peak : 1;
+
+            // Lowest needed gain of the last windowFrames frames.
+            if (queueSize > 0 && queueFrames[queueHead] <= frameIndex - windowFrames) {
+                queueHead = queueHead + 1 == windowFrames ? 0 : queueHead + 1;
+                queueSize--;
+            }
+            while (queueSize > 0 && queueGains[(queueHead + queueSize - 1) % windowFrames] >= needed) queueSize--;
+            int tail = (queueHead + queueSize) % windowFrames;
+            queueGains[tail] = needed;
+            queueFrames[tail] = frameIndex;
+            queueSize++;
+            float lowest = queueGains[queueHead];
+
+            released = lowest < released ? lowest : lowest + (released - lowest) * releaseCoefficient;
+            windowSum += released - window[windowPosition];
+            window[windowPosition] = released;
+            windowPosition = windowPosition + 1 == windowFrames ? 0 : windowPosition + 1;
+            float gain = (float) (windowSum / windowFrames);
+
+            for (int i = frame; i < frame + channelCount; i++) {
+                float input = samples[i];
+                float output;
+                if (delay.length > 0) {
+                    output = delay[delayPosition];
+                    delay[delayPosition] = input;
+                    delayPosition = delayPosition + 1 == delay.length ? 0 : delayPosition + 1;
+                } else {
+                    output = input;
+                }
+                samples[i] = output * gain;
+            }
+            frameIndex++;
+        }
+    }
+
+    @Override
+    public int getLatencyFrames() {
+        return lookAheadFrames;
+    }
+}
@@ -0,0 +1,90 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+/**
+ * Attenuates the background noise between phrases.
+ * <p>
+ * The gate opens when the peak envelope of a frame (the loudest channel) rises above the
+ * threshold, and closes once it has stayed 6 dB below it for the hold time, so that it does not
+ * chatter around the threshold. The gain fades in over the attack time and out over the release
+ * time, down to the range: the noise is lowered rather than muted, which sounds more natural.
+ */
+public final class NoiseGate implements DspStage {
+
+    private static final float HYSTERESIS = 0.5f; // -6 dB
+    private static final float ENVELOPE_RELEASE_MILLIS = 10;
+
+    private final float threshold;
+    private final float floorGain;
+    private final float attackMillis;
+    private final float holdMillis;
+    private final float releaseMillis;
+
+    private int channelCount;
+    private float envelopeCoefficient;
+    private float attackCoefficient;
+    private float releaseCoefficient;
+    private int holdFrames;
+
+    private float envelope;
+    private float gain;
+    private boolean open;
+    private int holdLeft;
+
+    /**
+     * @param thresholdDb level, in dBFS, above which the gate opens.
+     * @param rangeDb     attenuation of the closed gate, in dB.
+     */
+    public NoiseGate(float thresholdDb, float rangeDb, float attackMillis, float holdMillis, float releaseMillis) {
+        this.threshold = Decibels.toGain(thresholdDb);
+        this.floorGain = Decibels.toGain(-Math.abs(rangeDb));
+        this.attackMillis = attackMillis;
+        this.holdMillis = holdMillis;
+        this.releaseMillis = releaseMillis;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        envelopeCoefficient = Decibels.smoothingCoefficient(ENVELOPE_RELEASE_MILLIS, sampleRate);
+        attackCoefficient = Decibels.smoothingCoefficient(attackMillis, sampleRate);
+        releaseCoefficient = Decibels.smoothingCoefficient(releaseMillis, sampleRate);
+        holdFrames = (int) (holdMillis * sampleRate / 1000);
+        envelope = 0;
+        gain = floorGain;
+        open = false;
+        holdLeft = 0;
+    }
+
+    @Override
+    public void process(float[] samples, int length) {
+        for (int frame = 0; frame < length; frame += channelCount) {
+            float level = 0;
+            for (int i = frame; i < frame + channelCount; i++) level = Math.max(level, Math.abs(samples[i]));
+            envelope = level > envelope ? level : level + (envelope - level) * envelopeCoefficient;
+
+            if (envelope >= threshold) {
+                open = true;
+                holdLeft = holdFrames;
+            } else if (open && envelope < threshold * HYSTERESIS) {
+                if (holdLeft > 0) {
+                    holdLeft--;
+                } else {
+                    open = false;
+                }
+            }
+
+            float target = open ? 1 : floorGain;
+            gain = target + (gain - target) * (open ? attackCoefficient : releaseCoefficient);
+            for (int i = frame; i < frame + channelCount; i++) samples[i] *= gain;
+        }
+    }
+
+    @Override
+    public int getLatencyFrames() {
+        return 0;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,185 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+/**
+ * Radix-2 FFT of real input, in place.
+ * <p>
+ * The n real samples are taken as n / 2 complex ones (even samples as real parts, odd samples
+ * as imaginary parts), transformed by an iterative complex FFT, then split into the spectrum of
+ * the real signal: half the work of a complex FFT of size n. The twiddle factors, the bit
+ * reversal swaps and the Hann window are computed once by the constructor; transforms allocate
+ * nothing, so one instance serves a stream of blocks. The tables are only read: threads can share
+ * an instance to transform their own arrays.
+ */
+public final class RealFft {
+
+    private final int size;
+    private final int half;
+    // cos and -sin of 2 * pi * k / size, for k < size / 2.
+    private final float[] cos;
+    private final float[] sin;
+    // Pairs of complex indices swapped by the bit reversal.
+    private final int[] swaps;
+    private final float[] window;
+
+    // The size must be a power of two, at least 4.
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two, at least 4: " + size);
+        }
+        this.size = size;
+        half = size / 2;
+        cos = new float[half];
+        sin = new float[half];
+        for (int k = 0; k < half; k++) {
+            double angle = 2 * Math.PI * k / size;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) -Math.sin(angle);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        int swapCount = 0;
+        int[] pairs = new int[half];
+        for (int i = 0; i < half; i++) {
+            int reversed = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            if (reversed > i) {
+                pairs[swapCount++] = i;
+                pairs[swapCount++] = reversed;
+            }
+        }
+        swaps = new int[swapCount];
+        System.arraycopy(pairs, 0, swaps, 0, swapCount);
+
+        window = new float[size];
+        for (int i = 0; i < size; i++) window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Applies a periodic Hann window to the first size samples, in place.
+    public void window(float[] samples) {
+        for (int i = 0; i < size; i++) samples[i] *= window[i];
+    }
+
+    /**
+     * Replaces the size real samples with their spectrum, packed as data[0] = X[0],
+     * data[1] = X[size / 2] (both real) and data[2k], data[2k + 1] = real and imaginary parts of
+     * X[k] for 0 < k < size / 2.
+     */
+    public void forward(float[] data) {
+        complexForward(data);
+
+        // Split the spectrum Z of the packed samples: X[k] = E[k] + W^k O[k], where E and O are
+        // the spectra of the even and odd samples, and X[n - k] follows from the same terms.
+        float re0 = data[0];
+        float im0 = data[1];
+        data[0] = re0 + im0;
+        data[1] = re0 - im0;
+        for (int k = 1, m = half - 1; k <= m; k++, m--) {
+            int i = 2 * k;
+            int j = 2 * m;
+            float aRe = data[i];
+            float aIm = data[i + 1];
+            float bRe = data[j];
+            float bIm = data[j + 1];
+            // E = (a + conj(b)) / 2, O = -i (a - conj(b)) / 2.
+            float eRe = (aRe + bRe) * 0.5f;
+            float eIm = (aIm - bIm) * 0.5f;
+            float oRe = (aIm + bIm) * 0.5f;
+            float oIm = (bRe - aRe) * 0.5f;
+            float tRe = cos[k] * oRe - sin[k] * oIm;
+            float tIm = cos[k] * oIm + sin[k] * oRe;
+            data[i] = eRe + tRe;
+            data[i + 1] = eIm + tIm;
+            data[j] = eRe - tRe;
+            data[j + 1] = tIm - eIm;
+        }
+    }
+
+    /**
+     * Replaces a spectrum packed by {@link #forward} with its real samples: inverse(forward(x))
+     * gives x back.
+     */
+    public void inverse(float[] data) {
+        // Merge the spectrum back into the one of the packed samples: Z[k] = E[k] + i O[k].
+        float re0 = data[0];
+        float reHalf = data[1];
+        data[0] = (re0 + reHalf) * 0.5f;
+        data[1] = (re0 - reHalf) * 0.5f;
+        for (int k = 1, m = half - 1; k <= m; k++, m--) {
+            int i = 2 * k;
+            int j = 2 * m;
+            float aRe = data[i];
+            float aIm = data[i + 1];
+            float bRe = data[j];
+            float bIm = data[j + 1];
+            // E = (a + conj(b)) / 2, O = conj(W^k) (a - conj(b)) / 2; Z[m] = conj(E) + i conj(O).
+            float eRe = (aRe + bRe) * 0.5f;
+            float eIm = (aIm - bIm) * 0.5f;
+            float dRe = (aRe - bRe) * 0.5f;
+            float dIm = (aIm + bIm) * 0.5f;
+            float oRe = cos[k] * dRe + sin[k] * dIm;
+            float oIm = cos[k] * dIm - sin[k] * dRe;
+            data[i] = eRe - oIm;
+            data[i + 1] = eIm + oRe;
+            data[j] = eRe + oIm;
+            data[j + 1] = oRe - eIm;
+        }
+
+        // Inverse complex FFT, as the conjugate of the forward FFT of the conjugate.
+        for (int i = 1; i < size; i += 2) data[i] = -data[i];
+        complexForward(data);
+        float scale = 1f / half;
+        for (int i = 0; i < size; i += 2) {
+            data[i] *= scale;
+            data[i + 1] *= -scale;
+        }
+    }
+
+    /**
+     * Writes |X[k]|^2 for k < size / 2 to out, from a spectrum packed by {@link #forward}. The
+     * bin at size / 2 is left out.
+     */
+    public void powerSpectrum(float[] data, float[] out) {
+        out[0] = data[0] * data[0];
+        for (int k = 1; k < half; k++) {
+            float re = data[2 * k];
+            float im = data[2 * k + 1];
+            out[k] = re * re + im * im;
+        }
+    }
+
+    // Iterative decimation in time FFT of the size / 2 complex values.
+    private void complexForward(float[] data) {
+        for (int s = 0; s < swaps.length; s += 2) {
+            int i = 2 * swaps[s];
+            int j = 2 * swaps[s + 1];
+            float re = data[i];
+            float im = data[i + 1];
+            data[i] = data[j];
+            data[i + 1] = data[j + 1];
+            data[j] = re;
+            data[j + 1] = im;
+        }
+
+        for (int span = 1; span < half; span <<= 1) {
+            // The twiddles of a complex FFT of size half are every other entry of the table.
+            int step = half / span;
+            for (int k = 0; k < span; k++) {
+                float wRe = cos[k * step];
+                float wIm = sin[k * step];
+                for (int start = k; start < half; start += span << 1) {
+                    int i = 2 * start;
+                    int j = 2 * (start + span);
+                    float tRe = wRe * data[j] - wIm * data[j + 1];
+                    float tIm = wRe * data[j + 1] + wIm * data[j];
+                    data[j] = data[i] - tRe;
+                    data[j + 1] = data[i + 1] - tIm;
+                    data[i] += tRe;
+                    data[i + 1] += tIm;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+/**
+ * Measures every captured sample and emits meter frames at a fixed rate: the peak, the RMS
+ * level and the number of clipped samples of each window of 1 / framesPerSecond seconds of
+ * audio. Windows follow the sample clock rather than the wall clock, and are independent of the
+ * block size. Nothing is allocated once started.
+ */
+public final class LevelMeter implements BlockConsumer {
+
+    // Levels are relative to full scale, 1.0 being the largest 16 bit sample.
+    public interface Listener {
+
+        // Called on the consumer thread.
+        void onMeterFrame(long frameIndex, float peak, float rms, int clippedSamples);
+    }
+
+    private static final float FULL_SCALE = 32768f;
+    private static final int CLIP_LEVEL = 32767;
+
+    private final int framesPerSecond;
+    private final Listener listener;
+
+    private int sampleRate;
+    private int channelCount;
+    private long frameIndex;
+    private int windowSamples;
+    private int windowFill;
+    private int peak;
+    private long sumOfSquares;
+    private int clippedSamples;
+
+    public LevelMeter(int framesPerSecond, Listener listener) {
+        if (framesPerSecond <= 0) throw new IllegalArgumentException("framesPerSecond must be positive");
+        this.framesPerSecond = framesPerSecond;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        frameIndex = 0;
+        windowSamples = windowSamples(0);
+        windowFill = 0;
+        peak = 0;
+        sumOfSquares = 0;
+        clippedSamples = 0;
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, windowSamples - windowFill);
+            int blockPeak = peak;
+            long blockSum = 0;
+            int blockClips = 0;
+            for (int i = offset, end = offset + count; i < end; i++) {
+                int value = block[i];
+                int magnitude = value < 0 ? -value : value;
+                if (magnitude > blockPeak) blockPeak = magnitude;
+                if (magnitude >= CLIP_LEVEL) blockClips++;
+                blockSum += value * value;
+            }
+            peak = blockPeak;
+            sumOfSquares += blockSum;
+            clippedSamples += blockClips;
+            windowFill += count;
+            offset += count;
+
+            if (windowFill == windowSamples) emitFrame();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        if (windowFill > 0) emitFrame();
+    }
+
+    public int getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    private void emitFrame() {
+        float rms = (float) Math.sqrt((double) sumOfSquares / windowFill) / FULL_SCALE;
+        listener.onMeterFrame(frameIndex, peak / FULL_SCALE, rms, clippedSamples);
+        frameIndex++;
+        windowSamples = windowSamples(frameIndex);
+        windowFill = 0;
+        peak = 0;
+        sumOfSquares = 0;
+        clippedSamples = 0;
+    }
+
+    // Window lengths alternate so that the frame rate stays exact when it does not divide the rate.
+    private int windowSamples(long index) {
+        long start = index * sampleRate / framesPerSecond;
+        long end = (index + 1) * sampleRate / framesPerSecond;
+        return (int) Math.max(1, end - start) * channelCount;
+    }
+}
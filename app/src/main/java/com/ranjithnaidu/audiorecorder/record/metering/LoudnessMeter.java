@@ -0,0 +1,373 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+/**
+ * Measures the loudness of a recording as EBU R128 defines it (ITU-R BS.1770-4, EBU Tech 3341
+ * and 3342): the K-weighted momentary (400 ms), short-term (3 s) and integrated loudness, the
+ * loudness range, the true peak and the number of clipped samples, summed up by
+ * {@link #getSummary()} once stopped.
+ * <p>
+ * The loudness is measured every 100 ms. The gated loudness of the whole recording is kept in
+ * histograms of {@link #BINS_PER_LU} bins per LU rather than as a list of blocks, so the memory
+ * used does not grow with the recording. The true peak is the largest sample of the signal
+ * oversampled 4 times. Nothing is allocated once started.
+ */
+public final class LoudnessMeter implements BlockConsumer {
+
+    // Loudness of silence, or of a recording too short to be measured.
+    public static final float NO_LOUDNESS = Float.NEGATIVE_INFINITY;
+
+    private static final float FULL_SCALE = 32768f;
+    private static final int CLIP_LEVEL = 32767;
+
+    private static final int STEPS_PER_SECOND = 10;
+    private static final int MOMENTARY_STEPS = 4;
+    private static final int SHORT_TERM_STEPS = 30;
+
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double INTEGRATED_RELATIVE_GATE_LU = -10;
+    private static final double RANGE_RELATIVE_GATE_LU = -20;
+    private static final double RANGE_LOW_PERCENTILE = 0.10;
+    private static final double RANGE_HIGH_PERCENTILE = 0.95;
+    // Histogram of the loudness from the absolute gate up; louder blocks go to the last bin.
+    private static final int BINS_PER_LU = 20;
+    private static final int BIN_COUNT = 80 * BINS_PER_LU;
+
+    // Interpolation filter of the true peak: a windowed sinc, TRUE_PEAK_TAPS taps per phase.
+    private static final int OVERSAMPLING = 4;
+    private static final int TRUE_PEAK_TAPS = 16;
+    private static final float[] TRUE_PEAK_PHASES = truePeakPhases();
+
+    private int sampleRate;
+    private int channelCount;
+
+    // K-weighting: a high shelf then a high pass, the same coefficients for every channel.
+    private double shelfB0, shelfB1, shelfB2, shelfA1, shelfA2;
+    private double passA1, passA2;
+    // Transposed direct form II state, 4 values per channel.
+    private double[] filterState = new double[0];
+
+    // The last SHORT_TERM_STEPS steps of 100 ms: sum of the weighted squares of all channels.
+    private final double[] stepSquares = new double[SHORT_TERM_STEPS];
+    private final int[] stepFrames = new int[SHORT_TERM_STEPS];
+    private long stepIndex;
+    private int stepLength;
+    private int stepFill;
+    private double squares;
+
+    private float momentary;
+    private float shortTerm;
+    private float maxMomentary;
+    private float maxShortTerm;
+
+    // Momentary blocks above the absolute gate, for the integrated loudness.
+    private final long[] blockCounts = new long[BIN_COUNT];
+    private final double[] blockPowers = new double[BIN_COUNT];
+    private long gatedBlocks;
+    private double gatedBlockPower;
+    // Short-term values above the absolute gate, for the loudness range.
+    private final long[] shortTermCounts = new long[BIN_COUNT];
+    private long gatedShortTerms;
+    private double gatedShortTermPower;
+
+    // Last TRUE_PEAK_TAPS samples of each channel, written twice so that they read in one run.
+    private float[] history = new float[0];
+    private int historyPosition;
+    private float truePeak;
+    private int samplePeak;
+    private long clippedSamples;
+    private long totalFrames;
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        designFilters(sampleRate);
+        filterState = new double[4 * channelCount];
+        history = new float[2 * TRUE_PEAK_TAPS * channelCount];
+        historyPosition = 0;
+
+        stepIndex = 0;
+        stepLength = stepFrames(0);
+        stepFill = 0;
+        squares = 0;
+        momentary = NO_LOUDNESS;
+        shortTerm = NO_LOUDNESS;
+        maxMomentary = NO_LOUDNESS;
+        maxShortTerm = NO_LOUDNESS;
+        for (int bin = 0; bin < BIN_COUNT; bin++) {
+            blockCounts[bin] = 0;
+            blockPowers[bin] = 0;
+            shortTermCounts[bin] = 0;
+        }
+        gatedBlocks = 0;
+        gatedBlockPower = 0;
+        gatedShortTerms = 0;
+        gatedShortTermPower = 0;
+        truePeak = 0;
+        samplePeak = 0;
+        clippedSamples = 0;
+        totalFrames = 0;
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) {
+        int frames = length / channelCount;
+        int offset = 0;
+        while (offset < frames) {
+            int count = Math.min(frames - offset, stepLength - stepFill);
+            measure(block, offset, count);
+            stepFill += count;
+            offset += count;
+            if (stepFill == stepLength) completeStep();
+        }
+        totalFrames += frames;
+    }
+
+    @Override
+    public void onStop() {
+        // The inter-sample peaks after the last samples, which the filter has not reached yet.
+        for (int i = 0; i < TRUE_PEAK_TAPS / 2; i++) {
+            for (int channel = 0; channel < channelCount; channel++) pushSample(channel, 0f);
+            historyPosition = historyPosition + 1 == TRUE_PEAK_TAPS ? 0 : historyPosition + 1;
+        }
+    }
+
+    // Loudness of the last 400 ms, in LUFS.
+    public float getMomentaryLoudness() {
+        return momentary;
+    }
+
+    // Loudness of the last 3 s, in LUFS.
+    public float getShortTermLoudness() {
+        return shortTerm;
+    }
+
+    public LoudnessSummary getSummary() {
+        return new LoudnessSummary(sampleRate, totalFrames, integratedLoudness(), loudnessRange(),
+                maxMomentary, maxShortTerm, toDecibels(truePeak), toDecibels(samplePeak / FULL_SCALE),
+                clippedSamples);
+    }
+
+    private void measure(short[] block, int frameOffset, int frames) {
+        double b0 = shelfB0, b1 = shelfB1, b2 = shelfB2, a1 = shelfA1, a2 = shelfA2;
+        double passA1 = this.passA1, passA2 = this.passA2;
+        double sum = 0;
+        int peak = samplePeak;
+        long clips = 0;
+        for (int channel = 0; channel < channelCount; channel++) {
+            int state = channel * 4;
+            double shelf1 = filterState[state], shelf2 = filterState[state + 1];
+            double pass1 = filterState[state + 2], pass2 = filterState[state + 3];
+            for (int frame = frameOffset, end = frameOffset + frames; frame < end; frame++) {
+                int value = block[frame * channelCount + channel];
+                int magnitude = value < 0 ? -value : value;
+                if (magnitude > peak) peak = magnitude;
+                if (magnitude >= CLIP_LEVEL) clips++;
+
+                double x = value / FULL_SCALE;
+                double shelved = b0 * x + shelf1;
+                shelf1 = b1 * x - a1 * shelved + shelf2;
+                shelf2 = b2 * x - a2 * shelved;
+                double weighted = shelved + pass1;
+                pass1 = -2 * shelved - passA1 * weighted + pass2;
+                pass2 = shelved - passA2 * weighted;
+                sum += weighted * weighted;
+            }
+            // Denormals would slow the filters down in long silences.
+            filterState[state] = flush(shelf1);
+            filterState[state + 1] = flush(shelf2);
+            filterState[state + 2] = flush(pass1);
+            filterState[state + 3] = flush(pass2);
+        }
+        squares += sum;
+        samplePeak = peak;
+        clippedSamples += clips;
+
+        for (int frame = frameOffset, end = frameOffset + frames; frame < end; frame++) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                pushSample(channel, block[frame * channelCount + channel] / FULL_SCALE);
+            }
+            historyPosition = historyPosition + 1 == TRUE_PEAK_TAPS ? 0 : historyPosition + 1;
+        }
+    }
+
+    // Adds the sample to the history of the channel, and the peaks between it and the previous one.
+    private void pushSample(int channel, float sample) {
+        int base = channel * 2 * TRUE_PEAK_TAPS;
+        history[base + historyPosition] = sample;
+        history[base + historyPosition + TRUE_PEAK_TAPS] = sample;
+        // From the oldest sample to the newest one.
+        int start = base + historyPosition + 1;
+        float peak = truePeak;
+        float magnitude = sample < 0 ? -sample : sample;
+        if (magnitude > peak) peak = magnitude;
+        // The three phases in one pass over the history.
+        float quarter = 0, half = 0, threeQuarters = 0;
+        for (int tap = 0; tap < TRUE_PEAK_TAPS; tap++) {
+            float value = history[start + tap];
+            quarter += value * TRUE_PEAK_PHASES[tap];
+            half += value * TRUE_PEAK_PHASES[TRUE_PEAK_TAPS + tap];
+            threeQuarters += value * TRUE_PEAK_PHASES[2 * TRUE_PEAK_TAPS + tap];
+        }
+        peak = Math.max(peak, Math.max(Math.abs(quarter), Math.max(Math.abs(half), Math.abs(threeQuarters))));
+        truePeak = peak;
+    }
+
+    private void completeStep() {
+        int slot = (int) (stepIndex % SHORT_TERM_STEPS);
+        stepSquares[slot] = squares;
+        stepFrames[slot] = stepLength;
+        stepIndex++;
+
+        if (stepIndex >= MOMENTARY_STEPS) {
+            double power = windowPower(MOMENTARY_STEPS);
+            momentary = toLoudness(power);
+            if (momentary > maxMomentary) maxMomentary = momentary;
+            if (momentary > ABSOLUTE_GATE_LUFS) {
+                int bin = bin(momentary);
+                blockCounts[bin]++;
+                blockPowers[bin] += power;
+                gatedBlocks++;
+                gatedBlockPower += power;
+            }
+        }
+        if (stepIndex >= SHORT_TERM_STEPS) {
+            double power = windowPower(SHORT_TERM_STEPS);
+            shortTerm = toLoudness(power);
+            if (shortTerm > maxShortTerm) maxShortTerm = shortTerm;
+            if (shortTerm > ABSOLUTE_GATE_LUFS) {
+                shortTermCounts[bin(shortTerm)]++;
+                gatedShortTerms++;
+                gatedShortTermPower += power;
+            }
+        }
+
+        stepLength = stepFrames(stepIndex);
+        stepFill = 0;
+        squares = 0;
+    }
+
+    // Mean square of the last steps, the channels summed.
+    private double windowPower(int steps) {
+        double sum = 0;
+        long frames = 0;
+        for (int i = 1; i <= steps; i++) {
+            int slot = (int) ((stepIndex - i) % SHORT_TERM_STEPS);
+            sum += stepSquares[slot];
+            frames += stepFrames[slot];
+        }
+        return sum / frames;
+    }
+
+    private float integratedLoudness() {
+        if (gatedBlocks == 0) return NO_LOUDNESS;
+        double threshold = toLoudness(gatedBlockPower / gatedBlocks) + INTEGRATED_RELATIVE_GATE_LU;
+        long count = 0;
+        double power = 0;
+        for (int bin = firstBinFrom(threshold); bin < BIN_COUNT; bin++) {
+            count += blockCounts[bin];
+            power += blockPowers[bin];
+        }
+        return count > 0 ? toLoudness(power / count) : NO_LOUDNESS;
+    }
+
+    // Spread between the 10th and the 95th percentiles of the gated short-term loudness, in LU.
+    private float loudnessRange() {
+        if (gatedShortTerms == 0) return 0;
+        double threshold = toLoudness(gatedShortTermPower / gatedShortTerms) + RANGE_RELATIVE_GATE_LU;
+        int first = firstBinFrom(threshold);
+        long count = 0;
+        for (int bin = first; bin < BIN_COUNT; bin++) count += shortTermCounts[bin];
+        if (count == 0) return 0;
+        return (float) (percentile(first, count, RANGE_HIGH_PERCENTILE)
+                - percentile(first, count, RANGE_LOW_PERCENTILE));
+    }
+
+    private double percentile(int firstBin, long count, double percentile) {
+        long rank = Math.round((count - 1) * percentile);
+        for (int bin = firstBin; bin < BIN_COUNT; bin++) {
+            rank -= shortTermCounts[bin];
+            if (rank < 0) return binLoudness(bin);
+        }
+        return binLoudness(BIN_COUNT - 1);
+    }
+
+    // Bins whose center is at or above the threshold.
+    private static int firstBinFrom(double threshold) {
+        double position = (threshold - ABSOLUTE_GATE_LUFS) * BINS_PER_LU - 0.5;
+        return (int) Math.max(0, Math.min(BIN_COUNT, Math.ceil(position)));
+    }
+
+    private static int bin(float loudness) {
+        return (int) Math.min(BIN_COUNT - 1, (loudness - ABSOLUTE_GATE_LUFS) * BINS_PER_LU);
+    }
+
+    private static double binLoudness(int bin) {
+        return ABSOLUTE_GATE_LUFS + (bin + 0.5) / BINS_PER_LU;
+    }
+
+    // Step lengths alternate so that the steps stay 100 ms long when 10 does not divide the rate.
+    private int stepFrames(long index) {
+        long start = index * sampleRate / STEPS_PER_SECOND;
+        long end = (index + 1) * sampleRate / STEPS_PER_SECOND;
+        return (int) Math.max(1, end - start);
+    }
+
+    // Coefficients of BS.1770 at 48 kHz, derived from their analog prototypes for other rates.
+    private void designFilters(int sampleRate) {
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        shelfB0 = (vh + vb * k / q + k * k) / a0;
+        shelfB1 = 2 * (k * k - vh) / a0;
+        shelfB2 = (vh - vb * k / q + k * k) / a0;
+        shelfA1 = 2 * (k * k - 1) / a0;
+        shelfA2 = (1 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        passA1 = 2 * (k * k - 1) / a0;
+        passA2 = (1 - k / q + k * k) / a0;
+    }
+
+    /**
+     * Coefficients of the OVERSAMPLING - 1 interpolated phases, oldest sample first: phase p
+     * interpolates the signal p + 1 quarters of a sample after the middle of the history.
+     */
+    private static float[] truePeakPhases() {
+        float[] phases = new float[(OVERSAMPLING - 1) * TRUE_PEAK_TAPS];
+        int half = TRUE_PEAK_TAPS / 2;
+        for (int phase = 0; phase < OVERSAMPLING - 1; phase++) {
+            double fraction = (double) (phase + 1) / OVERSAMPLING;
+            double sum = 0;
+            for (int tap = 0; tap < TRUE_PEAK_TAPS; tap++) {
+                // Distance from the interpolated point to the sample, in samples.
+                double t = tap - (half - 1) - fraction;
+                double sinc = Math.sin(Math.PI * t) / (Math.PI * t);
+                double window = 0.5 + 0.5 * Math.cos(Math.PI * t / half);
+                phases[phase * TRUE_PEAK_TAPS + tap] = (float) (sinc * window);
+                sum += sinc * window;
+            }
+            // Unity gain at DC.
+            for (int tap = 0; tap < TRUE_PEAK_TAPS; tap++) phases[phase * TRUE_PEAK_TAPS + tap] /= sum;
+        }
+        return phases;
+    }
+
+    private static float toLoudness(double power) {
+        return power > 0 ? (float) (-0.691 + 10 * Math.log10(power)) : NO_LOUDNESS;
+    }
+
+    private static float toDecibels(float amplitude) {
+        return amplitude > 0 ? (float) (20 * Math.log10(amplitude)) : NO_LOUDNESS;
+    }
+
+    private static double flush(double value) {
+        return Math.abs(value) < 1e-20 ? 0 : value;
+    }
+}
@@ -0,0 +1,101 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import com.ranjithnaidu.audiorecorder.record.waveform.PcmDecoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Loudness and clipping of a whole recording, measured by the {@link LoudnessMeter} and saved
+ * in a sidecar file next to the recording. Loudness values are {@link LoudnessMeter#NO_LOUDNESS}
+ * when the recording is silent or too short to be measured.
+ */
+public final class LoudnessSummary {
+
+    public static final String SUFFIX = ".loudness";
+
+    private static final int MAGIC = 0x41524c53; // "ARLS"
+    private static final int VERSION = 1;
+
+    public final int sampleRate;
+    public final long frameCount;
+    // EBU R128 program loudness, in LUFS.
+    public final float integratedLoudness;
+    // Spread of the short-term loudness, in LU.
+    public final float loudnessRange;
+    public final float maxMomentaryLoudness;
+    public final float maxShortTermLoudness;
+    // Largest peak of the signal between the samples, in dBTP.
+    public final float truePeak;
+    // Largest sample, in dBFS.
+    public final float samplePeak;
+    public final long clippedSamples;
+
+    public LoudnessSummary(int sampleRate, long frameCount, float integratedLoudness, float loudnessRange,
+                           float maxMomentaryLoudness, float maxShortTermLoudness, float truePeak,
+                           float samplePeak, long clippedSamples) {
+        this.sampleRate = sampleRate;
+        this.frameCount = frameCount;
+        this.integratedLoudness = integratedLoudness;
+        this.loudnessRange = loudnessRange;
+        this.maxMomentaryLoudness = maxMomentaryLoudness;
+        this.maxShortTermLoudness = maxShortTermLoudness;
+        this.truePeak = truePeak;
+        this.samplePeak = samplePeak;
+        this.clippedSamples = clippedSamples;
+    }
+
+    public static File fileFor(File recording) {
+        return new File(recording.getPath() + SUFFIX);
+    }
+
+    /**
+     * Measures a recording after the fact, e.g. one made by MediaRecorder, and saves its summary.
+     */
+    public static LoudnessSummary measure(File recording, PcmDecoder decoder) throws IOException {
+        LoudnessMeter meter = new LoudnessMeter();
+        decoder.decode(recording, meter);
+        LoudnessSummary summary = meter.getSummary();
+        summary.write(fileFor(recording));
+        return summary;
+    }
+
+    public static LoudnessSummary read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a loudness summary: " + file);
+            }
+            return new LoudnessSummary(in.readInt(), in.readLong(), in.readFloat(), in.readFloat(),
+                    in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readLong());
+        }
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sampleRate);
+            out.writeLong(frameCount);
+            out.writeFloat(integratedLoudness);
+            out.writeFloat(loudnessRange);
+            out.writeFloat(maxMomentaryLoudness);
+            out.writeFloat(maxShortTermLoudness);
+            out.writeFloat(truePeak);
+            out.writeFloat(samplePeak);
+            out.writeLong(clippedSamples);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1f LUFS, range %.1f LU, true peak %.1f dBTP, %d clipped samples",
+                integratedLoudness, loudnessRange, truePeak, clippedSamples);
+    }
+}
@@ -0,0 +1,67 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Meters a PCM recording while it is written, so that its {@link LoudnessSummary} is ready as
+ * soon as it stops instead of being decoded from the file afterwards. The
+ * {@link LoudnessMeter} sees the blocks after the downstream writer has taken them, and the
+ * summary file is written even when the writer fails to stop, with the loudness of what was
+ * captured; {@link #getError()} reports a summary that could not be saved.
+ */
+public final class LoudnessSummaryWriter implements BlockConsumer {
+
+    private final BlockConsumer downstream;
+    private final File summaryFile;
+    private final LoudnessMeter meter = new LoudnessMeter();
+
+    private volatile LoudnessSummary summary;
+    private IOException error;
+
+    public LoudnessSummaryWriter(BlockConsumer downstream, File summaryFile) {
+        this.downstream = downstream;
+        this.summaryFile = summaryFile;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        downstream.onStart(sampleRate, channelCount);
+        meter.onStart(sampleRate, channelCount);
+        summary = null;
+        error = null;
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        downstream.onBlock(block, length);
+        meter.onBlock(block, length);
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            downstream.onStop();
+        } finally {
+            meter.onStop();
+            LoudnessSummary summary = meter.getSummary();
+            try {
+                summary.write(summaryFile);
+            } catch (IOException e) {
+                error = e;
+            }
+            this.summary = summary;
+        }
+    }
+
+    // Null until the recording has stopped.
+    public LoudnessSummary getSummary() {
+        return summary;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+/**
+ * Hands meter frames from the capture thread that produces them to the thread that reads them,
+ * through preallocated primitive arrays. Frames arriving while the queue is full are counted
+ * and dropped.
+ */
+public final class MeterFrameQueue implements LevelMeter.Listener {
+
+    private final int mask;
+    private final long[] frameIndices;
+    private final float[] peaks;
+    private final float[] rmsLevels;
+    private final int[] clippedSamples;
+
+    private volatile long head = 0; // next frame to read
+    private volatile long tail = 0; // next frame to write
+    private volatile long droppedFrames = 0;
+
+    // The capacity is rounded up to a power of two.
+    public MeterFrameQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        frameIndices = new long[size];
+        peaks = new float[size];
+        rmsLevels = new float[size];
+        clippedSamples = new int[size];
+    }
+
+    @Override
+    public void onMeterFrame(long frameIndex, float peak, float rms, int clipped) {
+        long position = tail;
+        if (position - head > mask) {
+            droppedFrames++;
+            return;
+        }
+        int slot = (int) (position & mask);
+        frameIndices[slot] = frameIndex;
+        peaks[slot] = peak;
+        rmsLevels[slot] = rms;
+        clippedSamples[slot] = clipped;
+        tail = position + 1;
+    }
+
+    /**
+     * Copies the pending frames, oldest first, into the arrays given (which may be null for the
+     * values not needed).
+     *
+     * @return the number of frames copied.
+     */
+    public int drain(long[] frameIndexOut, float[] peakOut, float[] rmsOut, int[] clippedOut, int maxFrames) {
+        long position = head;
+        int count = (int) Math.min(tail - position, maxFrames);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((position + i) & mask);
+            if (frameIndexOut != null) frameIndexOut[i] = frameIndices[slot];
+            if (peakOut != null) peakOut[i] = peaks[slot];
+            if (rmsOut != null) rmsOut[i] = rmsLevels[slot];
+            if (clippedOut != null) clippedOut[i] = clippedSamples[slot];
+        }
+        head = position + count;
+        return count;
+    }
+
+    // Discards the pending frames. Only the reading thread may call it, head has a single writer.
+    public void clear() {
+        head = tail;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    // Only updated by the producer thread.
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
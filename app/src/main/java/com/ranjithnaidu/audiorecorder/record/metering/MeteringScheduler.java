@@ -0,0 +1,167 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single thread scheduler shared by all the metering sessions of a component.
+ * <p>
+ * Ticks are placed on a fixed grid measured on the monotonic clock from the start of each
+ * session, so a late tick does not shift the following ones, and the elapsed time reported is
+ * measured rather than counted. Ticks that could not run in time are skipped and reported. The
+ * thread is started with the first active session and ends when the last one is cancelled.
+ */
+public final class MeteringScheduler {
+
+    public interface Client {
+
+        /**
+         * Called on the scheduler thread.
+         *
+         * @param elapsedNanos time since the session started.
+         * @param missedTicks  ticks skipped since the previous call because they were late.
+         */
+        void onTick(long elapsedNanos, int missedTicks);
+    }
+
+    public final class Session {
+
+        private final Client client;
+        private final long startNanos;
+        private long nextTickNanos;
+        private volatile boolean cancelled;
+        private volatile long tickCount;
+        private volatile long missedTickCount;
+
+        private Session(Client client, long startNanos) {
+            this.client = client;
+            this.startNanos = startNanos;
+            this.nextTickNanos = startNanos;
+        }
+
+        // A tick already being delivered may still complete, no other tick starts.
+        public void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                sessions.remove(this);
+                lock.notifyAll();
+            }
+        }
+
+        public long getElapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+
+        public long getTickCount() {
+            return tickCount;
+        }
+
+        public long getMissedTickCount() {
+            return missedTickCount;
+        }
+    }
+
+    private final long periodNanos;
+    private final String threadName;
+    private final Object lock = new Object();
+    private final List<Session> sessions = new ArrayList<>();
+    private final List<Session> due = new ArrayList<>();
+    private Thread thread;
+    private int threadStarts;
+
+    public MeteringScheduler(long periodMillis, String threadName) {
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.threadName = threadName;
+    }
+
+    /**
+     * Starts ticking for a new session, the first tick is immediate.
+     */
+    public Session start(Client client) {
+        synchronized (lock) {
+            Session session = new Session(client, System.nanoTime());
+            sessions.add(session);
+            if (thread == null) {
+                thread = new Thread(this::tickLoop, threadName);
+                thread.setDaemon(true);
+                threadStarts++;
+                thread.start();
+            } else {
+                lock.notifyAll();
+            }
+            return session;
+        }
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    public boolean isThreadRunning() {
+        synchronized (lock) {
+            return thread != null;
+        }
+    }
+
+    // Number of times the thread was (re)started, once per period of activity.
+    public int getThreadStarts() {
+        synchronized (lock) {
+            return threadStarts;
+        }
+    }
+
+    private void tickLoop() {
+        try {
+            runTicks();
+        } finally {
+            // A client threw: let the next session start a new thread.
+            synchronized (lock) {
+                if (thread == Thread.currentThread()) thread = null;
+            }
+        }
+    }
+
+    private void runTicks() {
+        while (true) {
+            synchronized (lock) {
+                while (true) {
+                    if (sessions.isEmpty()) {
+                        // Cleared with the lock held, so that a new session starts a new thread.
+                        thread = null;
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    for (Session session : sessions) {
+                        wait = Math.min(wait, session.nextTickNanos - now);
+                    }
+                    if (wait <= 0) break;
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                    } catch (InterruptedException e) {
+                        // Only cancellations end the thread.
+                    }
+                }
+
+                long now = System.nanoTime();
+                for (Session session : sessions) {
+                    if (session.nextTickNanos <= now) due.add(session);
+                }
+            }
+
+            for (int i = 0; i < due.size(); i++) {
+                Session session = due.get(i);
+                if (session.cancelled) continue;
+                long now = System.nanoTime();
+                long late = now - session.nextTickNanos;
+                int missed = (int) (late / periodNanos);
+                session.nextTickNanos += (missed + 1) * periodNanos;
+                session.tickCount++;
+                session.missedTickCount += missed;
+                session.client.onTick(now - session.startNanos, missed);
+            }
+            due.clear();
+        }
+    }
+}
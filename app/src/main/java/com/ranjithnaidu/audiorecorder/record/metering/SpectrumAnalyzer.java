@@ -0,0 +1,90 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+import com.ranjithnaidu.audiorecorder.record.dsp.RealFft;
+
+/**
+ * Computes the spectrum of each window of fftSize captured frames (channels mixed down), for a
+ * spectrogram. The windows follow each other without overlap, independently of the block size,
+ * and are Hann windowed. The levels are in dB relative to a full scale sine, and floored.
+ * Nothing is allocated once started.
+ */
+public final class SpectrumAnalyzer implements BlockConsumer {
+
+    public interface Listener {
+
+        // Called on the consumer thread; the levels are only valid during the call.
+        void onSpectrum(long frameIndex, float[] levels, int bins);
+    }
+
+    public static final float FLOOR_DB = -120;
+
+    private static final float FULL_SCALE = 32768f;
+
+    private final RealFft fft;
+    private final Listener listener;
+    private final int fftSize;
+    private final float[] frames;
+    private final float[] data;
+    private final float[] levels;
+    // Power of a full scale sine in its bin: the amplitude is scaled by size / 2, then halved by
+    // the window.
+    private final float fullScalePower;
+
+    private int channelCount;
+    private int fill;
+    private long frameIndex;
+
+    // The size must be a power of two.
+    public SpectrumAnalyzer(int fftSize, Listener listener) {
+        this.fft = new RealFft(fftSize);
+        this.listener = listener;
+        this.fftSize = fftSize;
+        frames = new float[fftSize];
+        data = new float[fftSize];
+        levels = new float[fftSize / 2];
+        fullScalePower = (fftSize / 4f) * (fftSize / 4f);
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) {
+        this.channelCount = channelCount;
+        fill = 0;
+        frameIndex = 0;
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) {
+        float scale = 1 / (FULL_SCALE * channelCount);
+        for (int i = 0; i < length; i += channelCount) {
+            int sum = 0;
+            for (int channel = 0; channel < channelCount; channel++) sum += block[i + channel];
+            frames[fill++] = sum * scale;
+            if (fill == fftSize) {
+                analyze();
+                fill = 0;
+            }
+        }
+    }
+
+    @Override
+    public void onStop() {
+    }
+
+    public int getBinCount() {
+        return levels.length;
+    }
+
+    private void analyze() {
+        System.arraycopy(frames, 0, data, 0, fftSize);
+        fft.window(data);
+        fft.forward(data);
+        fft.powerSpectrum(data, levels);
+        for (int k = 0; k < levels.length; k++) {
+            float power = levels[k] / fullScalePower;
+            levels[k] = power > 1e-12f ? Math.max(FLOOR_DB, (float) (10 * Math.log10(power))) : FLOOR_DB;
+        }
+        listener.onSpectrum(frameIndex, levels, levels.length);
+        frameIndex += fftSize;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+/**
+ * Hands the spectra of the {@link SpectrumAnalyzer} from the capture thread to the view drawing
+ * them, through a preallocated array of columns. Like {@link MeterFrameQueue}, columns arriving
+ * while the queue is full are counted and dropped.
+ */
+public final class SpectrumQueue implements SpectrumAnalyzer.Listener {
+
+    private final int mask;
+    private final int bins;
+    private final float[] columns;
+
+    private volatile long head = 0; // next column to read
+    private volatile long tail = 0; // next column to write
+    private volatile long droppedColumns = 0;
+
+    // The capacity is rounded up to a power of two.
+    public SpectrumQueue(int capacity, int bins) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        this.bins = bins;
+        columns = new float[size * bins];
+    }
+
+    @Override
+    public void onSpectrum(long frameIndex, float[] levels, int bins) {
+        long position = tail;
+        if (position - head > mask) {
+            droppedColumns++;
+            return;
+        }
+        System.arraycopy(levels, 0, columns, (int) (position & mask) * this.bins, Math.min(bins, this.bins));
+        tail = position + 1;
+    }
+
+    /**
+     * Copies the pending columns, oldest first, one after the other into out.
+     *
+     * @return the number of columns copied.
+     */
+    public int drain(float[] out, int maxColumns) {
+        long position = head;
+        int count = (int) Math.min(tail - position, Math.min(maxColumns, out.length / bins));
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(columns, (int) ((position + i) & mask) * bins, out, i * bins, bins);
+        }
+        head = position + count;
+        return count;
+    }
+
+    // Discards the pending columns, from the reading thread.
+    public void clear() {
+        head = tail;
+    }
+
+    public int getBinCount() {
+        return bins;
+    }
+
+    // Only updated by the producer thread.
+    public long getDroppedColumns() {
+        return droppedColumns;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+/**
+ * Table driven CRC-32 (the java.util.zip polynomial) updated straight from 16 bit samples, as
+ * if they were stored little endian, so checksums can be computed without a byte copy.
+ */
+final class Crc32 {
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? 0xEDB88320 ^ (c >>> 1) : c >>> 1;
+            }
+            TABLE[n] = c;
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    void update(short[] samples, int offset, int length) {
+        int c = crc;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int sample = samples[i];
+            c = TABLE[(c ^ sample) & 0xFF] ^ (c >>> 8);
+            c = TABLE[(c ^ (sample >> 8)) & 0xFF] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    void update(byte[] bytes, int offset, int length) {
+        int c = crc;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            c = TABLE[(c ^ bytes[i]) & 0xFF] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    int getValue() {
+        return ~crc;
+    }
+
+    void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,374 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Metadata and sample tables of the audio track of an MP4 (ISO-BMFF) file, such as the AAC
+ * recordings of MediaRecorder, read without decoding any audio.
+ * <p>
+ * Only the box headers of the top level are read to find the movie box, which is mapped into
+ * memory and parsed; the media data is never read. The sample tables are views of the mapping,
+ * so opening a file costs a few small reads whatever its length.
+ */
+public final class Mp4File {
+
+    private static final int FTYP = 0x66747970;
+    private static final int MOOV = 0x6d6f6f76;
+    private static final int MVHD = 0x6d766864;
+    private static final int TRAK = 0x7472616b;
+    private static final int MDIA = 0x6d646961;
+    private static final int MDHD = 0x6d646864;
+    private static final int HDLR = 0x68646c72;
+    private static final int MINF = 0x6d696e66;
+    private static final int STBL = 0x7374626c;
+    private static final int STSD = 0x73747364;
+    private static final int STTS = 0x73747473;
+    private static final int STSC = 0x73747363;
+    private static final int STSZ = 0x7374737a;
+    private static final int STCO = 0x7374636f;
+    private static final int CO64 = 0x636f3634;
+    private static final int ESDS = 0x65736473;
+    private static final int SOUN = 0x736f756e;
+
+    // Size of the fields of an audio sample entry before its child boxes.
+    private static final int AUDIO_SAMPLE_ENTRY_SIZE = 36;
+
+    private final int codec;
+    private final int timescale;
+    private final long durationUnits;
+    private final int sampleRate;
+    private final int channelCount;
+    private final long bitrate;
+
+    // Sample tables, big endian views of the mapped movie box.
+    private final IntBuffer timeToSample;
+    private final int fixedSampleSize;
+    private final int sampleCount;
+    private final IntBuffer sampleSizes;
+    private final IntBuffer sampleToChunk;
+    private final IntBuffer chunkOffsets32;
+    private final LongBuffer chunkOffsets64;
+
+    private Mp4File(Parser parser) throws IOException {
+        if (parser.stsd == null || parser.stts == null || parser.stsz == null || parser.stsc == null
+                || (parser.stco == null && parser.co64 == null)) {
+            throw new IOException("No audio track");
+        }
+        timescale = parser.timescale;
+        durationUnits = parser.duration;
+
+        ByteBuffer entry = parser.stsd;
+        codec = entry.getInt(4);
+        channelCount = entry.getShort(24) & 0xFFFF;
+        int entryRate = entry.getInt(32) >>> 16;
+        sampleRate = entryRate != 0 ? entryRate : timescale;
+
+        ByteBuffer stts = parser.stts;
+        timeToSample = slice(stts, 8, stts.getInt(4) * 8).asIntBuffer();
+
+        ByteBuffer stsz = parser.stsz;
+        fixedSampleSize = stsz.getInt(4);
+        sampleCount = stsz.getInt(8);
+        sampleSizes = fixedSampleSize != 0 ? null : slice(stsz, 12, sampleCount * 4).asIntBuffer();
+
+        ByteBuffer stsc = parser.stsc;
+        sampleToChunk = slice(stsc, 8, stsc.getInt(4) * 12).asIntBuffer();
+
+        if (parser.co64 != null) {
+            chunkOffsets32 = null;
+            chunkOffsets64 = slice(parser.co64, 8, parser.co64.getInt(4) * 8).asLongBuffer();
+        } else {
+            chunkOffsets32 = slice(parser.stco, 8, parser.stco.getInt(4) * 4).asIntBuffer();
+            chunkOffsets64 = null;
+        }
+
+        long durationMillis = getDurationMillis();
+        if (parser.averageBitrate > 0) {
+            bitrate = parser.averageBitrate;
+        } else if (durationMillis > 0) {
+            bitrate = getDataSize() * 8000 / durationMillis;
+        } else {
+            bitrate = 0;
+        }
+    }
+
+    /**
+     * Reads the first audio track of the file.
+     *
+     * @throws IOException if the file is not an MP4 file or has no audio track.
+     */
+    public static Mp4File open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
+            long position = 0;
+            boolean first = true;
+            // MediaRecorder writes the movie box after the media data: skip over the boxes.
+            while (position + 8 <= size) {
+                header.clear();
+                while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                    // Reads the largest header, or up to the end of the file.
+                }
+                long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+                int type = header.getInt(4);
+                int headerSize = 8;
+                if (boxSize == 1) {
+                    if (header.position() < 16) break;
+                    boxSize = header.getLong(8);
+                    headerSize = 16;
+                } else if (boxSize == 0) {
+                    boxSize = size - position;
+                }
+                if (first && type != FTYP) throw new IOException("Not an MP4 file: " + file);
+                first = false;
+                if (boxSize < headerSize || position + boxSize > size) break;
+                if (type == MOOV) {
+                    if (boxSize > Integer.MAX_VALUE) throw new IOException("Movie box too large: " + file);
+                    ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize,
+                            boxSize - headerSize);
+                    Parser parser = new Parser();
+                    parser.parseMovie(moov);
+                    return new Mp4File(parser);
+                }
+                position += boxSize;
+            }
+            throw new IOException("No movie box: " + file);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt MP4 file: " + file, e);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // The sample entry type, "mp4a" for AAC.
+    public String getCodec() {
+        return new String(new char[]{(char) (codec >>> 24), (char) ((codec >>> 16) & 0xFF),
+                (char) ((codec >>> 8) & 0xFF), (char) (codec & 0xFF)});
+    }
+
+    public long getDurationMillis() {
+        return timescale > 0 ? durationUnits * 1000 / timescale : 0;
+    }
+
+    // Units of the sample times.
+    public int getTimescale() {
+        return timescale;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    // Average bits per second, declared by the encoder or measured on the sample sizes.
+    public long getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getSampleSize(int sample) {
+        return sampleSizes == null ? fixedSampleSize : sampleSizes.get(sample);
+    }
+
+    // Total size of the encoded samples.
+    public long getDataSize() {
+        if (sampleSizes == null) return (long) fixedSampleSize * sampleCount;
+        long total = 0;
+        for (int i = 0; i < sampleCount; i++) total += sampleSizes.get(i) & 0xFFFFFFFFL;
+        return total;
+    }
+
+    /**
+     * @return the decoding time of the sample, in {@link #getTimescale()} units.
+     */
+    public long getSampleTime(int sample) {
+        long time = 0;
+        int remaining = sample;
+        for (int entry = 0, entries = timeToSample.limit() / 2; entry < entries; entry++) {
+            int count = timeToSample.get(entry * 2);
+            int delta = timeToSample.get(entry * 2 + 1);
+            if (remaining < count) return time + (long) remaining * delta;
+            time += (long) count * delta;
+            remaining -= count;
+        }
+        return time;
+    }
+
+    public int getChunkCount() {
+        return chunkOffsets64 != null ? chunkOffsets64.limit() : chunkOffsets32.limit();
+    }
+
+    public long getChunkOffset(int chunk) {
+        return chunkOffsets64 != null ? chunkOffsets64.get(chunk) : chunkOffsets32.get(chunk) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the position of the sample in the file, from the chunk it is in and the sizes of the
+     * samples before it in that chunk.
+     */
+    public long getSampleOffset(int sample) {
+        if (sample < 0 || sample >= sampleCount) throw new IndexOutOfBoundsException("Sample " + sample);
+        int entries = sampleToChunk.limit() / 3;
+        int firstSample = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            int firstChunk = sampleToChunk.get(entry * 3) - 1;
+            int samplesPerChunk = sampleToChunk.get(entry * 3 + 1);
+            int lastChunk = entry + 1 < entries ? sampleToChunk.get((entry + 1) * 3) - 1 : getChunkCount();
+            long runSamples = (long) (lastChunk - firstChunk) * samplesPerChunk;
+            if (sample < firstSample + runSamples) {
+                int chunk = firstChunk + (sample - firstSample) / samplesPerChunk;
+                int chunkFirstSample = sample - (sample - firstSample) % samplesPerChunk;
+                long offset = getChunkOffset(chunk);
+                for (int i = chunkFirstSample; i < sample; i++) offset += getSampleSize(i);
+                return offset;
+            }
+            firstSample += runSamples;
+        }
+        throw new IndexOutOfBoundsException("Sample " + sample + " is in no chunk");
+    }
+
+    private static ByteBuffer slice(ByteBuffer box, int offset, int length) {
+        if (length < 0 || offset + length > box.limit()) throw new BufferUnderflowException();
+        ByteBuffer duplicate = box.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Walks the boxes of the movie down to the tables of the first audio track. The contents of
+     * the boxes found are kept as slices starting after their header, so the fields of full boxes
+     * start with their version and flags.
+     */
+    private static final class Parser {
+
+        int timescale;
+        long duration;
+        long averageBitrate;
+        ByteBuffer stsd;
+        ByteBuffer stts;
+        ByteBuffer stsc;
+        ByteBuffer stsz;
+        ByteBuffer stco;
+        ByteBuffer co64;
+        private boolean audioFound;
+
+        void parseMovie(ByteBuffer moov) {
+            for (int position = 0; position + 8 <= moov.limit(); ) {
+                int size = boxSize(moov, position);
+                int type = moov.getInt(position + 4);
+                if (type == MVHD && timescale == 0) {
+                    ByteBuffer mvhd = slice(moov, position + 8, size - 8);
+                    // The duration of the track, when found, is preferred.
+                    readTime(mvhd, 12);
+                } else if (type == TRAK && !audioFound) {
+                    parseTrack(slice(moov, position + 8, size - 8));
+                }
+                position += size;
+            }
+        }
+
+        private void parseTrack(ByteBuffer trak) {
+            ByteBuffer mdia = child(trak, MDIA);
+            if (mdia == null) return;
+            ByteBuffer hdlr = child(mdia, HDLR);
+            // Version and flags, pre_defined, then the handler type.
+            if (hdlr == null || hdlr.getInt(8) != SOUN) return;
+            ByteBuffer minf = child(mdia, MINF);
+            ByteBuffer stbl = minf != null ? child(minf, STBL) : null;
+            if (stbl == null) return;
+            audioFound = true;
+
+            ByteBuffer mdhd = child(mdia, MDHD);
+            if (mdhd != null) readTime(mdhd, 12);
+
+            ByteBuffer stsdBox = child(stbl, STSD);
+            if (stsdBox != null && stsdBox.getInt(4) > 0) {
+                stsd = slice(stsdBox, 8, boxSize(stsdBox, 8));
+                ByteBuffer esds = child(slice(stsd, AUDIO_SAMPLE_ENTRY_SIZE,
+                        stsd.limit() - AUDIO_SAMPLE_ENTRY_SIZE), ESDS);
+                if (esds != null) averageBitrate = readAverageBitrate(esds);
+            }
+            stts = child(stbl, STTS);
+            stsc = child(stbl, STSC);
+            stsz = child(stbl, STSZ);
+            stco = child(stbl, STCO);
+            co64 = child(stbl, CO64);
+        }
+
+        // Timescale and duration of a movie or media header, version 0 or 1.
+        private void readTime(ByteBuffer header, int version0Offset) {
+            if (header.get(0) == 1) {
+                timescale = header.getInt(20);
+                duration = header.getLong(24);
+            } else {
+                timescale = header.getInt(version0Offset);
+                duration = header.getInt(version0Offset + 4) & 0xFFFFFFFFL;
+            }
+        }
+
+        // Average bitrate of the decoder configuration, inside the elementary stream descriptor.
+        private static long readAverageBitrate(ByteBuffer esds) {
+            int position = 4;
+            while (position + 2 <= esds.limit()) {
+                int tag = esds.get(position++) & 0xFF;
+                int length = 0;
+                for (int i = 0; i < 4; i++) {
+                    int b = esds.get(position++) & 0xFF;
+                    length = (length << 7) | (b & 0x7F);
+                    if ((b & 0x80) == 0) break;
+                }
+                if (tag == 0x03) {
+                    // ES_ID, then flags telling which optional fields follow.
+                    int flags = esds.get(position + 2) & 0xFF;
+                    position += 3;
+                    if ((flags & 0x80) != 0) position += 2;
+                    if ((flags & 0x40) != 0) position += 1 + (esds.get(position) & 0xFF);
+                    if ((flags & 0x20) != 0) position += 2;
+                } else if (tag == 0x04) {
+                    // Object type, stream type, buffer size, maximum then average bitrate.
+                    return esds.getInt(position + 9) & 0xFFFFFFFFL;
+                } else {
+                    position += length;
+                }
+            }
+            return 0;
+        }
+
+        private static ByteBuffer child(ByteBuffer parent, int childType) {
+            for (int position = 0; position + 8 <= parent.limit(); ) {
+                int size = boxSize(parent, position);
+                if (parent.getInt(position + 4) == childType) {
+                    return slice(parent, position + 8, size - 8);
+                }
+                position += size;
+            }
+            return null;
+        }
+
+        private static int boxSize(ByteBuffer parent, int position) {
+            long size = parent.getInt(position) & 0xFFFFFFFFL;
+            if (size == 0) size = parent.limit() - position;
+            if (size < 8 || position + size > parent.limit()) {
+                throw new IllegalArgumentException("Bad box size " + size + " at " + position);
+            }
+            return (int) size;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the captured blocks to a sequence of WAV files, rolling over to the next file when the
+ * current one reaches a size or duration limit. The split happens on a sample boundary, so the
+ * files play back to back without any gap.
+ * <p>
+ * Opening the next file and closing the completed one run on a background thread: the next
+ * file is always prepared before it is needed, and the rollover itself is just a swap. A full
+ * file is only completed when more audio arrives, so every file reported to the listener is
+ * followed by a non-empty one, the last file of the recording.
+ * <p>
+ * Each file can have a sidecar, a consumer given exactly the blocks written to that file, such
+ * as the writer of its waveform peak file.
+ */
+public final class RotatingWavWriter implements BlockConsumer {
+
+    /**
+     * Called on the background thread once a completed file has been closed and is playable.
+     */
+    public interface Listener {
+        void onFileRotated(File completedFile, long frameCount, int sampleRate);
+    }
+
+    /**
+     * Creates the sidecar of a file. It is started with the file, on the writing thread, and
+     * stopped once the file is closed: on the background thread before a completed file is
+     * reported to the listener, on the writing thread for the last file.
+     */
+    public interface SidecarFactory {
+        BlockConsumer create(File file);
+    }
+
+    private final File firstFile;
+    private final long maxFileBytes;
+    private final long maxFileMillis;
+    private final Listener listener;
+    private final SidecarFactory sidecarFactory;
+
+    private ExecutorService io;
+    private WavWriter current;
+    private BlockConsumer currentSidecar;
+    private Future<WavWriter> next;
+    private int fileNumber;
+    private int sampleRate;
+    private int channelCount;
+    private long maxFileFrames;
+    private volatile long finalFrameCount;
+    private volatile IOException closeError;
+
+    /**
+     * @param maxFileBytes  size limit of each file, header included, or 0 for no limit.
+     * @param maxFileMillis duration limit of each file, or 0 for no limit.
+     */
+    public RotatingWavWriter(File firstFile, long maxFileBytes, long maxFileMillis, Listener listener) {
+        this(firstFile, maxFileBytes, maxFileMillis, listener, null);
+    }
+
+    /**
+     * @param sidecarFactory creates the sidecar of each file, or null for none.
+     */
+    public RotatingWavWriter(File firstFile, long maxFileBytes, long maxFileMillis, Listener listener,
+                             SidecarFactory sidecarFactory) {
+        this.firstFile = firstFile;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileMillis = maxFileMillis;
+        this.listener = listener;
+        this.sidecarFactory = sidecarFactory;
+    }
+
+    /**
+     * Name of the file following the given one in the sequence: the first file keeps its name,
+     * the next ones get a _2, _3... suffix.
+     */
+    public static File fileAt(File firstFile, int number) {
+        if (number == 0) return firstFile;
+        String name = firstFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String extension = dot < 0 ? "" : name.substring(dot);
+        return new File(firstFile.getParentFile(), String.format(Locale.US, "%s_%d%s", base, number + 1, extension));
+    }
+
+    // The file being written.
+    public File getCurrentFile() {
+        return fileAt(firstFile, fileNumber);
+    }
+
+    // Frames written to the current file, or to the last one once stopped.
+    public long getCurrentFrameCount() {
+        WavWriter writer = current;
+        return writer != null ? writer.getFrameCount() : finalFrameCount;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        long frameBytes = 2L * channelCount;
+        maxFileFrames = Long.MAX_VALUE;
+        if (maxFileMillis > 0) {
+            maxFileFrames = Math.min(maxFileFrames, maxFileMillis * sampleRate / 1000);
+        }
+        if (maxFileBytes > 0) {
+            maxFileFrames = Math.min(maxFileFrames, (maxFileBytes - WavWriter.HEADER_SIZE) / frameBytes);
+        }
+        // The RIFF sizes are 32 bit.
+        maxFileFrames = Math.max(1, Math.min(maxFileFrames, (0xFFFFFFFFL - 36) / frameBytes));
+
+        io = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "WavRotation"));
+        fileNumber = 0;
+        current = new WavWriter(firstFile, sampleRate, channelCount);
+        currentSidecar = startSidecar(firstFile);
+        prepareNext();
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (current.getFrameCount() >= maxFileFrames) {
+                rotate();
+            }
+            long room = (maxFileFrames - current.getFrameCount()) * channelCount;
+            int count = (int) Math.min(length - offset, room);
+            current.write(block, offset, count);
+            if (currentSidecar != null) {
+                // Only a block split by a rollover is copied.
+                boolean whole = offset == 0 && count == length;
+                currentSidecar.onBlock(whole ? block : Arrays.copyOfRange(block, offset, offset + count), count);
+            }
+            offset += count;
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (current == null) return;
+        try {
+            current.close();
+            finalFrameCount = current.getFrameCount();
+            current = null;
+            if (currentSidecar != null) {
+                BlockConsumer sidecar = currentSidecar;
+                currentSidecar = null;
+                sidecar.onStop();
+            }
+
+            // Throw away the file prepared for a rollover that never came.
+            WavWriter unused = awaitNext();
+            unused.close();
+            unused.getFile().delete();
+        } finally {
+            io.shutdown();
+            try {
+                io.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            io = null;
+        }
+        if (closeError != null) throw closeError;
+    }
+
+    private void rotate() throws IOException {
+        if (closeError != null) throw closeError;
+
+        final WavWriter completed = current;
+        final BlockConsumer completedSidecar = currentSidecar;
+        current = awaitNext();
+        fileNumber++;
+        currentSidecar = startSidecar(current.getFile());
+        prepareNext();
+
+        io.execute(() -> {
+            try {
+                completed.close();
+                if (completedSidecar != null) completedSidecar.onStop();
+                if (listener != null) {
+                    listener.onFileRotated(completed.getFile(), completed.getFrameCount(), sampleRate);
+                }
+            } catch (IOException e) {
+                closeError = e;
+            }
+        });
+    }
+
+    private BlockConsumer startSidecar(File file) throws IOException {
+        if (sidecarFactory == null) return null;
+        BlockConsumer sidecar = sidecarFactory.create(file);
+        sidecar.onStart(sampleRate, channelCount);
+        return sidecar;
+    }
+
+    private void prepareNext() {
+        final File file = fileAt(firstFile, fileNumber + 1);
+        next = io.submit(() -> new WavWriter(file, sampleRate, channelCount));
+    }
+
+    private WavWriter awaitNext() throws IOException {
+        try {
+            return next.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot prepare the next file", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while preparing the next file", e);
+        }
+    }
+}
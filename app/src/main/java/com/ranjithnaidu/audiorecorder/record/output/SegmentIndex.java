@@ -0,0 +1,213 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only index of a segmented recording session.
+ * <p>
+ * A session is a directory holding fixed duration WAV segments and this index. A record is
+ * appended, and forced to storage, only once its segment has been fully written and synced, so
+ * after a crash every indexed segment is known to be complete. Every record carries its own
+ * checksum: a record torn by a crash is detected and dropped on recovery.
+ */
+public final class SegmentIndex implements Closeable {
+
+    public static final String FILE_NAME = "index";
+    public static final String SESSION_SUFFIX = ".session";
+
+    private static final int MAGIC = 0x49535241; // "ARSI" little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 32;
+    private static final int TYPE_SEGMENT = 1;
+    private static final int TYPE_END = 2;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Crc32 crc = new Crc32();
+    private long position;
+
+    private SegmentIndex(RandomAccessFile file, long position) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.position = position;
+    }
+
+    /**
+     * An indexed segment of a session.
+     */
+    public static final class Segment {
+        public final int number;
+        public final long startFrame;
+        public final long frameCount;
+        public final int checksum;
+        public final File file;
+
+        Segment(int number, long startFrame, long frameCount, int checksum, File file) {
+            this.number = number;
+            this.startFrame = startFrame;
+            this.frameCount = frameCount;
+            this.checksum = checksum;
+            this.file = file;
+        }
+    }
+
+    /**
+     * What could be read from the index of a session.
+     */
+    public static final class Contents {
+        public final int sampleRate;
+        public final int channelCount;
+        public final List<Segment> segments;
+        // True if the session was stopped cleanly (or has already been recovered).
+        public final boolean complete;
+        final long validLength;
+
+        Contents(int sampleRate, int channelCount, List<Segment> segments, boolean complete, long validLength) {
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.segments = Collections.unmodifiableList(segments);
+            this.complete = complete;
+            this.validLength = validLength;
+        }
+
+        public long getFrameCount() {
+            if (segments.isEmpty()) return 0;
+            Segment last = segments.get(segments.size() - 1);
+            return last.startFrame + last.frameCount;
+        }
+    }
+
+    public static File segmentFile(File sessionDir, int number) {
+        return new File(sessionDir, String.format(Locale.US, "%05d.wav", number));
+    }
+
+    public static boolean isSession(File file) {
+        return file.isDirectory() && file.getName().endsWith(SESSION_SUFFIX)
+                && new File(file, FILE_NAME).isFile();
+    }
+
+    public static SegmentIndex create(File sessionDir, int sampleRate, int channelCount) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(sessionDir, FILE_NAME), "rw");
+        file.setLength(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(channelCount).flip();
+        FileChannel channel = file.getChannel();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        return new SegmentIndex(file, HEADER_SIZE);
+    }
+
+    public void appendSegment(int number, long startFrame, long frameCount, int checksum) throws IOException {
+        append(TYPE_SEGMENT, number, startFrame, frameCount, checksum);
+    }
+
+    // Marks the session as complete.
+    public void appendEnd(int segmentCount, long frameCount) throws IOException {
+        append(TYPE_END, segmentCount, 0, frameCount, 0);
+    }
+
+    private void append(int type, int number, long startFrame, long frameCount, int checksum) throws IOException {
+        record.clear();
+        record.putInt(type).putInt(number).putLong(startFrame).putLong(frameCount).putInt(checksum);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt(crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reads the valid part of the index of a session, stopping at the first torn or corrupted
+     * record.
+     */
+    public static Contents read(File sessionDir) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile in = new RandomAccessFile(new File(sessionDir, FILE_NAME), "r")) {
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a session index: " + sessionDir);
+        }
+        int sampleRate = buffer.getInt();
+        int channelCount = buffer.getInt();
+
+        List<Segment> segments = new ArrayList<>();
+        boolean complete = false;
+        long expectedStart = 0;
+        Crc32 crc = new Crc32();
+        while (buffer.remaining() >= RECORD_SIZE && !complete) {
+            int offset = buffer.position();
+            crc.reset();
+            crc.update(bytes, offset, RECORD_SIZE - 4);
+            int type = buffer.getInt();
+            int number = buffer.getInt();
+            long startFrame = buffer.getLong();
+            long frameCount = buffer.getLong();
+            int checksum = buffer.getInt();
+            if (buffer.getInt() != crc.getValue()) {
+                buffer.position(offset);
+                break;
+            }
+
+            if (type == TYPE_SEGMENT && number == segments.size() && startFrame == expectedStart) {
+                segments.add(new Segment(number, startFrame, frameCount, checksum, segmentFile(sessionDir, number)));
+                expectedStart += frameCount;
+            } else if (type == TYPE_END) {
+                complete = true;
+            } else {
+                buffer.position(offset);
+                break;
+            }
+        }
+        return new Contents(sampleRate, channelCount, segments, complete, buffer.position());
+    }
+
+    /**
+     * Brings an interrupted session back to a consistent state: the torn tail of the index and
+     * the segment that was being written are dropped, and the session is marked as complete.
+     * Everything up to the last completed segment is kept.
+     */
+    public static Contents recover(File sessionDir) throws IOException {
+        Contents contents = read(sessionDir);
+        if (contents.complete) return contents;
+
+        int number = contents.segments.size();
+        File partial;
+        while ((partial = segmentFile(sessionDir, number)).exists()) {
+            if (!partial.delete()) throw new IOException("Cannot delete " + partial);
+            number++;
+        }
+
+        try (SegmentIndex index = new SegmentIndex(new RandomAccessFile(new File(sessionDir, FILE_NAME), "rw"),
+                contents.validLength)) {
+            index.file.setLength(contents.validLength);
+            index.appendEnd(contents.segments.size(), contents.getFrameCount());
+        }
+        return new Contents(contents.sampleRate, contents.channelCount, contents.segments, true,
+                contents.validLength + RECORD_SIZE);
+    }
+}
@@ -0,0 +1,146 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Reads the segments of a recording session as one continuous stream of samples.
+ */
+public final class SegmentedRecordingReader implements Closeable {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final SegmentIndex.Contents contents;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ShortBuffer samples = buffer.asShortBuffer();
+
+    private int segmentIndex = -1;
+    private RandomAccessFile segmentFile;
+    private FileChannel segmentChannel;
+    private long segmentEnd;
+
+    public SegmentedRecordingReader(File sessionDir) throws IOException {
+        contents = SegmentIndex.read(sessionDir);
+    }
+
+    public int getSampleRate() {
+        return contents.sampleRate;
+    }
+
+    public int getChannelCount() {
+        return contents.channelCount;
+    }
+
+    public long getFrameCount() {
+        return contents.getFrameCount();
+    }
+
+    public List<SegmentIndex.Segment> getSegments() {
+        return contents.segments;
+    }
+
+    /**
+     * Moves the read position to the given frame of the session.
+     */
+    public void seekToFrame(long frame) throws IOException {
+        List<SegmentIndex.Segment> segments = contents.segments;
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid).startFrame <= frame) low = mid;
+            else high = mid - 1;
+        }
+        if (segments.isEmpty()) return;
+
+        SegmentIndex.Segment segment = segments.get(low);
+        long frameInSegment = Math.max(0, Math.min(frame - segment.startFrame, segment.frameCount));
+        openSegment(low);
+        segmentChannel.position(WavWriter.HEADER_SIZE + frameInSegment * contents.channelCount * 2);
+    }
+
+    /**
+     * Reads interleaved samples, crossing segment boundaries as needed.
+     *
+     * @return the number of samples read, or -1 at the end of the session.
+     */
+    public int read(short[] destination, int offset, int length) throws IOException {
+        if (segmentIndex < 0) {
+            if (contents.segments.isEmpty()) return -1;
+            openSegment(0);
+        }
+
+        int total = 0;
+        while (total < length) {
+            long available = segmentEnd - segmentChannel.position();
+            if (available <= 0) {
+                if (segmentIndex + 1 >= contents.segments.size()) break;
+                openSegment(segmentIndex + 1);
+                continue;
+            }
+
+            buffer.clear();
+            buffer.limit((int) Math.min(Math.min(BUFFER_BYTES, available), (long) (length - total) * 2));
+            int read = segmentChannel.read(buffer);
+            if (read <= 0) throw new IOException("Segment " + segmentIndex + " is truncated");
+            int count = read / 2;
+            samples.clear();
+            samples.get(destination, offset + total, count);
+            total += count;
+        }
+        return total == 0 && length > 0 ? -1 : total;
+    }
+
+    /**
+     * Checks the content of every segment against the checksum stored in the index.
+     *
+     * @return the number of the first corrupted segment, or -1 if all of them are intact.
+     */
+    public int verify() throws IOException {
+        Crc32 crc = new Crc32();
+        byte[] bytes = new byte[BUFFER_BYTES];
+        for (SegmentIndex.Segment segment : contents.segments) {
+            crc.reset();
+            try (RandomAccessFile in = new RandomAccessFile(segment.file, "r")) {
+                long remaining = segment.frameCount * contents.channelCount * 2;
+                in.seek(WavWriter.HEADER_SIZE);
+                while (remaining > 0) {
+                    int count = (int) Math.min(bytes.length, remaining);
+                    in.readFully(bytes, 0, count);
+                    crc.update(bytes, 0, count);
+                    remaining -= count;
+                }
+            } catch (IOException e) {
+                return segment.number;
+            }
+            if (crc.getValue() != segment.checksum) return segment.number;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segmentFile != null) {
+            segmentFile.close();
+            segmentFile = null;
+            segmentChannel = null;
+        }
+    }
+
+    private void openSegment(int index) throws IOException {
+        close();
+        SegmentIndex.Segment segment = contents.segments.get(index);
+        segmentFile = new RandomAccessFile(segment.file, "r");
+        segmentChannel = segmentFile.getChannel();
+        segmentChannel.position(WavWriter.HEADER_SIZE);
+        segmentEnd = WavWriter.HEADER_SIZE + segment.frameCount * contents.channelCount * 2;
+        segmentIndex = index;
+    }
+}
@@ -0,0 +1,100 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the captured blocks to a session directory of fixed duration WAV segments described
+ * by a {@link SegmentIndex}. If the process dies, everything up to the last completed segment
+ * can be recovered with {@link SegmentIndex#recover(File)}.
+ */
+public final class SegmentedRecordingWriter implements BlockConsumer {
+
+    private final File sessionDir;
+    private final long segmentMillis;
+    private final Crc32 crc = new Crc32();
+
+    private SegmentIndex index;
+    private WavWriter segment;
+    private int sampleRate;
+    private int channelCount;
+    private long segmentFrames;
+    private int segmentNumber;
+    private long segmentStartFrame;
+
+    public SegmentedRecordingWriter(File sessionDir, long segmentMillis) {
+        this.sessionDir = sessionDir;
+        this.segmentMillis = segmentMillis;
+    }
+
+    public File getSessionDir() {
+        return sessionDir;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        if (!sessionDir.isDirectory() && !sessionDir.mkdirs()) {
+            throw new IOException("Cannot create " + sessionDir);
+        }
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        segmentFrames = Math.max(1, segmentMillis * sampleRate / 1000);
+        segmentNumber = 0;
+        segmentStartFrame = 0;
+
+        index = SegmentIndex.create(sessionDir, sampleRate, channelCount);
+        openSegment();
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            long room = (segmentFrames - segment.getFrameCount()) * channelCount;
+            int count = (int) Math.min(length - offset, room);
+            segment.write(block, offset, count);
+            crc.update(block, offset, count);
+            offset += count;
+
+            if (segment.getFrameCount() >= segmentFrames) {
+                completeSegment();
+                openSegment();
+            }
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (index == null) return;
+        try {
+            if (segment.getFrameCount() > 0) {
+                completeSegment();
+            } else {
+                segment.close();
+                segment.getFile().delete();
+            }
+            segment = null;
+            index.appendEnd(segmentNumber, segmentStartFrame);
+        } finally {
+            index.close();
+            index = null;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segment = new WavWriter(SegmentIndex.segmentFile(sessionDir, segmentNumber), sampleRate, channelCount);
+        crc.reset();
+    }
+
+    // The segment is on the storage device before it is indexed.
+    private void completeSegment() throws IOException {
+        long frames = segment.getFrameCount();
+        segment.sync();
+        segment.close();
+        index.appendSegment(segmentNumber, segmentStartFrame, frames, crc.getValue());
+        segmentNumber++;
+        segmentStartFrame += frames;
+    }
+}
@@ -0,0 +1,37 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the captured blocks to a WAV file.
+ */
+public final class WavFileConsumer implements BlockConsumer {
+
+    private final File file;
+    private WavWriter writer;
+
+    public WavFileConsumer(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        writer = new WavWriter(file, sampleRate, channelCount);
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        writer.write(block, 0, length);
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
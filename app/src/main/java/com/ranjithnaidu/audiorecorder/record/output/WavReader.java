@@ -0,0 +1,149 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of 16 bit PCM RIFF/WAV files, such as the ones written by {@link WavWriter}.
+ * <p>
+ * If the data size in the header is missing or wrong (a recording interrupted before the header
+ * was patched), the data is assumed to run to the end of the file.
+ */
+public final class WavReader implements Closeable {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channelCount;
+    private final long dataOffset;
+    private final long dataEnd;
+    private ByteBuffer buffer;
+    private ShortBuffer samples;
+
+    public WavReader(File wavFile) throws IOException {
+        file = new RandomAccessFile(wavFile, "r");
+        channel = file.getChannel();
+        try {
+            ByteBuffer chunk = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(chunk, 0);
+            if (chunk.getInt(0) != 0x46464952 || chunk.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+                throw new IOException("Not a WAV file: " + wavFile);
+            }
+
+            int rate = 0;
+            int channels = 0;
+            long position = 12;
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (true) {
+                readFully(header, position);
+                int id = header.getInt(0);
+                long size = header.getInt(4) & 0xFFFFFFFFL;
+                position += 8;
+                if (id == 0x20746D66) { // "fmt "
+                    ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(fmt, position);
+                    if (fmt.getShort(0) != 1 || fmt.getShort(14) != 16) {
+                        throw new IOException("Only 16 bit PCM is supported: " + wavFile);
+                    }
+                    channels = fmt.getShort(2);
+                    rate = fmt.getInt(4);
+                } else if (id == 0x61746164) { // "data"
+                    break;
+                }
+                position += size + (size & 1);
+            }
+            if (channels <= 0 || rate <= 0) throw new IOException("Missing fmt chunk: " + wavFile);
+
+            long dataSize = header.getInt(4) & 0xFFFFFFFFL;
+            long available = channel.size() - position;
+            if (dataSize == 0 || dataSize > available) dataSize = available;
+            sampleRate = rate;
+            channelCount = channels;
+            dataOffset = position;
+            dataEnd = position + dataSize - dataSize % (2 * channels);
+            channel.position(dataOffset);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public long getFrameCount() {
+        return (dataEnd - dataOffset) / (2 * channelCount);
+    }
+
+    public void seekToFrame(long frame) throws IOException {
+        channel.position(Math.min(dataEnd, dataOffset + frame * 2 * channelCount));
+    }
+
+    /**
+     * Reads raw little endian sample data.
+     *
+     * @return the number of bytes read, or -1 at the end of the data.
+     */
+    public int read(ByteBuffer destination) throws IOException {
+        long remaining = dataEnd - channel.position();
+        if (remaining <= 0) return -1;
+        int limit = destination.limit();
+        if (destination.remaining() > remaining) {
+            destination.limit(destination.position() + (int) remaining);
+        }
+        try {
+            return channel.read(destination);
+        } finally {
+            destination.limit(limit);
+        }
+    }
+
+    /**
+     * Reads interleaved samples.
+     *
+     * @return the number of samples read, or -1 at the end of the data.
+     */
+    public int read(short[] destination, int offset, int length) throws IOException {
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            samples = buffer.asShortBuffer();
+        }
+        int total = 0;
+        while (total < length) {
+            buffer.clear();
+            buffer.limit(Math.min(BUFFER_BYTES, (length - total) * 2));
+            int read = read(buffer);
+            if (read <= 0) break;
+            samples.clear();
+            samples.get(destination, offset + total, read / 2);
+            total += read / 2;
+        }
+        return total == 0 && length > 0 ? -1 : total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void readFully(ByteBuffer destination, long position) throws IOException {
+        destination.clear();
+        while (destination.hasRemaining()) {
+            int read = channel.read(destination, position + destination.position());
+            if (read < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming writer of 16 bit RIFF/WAV files.
+ * <p>
+ * Samples are staged in preallocated direct buffers and handed to the {@link FileChannel} with
+ * gathering writes, so the steady state neither allocates nor copies through the Java heap.
+ * The header is written with placeholder sizes and patched in place with positional writes.
+ */
+public final class WavWriter implements Closeable {
+
+    public static final int HEADER_SIZE = 44;
+
+    private static final int STAGING_BUFFERS = 4;
+    private static final int STAGING_BUFFER_BYTES = 64 * 1024;
+
+    private final File file;
+    private final int sampleRate;
+    private final int channelCount;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer sizeField = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] staging = new ByteBuffer[STAGING_BUFFERS];
+    private final ShortBuffer[] stagingSamples = new ShortBuffer[STAGING_BUFFERS];
+    private int stagingIndex = 0;
+
+    private long dataBytes = 0;
+    private boolean closed = false;
+
+    public WavWriter(File file, int sampleRate, int channelCount) throws IOException {
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+
+        for (int i = 0; i < STAGING_BUFFERS; i++) {
+            staging[i] = ByteBuffer.allocateDirect(STAGING_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            stagingSamples[i] = staging[i].asShortBuffer();
+        }
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        channel.truncate(0);
+        writeHeader();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    // Bytes of audio data written so far, staged samples included.
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    public long getFrameCount() {
+        return dataBytes / (2 * channelCount);
+    }
+
+    /**
+     * Appends interleaved samples. They are staged and reach the file with the next gathering
+     * write, at the latest on {@link #flush()} or {@link #close()}.
+     */
+    public void write(short[] samples, int offset, int length) throws IOException {
+        while (length > 0) {
+            ShortBuffer target = stagingSamples[stagingIndex];
+            if (!target.hasRemaining()) {
+                if (++stagingIndex == STAGING_BUFFERS) {
+                    flush();
+                }
+                target = stagingSamples[stagingIndex];
+            }
+
+            int count = Math.min(length, target.remaining());
+            target.put(samples, offset, count);
+            offset += count;
+            length -= count;
+            dataBytes += count * 2;
+        }
+    }
+
+    /**
+     * Appends little endian sample data held by the given buffers with a single gathering write.
+     * The buffers are consumed (their position is moved to their limit).
+     */
+    public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        flush();
+
+        long bytes = 0;
+        for (int i = offset; i < offset + length; i++) {
+            bytes += buffers[i].remaining();
+        }
+        long written = 0;
+        while (written < bytes) {
+            written += channel.write(buffers, offset, length);
+        }
+        dataBytes += bytes;
+    }
+
+    /**
+     * Writes every staged sample to the file with one gathering write.
+     */
+    public void flush() throws IOException {
+        int count = Math.min(stagingIndex + 1, STAGING_BUFFERS);
+        for (int i = 0; i < count; i++) {
+            staging[i].limit(stagingSamples[i].position() * 2);
+            staging[i].position(0);
+        }
+
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            remaining += staging[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(staging, 0, count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            staging[i].clear();
+            stagingSamples[i].clear();
+        }
+        stagingIndex = 0;
+    }
+
+    /**
+     * Rewrites the RIFF and data chunk sizes for the data written so far, so that the file is
+     * valid even if it is never closed.
+     */
+    public void patchHeader() throws IOException {
+        writeSizeField(4, 36 + dataBytes);
+        writeSizeField(40, dataBytes);
+    }
+
+    /**
+     * Flushes the staged samples, patches the header and forces everything to the storage
+     * device.
+     */
+    public void sync() throws IOException {
+        flush();
+        patchHeader();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            flush();
+            patchHeader();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void writeSizeField(long position, long value) throws IOException {
+        sizeField.clear();
+        sizeField.putInt((int) Math.min(value, 0xFFFFFFFFL));
+        sizeField.flip();
+        while (sizeField.hasRemaining()) {
+            position += channel.write(sizeField, position);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        int blockAlign = channelCount * 2;
+        header.clear();
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        header.putInt(36); // patched on close
+        header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        header.putInt(16); // fmt chunk size
+        header.putShort((short) 1); // PCM
+        header.putShort((short) channelCount);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign); // byte rate
+        header.putShort((short) blockAlign);
+        header.putShort((short) 16); // bits per sample
+        header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        header.putInt(0); // patched on close
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+}
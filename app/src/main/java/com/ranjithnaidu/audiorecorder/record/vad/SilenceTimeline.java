@@ -0,0 +1,157 @@
+package com.ranjithnaidu.audiorecorder.record.vad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sidecar index of the silence removed from a voice-gated recording.
+ * <p>
+ * Every span records where the silence was cut from the stored audio and how long it lasted,
+ * so that playback can map positions of the stored audio back to wall-clock time.
+ */
+public final class SilenceTimeline {
+
+    public static final String SUFFIX = ".vad";
+
+    private static final int MAGIC = 0x41525654; // "ARVT"
+    private static final int VERSION = 1;
+
+    private final int sampleRate;
+    // Span i: silentFrames[i] frames of silence were removed before storedFrames[i].
+    private final long[] storedFrames;
+    private final long[] silentFrames;
+    private final int count;
+    // Prefix sums for the lookups playback makes at every position update: removedFrames[i] is
+    // the silence removed before span i, wallClockFrames[i] the wall-clock start of span i.
+    private final long[] removedFrames;
+    private final long[] wallClockFrames;
+
+    private SilenceTimeline(int sampleRate, long[] storedFrames, long[] silentFrames, int count) {
+        this.sampleRate = sampleRate;
+        this.storedFrames = storedFrames;
+        this.silentFrames = silentFrames;
+        this.count = count;
+        removedFrames = new long[count + 1];
+        wallClockFrames = new long[count];
+        for (int i = 0; i < count; i++) {
+            wallClockFrames[i] = storedFrames[i] + removedFrames[i];
+            removedFrames[i + 1] = removedFrames[i] + silentFrames[i];
+        }
+    }
+
+    public static File fileFor(File recording) {
+        return new File(recording.getPath() + SUFFIX);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSpanCount() {
+        return count;
+    }
+
+    public long getSilentFrames() {
+        return removedFrames[count];
+    }
+
+    /**
+     * Maps a frame of the stored audio to its wall-clock position in the original recording.
+     */
+    public long toWallClockFrame(long storedFrame) {
+        return storedFrame + removedFrames[spansUpTo(storedFrames, storedFrame)];
+    }
+
+    /**
+     * Maps a wall-clock position to the stored frame playing at that time (the first frame
+     * after the silence if the position falls in a removed span).
+     */
+    public long toStoredFrame(long wallClockFrame) {
+        int spans = spansUpTo(wallClockFrames, wallClockFrame);
+        if (spans > 0 && wallClockFrame < wallClockFrames[spans - 1] + silentFrames[spans - 1]) {
+            return storedFrames[spans - 1];
+        }
+        return wallClockFrame - removedFrames[spans];
+    }
+
+    // Number of spans whose start, in the given sorted positions, is at or before frame.
+    private int spansUpTo(long[] starts, long frame) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= frame) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public static SilenceTimeline read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a silence timeline: " + file);
+            }
+            int sampleRate = in.readInt();
+            long[] stored = new long[16];
+            long[] silent = new long[16];
+            int count = 0;
+            while (true) {
+                long storedFrame;
+                long silentFrame;
+                try {
+                    storedFrame = in.readLong();
+                    silentFrame = in.readLong();
+                } catch (EOFException e) {
+                    break; // a span torn by a crash is ignored
+                }
+                if (count == stored.length) {
+                    stored = Arrays.copyOf(stored, count * 2);
+                    silent = Arrays.copyOf(silent, count * 2);
+                }
+                stored[count] = storedFrame;
+                silent[count] = silentFrame;
+                count++;
+            }
+            return new SilenceTimeline(sampleRate, stored, silent, count);
+        }
+    }
+
+    /**
+     * Appends spans to a timeline file as the recording goes.
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        public Writer(File file, int sampleRate) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 256));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sampleRate);
+            out.flush();
+        }
+
+        public void appendSilence(long storedFrame, long silentFrames) throws IOException {
+            out.writeLong(storedFrame);
+            out.writeLong(silentFrames);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.ranjithnaidu.audiorecorder.record.vad;
+
+/**
+ * Streaming voice activity detector based on short-term energy and zero-crossing rate.
+ * <p>
+ * The noise floor follows the quietest blocks quickly and rises slowly, so the detector adapts
+ * to the room. A block is voiced when its energy is well above the noise floor, or moderately
+ * above it with the high zero-crossing rate of unvoiced consonants. Once voice is detected the
+ * decision is held for a hangover period so that word endings and short pauses are kept.
+ */
+public final class VoiceActivityDetector {
+
+    // Energy above the noise floor (as a power ratio) for a block to be voiced.
+    private static final double VOICED_RATIO = 8; // ~9 dB
+    private static final double UNVOICED_RATIO = 3; // ~5 dB, with a high zero-crossing rate
+    private static final double UNVOICED_MIN_ZCR = 0.3;
+    // Below this energy (~-60 dBFS) a block is always silence.
+    private static final double MIN_ENERGY = 1e-6;
+    private static final double FLOOR_ATTACK = 0.05;
+    private static final double FLOOR_RISE = 1.0005;
+
+    private final long hangoverFrames;
+    private double noiseFloor = -1;
+    private long hangoverLeft = 0;
+    private double energy;
+    private double zeroCrossingRate;
+
+    public VoiceActivityDetector(long hangoverFrames) {
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    /**
+     * @return true if the block contains voice, or falls in the hangover of a voiced block.
+     */
+    public boolean process(short[] block, int length, int channelCount) {
+        long sumOfSquares = 0;
+        int crossings = 0;
+        int previous = block[0];
+        for (int i = 0; i < length; i += channelCount) {
+            int sample = block[i];
+            sumOfSquares += sample * sample;
+            crossings += (previous ^ sample) >>> 31;
+            previous = sample;
+        }
+        int frames = length / channelCount;
+        energy = sumOfSquares / (frames * 1073741824.0); // normalized to full scale
+        zeroCrossingRate = crossings / (double) frames;
+
+        if (noiseFloor < 0) noiseFloor = Math.max(energy, MIN_ENERGY);
+
+        boolean voiced = energy > MIN_ENERGY
+                && (energy > noiseFloor * VOICED_RATIO
+                || (energy > noiseFloor * UNVOICED_RATIO && zeroCrossingRate > UNVOICED_MIN_ZCR));
+
+        if (voiced) {
+            hangoverLeft = hangoverFrames;
+            noiseFloor *= FLOOR_RISE;
+            return true;
+        }
+
+        if (energy < noiseFloor) {
+            noiseFloor = Math.max(energy, MIN_ENERGY / VOICED_RATIO);
+        } else {
+            noiseFloor += (energy - noiseFloor) * FLOOR_ATTACK;
+        }
+
+        if (hangoverLeft > 0) {
+            hangoverLeft -= frames;
+            return true;
+        }
+        return false;
+    }
+
+    // Mean square of the last block, relative to full scale.
+    public double getEnergy() {
+        return energy;
+    }
+
+    public double getZeroCrossingRate() {
+        return zeroCrossingRate;
+    }
+
+    public double getNoiseFloor() {
+        return noiseFloor;
+    }
+}
@@ -0,0 +1,155 @@
+package com.ranjithnaidu.audiorecorder.record.vad;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Sits in front of a writing {@link BlockConsumer} and only lets voiced audio through.
+ * <p>
+ * During silence nothing is written: the most recent blocks are kept in a preallocated
+ * pre-roll buffer, flushed ahead of the audio when voice comes back so that onsets are not cut,
+ * and the removed span is recorded in a {@link SilenceTimeline}.
+ */
+public final class VoiceActivityGate implements BlockConsumer {
+
+    private final BlockConsumer downstream;
+    private final File timelineFile;
+    private final long preRollMillis;
+    private final long hangoverMillis;
+
+    private VoiceActivityDetector detector;
+    private SilenceTimeline.Writer timeline;
+    private int channelCount;
+
+    // Circular buffer of the most recent silent samples.
+    private short[] preRoll;
+    private short[] preRollOut;
+    private int preRollHead;
+    private int preRollFill;
+
+    private boolean gated = false;
+    private long storedFrames = 0;
+    private long skippedFrames = 0;
+    private long spanFrames = 0;
+
+    private long detectorBlocks = 0;
+    private long detectorNanos = 0;
+    private long maxDetectorNanos = 0;
+
+    public VoiceActivityGate(BlockConsumer downstream, File timelineFile, long preRollMillis, long hangoverMillis) {
+        this.downstream = downstream;
+        this.timelineFile = timelineFile;
+        this.preRollMillis = preRollMillis;
+        this.hangoverMillis = hangoverMillis;
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        this.channelCount = channelCount;
+        detector = new VoiceActivityDetector(hangoverMillis * sampleRate / 1000);
+        preRoll = new short[(int) (preRollMillis * sampleRate / 1000) * channelCount];
+        preRollOut = new short[preRoll.length];
+        preRollHead = 0;
+        preRollFill = 0;
+        gated = false;
+        storedFrames = 0;
+        skippedFrames = 0;
+        spanFrames = 0;
+        timeline = new SilenceTimeline.Writer(timelineFile, sampleRate);
+        downstream.onStart(sampleRate, channelCount);
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        long start = System.nanoTime();
+        boolean voiced = detector.process(block, length, channelCount);
+        long elapsed = System.nanoTime() - start;
+        detectorBlocks++;
+        detectorNanos += elapsed;
+        if (elapsed > maxDetectorNanos) maxDetectorNanos = elapsed;
+
+        int frames = length / channelCount;
+        if (voiced) {
+            if (gated) {
+                gated = false;
+                int preRollFrames = preRollFill / channelCount;
+                if (spanFrames > preRollFrames) {
+                    timeline.appendSilence(storedFrames, spanFrames - preRollFrames);
+                }
+                skippedFrames += spanFrames - preRollFrames;
+                flushPreRoll();
+                storedFrames += preRollFrames;
+            }
+            downstream.onBlock(block, length);
+            storedFrames += frames;
+        } else {
+            if (!gated) {
+                gated = true;
+                spanFrames = 0;
+                preRollFill = 0;
+            }
+            keepInPreRoll(block, length);
+            spanFrames += frames;
+        }
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            if (gated && spanFrames > 0) {
+                timeline.appendSilence(storedFrames, spanFrames);
+                skippedFrames += spanFrames;
+                gated = false;
+            }
+            timeline.close();
+        } finally {
+            downstream.onStop();
+        }
+    }
+
+    public long getStoredFrames() {
+        return storedFrames;
+    }
+
+    // Frames of silence not written to the downstream consumer.
+    public long getSkippedFrames() {
+        return skippedFrames + (gated ? Math.max(0, spanFrames - preRollFill / channelCount) : 0);
+    }
+
+    public long getAverageDetectorNanos() {
+        return detectorBlocks > 0 ? detectorNanos / detectorBlocks : 0;
+    }
+
+    public long getMaxDetectorNanos() {
+        return maxDetectorNanos;
+    }
+
+    private void keepInPreRoll(short[] block, int length) {
+        int capacity = preRoll.length;
+        if (capacity == 0) return;
+
+        int offset = 0;
+        if (length > capacity) { // only the tail of the block fits
+            offset = length - capacity;
+            length = capacity;
+        }
+        int first = Math.min(length, capacity - preRollHead);
+        System.arraycopy(block, offset, preRoll, preRollHead, first);
+        System.arraycopy(block, offset + first, preRoll, 0, length - first);
+        preRollHead = (preRollHead + length) % capacity;
+        preRollFill = Math.min(capacity, preRollFill + length);
+    }
+
+    private void flushPreRoll() throws IOException {
+        if (preRollFill == 0) return;
+
+        int start = (preRollHead - preRollFill + preRoll.length) % preRoll.length;
+        int first = Math.min(preRollFill, preRoll.length - start);
+        System.arraycopy(preRoll, start, preRollOut, 0, first);
+        System.arraycopy(preRoll, 0, preRollOut, first, preRollFill - first);
+        downstream.onBlock(preRollOut, preRollFill);
+        preRollFill = 0;
+    }
+}
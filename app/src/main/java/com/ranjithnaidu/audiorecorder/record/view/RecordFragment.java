@@ -19,6 +19,7 @@ import androidx.databinding.ObservableInt;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProviders;
 
+import com.ranjithnaidu.audiorecorder.library.view.LibraryFragment;
 import com.ranjithnaidu.audiorecorder.playback.view.PlaybackFragment;
 import com.ranjithnaidu.audiorecorder.R;
 import com.ranjithnaidu.audiorecorder.record.viewmodel.RecordViewModel;
@@ -26,7 +27,10 @@ import com.ranjithnaidu.audiorecorder.databinding.FragmentRecordBinding;
 import com.ranjithnaidu.audiorecorder.model.Recording;
 import com.ranjithnaidu.audiorecorder.utils.AudioLevelView;
 import com.ranjithnaidu.audiorecorder.utils.PermissionsManager;
+import com.ranjithnaidu.audiorecorder.utils.SpectrogramView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class RecordFragment extends Fragment {
@@ -37,11 +41,13 @@ public class RecordFragment extends Fragment {
 
     private RecordViewModel recordViewModel;
     private AudioLevelView audioView;
+    private SpectrogramView spectrogramView;
 
     private TextView timeRemaining;
 
     private boolean firstCallback = true;
     private Observable.OnPropertyChangedCallback secsCallback;
+    private Observable.OnPropertyChangedCallback spectrogramCallback;
 
     public static RecordFragment newInstance() {
 
@@ -59,18 +65,27 @@ public class RecordFragment extends Fragment {
         recordViewModel.getToastMsg().observe(this, msgId ->
                 Toast.makeText(getActivity(), getString(msgId), Toast.LENGTH_SHORT).show());
         recordViewModel.getAmplitudeLive().observe(this, integer -> {
-            audioView.addAmplitude(integer);
+            audioView.onAmplitudesAdded();
         });
 
         recordViewModel.timeRemaining.observe(this, time ->
                 timeRemaining.setText(time));
 
-        recordViewModel.serviceRecording.addOnPropertyChangedCallback(new Observable.OnPropertyChangedCallback() {
+        spectrogramCallback = new Observable.OnPropertyChangedCallback() {
             @Override
             public void onPropertyChanged(Observable sender, int propertyId) {
                 boolean isRecording = ((ObservableBoolean) sender).get();
+                if (spectrogramView != null) spectrogramView.post(() -> updateSpectrogram(isRecording));
             }
-        });
+        };
+        recordViewModel.serviceRecording.addOnPropertyChangedCallback(spectrogramCallback);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        recordViewModel.serviceRecording.removeOnPropertyChangedCallback(spectrogramCallback);
     }
 
     @Override
@@ -83,11 +98,24 @@ public class RecordFragment extends Fragment {
 
         rootView.findViewById(R.id.btnRecord).setOnClickListener(v -> checkPermissionsAndRecord());
 
-        rootView.findViewById(R.id.btnPlay).setOnClickListener(v -> startPlaying(recordViewModel.recording));
+        rootView.findViewById(R.id.btnPlay).setOnClickListener(v -> {
+            List<Recording> parts = recordViewModel.getRecordingParts();
+            if (parts.size() > 1) {
+                startPlaying(new ArrayList<>(parts));
+            } else {
+                startPlaying(recordViewModel.recording);
+            }
+        });
+
+        rootView.findViewById(R.id.btnLibrary).setOnClickListener(v -> showLibrary());
 
         timeRemaining = rootView.findViewById(R.id.time_remaining);
 
         audioView = rootView.findViewById(R.id.audio_view);
+        audioView.setAmplitudeHistory(recordViewModel.getAmplitudeHistory());
+
+        spectrogramView = rootView.findViewById(R.id.spectrogram_view);
+        updateSpectrogram(recordViewModel.serviceRecording.get());
 
         return rootView;
     }
@@ -110,6 +138,10 @@ public class RecordFragment extends Fragment {
             }
         };
         recordViewModel.secondsElapsed.addOnPropertyChangedCallback(secsCallback);
+
+        // The microphone can only be opened ahead of time once the permission is granted.
+        recordViewModel.setPreRollWanted(!marshmallow
+                || PermissionsManager.checkPermissions(this, Manifest.permission.RECORD_AUDIO).length == 0);
     }
 
     @Override
@@ -117,6 +149,7 @@ public class RecordFragment extends Fragment {
         super.onPause();
 
         recordViewModel.secondsElapsed.removeOnPropertyChangedCallback(secsCallback);
+        recordViewModel.setPreRollWanted(false);
     }
 
     private void startPlaying(Recording recording) {
@@ -128,6 +161,30 @@ public class RecordFragment extends Fragment {
         }
     }
 
+    // The spectrogram follows the capture while recording, it is hidden the rest of the time.
+    private void updateSpectrogram(boolean isRecording) {
+        if (spectrogramView == null) return;
+        spectrogramView.setSpectrumQueue(isRecording ? recordViewModel.getSpectrumQueue() : null,
+                recordViewModel.getPcmSampleRate());
+    }
+
+    private void showLibrary() {
+        Objects.requireNonNull(getFragmentManager()).beginTransaction()
+                .replace(R.id.fragment_container, LibraryFragment.newInstance())
+                .addToBackStack(null)
+                .commit();
+    }
+
+    // The files of a long recording, played back to back.
+    private void startPlaying(ArrayList<Recording> recordingParts) {
+        try {
+            PlaybackFragment playbackFragment = new PlaybackFragment().newInstance(recordingParts);
+            playbackFragment.show(Objects.requireNonNull(getFragmentManager()), "dialog_playback");
+        } catch (Exception e) {
+            Log.e(TAG, "error in playing the recording" + e.toString());
+        }
+    }
+
     // Check dangerous permissions for Android Marshmallow+.
     private void checkPermissionsAndRecord() {
         if (!marshmallow) {
@@ -151,8 +208,10 @@ public class RecordFragment extends Fragment {
                 granted = false;
         }
 
-        if (granted)
+        if (granted) {
+            recordViewModel.setPreRollWanted(true);
             startStopRecording();
+        }
         else
             Toast.makeText(getActivity(), getString(R.string.toast_permissions_denied), Toast.LENGTH_LONG).show();
     }
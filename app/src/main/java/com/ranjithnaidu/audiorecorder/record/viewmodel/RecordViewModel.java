@@ -4,10 +4,12 @@ import android.app.Application;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Build;
 import android.os.IBinder;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
+import androidx.databinding.Observable;
 import androidx.databinding.ObservableBoolean;
 import androidx.databinding.ObservableInt;
 import androidx.lifecycle.AndroidViewModel;
@@ -16,8 +18,15 @@ import androidx.lifecycle.MutableLiveData;
 
 import com.ranjithnaidu.audiorecorder.R;
 import com.ranjithnaidu.audiorecorder.model.Recording;
+import com.ranjithnaidu.audiorecorder.record.metering.SpectrumQueue;
 import com.ranjithnaidu.audiorecorder.service.RecordingService;
+import com.ranjithnaidu.audiorecorder.utils.AmplitudeHistory;
 import com.ranjithnaidu.audiorecorder.utils.SingleLiveEvent;
+import com.ranjithnaidu.audiorecorder.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static android.content.Context.BIND_AUTO_CREATE;
 
@@ -33,27 +42,76 @@ public class RecordViewModel extends AndroidViewModel {
 
     private static final int RECORDING_TIME_MILLS = RECORDING_TIME * 1000;
 
+    // In long recording mode there is no time limit and the recording is split in files of
+    // at most this duration.
+    private static final long LONG_RECORDING_FILE_MILLIS = 30 * 60 * 1000;
+
+    // Meter frames per second of a PCM recording, several per refresh of the level view.
+    private static final int METER_FRAME_RATE = 50;
+
+    // Audio kept ahead of a PCM recording while the record screen is shown.
+    private static final long PRE_ROLL_MILLIS = 3000;
+
+    // More than the amplitudes a screen can show, the view reduces it to its width.
+    private static final int AMPLITUDE_HISTORY_CAPACITY = 2048;
+
     public final ObservableBoolean serviceConnected = new ObservableBoolean(false);
     public final ObservableBoolean serviceRecording = new ObservableBoolean(false);
     public final ObservableInt secondsElapsed = new ObservableInt(0);
     private final SingleLiveEvent<Integer> toastMsg = new SingleLiveEvent<>();
     private final MutableLiveData<Integer> amplitudeLive = new MutableLiveData<>();
+    private final AmplitudeHistory amplitudeHistory = new AmplitudeHistory(AMPLITUDE_HISTORY_CAPACITY);
 
     public MutableLiveData<String> timeRemaining = new MutableLiveData<>();
 
     public final ObservableBoolean showPlayBack = new ObservableBoolean(false);
+    public final ObservableBoolean longRecording = new ObservableBoolean(false);
+
+    // Recording settings, handed to the service when a recording starts. MediaRecorder (AAC)
+    // stays the default, uncompressed PCM capture is chosen by the user.
+    public final ObservableBoolean pcmRecording = new ObservableBoolean(false);
+    // The microphone listens ahead of a PCM recording while the record screen is shown. It
+    // keeps the microphone open, so it is off unless the user turns it on.
+    public final ObservableBoolean preRoll = new ObservableBoolean(false);
+    // Written as a segmented session that survives the app being killed, PCM only.
+    public final ObservableBoolean crashSafeRecording = new ObservableBoolean(false);
+    // Silence is not written, PCM only.
+    public final ObservableBoolean skipSilence = new ObservableBoolean(false);
+    // A FLAC copy is encoded once the recording is finished, PCM only.
+    public final ObservableBoolean flacArchiving = new ObservableBoolean(false);
+    public final boolean flacSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    // High-pass, noise gate, AGC and limiter on the capture path, PCM only.
+    public final ObservableBoolean voiceConditioning = new ObservableBoolean(false);
     private RecordingService recordingService;
 
     public Recording recording;
 
+    // Files completed so far by the current long recording, in order.
+    private final List<Recording> recordingParts = Collections.synchronizedList(new ArrayList<>());
+
+    // The record screen is shown: the service keeps the pre-roll armed, once connected.
+    private boolean preRollWanted = false;
+
+    // Pre-roll captures PCM, it is armed only when asked for and for PCM recordings.
+    private final Observable.OnPropertyChangedCallback preRollCallback = new Observable.OnPropertyChangedCallback() {
+        @Override
+        public void onPropertyChanged(Observable sender, int propertyId) {
+            updatePreRoll();
+        }
+    };
+
     public RecordViewModel(@NonNull Application application) {
         super(application);
+        pcmRecording.addOnPropertyChangedCallback(preRollCallback);
+        preRoll.addOnPropertyChangedCallback(preRollCallback);
     }
 
     @VisibleForTesting
     public RecordViewModel(Application application, RecordingService recordingService) {
         super(application);
         this.recordingService = recordingService;
+        pcmRecording.addOnPropertyChangedCallback(preRollCallback);
+        preRoll.addOnPropertyChangedCallback(preRollCallback);
     }
 
     public void connectService(Intent intent) {
@@ -64,6 +122,8 @@ public class RecordViewModel extends AndroidViewModel {
     public void disconnectAndStopService(Intent intent) {
         if (!serviceConnected.get()) return;
 
+        // Not re-armed after a recording going on in the background.
+        recordingService.disarmPreRoll();
         getApplication().unbindService(serviceConnection);
         if (!serviceRecording.get())
             getApplication().stopService(intent);
@@ -73,7 +133,23 @@ public class RecordViewModel extends AndroidViewModel {
     }
 
     public void startRecording() {
-        recordingService.startRecording(RECORDING_TIME_MILLS);
+        recordingParts.clear();
+        amplitudeHistory.reset(0);
+        boolean pcm = pcmRecording.get();
+        recordingService.setCaptureMode(pcm
+                ? RecordingService.CAPTURE_MODE_PCM : RecordingService.CAPTURE_MODE_MEDIA_RECORDER);
+        recordingService.setSegmentedOutput(pcm && crashSafeRecording.get());
+        recordingService.setVoiceActivityGating(pcm && skipSilence.get());
+        recordingService.setFlacArchiving(pcm && flacSupported && flacArchiving.get());
+        recordingService.setSignalConditioning(pcm && voiceConditioning.get());
+        recordingService.setMeterFrameRate(METER_FRAME_RATE);
+        if (longRecording.get()) {
+            recordingService.setRotationLimits(0, LONG_RECORDING_FILE_MILLIS);
+            recordingService.startRecording(0);
+        } else {
+            recordingService.setRotationLimits(0, 0);
+            recordingService.startRecording(RECORDING_TIME_MILLS);
+        }
         serviceRecording.set(true);
     }
 
@@ -81,6 +157,25 @@ public class RecordViewModel extends AndroidViewModel {
         recordingService.stopRecording();
     }
 
+    /**
+     * Keeps the microphone open while the record screen is shown and pre-roll is turned on, so
+     * that a PCM recording starts with the few seconds preceding the tap on the record button.
+     */
+    public void setPreRollWanted(boolean wanted) {
+        preRollWanted = wanted;
+        updatePreRoll();
+    }
+
+    private void updatePreRoll() {
+        if (recordingService == null) return;
+
+        if (preRollWanted && preRoll.get() && pcmRecording.get()) {
+            recordingService.armPreRoll(PRE_ROLL_MILLIS);
+        } else {
+            recordingService.disarmPreRoll();
+        }
+    }
+
     public SingleLiveEvent<Integer> getToastMsg() {
         return toastMsg;
     }
@@ -89,6 +184,26 @@ public class RecordViewModel extends AndroidViewModel {
         return amplitudeLive;
     }
 
+    // Amplitudes of the current recording, kept here so that they survive configuration changes.
+    public AmplitudeHistory getAmplitudeHistory() {
+        return amplitudeHistory;
+    }
+
+    // Spectra of the current recording, null while the service is not connected.
+    public SpectrumQueue getSpectrumQueue() {
+        return recordingService != null ? recordingService.getSpectrumQueue() : null;
+    }
+
+    public int getPcmSampleRate() {
+        return recordingService != null ? recordingService.getPcmSampleRate() : 0;
+    }
+
+    public List<Recording> getRecordingParts() {
+        synchronized (recordingParts) {
+            return new ArrayList<>(recordingParts);
+        }
+    }
+
     /**
      * Implementation of ServiceConnection interface.
      * The interaction with the Service is managed by this view model.
@@ -100,6 +215,11 @@ public class RecordViewModel extends AndroidViewModel {
             serviceConnected.set(true);
             recordingService.setOnRecordingStatusChangedListener(onRecordingStatusChangedListener);
             serviceRecording.set(recordingService.isRecording());
+            if (recordingService.isRecording()) {
+                // Reconnected to a recording started by a previous instance of the screen.
+                pcmRecording.set(recordingService.getCaptureMode() == RecordingService.CAPTURE_MODE_PCM);
+            }
+            updatePreRoll();
         }
 
         @Override
@@ -116,15 +236,17 @@ public class RecordViewModel extends AndroidViewModel {
      * Implementation of RecordingService.OnRecordingStatusChangedListener interface.
      * The Service uses this interface to communicate to the connected component that a
      * recording has started/stopped, and the seconds elapsed, so that the UI can be updated
-     * accordingly.
+     * accordingly. Events arrive in batches on the main thread, so values are set directly
+     * rather than posted (posting would keep only the last amplitude of a batch).
      */
     private final RecordingService.OnRecordingStatusChangedListener onRecordingStatusChangedListener =
             new RecordingService.OnRecordingStatusChangedListener() {
                 @Override
                 public void onRecordingStarted() {
                     serviceRecording.set(true);
-                    toastMsg.postValue(R.string.toast_recording_start);
-                    timeRemaining.postValue(String.valueOf(RECORDING_TIME));
+                    toastMsg.setValue(R.string.toast_recording_start);
+                    timeRemaining.setValue(longRecording.get()
+                            ? Utils.formatSecondsElapsedForChronometer(0) : String.valueOf(RECORDING_TIME));
                     showPlayBack.set(false);
                 }
 
@@ -132,25 +254,34 @@ public class RecordViewModel extends AndroidViewModel {
                 public void onRecordingStopped(String filePath, Long elapsedMillis) {
                     serviceRecording.set(false);
                     secondsElapsed.set(0);
-                    timeRemaining.postValue(getApplication().getString(R.string.ready));
-                    toastMsg.postValue(R.string.toast_recording_saved);
+                    timeRemaining.setValue(getApplication().getString(R.string.ready));
+                    toastMsg.setValue(R.string.toast_recording_saved);
 
                     // Save the recording data in the database.
                     recording = new Recording(filePath, elapsedMillis);
+                    if (!recordingParts.isEmpty()) recordingParts.add(recording);
 
                     showPlayBack.set(true);
                 }
 
-                // This method is called from a separate thread.
                 @Override
                 public void onTimerChanged(int seconds) {
                     secondsElapsed.set(seconds);
-                    timeRemaining.postValue(String.valueOf(RECORDING_TIME - seconds));
+                    timeRemaining.setValue(longRecording.get()
+                            ? Utils.formatSecondsElapsedForChronometer(seconds) : String.valueOf(RECORDING_TIME - seconds));
+                }
+
+                @Override
+                public void onFileRotated(String filePath, long elapsedMillis) {
+                    recordingParts.add(new Recording(filePath, elapsedMillis));
                 }
 
                 @Override
-                public void onAmplitudeInfo(int amplitude) {
-                    amplitudeLive.postValue(amplitude);
+                public void onAmplitudeInfo(int[] amplitudes, int offset, int count) {
+                    for (int i = offset; i < offset + count; i++) {
+                        amplitudeHistory.append(amplitudes[i]);
+                        amplitudeLive.setValue(amplitudes[i]);
+                    }
                 }
             };
 
@@ -0,0 +1,110 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes the first audio track of a recording (e.g. the AAC of MediaRecorder) with the platform
+ * codec.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
+public final class MediaCodecPcmDecoder implements PcmDecoder {
+
+    private static final long TIMEOUT_US = 10000;
+
+    @Override
+    public void decode(File file, BlockConsumer consumer) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        boolean started = false;
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            MediaFormat format = selectAudioTrack(extractor);
+            if (format == null) throw new IOException("No audio track in " + file);
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+            ByteBuffer[] inputs = codec.getInputBuffers();
+            ByteBuffer[] outputs = codec.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            short[] block = new short[0];
+
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone) {
+                if (!inputDone) {
+                    int index = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        int size = extractor.readSampleData(inputs[index], 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    outputs = codec.getOutputBuffers();
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                } else if (index >= 0) {
+                    if (!started) {
+                        consumer.onStart(sampleRate, channelCount);
+                        started = true;
+                    }
+                    if (info.size > 0) {
+                        ByteBuffer output = outputs[index];
+                        output.limit(info.offset + info.size);
+                        output.position(info.offset);
+                        ShortBuffer samples = output.order(ByteOrder.nativeOrder()).asShortBuffer();
+                        int length = samples.remaining();
+                        if (block.length < length) block = new short[length];
+                        samples.get(block, 0, length);
+                        consumer.onBlock(block, length);
+                    }
+                    codec.releaseOutputBuffer(index, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Cannot decode " + file, e);
+        } finally {
+            if (codec != null) codec.release();
+            extractor.release();
+            if (started) consumer.onStop();
+        }
+    }
+
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+        for (int track = 0; track < extractor.getTrackCount(); track++) {
+            MediaFormat format = extractor.getTrackFormat(track);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(track);
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,15 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes a recording to 16-bit PCM. Once the consumer is started, it is stopped even when the
+ * decoding fails.
+ */
+public interface PcmDecoder {
+
+    void decode(File file, BlockConsumer consumer) throws IOException;
+}
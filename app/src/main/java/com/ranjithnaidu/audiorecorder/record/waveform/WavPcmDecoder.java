@@ -0,0 +1,31 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+import com.ranjithnaidu.audiorecorder.record.output.WavReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the samples of a WAV recording, no decoding needed.
+ */
+public final class WavPcmDecoder implements PcmDecoder {
+
+    private static final int BLOCK_FRAMES = 4096;
+
+    @Override
+    public void decode(File file, BlockConsumer consumer) throws IOException {
+        try (WavReader reader = new WavReader(file)) {
+            consumer.onStart(reader.getSampleRate(), reader.getChannelCount());
+            try {
+                short[] block = new short[BLOCK_FRAMES * reader.getChannelCount()];
+                int read;
+                while ((read = reader.read(block, 0, block.length)) > 0) {
+                    consumer.onBlock(block, read);
+                }
+            } finally {
+                consumer.onStop();
+            }
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Peaks of any recording: the peak file written with it when there is one, otherwise peaks
+ * extracted once by decoding it and kept in a least recently used cache, in memory and in a
+ * directory on disk, each bounded in bytes.
+ * <p>
+ * Requests for a recording being extracted wait for that extraction instead of starting another.
+ * Nothing is read from the disk on the calling thread: the callbacks are called on it only for
+ * memory hits of a recording whose modification time the caller already knows, on an extraction
+ * thread otherwise.
+ * <p>
+ * Requests wait in a bounded queue: the recording played first, then the latest requests, as
+ * the rows just shown, then the prefetches. When the queue is full the last of them fails.
+ * Requests can be cancelled until their extraction starts.
+ */
+public final class WaveformCache {
+
+    private static final String TEMP_EXTENSION = ".tmp";
+    static final int MAX_PENDING_REQUESTS = 64;
+
+    private static final BlockConsumer NO_OUTPUT = new BlockConsumer() {
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+        }
+
+        @Override
+        public void onStop() {
+        }
+    };
+
+    public interface Callback {
+
+        void onWaveformLoaded(File recording, WaveformPeaks peaks);
+
+        void onWaveformFailed(File recording, IOException e);
+    }
+
+    private final File directory;
+    private final long memoryBytes;
+    private final long diskBytes;
+    private final PcmDecoder decoder;
+    private final Executor executor;
+    private final int maxWorkers;
+
+    private final Object lock = new Object();
+    // By path: the entry tells which version of the recording the peaks are for.
+    private final LinkedHashMap<String, MemoryEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+    private LinkedHashMap<String, Long> disk; // listed on first use
+    private long diskUsed;
+    // Extractions by path, waiting or running.
+    private final Map<String, Extraction> extractions = new LinkedHashMap<>();
+    private final ArrayDeque<Extraction> urgent = new ArrayDeque<>();
+    private final ArrayDeque<Extraction> pending = new ArrayDeque<>();
+    private int workers;
+
+    private int memoryHits;
+    private int diskHits;
+    private int mergedRequests;
+    private int decodes;
+
+    /**
+     * The extractions run on as many threads of the executor as a {@link ThreadPoolExecutor} may
+     * have, on one thread for the other executors; it is never given more tasks.
+     */
+    public WaveformCache(File directory, long memoryBytes, long diskBytes, PcmDecoder decoder,
+                         Executor executor) {
+        this.directory = directory;
+        this.memoryBytes = memoryBytes;
+        this.diskBytes = diskBytes;
+        this.decoder = decoder;
+        this.executor = executor;
+        maxWorkers = executor instanceof ThreadPoolExecutor
+                ? ((ThreadPoolExecutor) executor).getMaximumPoolSize() : 1;
+    }
+
+    /**
+     * Pool of low priority daemon threads, so that extractions never compete with playback for
+     * more than the given number of cores. The cache keeps its requests, the pool queues no more
+     * than one task per thread.
+     */
+    public static ThreadPoolExecutor newExtractionExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads), runnable -> {
+            Thread thread = new Thread(runnable, "WaveformExtractor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public void load(File recording, Callback callback) {
+        Extraction dropped;
+        synchronized (lock) {
+            dropped = request(recording, callback, Priority.NORMAL);
+        }
+        fail(dropped);
+    }
+
+    /**
+     * Like {@link #load(File, Callback)}, answered at once from memory when the peaks there are
+     * for the recording modified at the given time, e.g. as read by the catalog.
+     */
+    public void load(File recording, long lastModified, Callback callback) {
+        WaveformPeaks peaks = null;
+        Extraction dropped = null;
+        synchronized (lock) {
+            MemoryEntry entry = memory.get(recording.getPath());
+            if (entry != null && entry.lastModified == lastModified) {
+                peaks = entry.peaks;
+                memoryHits++;
+            } else {
+                dropped = request(recording, callback, Priority.NORMAL);
+            }
+        }
+        if (peaks != null) {
+            callback.onWaveformLoaded(recording, peaks);
+        } else {
+            fail(dropped);
+        }
+    }
+
+    // Ahead of all the other requests, e.g. for the recording being played.
+    public void loadFirst(File recording, Callback callback) {
+        Extraction dropped;
+        synchronized (lock) {
+            dropped = request(recording, callback, Priority.URGENT);
+        }
+        fail(dropped);
+    }
+
+    // Fills the caches, after all the other requests.
+    public void prefetch(File recording, long lastModified) {
+        Extraction dropped = null;
+        synchronized (lock) {
+            MemoryEntry entry = memory.get(recording.getPath());
+            if (entry == null || entry.lastModified != lastModified) {
+                dropped = request(recording, null, Priority.PREFETCH);
+            }
+        }
+        fail(dropped);
+    }
+
+    /**
+     * Forgets the callback, e.g. of a row bound to another recording. The extraction is dropped
+     * if it has not started and nothing else waits for it.
+     */
+    public void cancel(File recording, Callback callback) {
+        synchronized (lock) {
+            Extraction extraction = extractions.get(recording.getPath());
+            if (extraction == null || !extraction.callbacks.remove(callback)) return;
+            if (extraction.callbacks.isEmpty() && !extraction.started) {
+                extractions.remove(extraction.path);
+                urgent.remove(extraction);
+                pending.remove(extraction);
+            }
+        }
+    }
+
+    private enum Priority {
+        URGENT, NORMAL, PREFETCH
+    }
+
+    // Guarded by lock. Returns the extraction dropped to make room, if any.
+    private Extraction request(File recording, Callback callback, Priority priority) {
+        String path = recording.getPath();
+        Extraction extraction = extractions.get(path);
+        if (extraction != null) {
+            if (callback != null) {
+                extraction.callbacks.add(callback);
+                mergedRequests++;
+            }
+            if (extraction.started || priority == Priority.PREFETCH || urgent.contains(extraction)) return null;
+            pending.remove(extraction); // asked again: moves up
+        } else {
+            extraction = new Extraction(recording);
+            if (callback != null) extraction.callbacks.add(callback);
+            extractions.put(path, extraction);
+        }
+
+        if (priority == Priority.URGENT) {
+            urgent.addLast(extraction);
+        } else if (priority == Priority.NORMAL) {
+            pending.addFirst(extraction);
+        } else {
+            pending.addLast(extraction);
+        }
+        if (workers < maxWorkers) {
+            workers++;
+            executor.execute(new Worker());
+        }
+        // One request at most is added at a time.
+        if (urgent.size() + pending.size() <= MAX_PENDING_REQUESTS || pending.isEmpty()) return null;
+        Extraction dropped = pending.removeLast();
+        extractions.remove(dropped.path);
+        return dropped;
+    }
+
+    // Called outside of the lock.
+    private static void fail(Extraction dropped) {
+        if (dropped == null || dropped.callbacks.isEmpty()) return;
+        IOException error = new IOException("Too many waveform requests, dropped " + dropped.recording);
+        for (Callback callback : dropped.callbacks) callback.onWaveformFailed(dropped.recording, error);
+    }
+
+    public int getMemoryHits() {
+        synchronized (lock) {
+            return memoryHits;
+        }
+    }
+
+    public int getDiskHits() {
+        synchronized (lock) {
+            return diskHits;
+        }
+    }
+
+    public int getMergedRequests() {
+        synchronized (lock) {
+            return mergedRequests;
+        }
+    }
+
+    // Number of recordings decoded, the others having been found in a cache or a peak file.
+    public int getDecodes() {
+        synchronized (lock) {
+            return decodes;
+        }
+    }
+
+    public long getMemoryBytes() {
+        synchronized (lock) {
+            return memoryUsed;
+        }
+    }
+
+    public long getDiskBytes() {
+        synchronized (lock) {
+            return diskUsed;
+        }
+    }
+
+    // A recording that changed has another key; its old peaks leave the caches as they age.
+    static String keyFor(File recording) {
+        return keyFor(recording, recording.length(), recording.lastModified());
+    }
+
+    private static String keyFor(File recording, long length, long lastModified) {
+        String path = recording.getAbsolutePath();
+        return Integer.toHexString(path.hashCode()) + "_" + Integer.toHexString(path.length())
+                + "_" + length + "_" + lastModified;
+    }
+
+    private WaveformPeaks loadOrExtract(File recording, String key) throws IOException {
+        File peakFile = WaveformPeaks.fileFor(recording);
+        if (peakFile.exists()) {
+            try {
+                return WaveformPeaks.open(peakFile);
+            } catch (IOException e) {
+                // Damaged: extracted again below.
+            }
+        }
+
+        File cached = new File(directory, key + WaveformPeaks.EXTENSION);
+        boolean onDisk;
+        synchronized (lock) {
+            listDisk();
+            onDisk = disk.get(key) != null;
+        }
+        if (onDisk) {
+            cached.setLastModified(System.currentTimeMillis());
+            try {
+                WaveformPeaks peaks = WaveformPeaks.open(cached);
+                synchronized (lock) {
+                    diskHits++;
+                }
+                return peaks;
+            } catch (IOException e) {
+                // Trimmed meanwhile, or damaged.
+                synchronized (lock) {
+                    removeFromDisk(key);
+                }
+            }
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File temp = new File(directory, key + TEMP_EXTENSION);
+        WaveformPeakWriter writer = new WaveformPeakWriter(NO_OUTPUT, temp);
+        try {
+            decoder.decode(recording, writer);
+            if (writer.getError() != null) throw writer.getError();
+            if (!temp.exists()) throw new IOException("No audio in " + recording);
+            if (!temp.renameTo(cached)) throw new IOException("Cannot rename " + temp);
+        } finally {
+            temp.delete();
+        }
+        WaveformPeaks peaks = WaveformPeaks.open(cached);
+        synchronized (lock) {
+            decodes++;
+            disk.put(key, cached.length());
+            diskUsed += cached.length();
+            trimDisk();
+        }
+        return peaks;
+    }
+
+    private void listDisk() {
+        if (disk != null) return;
+        disk = new LinkedHashMap<>(16, 0.75f, true);
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        // Least recently used first, as last read.
+        Arrays.sort(files, (a, b) -> {
+            long difference = a.lastModified() - b.lastModified();
+            return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(WaveformPeaks.EXTENSION)) {
+                disk.put(name.substring(0, name.length() - WaveformPeaks.EXTENSION.length()), file.length());
+                diskUsed += file.length();
+            } else if (name.endsWith(TEMP_EXTENSION)) {
+                file.delete(); // left by an extraction that never ended
+            }
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> entries = disk.entrySet().iterator();
+        while (diskUsed > diskBytes && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            new File(directory, entry.getKey() + WaveformPeaks.EXTENSION).delete();
+            diskUsed -= entry.getValue();
+            entries.remove();
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        Long size = disk.remove(key);
+        if (size != null) diskUsed -= size;
+        new File(directory, key + WaveformPeaks.EXTENSION).delete();
+    }
+
+    // The peaks evicted stay valid for those still drawing them.
+    private void putInMemory(String path, MemoryEntry entry) {
+        if (entry.peaks.getByteSize() > memoryBytes) return;
+        MemoryEntry previous = memory.put(path, entry);
+        memoryUsed += entry.peaks.getByteSize() - (previous != null ? previous.peaks.getByteSize() : 0);
+        Iterator<MemoryEntry> values = memory.values().iterator();
+        while (memoryUsed > memoryBytes && values.hasNext()) {
+            memoryUsed -= values.next().peaks.getByteSize();
+            values.remove();
+        }
+    }
+
+    private static final class MemoryEntry {
+        final String key;
+        final long lastModified;
+        final WaveformPeaks peaks;
+
+        MemoryEntry(String key, long lastModified, WaveformPeaks peaks) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.peaks = peaks;
+        }
+    }
+
+    // Runs the waiting extractions, most urgent first, until there are none.
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                Extraction extraction;
+                synchronized (lock) {
+                    extraction = urgent.pollFirst();
+                    if (extraction == null) extraction = pending.pollFirst();
+                    if (extraction == null) {
+                        workers--;
+                        return;
+                    }
+                    extraction.started = true;
+                }
+                extraction.run();
+            }
+        }
+    }
+
+    private final class Extraction {
+        final File recording;
+        final String path;
+        final List<Callback> callbacks = new ArrayList<>();
+        boolean started; // guarded by lock
+
+        Extraction(File recording) {
+            this.recording = recording;
+            path = recording.getPath();
+        }
+
+        // The recording is read here, on an extraction thread.
+        void run() {
+            long lastModified = recording.lastModified();
+            String key = keyFor(recording, recording.length(), lastModified);
+            WaveformPeaks peaks = null;
+            IOException error = null;
+            synchronized (lock) {
+                MemoryEntry entry = memory.get(path);
+                if (entry != null && entry.key.equals(key)) {
+                    peaks = entry.peaks;
+                    memoryHits++;
+                }
+            }
+            if (peaks == null) {
+                try {
+                    peaks = loadOrExtract(recording, key);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            List<Callback> waiting;
+            synchronized (lock) {
+                extractions.remove(path);
+                waiting = new ArrayList<>(callbacks);
+                if (peaks != null) putInMemory(path, new MemoryEntry(key, lastModified, peaks));
+            }
+            for (Callback callback : waiting) {
+                if (peaks != null) {
+                    callback.onWaveformLoaded(recording, peaks);
+                } else {
+                    callback.onWaveformFailed(recording, error);
+                }
+            }
+        }
+    }
+}
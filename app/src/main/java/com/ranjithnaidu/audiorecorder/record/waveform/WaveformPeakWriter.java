@@ -0,0 +1,255 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Passes the blocks on to the writing {@link BlockConsumer} and writes, alongside, the peak file
+ * read by {@link WaveformPeaks}: the min, max and RMS of every bucket of audio at
+ * {@link WaveformPeaks#LEVEL_COUNT} resolutions, each level merging
+ * {@link WaveformPeaks#LEVEL_FACTOR} buckets of the previous one.
+ * <p>
+ * The finest level is streamed to the file as it is computed. The coarser ones, a third of its
+ * size all together, are kept in memory and written when the recording stops. A failure to write
+ * the peak file is kept in {@link #getError()} and never stops the recording.
+ */
+public final class WaveformPeakWriter implements BlockConsumer {
+
+    private static final int STAGING_BYTES = 32 * 1024;
+
+    private static final BlockConsumer NO_DOWNSTREAM = new BlockConsumer() {
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+        }
+
+        @Override
+        public void onStop() {
+        }
+    };
+
+    private final BlockConsumer downstream;
+    private final File peakFile;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private ByteBuffer staging;
+    private IOException error;
+
+    private int sampleRate;
+    private int channelCount;
+    private long totalFrames;
+    private long levelZeroCount;
+
+    // Bucket being built at each level.
+    private final int[] partialMin = new int[WaveformPeaks.LEVEL_COUNT];
+    private final int[] partialMax = new int[WaveformPeaks.LEVEL_COUNT];
+    private final double[] partialSquares = new double[WaveformPeaks.LEVEL_COUNT];
+    private final long[] partialFrames = new long[WaveformPeaks.LEVEL_COUNT];
+    private final int[] partialBuckets = new int[WaveformPeaks.LEVEL_COUNT];
+
+    // Completed buckets of the levels above 0, as min, max, rms triplets.
+    private final short[][] levels = new short[WaveformPeaks.LEVEL_COUNT][];
+    private final int[] levelCounts = new int[WaveformPeaks.LEVEL_COUNT];
+
+    public WaveformPeakWriter(BlockConsumer downstream, File peakFile) {
+        this.downstream = downstream;
+        this.peakFile = peakFile;
+    }
+
+    // Only writes the peak file, of blocks stored by another consumer.
+    public WaveformPeakWriter(File peakFile) {
+        this(NO_DOWNSTREAM, peakFile);
+    }
+
+    @Override
+    public void onStart(int sampleRate, int channelCount) throws IOException {
+        downstream.onStart(sampleRate, channelCount);
+
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        totalFrames = 0;
+        levelZeroCount = 0;
+        for (int level = 0; level < WaveformPeaks.LEVEL_COUNT; level++) {
+            resetPartial(level);
+            levels[level] = level == 0 ? null : new short[3 * 256];
+            levelCounts[level] = 0;
+        }
+        try {
+            file = new RandomAccessFile(peakFile, "rw");
+            channel = file.getChannel();
+            channel.truncate(0);
+            ByteBuffer header = WaveformPeaks.header(sampleRate, 0, 0, new long[0], new long[0]);
+            while (header.hasRemaining()) channel.write(header);
+            staging = ByteBuffer.allocateDirect(STAGING_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onBlock(short[] block, int length) throws IOException {
+        downstream.onBlock(block, length);
+        if (channel == null) return;
+
+        int bucketSamples = WaveformPeaks.BUCKET_FRAMES * channelCount;
+        int offset = 0;
+        while (offset < length) {
+            long bucketFill = partialFrames[0] * channelCount;
+            int count = (int) Math.min(length - offset, bucketSamples - bucketFill);
+            int min = partialMin[0];
+            int max = partialMax[0];
+            long squares = 0;
+            for (int i = offset, end = offset + count; i < end; i++) {
+                int value = block[i];
+                if (value < min) min = value;
+                if (value > max) max = value;
+                squares += value * value;
+            }
+            partialMin[0] = min;
+            partialMax[0] = max;
+            partialSquares[0] += squares;
+            partialFrames[0] += count / channelCount;
+            offset += count;
+
+            if (partialFrames[0] * channelCount == bucketSamples) completeBucket(0);
+        }
+        totalFrames += length / channelCount;
+    }
+
+    @Override
+    public void onStop() throws IOException {
+        try {
+            downstream.onStop();
+        } finally {
+            if (channel != null) finish();
+        }
+    }
+
+    public File getPeakFile() {
+        return peakFile;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    private void finish() {
+        // Partial buckets are kept, from the finest level up so they merge into the coarser ones.
+        for (int level = 0; level < WaveformPeaks.LEVEL_COUNT; level++) {
+            if (partialFrames[level] > 0) completeBucket(level);
+        }
+        if (channel == null) return;
+
+        try {
+            flushStaging();
+            long[] offsets = new long[WaveformPeaks.LEVEL_COUNT];
+            long[] counts = new long[WaveformPeaks.LEVEL_COUNT];
+            offsets[0] = WaveformPeaks.HEADER_SIZE;
+            counts[0] = levelZeroCount;
+            long position = WaveformPeaks.HEADER_SIZE + levelZeroCount * WaveformPeaks.ENTRY_SIZE;
+            for (int level = 1; level < WaveformPeaks.LEVEL_COUNT; level++) {
+                offsets[level] = position;
+                counts[level] = levelCounts[level];
+                short[] entries = levels[level];
+                for (int i = 0; i < levelCounts[level] * 3; i++) {
+                    if (!staging.hasRemaining()) flushStaging();
+                    staging.putShort(entries[i]);
+                }
+                flushStaging();
+                position += (long) levelCounts[level] * WaveformPeaks.ENTRY_SIZE;
+            }
+            ByteBuffer header = WaveformPeaks.header(sampleRate, totalFrames,
+                    WaveformPeaks.LEVEL_COUNT, offsets, counts);
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            close();
+        }
+    }
+
+    private void completeBucket(int level) {
+        int min = partialMin[level];
+        int max = partialMax[level];
+        long frames = partialFrames[level];
+        double squares = partialSquares[level];
+        int rms = (int) Math.min(Short.MAX_VALUE, Math.round(Math.sqrt(squares / (frames * channelCount))));
+
+        if (level == 0) {
+            if (staging.remaining() < WaveformPeaks.ENTRY_SIZE) {
+                try {
+                    flushStaging();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+            staging.putShort((short) min).putShort((short) max).putShort((short) rms);
+            levelZeroCount++;
+        } else {
+            short[] entries = levels[level];
+            int index = levelCounts[level] * 3;
+            if (index == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+                levels[level] = entries;
+            }
+            entries[index] = (short) min;
+            entries[index + 1] = (short) max;
+            entries[index + 2] = (short) rms;
+            levelCounts[level]++;
+        }
+
+        int parent = level + 1;
+        if (parent < WaveformPeaks.LEVEL_COUNT) {
+            partialMin[parent] = Math.min(partialMin[parent], min);
+            partialMax[parent] = Math.max(partialMax[parent], max);
+            partialSquares[parent] += squares;
+            partialFrames[parent] += frames;
+            if (++partialBuckets[parent] == WaveformPeaks.LEVEL_FACTOR) completeBucket(parent);
+        }
+        resetPartial(level);
+    }
+
+    private void resetPartial(int level) {
+        partialMin[level] = Integer.MAX_VALUE;
+        partialMax[level] = Integer.MIN_VALUE;
+        partialSquares[level] = 0;
+        partialFrames[level] = 0;
+        partialBuckets[level] = 0;
+    }
+
+    private void flushStaging() throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) channel.write(staging);
+        staging.clear();
+    }
+
+    private void fail(IOException e) {
+        if (error == null) error = e;
+        close();
+    }
+
+    private void close() {
+        channel = null;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped view of a peak file written by {@link WaveformPeakWriter}.
+ * {@link #render} answers a range query from the coarsest level that still has a bucket per
+ * column, so drawing costs the same for a ten second clip as for a three hour one.
+ * <p>
+ * The file is closed once mapped: the mapping stays valid without it, so instances can be shared
+ * and dropped without an owner. A file left behind by a recording that never stopped only has
+ * its finest level; it is read from the file length.
+ */
+public final class WaveformPeaks {
+
+    public static final String EXTENSION = ".peaks";
+
+    static final int MAGIC = 0x4b505241; // "ARPK"
+    static final int VERSION = 1;
+    static final int BUCKET_FRAMES = 512;
+    static final int LEVEL_FACTOR = 4;
+    static final int LEVEL_COUNT = 8;
+    static final int ENTRY_SIZE = 6;
+    static final int HEADER_SIZE = 32 + LEVEL_COUNT * 16;
+
+    private final ByteBuffer buffer;
+    private final int sampleRate;
+    private final long totalFrames;
+    private final int levelCount;
+    private final int[] levelOffsets = new int[LEVEL_COUNT];
+    private final int[] levelCounts = new int[LEVEL_COUNT];
+
+    private WaveformPeaks(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a peak file");
+        }
+        sampleRate = buffer.getInt(8);
+        int levels = buffer.getInt(16);
+        if (levels == 0) {
+            levelCount = 1;
+            levelOffsets[0] = HEADER_SIZE;
+            levelCounts[0] = (buffer.capacity() - HEADER_SIZE) / ENTRY_SIZE;
+            totalFrames = (long) levelCounts[0] * BUCKET_FRAMES;
+        } else {
+            levelCount = Math.min(levels, LEVEL_COUNT);
+            totalFrames = buffer.getLong(24);
+            for (int level = 0; level < levelCount; level++) {
+                long offset = buffer.getLong(32 + level * 16);
+                long count = buffer.getLong(40 + level * 16);
+                if (offset + count * ENTRY_SIZE > buffer.capacity()) {
+                    throw new IOException("Truncated peak file");
+                }
+                levelOffsets[level] = (int) offset;
+                levelCounts[level] = (int) count;
+            }
+        }
+    }
+
+    public static File fileFor(File recording) {
+        return new File(recording.getParentFile(), recording.getName() + EXTENSION);
+    }
+
+    public static WaveformPeaks open(File peakFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(peakFile, "r")) {
+            FileChannel channel = file.getChannel();
+            return new WaveformPeaks(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+
+    // Size of the mapping.
+    public int getByteSize() {
+        return buffer.capacity();
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    public long getBucketFrames(int level) {
+        long frames = BUCKET_FRAMES;
+        for (int i = 0; i < level; i++) frames *= LEVEL_FACTOR;
+        return frames;
+    }
+
+    public int getBucketCount(int level) {
+        return levelCounts[level];
+    }
+
+    /**
+     * Fills {@code min}, {@code max} and {@code rms} with one value per column for the frames
+     * {@code [startFrame, endFrame)}. Columns past the end of the recording are zero.
+     *
+     * @return the level the columns were read from
+     */
+    public int render(long startFrame, long endFrame, int columns,
+                      short[] min, short[] max, short[] rms) {
+        long range = Math.max(1, endFrame - startFrame);
+        long framesPerColumn = Math.max(1, range / Math.max(1, columns));
+        int level = 0;
+        while (level + 1 < levelCount && getBucketFrames(level + 1) <= framesPerColumn) level++;
+
+        long bucketFrames = getBucketFrames(level);
+        int count = levelCounts[level];
+        int offset = levelOffsets[level];
+        for (int column = 0; column < columns; column++) {
+            long from = startFrame + range * column / columns;
+            long to = startFrame + range * (column + 1) / columns;
+            long first = Math.max(0, from / bucketFrames);
+            long last = Math.min(count, Math.max(first + 1, (to + bucketFrames - 1) / bucketFrames));
+
+            int columnMin = 0;
+            int columnMax = 0;
+            double squares = 0;
+            if (from >= 0 && first < last) {
+                columnMin = Short.MAX_VALUE;
+                columnMax = Short.MIN_VALUE;
+                for (long bucket = first; bucket < last; bucket++) {
+                    int position = offset + (int) bucket * ENTRY_SIZE;
+                    columnMin = Math.min(columnMin, buffer.getShort(position));
+                    columnMax = Math.max(columnMax, buffer.getShort(position + 2));
+                    int bucketRms = buffer.getShort(position + 4);
+                    squares += (double) bucketRms * bucketRms;
+                }
+                squares /= last - first;
+            }
+            min[column] = (short) columnMin;
+            max[column] = (short) columnMax;
+            if (rms != null) rms[column] = (short) Math.round(Math.sqrt(squares));
+        }
+        return level;
+    }
+
+    static ByteBuffer header(int sampleRate, long totalFrames, int levels,
+                             long[] offsets, long[] counts) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(sampleRate).putInt(BUCKET_FRAMES)
+                .putInt(levels).putInt(LEVEL_FACTOR).putLong(totalFrames);
+        for (int level = 0; level < offsets.length; level++) {
+            header.putLong(offsets[level]).putLong(counts[level]);
+        }
+        header.position(0);
+        return header;
+    }
+}
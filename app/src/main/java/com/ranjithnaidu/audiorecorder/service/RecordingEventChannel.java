@@ -0,0 +1,203 @@
+package com.ranjithnaidu.audiorecorder.service;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Carries the events of {@link RecordingService} to its listener on the main thread, in batches.
+ * <p>
+ * Events posted from any thread are queued, and a single dispatch is scheduled for all the events
+ * posted until it runs: when the main thread is busy, events coalesce into fewer, larger
+ * batches instead of piling up one task each. Amplitudes travel in a primitive array and are all
+ * delivered (unless the batch overflows, which is counted), state changes are delivered in the
+ * order they were posted relative to the amplitudes, and only the latest of consecutive timer
+ * updates is kept.
+ */
+final class RecordingEventChannel {
+
+    private static final int EVENT_STARTED = 0;
+    private static final int EVENT_STOPPED = 1;
+    private static final int EVENT_FILE_ROTATED = 2;
+    private static final int EVENT_TIMER = 3;
+
+    private static final class Event {
+        final int type;
+        final String filePath;
+        final long millis;
+        // Number of amplitudes of the batch posted before this event.
+        final int amplitudeMark;
+        int seconds;
+
+        Event(int type, String filePath, long millis, int amplitudeMark) {
+            this.type = type;
+            this.filePath = filePath;
+            this.millis = millis;
+            this.amplitudeMark = amplitudeMark;
+        }
+    }
+
+    private final Executor mainThreadExecutor;
+    private final Runnable dispatchTask = this::dispatch;
+    private final Object lock = new Object();
+    private volatile RecordingService.OnRecordingStatusChangedListener listener;
+
+    // Pending batch, guarded by lock.
+    private int[] amplitudes;
+    private int amplitudeCount = 0;
+    private ArrayList<Event> events = new ArrayList<>();
+    private boolean dispatchScheduled = false;
+
+    // Batch being delivered, main thread only.
+    private int[] deliveredAmplitudes;
+    private ArrayList<Event> deliveredEvents = new ArrayList<>();
+
+    private long postCount = 0;
+    private long dispatchCount = 0;
+    private long coalescedTimerCount = 0;
+    private long droppedAmplitudeCount = 0;
+
+    RecordingEventChannel(Executor mainThreadExecutor, int amplitudeCapacity) {
+        this.mainThreadExecutor = mainThreadExecutor;
+        amplitudes = new int[amplitudeCapacity];
+        deliveredAmplitudes = new int[amplitudeCapacity];
+    }
+
+    @AnyThread
+    void setListener(RecordingService.OnRecordingStatusChangedListener listener) {
+        this.listener = listener;
+    }
+
+    @AnyThread
+    void postRecordingStarted() {
+        postEvent(EVENT_STARTED, null, 0);
+    }
+
+    @AnyThread
+    void postRecordingStopped(String filePath, long elapsedMillis) {
+        postEvent(EVENT_STOPPED, filePath, elapsedMillis);
+    }
+
+    @AnyThread
+    void postFileRotated(String filePath, long elapsedMillis) {
+        postEvent(EVENT_FILE_ROTATED, filePath, elapsedMillis);
+    }
+
+    @AnyThread
+    void postTimerChanged(int seconds) {
+        synchronized (lock) {
+            int last = events.size() - 1;
+            if (last >= 0 && events.get(last).type == EVENT_TIMER) {
+                events.get(last).seconds = seconds;
+                coalescedTimerCount++;
+            } else {
+                Event event = new Event(EVENT_TIMER, null, 0, amplitudeCount);
+                event.seconds = seconds;
+                events.add(event);
+            }
+            scheduleDispatch();
+        }
+    }
+
+    @AnyThread
+    void postAmplitude(int amplitude) {
+        synchronized (lock) {
+            if (amplitudeCount == amplitudes.length) {
+                droppedAmplitudeCount++;
+                return;
+            }
+            amplitudes[amplitudeCount++] = amplitude;
+            scheduleDispatch();
+        }
+    }
+
+    // Events posted, dispatches run on the main thread for them, and what was lost on the way.
+    long getPostCount() {
+        synchronized (lock) {
+            return postCount;
+        }
+    }
+
+    long getDispatchCount() {
+        synchronized (lock) {
+            return dispatchCount;
+        }
+    }
+
+    long getCoalescedTimerCount() {
+        synchronized (lock) {
+            return coalescedTimerCount;
+        }
+    }
+
+    long getDroppedAmplitudeCount() {
+        synchronized (lock) {
+            return droppedAmplitudeCount;
+        }
+    }
+
+    private void postEvent(int type, String filePath, long millis) {
+        synchronized (lock) {
+            events.add(new Event(type, filePath, millis, amplitudeCount));
+            scheduleDispatch();
+        }
+    }
+
+    // Called with the lock held.
+    private void scheduleDispatch() {
+        postCount++;
+        if (dispatchScheduled) return;
+        dispatchScheduled = true;
+        dispatchCount++;
+        mainThreadExecutor.execute(dispatchTask);
+    }
+
+    @MainThread
+    private void dispatch() {
+        int count;
+        synchronized (lock) {
+            int[] swapAmplitudes = deliveredAmplitudes;
+            deliveredAmplitudes = amplitudes;
+            amplitudes = swapAmplitudes;
+            count = amplitudeCount;
+            amplitudeCount = 0;
+
+            ArrayList<Event> swapEvents = deliveredEvents;
+            deliveredEvents = events;
+            events = swapEvents;
+            dispatchScheduled = false;
+        }
+
+        RecordingService.OnRecordingStatusChangedListener listener = this.listener;
+        if (listener != null) {
+            int delivered = 0;
+            for (int i = 0; i < deliveredEvents.size(); i++) {
+                Event event = deliveredEvents.get(i);
+                if (event.amplitudeMark > delivered) {
+                    listener.onAmplitudeInfo(deliveredAmplitudes, delivered, event.amplitudeMark - delivered);
+                    delivered = event.amplitudeMark;
+                }
+                switch (event.type) {
+                    case EVENT_STARTED:
+                        listener.onRecordingStarted();
+                        break;
+                    case EVENT_STOPPED:
+                        listener.onRecordingStopped(event.filePath, event.millis);
+                        break;
+                    case EVENT_FILE_ROTATED:
+                        listener.onFileRotated(event.filePath, event.millis);
+                        break;
+                    default:
+                        listener.onTimerChanged(event.seconds);
+                        break;
+                }
+            }
+            if (count > delivered) {
+                listener.onAmplitudeInfo(deliveredAmplitudes, delivered, count - delivered);
+            }
+        }
+        deliveredEvents.clear();
+    }
+}
@@ -5,16 +5,58 @@ import android.content.Context;
 import android.content.Intent;
 import android.media.MediaRecorder;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.RequiresApi;
+
+import com.ranjithnaidu.audiorecorder.library.RecordingLibrary;
+import com.ranjithnaidu.audiorecorder.processing.flac.FlacEncoder;
+import com.ranjithnaidu.audiorecorder.record.capture.AudioRecordSource;
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+import com.ranjithnaidu.audiorecorder.record.capture.CaptureEngine;
+import com.ranjithnaidu.audiorecorder.record.capture.PreRollBuffer;
+import com.ranjithnaidu.audiorecorder.record.dsp.AutomaticGainControl;
+import com.ranjithnaidu.audiorecorder.record.dsp.BiquadHighPass;
+import com.ranjithnaidu.audiorecorder.record.dsp.DspChain;
+import com.ranjithnaidu.audiorecorder.record.dsp.LookAheadLimiter;
+import com.ranjithnaidu.audiorecorder.record.dsp.NoiseGate;
+import com.ranjithnaidu.audiorecorder.record.metering.LevelMeter;
+import com.ranjithnaidu.audiorecorder.record.metering.LoudnessSummary;
+import com.ranjithnaidu.audiorecorder.record.metering.LoudnessSummaryWriter;
+import com.ranjithnaidu.audiorecorder.record.metering.MeterFrameQueue;
+import com.ranjithnaidu.audiorecorder.record.metering.MeteringScheduler;
+import com.ranjithnaidu.audiorecorder.record.metering.SpectrumAnalyzer;
+import com.ranjithnaidu.audiorecorder.record.metering.SpectrumQueue;
+import com.ranjithnaidu.audiorecorder.record.output.RotatingWavWriter;
+import com.ranjithnaidu.audiorecorder.record.output.SegmentIndex;
+import com.ranjithnaidu.audiorecorder.record.output.SegmentedRecordingWriter;
+import com.ranjithnaidu.audiorecorder.record.output.WavFileConsumer;
+import com.ranjithnaidu.audiorecorder.record.vad.SilenceTimeline;
+import com.ranjithnaidu.audiorecorder.record.vad.VoiceActivityGate;
+import com.ranjithnaidu.audiorecorder.record.waveform.MediaCodecPcmDecoder;
+import com.ranjithnaidu.audiorecorder.record.waveform.PcmDecoder;
+import com.ranjithnaidu.audiorecorder.record.waveform.WavPcmDecoder;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeakWriter;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
 import com.ranjithnaidu.audiorecorder.utils.Utils;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED;
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING;
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED;
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED;
 
 /**
  * Service used to record audio. This class implements an hybrid Service (bound and started
@@ -28,13 +70,80 @@ public class RecordingService extends Service {
     private final String CLASS_NAME = getClass().getSimpleName();
     private static final String EXTRA_ACTIVITY_STARTER = "com.ranjithnaidu.audiorecorder.EXTRA_ACTIVITY_STARTER";
 
+    // Capture modes: MediaRecorder encoding to AAC, or raw PCM through AudioRecord saved as WAV.
+    public static final int CAPTURE_MODE_MEDIA_RECORDER = 0;
+    public static final int CAPTURE_MODE_PCM = 1;
+
+    private static final int PCM_SAMPLE_RATE = 44100;
+    private static final int PCM_BLOCK_FRAMES = 1024;
+    private static final long SEGMENT_DURATION_MILLIS = 10000;
+    private static final int AAC_BIT_RATE = 192000;
+    private static final long VAD_PRE_ROLL_MILLIS = 300;
+    private static final long VAD_HANGOVER_MILLIS = 500;
+    // Conditioning of the captured voice.
+    private static final float HIGH_PASS_HZ = 80;
+    private static final float GATE_THRESHOLD_DB = -50;
+    private static final float GATE_RANGE_DB = 15;
+    private static final float GATE_ATTACK_MILLIS = 2;
+    private static final float GATE_HOLD_MILLIS = 200;
+    private static final float GATE_RELEASE_MILLIS = 150;
+    private static final float AGC_TARGET_DB = -20;
+    private static final float AGC_MAX_GAIN_DB = 18;
+    private static final float AGC_MIN_LEVEL_DB = -45;
+    private static final float LIMITER_CEILING_DB = -1;
+    private static final float LIMITER_LOOK_AHEAD_MILLIS = 5;
+    private static final float LIMITER_RELEASE_MILLIS = 60;
+    private static final long METERING_PERIOD_MILLIS = 100;
+    private static final int METER_QUEUE_CAPACITY = 256;
+    // Peak meter ballistics: the level shown rises at once to a peak and falls back at 20 dB/s.
+    private static final float METER_RELEASE_PER_TICK = (float) Math.pow(10, -20.0 * METERING_PERIOD_MILLIS / 1000 / 20);
+    private static final int EVENT_AMPLITUDE_CAPACITY = 1024;
+    // 46 ms windows, bins of 21.5 Hz: 50 and 60 Hz hum fall in different bins.
+    private static final int SPECTRUM_FFT_SIZE = 2048;
+    private static final int SPECTRUM_QUEUE_CAPACITY = 64;
+
     private String mFileName = null;
     private String mFilePath = null;
     private MediaRecorder mRecorder = null;
+    private int mCaptureMode = CAPTURE_MODE_MEDIA_RECORDER;
+    private boolean mSegmentedOutput = false;
+    private long mMaxFileBytes = 0;
+    private long mMaxFileMillis = 0;
+    private volatile RotatingWavWriter mRotatingWriter = null;
+    private boolean mVoiceActivityGating = false;
+    private VoiceActivityGate mVoiceActivityGate = null;
+    private boolean mSignalConditioning = false;
+    private DspChain mDspChain = null;
+    private WaveformPeakWriter mPeakWriter = null;
+    private LoudnessSummaryWriter mLoudnessWriter = null;
+    private ExecutorService mLoudnessExecutor = null;
+    private boolean mFlacArchiving = false;
+    private ExecutorService mArchiveExecutor = null;
+    private ForkJoinPool mFlacPool = null;
+    private String mNextFilePath = null;
+    private int mFileNumber = 0;
+    private long mFileStartingTimeMillis = 0;
+    private volatile CaptureEngine mCaptureEngine = null;
+    private volatile PreRollBuffer mPreRoll = null;
+    private long mPreRollMillis = 0;
+    private volatile MeterFrameQueue mMeterFrames = null;
+    private int mMeterFrameRate = 50;
+    private final float[] mMeterPeaks = new float[METER_QUEUE_CAPACITY];
+    private final float[] mMeterRms = new float[METER_QUEUE_CAPACITY];
+    private float mDisplayedPeak = 0;
+    // Mean of the squared RMS of the meter frames: the average level of the recording.
+    private double mMeanSquareSum = 0;
+    private long mMeanSquareFrames = 0;
+    private final SpectrumQueue mSpectrumColumns = new SpectrumQueue(SPECTRUM_QUEUE_CAPACITY, SPECTRUM_FFT_SIZE / 2);
+    private final int[] mMeterClips = new int[METER_QUEUE_CAPACITY];
+    private long mClippedSamples = 0;
+    private long mMaxDurationMillis = 0;
     private long mStartingTimeMillis = 0;
     private long mElapsedMillis = 0;
 
-    private TimerTask mIncrementTimerTask = null;
+    private final MeteringScheduler mMeteringScheduler = new MeteringScheduler(METERING_PERIOD_MILLIS, "RecordingMetering");
+    private MeteringScheduler.Session mMeteringSession = null;
+    private long mMissedMeteringTicks = 0;
 
     private final IBinder myBinder = new LocalBinder();
     private boolean isRecording = false;
@@ -69,21 +178,30 @@ public class RecordingService extends Service {
      * - recording started
      * - recording stopped (with file path)
      * - seconds elapsed and max amplitude (useful for graphical effects)
+     * - recording rolled over to a new file (with the path of the completed one)
+     * All the methods are called on the main thread, in the order of the events.
      */
     public interface OnRecordingStatusChangedListener {
         void onRecordingStarted();
 
         void onTimerChanged(int seconds);
 
-        void onAmplitudeInfo(int amplitude);
+        // Every amplitude measured since the previous call, oldest first.
+        void onAmplitudeInfo(int[] amplitudes, int offset, int count);
 
+        // When the recording was split, filePath and elapsedMillis refer to the last file.
         void onRecordingStopped(String filePath, Long elapsedMillis);
+
+        void onFileRotated(String filePath, long elapsedMillis);
     }
 
     private OnRecordingStatusChangedListener onRecordingStatusChangedListener = null;
+    private final RecordingEventChannel mEvents = new RecordingEventChannel(
+            new Handler(Looper.getMainLooper())::post, EVENT_AMPLITUDE_CAPACITY);
 
     public void setOnRecordingStatusChangedListener(OnRecordingStatusChangedListener onRecordingStatusChangedListener) {
         this.onRecordingStatusChangedListener = onRecordingStatusChangedListener;
+        mEvents.setListener(onRecordingStatusChangedListener);
     }
 
     /**
@@ -102,21 +220,113 @@ public class RecordingService extends Service {
     public void onCreate() {
         onCreateCalls++;
         super.onCreate();
+
+        recoverInterruptedSessions();
     }
 
     @Override
     public void onDestroy() {
         onDestroyCalls++;
         super.onDestroy();
-        if (mRecorder != null) {
+        disarmPreRoll();
+        if (isRecording) {
             stopRecording();
         }
 
         if (onRecordingStatusChangedListener != null) onRecordingStatusChangedListener = null;
+        mEvents.setListener(null);
+        Log.d(TAG, CLASS_NAME + " - onDestroy(): " + mEvents.getPostCount() + " events in " + mEvents.getDispatchCount()
+                + " dispatches, " + mEvents.getCoalescedTimerCount() + " timer updates coalesced, "
+                + mEvents.getDroppedAmplitudeCount() + " amplitudes dropped");
+
+        if (mArchiveExecutor != null) {
+            // Pending encodings are completed before the pool goes away.
+            final ForkJoinPool flacPool = mFlacPool;
+            mArchiveExecutor.execute(flacPool::shutdown);
+            mArchiveExecutor.shutdown();
+            mArchiveExecutor = null;
+            mFlacPool = null;
+        }
+        if (mLoudnessExecutor != null) {
+            mLoudnessExecutor.shutdown();
+            mLoudnessExecutor = null;
+        }
+    }
+
+    public void setCaptureMode(int captureMode) {
+        mCaptureMode = captureMode;
+    }
+
+    public int getCaptureMode() {
+        return mCaptureMode;
+    }
+
+    /**
+     * In PCM mode, writes the recording as a session of fixed duration segments plus an index
+     * instead of a single WAV file, so that it survives the death of the process.
+     */
+    public void setSegmentedOutput(boolean segmentedOutput) {
+        mSegmentedOutput = segmentedOutput;
+    }
+
+    /**
+     * In PCM mode, stops writing audio during silence. The removed spans are listed in a
+     * {@link SilenceTimeline} saved next to the recording.
+     */
+    public void setVoiceActivityGating(boolean voiceActivityGating) {
+        mVoiceActivityGating = voiceActivityGating;
+    }
+
+    /**
+     * In PCM mode, conditions the captured audio before it is stored: high-pass filter against
+     * rumble, noise gate, automatic gain control and look-ahead limiter against clipping.
+     */
+    public void setSignalConditioning(boolean signalConditioning) {
+        mSignalConditioning = signalConditioning;
+    }
+
+    /**
+     * In PCM mode, compresses every completed WAV file to a FLAC file next to it (API 21+). The
+     * encoding runs in the background after the recording, using all the cores.
+     */
+    public void setFlacArchiving(boolean flacArchiving) {
+        mFlacArchiving = flacArchiving;
+    }
+
+    /**
+     * In PCM mode, the number of meter frames (peak, RMS and clipping of a window of audio)
+     * computed per second. The amplitude reported to the listener is the highest peak of the
+     * frames since the previous report, held with a release of 20 dB/s so that the level shown
+     * does not flicker between reports. Their RMS gives the average level logged at the end.
+     */
+    public void setMeterFrameRate(int framesPerSecond) {
+        mMeterFrameRate = framesPerSecond;
+    }
+
+    /**
+     * Splits long recordings: when the current file reaches one of the limits (0 disables a
+     * limit) the recording goes on, without any gap, in a new file. In MediaRecorder mode the
+     * split is driven by the file size (API 26+) and the duration limit is converted to a size
+     * at the encoder bit rate.
+     */
+    public void setRotationLimits(long maxFileBytes, long maxFileMillis) {
+        mMaxFileBytes = maxFileBytes;
+        mMaxFileMillis = maxFileMillis;
     }
 
+    /**
+     * Starts a recording.
+     *
+     * @param duration max duration in milliseconds, 0 to record until stopRecording() is called.
+     */
     public void startRecording(int duration) {
+        if (mCaptureMode == CAPTURE_MODE_PCM || mPreRoll != null) {
+            startPcmRecording(duration);
+            return;
+        }
+
         setFileNameAndPath();
+        mFileNumber = 0;
         mRecorder = new MediaRecorder();
         mRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
         mRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
@@ -126,29 +336,315 @@ public class RecordingService extends Service {
         mRecorder.setMaxDuration(duration); // set the max duration, after which the Service is stopped
         mRecorder.setAudioChannels(1);
         mRecorder.setAudioSamplingRate(44100);
-        mRecorder.setAudioEncodingBitRate(192000);
+        mRecorder.setAudioEncodingBitRate(AAC_BIT_RATE);
 
-        // Called only if a max duration has been set.
+        long maxFileBytes = getMediaRecorderMaxFileBytes();
+        if (maxFileBytes > 0) {
+            mRecorder.setMaxFileSize(maxFileBytes);
+        }
+
+        // Called only if a max duration or a max file size has been set.
         mRecorder.setOnInfoListener((mediaRecorder, what, extra) -> {
-            if (what == MEDIA_RECORDER_INFO_MAX_DURATION_REACHED) {
+            if (what == MEDIA_RECORDER_INFO_MAX_DURATION_REACHED || what == MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
                 stopRecording();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                if (what == MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING) {
+                    prepareNextOutputFile(mediaRecorder);
+                } else if (what == MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED) {
+                    onNextOutputFileStarted();
+                }
             }
         });
 
         try {
             mRecorder.prepare();
             mRecorder.start();
-            mStartingTimeMillis = System.currentTimeMillis();
+            mStartingTimeMillis = SystemClock.elapsedRealtime();
+            mFileStartingTimeMillis = mStartingTimeMillis;
             isRecording = true;
 
-            startTimer();
+            startTimer(false);
         } catch (IOException e) {
             Log.e(TAG, CLASS_NAME + " - startRecording(): " + "prepare() failed" + e.toString());
         }
 
-        if (onRecordingStatusChangedListener != null) {
-            onRecordingStatusChangedListener.onRecordingStarted();
+        mEvents.postRecordingStarted();
+    }
+
+    // Size limit for MediaRecorder, which can only roll over on size (API 26+).
+    private long getMediaRecorderMaxFileBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return 0;
+
+        long maxFileBytes = mMaxFileBytes;
+        if (mMaxFileMillis > 0) {
+            long durationBytes = mMaxFileMillis * AAC_BIT_RATE / 8 / 1000;
+            maxFileBytes = maxFileBytes > 0 ? Math.min(maxFileBytes, durationBytes) : durationBytes;
+        }
+        return maxFileBytes;
+    }
+
+    /**
+     * The next file is handed to MediaRecorder before the current one is full, so that the
+     * recorder switches to it without stopping.
+     */
+    private void prepareNextOutputFile(MediaRecorder mediaRecorder) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+
+        mNextFilePath = String.format(Locale.US, "%s_%d", mFilePath.replaceFirst("_\\d+$", ""), mFileNumber + 2);
+        try {
+            mediaRecorder.setNextOutputFile(new File(mNextFilePath));
+        } catch (IOException e) {
+            Log.e(TAG, CLASS_NAME + " - prepareNextOutputFile(): " + e.toString());
+            mNextFilePath = null;
+        }
+    }
+
+    private void onNextOutputFileStarted() {
+        if (mNextFilePath == null) return;
+
+        long now = SystemClock.elapsedRealtime();
+        String completedFilePath = mFilePath;
+        long completedMillis = now - mFileStartingTimeMillis;
+        mFilePath = mNextFilePath;
+        mNextFilePath = null;
+        mFileNumber++;
+        mFileStartingTimeMillis = now;
+
+        measureLoudness(new File(completedFilePath));
+        mEvents.postFileRotated(completedFilePath, completedMillis);
+    }
+
+    /**
+     * Records through the {@link CaptureEngine}: a high priority thread reads the microphone and
+     * metering and file writing consume the samples independently.
+     */
+    private void startPcmRecording(int duration) {
+        setFileNameAndPath();
+        mFilePath += mSegmentedOutput ? SegmentIndex.SESSION_SUFFIX : ".wav";
+        mMaxDurationMillis = duration;
+        mClippedSamples = 0;
+
+        PreRollBuffer preRoll = mPreRoll;
+        if (preRoll == null) {
+            mCaptureEngine = createCaptureEngine();
+        }
+
+        BlockConsumer output;
+        if (mSegmentedOutput) {
+            output = new SegmentedRecordingWriter(new File(mFilePath), SEGMENT_DURATION_MILLIS);
+        } else if (mMaxFileBytes > 0 || mMaxFileMillis > 0) {
+            mRotatingWriter = new RotatingWavWriter(new File(mFilePath), mMaxFileBytes, mMaxFileMillis,
+                    (completedFile, frameCount, sampleRate) -> {
+                        archiveAsFlac(completedFile);
+                        measureLoudness(completedFile);
+                        mEvents.postFileRotated(completedFile.getAbsolutePath(), frameCount * 1000 / sampleRate);
+                    },
+                    // Each file gets its own peaks, written with it.
+                    file -> new WaveformPeakWriter(WaveformPeaks.fileFor(file)));
+            output = mRotatingWriter;
+        } else {
+            output = new WavFileConsumer(new File(mFilePath));
+        }
+        if (mRotatingWriter == null) {
+            // The peaks describe what is stored, so they are computed behind the voice gate. The
+            // rotating writer writes the peaks of each of its files itself.
+            mPeakWriter = new WaveformPeakWriter(output, WaveformPeaks.fileFor(new File(mFilePath)));
+            output = mPeakWriter;
+            mLoudnessWriter = new LoudnessSummaryWriter(output, LoudnessSummary.fileFor(new File(mFilePath)));
+            output = mLoudnessWriter;
+        }
+        if (mVoiceActivityGating) {
+            mVoiceActivityGate = new VoiceActivityGate(output, SilenceTimeline.fileFor(new File(mFilePath)),
+                    VAD_PRE_ROLL_MILLIS, VAD_HANGOVER_MILLIS);
+            output = mVoiceActivityGate;
+        }
+        if (mSignalConditioning) {
+            // In front of the voice gate, which then detects the conditioned voice.
+            mDspChain = new DspChain(output,
+                    new BiquadHighPass(HIGH_PASS_HZ),
+                    new NoiseGate(GATE_THRESHOLD_DB, GATE_RANGE_DB, GATE_ATTACK_MILLIS, GATE_HOLD_MILLIS,
+                            GATE_RELEASE_MILLIS),
+                    new AutomaticGainControl(AGC_TARGET_DB, AGC_MAX_GAIN_DB, AGC_MIN_LEVEL_DB),
+                    new LookAheadLimiter(LIMITER_CEILING_DB, LIMITER_LOOK_AHEAD_MILLIS, LIMITER_RELEASE_MILLIS));
+            output = mDspChain;
+        }
+
+        try {
+            if (preRoll != null) {
+                // Armed: the capture is already running, the recording starts with its buffer.
+                preRoll.attachOutput(output);
+            } else {
+                mCaptureEngine.addConsumer(output);
+                mCaptureEngine.start();
+            }
+            mStartingTimeMillis = SystemClock.elapsedRealtime();
+            isRecording = true;
+
+            // The meter frames queued while armed are discarded by the metering thread, their
+            // only reader.
+            startTimer(preRoll != null);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS_NAME + " - startPcmRecording(): " + "start() failed" + e.toString());
+            if (preRoll != null) {
+                // Not re-armed by the next stopRecording(): the microphone failed.
+                mCaptureEngine.stop();
+                mPreRoll = null;
+                mPreRollMillis = 0;
+            }
+            mCaptureEngine = null;
+            mMeterFrames = null;
+            mRotatingWriter = null;
+            mVoiceActivityGate = null;
+            mDspChain = null;
+            mPeakWriter = null;
+            mLoudnessWriter = null;
+        }
+
+        mEvents.postRecordingStarted();
+    }
+
+    private synchronized void archiveAsFlac(final File wavFile) {
+        if (!mFlacArchiving || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !wavFile.isFile()) return;
+
+        if (mArchiveExecutor == null) {
+            mArchiveExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "FlacArchiver"));
+            mFlacPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
         }
+        final ForkJoinPool flacPool = mFlacPool;
+        mArchiveExecutor.execute(() -> encodeFlac(flacPool, wavFile));
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private void encodeFlac(ForkJoinPool flacPool, File wavFile) {
+        File flacFile = FlacEncoder.flacFileFor(wavFile);
+        try {
+            long start = System.nanoTime();
+            long frames = new FlacEncoder(flacPool).encode(wavFile, flacFile);
+            Log.d(TAG, CLASS_NAME + " - encodeFlac(): " + frames + " frames to " + flacFile.length() + " bytes in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            Log.e(TAG, CLASS_NAME + " - encodeFlac(): " + e.toString());
+            flacFile.delete();
+        }
+    }
+
+    // MediaRecorder exposes no samples, and the parts of a rotating WAV recording are not
+    // metered as they are written: each of those files is decoded and measured once completed,
+    // then added to the library.
+    private synchronized void measureLoudness(final File recording) {
+        boolean wav = recording.getName().endsWith(".wav");
+        if ((!wav && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) || !recording.isFile()) {
+            RecordingLibrary.onRecordingSaved(this, recording.getPath());
+            return;
+        }
+
+        if (mLoudnessExecutor == null) {
+            mLoudnessExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "LoudnessMeter");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        mLoudnessExecutor.execute(() -> decodeLoudness(recording));
+    }
+
+    private void decodeLoudness(File recording) {
+        try {
+            PcmDecoder decoder = recording.getName().endsWith(".wav") || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                    ? new WavPcmDecoder() : new MediaCodecPcmDecoder();
+            LoudnessSummary summary = LoudnessSummary.measure(recording, decoder);
+            Log.d(TAG, CLASS_NAME + " - decodeLoudness(): " + summary);
+        } catch (IOException e) {
+            Log.e(TAG, CLASS_NAME + " - decodeLoudness(): " + e.toString());
+            LoudnessSummary.fileFor(recording).delete();
+        }
+        // The summary is shown by the library, which reads it with the recording.
+        RecordingLibrary.onRecordingSaved(this, recording.getPath());
+    }
+
+    private CaptureEngine createCaptureEngine() {
+        AudioRecordSource source = new AudioRecordSource(PCM_SAMPLE_RATE, 1, PCM_BLOCK_FRAMES * 4);
+        CaptureEngine captureEngine = new CaptureEngine(source, PCM_BLOCK_FRAMES, 64, runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            runnable.run();
+        }, "PcmCaptureReader"));
+        mMeterFrames = new MeterFrameQueue(METER_QUEUE_CAPACITY);
+        captureEngine.addConsumer(new LevelMeter(mMeterFrameRate, mMeterFrames));
+        captureEngine.addConsumer(new SpectrumAnalyzer(SPECTRUM_FFT_SIZE, mSpectrumColumns));
+        return captureEngine;
+    }
+
+    /**
+     * Arms the PCM capture ahead of the next recordings: the microphone stays open and the last
+     * preRollMillis of audio are kept in memory, so that a recording starts with the audio
+     * preceding the call to startRecording(). The buffer is preallocated, and re-armed after
+     * each recording until disarmPreRoll() is called. A new duration applies from the next
+     * arming.
+     *
+     * @return false if the microphone could not be opened.
+     */
+    public synchronized boolean armPreRoll(long preRollMillis) {
+        mPreRollMillis = preRollMillis;
+        if (isRecording || mPreRoll != null) return true;
+        return arm();
+    }
+
+    public synchronized void disarmPreRoll() {
+        mPreRollMillis = 0;
+        if (isRecording || mPreRoll == null) return;
+
+        mCaptureEngine.stop();
+        mCaptureEngine = null;
+        mMeterFrames = null;
+        mPreRoll = null;
+    }
+
+    public boolean isPreRollArmed() {
+        return mPreRoll != null;
+    }
+
+    private boolean arm() {
+        CaptureEngine captureEngine = createCaptureEngine();
+        PreRollBuffer preRoll = new PreRollBuffer(mPreRollMillis);
+        captureEngine.addConsumer(preRoll);
+        try {
+            captureEngine.start();
+        } catch (IOException e) {
+            Log.e(TAG, CLASS_NAME + " - arm(): " + "start() failed" + e.toString());
+            mMeterFrames = null;
+            return false;
+        }
+        mCaptureEngine = captureEngine;
+        mPreRoll = preRoll;
+        return true;
+    }
+
+    // Frames of the current PCM recording, the pre-roll included.
+    private static long getRecordedFrames(CaptureEngine captureEngine, PreRollBuffer preRoll) {
+        return preRoll != null ? preRoll.getForwardedFrames() : captureEngine.getCapturedFrames();
+    }
+
+    /**
+     * Sessions left incomplete by the death of the process are truncated to their last completed
+     * segment and marked as complete.
+     */
+    private void recoverInterruptedSessions() {
+        // Listed here, so that sessions started after this point are never touched.
+        final File[] files = new File(Utils.getDirectoryPath(this)).listFiles();
+        if (files == null) return;
+        new Thread(() -> {
+            for (File file : files) {
+                if (!SegmentIndex.isSession(file)) continue;
+                try {
+                    if (!SegmentIndex.read(file).complete) {
+                        SegmentIndex.Contents contents = SegmentIndex.recover(file);
+                        Log.d(TAG, "Recovered " + contents.segments.size() + " segments of " + file);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, CLASS_NAME + " - recoverInterruptedSessions(): " + e.toString());
+                }
+            }
+        }, "SessionRecovery").start();
     }
 
     private void setFileNameAndPath() {
@@ -157,46 +653,153 @@ public class RecordingService extends Service {
         Log.d(TAG, "mFilePath =  " + mFilePath);
     }
 
-    private void startTimer() {
-        Timer mTimer = new Timer();
-
-        // Increment seconds.
+    /**
+     * Metering runs on the scheduler shared by all the recordings of the Service: the elapsed
+     * time is read from the monotonic clock, and the thread ends with the recording.
+     *
+     * @param discardMeterFrames whether the frames already queued are dropped by the first tick.
+     */
+    private void startTimer(final boolean discardMeterFrames) {
         mElapsedMillis = 0;
-        mIncrementTimerTask = new TimerTask() {
+        mMissedMeteringTicks = 0;
+        mDisplayedPeak = 0;
+        mMeanSquareSum = 0;
+        mMeanSquareFrames = 0;
+        mMeteringSession = mMeteringScheduler.start(new MeteringScheduler.Client() {
+            private boolean discardPending = discardMeterFrames;
+
             @Override
-            public void run() {
-                mElapsedMillis += 100;
-                if (onRecordingStatusChangedListener != null) {
-                    onRecordingStatusChangedListener.onTimerChanged((int) mElapsedMillis / 1000);
+            public void onTick(long elapsedNanos, int missedTicks) {
+                mElapsedMillis = elapsedNanos / 1000000;
+                if (missedTicks > 0) {
+                    mMissedMeteringTicks += missedTicks;
+                    Log.w(TAG, CLASS_NAME + " - onTick(): " + missedTicks + " metering ticks missed");
                 }
-                if (onRecordingStatusChangedListener != null && mRecorder != null) {
+                mEvents.postTimerChanged((int) mElapsedMillis / 1000);
+                if (mRecorder != null) {
                     try {
-                        onRecordingStatusChangedListener.onAmplitudeInfo(mRecorder.getMaxAmplitude());
+                        mEvents.postAmplitude(mRecorder.getMaxAmplitude());
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
+                CaptureEngine captureEngine = mCaptureEngine;
+                MeterFrameQueue meterFrames = mMeterFrames;
+                if (captureEngine != null && meterFrames != null) {
+                    if (discardPending) {
+                        meterFrames.clear();
+                        discardPending = false;
+                    }
+                    int count = meterFrames.drain(null, mMeterPeaks, mMeterRms, mMeterClips, METER_QUEUE_CAPACITY);
+                    float peak = 0;
+                    for (int i = 0; i < count; i++) {
+                        peak = Math.max(peak, mMeterPeaks[i]);
+                        mClippedSamples += mMeterClips[i];
+                        mMeanSquareSum += mMeterRms[i] * mMeterRms[i];
+                    }
+                    mMeanSquareFrames += count;
+                    if (count > 0) {
+                        mDisplayedPeak = Math.max(peak, mDisplayedPeak * METER_RELEASE_PER_TICK);
+                        mEvents.postAmplitude(Math.min((int) (mDisplayedPeak * 32768), Short.MAX_VALUE));
+                    }
+                    long capturedMillis = getRecordedFrames(captureEngine, mPreRoll) * 1000 / captureEngine.getSampleRate();
+                    if ((mMaxDurationMillis > 0 && capturedMillis >= mMaxDurationMillis) || !captureEngine.isRunning()) {
+                        stopRecording();
+                    }
+                }
             }
-        };
-        mTimer.scheduleAtFixedRate(mIncrementTimerTask, 0, 100);
+        });
     }
 
-    public void stopRecording() {
-        mRecorder.stop();
-        long mElapsedMillis = (System.currentTimeMillis() - mStartingTimeMillis);
-        mRecorder.release();
+    public synchronized void stopRecording() {
+        if (!isRecording) return;
+
+        long mElapsedMillis;
+        if (mCaptureEngine != null) {
+            mCaptureEngine.stop();
+            mElapsedMillis = getRecordedFrames(mCaptureEngine, mPreRoll) * 1000 / mCaptureEngine.getSampleRate();
+            if (mPreRoll != null) {
+                Log.d(TAG, CLASS_NAME + " - stopRecording(): " + mPreRoll.getPreRollFrames() + " frames of pre-roll");
+            }
+            if (mCaptureEngine.getOverrunCount() > 0 || mCaptureEngine.getReadErrorCount() > 0) {
+                Log.w(TAG, CLASS_NAME + " - stopRecording(): " + mCaptureEngine.getOverrunCount()
+                        + " blocks dropped, " + mCaptureEngine.getReadErrorCount() + " read errors");
+            }
+            if (mCaptureEngine.getCaptureError() != null) {
+                Log.e(TAG, CLASS_NAME + " - stopRecording(): " + mCaptureEngine.getCaptureError().toString());
+            }
+            if (mCaptureEngine.getConsumerError() != null) {
+                Log.e(TAG, CLASS_NAME + " - stopRecording(): " + mCaptureEngine.getConsumerError().toString());
+            }
+            if (mVoiceActivityGate != null) {
+                Log.d(TAG, CLASS_NAME + " - stopRecording(): voice gate skipped " + mVoiceActivityGate.getSkippedFrames()
+                        + " of " + mCaptureEngine.getCapturedFrames() + " frames, detector "
+                        + mVoiceActivityGate.getAverageDetectorNanos() + " ns/block (max "
+                        + mVoiceActivityGate.getMaxDetectorNanos() + " ns)");
+                mVoiceActivityGate = null;
+            }
+            if (mDspChain != null) {
+                Log.d(TAG, CLASS_NAME + " - stopRecording(): signal conditioning " + mDspChain.getAverageBlockNanos()
+                        + " ns/block (max " + mDspChain.getMaxBlockNanos() + " ns)");
+                mDspChain = null;
+            }
+            if (mPeakWriter != null) {
+                if (mPeakWriter.getError() != null) {
+                    Log.e(TAG, CLASS_NAME + " - stopRecording(): no waveform peaks, " + mPeakWriter.getError().toString());
+                }
+                mPeakWriter = null;
+            }
+            if (mLoudnessWriter != null) {
+                if (mLoudnessWriter.getError() != null) {
+                    Log.e(TAG, CLASS_NAME + " - stopRecording(): no loudness summary, " + mLoudnessWriter.getError().toString());
+                } else if (mLoudnessWriter.getSummary() != null) {
+                    Log.d(TAG, CLASS_NAME + " - stopRecording(): loudness " + mLoudnessWriter.getSummary());
+                }
+                mLoudnessWriter = null;
+            }
+            if (mRotatingWriter != null) {
+                mFilePath = mRotatingWriter.getCurrentFile().getAbsolutePath();
+                mElapsedMillis = mRotatingWriter.getCurrentFrameCount() * 1000 / mCaptureEngine.getSampleRate();
+                mRotatingWriter = null;
+                measureLoudness(new File(mFilePath));
+            } else {
+                // Measured as it was written.
+                RecordingLibrary.onRecordingSaved(this, mFilePath);
+            }
+            if (!mSegmentedOutput) {
+                archiveAsFlac(new File(mFilePath));
+            }
+            if (mMeanSquareFrames > 0) {
+                Log.d(TAG, CLASS_NAME + " - stopRecording(): average level " + String.format(Locale.US, "%.1f",
+                        10 * Math.log10(mMeanSquareSum / mMeanSquareFrames)) + " dBFS");
+            }
+            if (mClippedSamples > 0 || mMeterFrames.getDroppedFrames() > 0) {
+                Log.w(TAG, CLASS_NAME + " - stopRecording(): " + mClippedSamples + " clipped samples, "
+                        + mMeterFrames.getDroppedFrames() + " meter frames dropped");
+            }
+            mCaptureEngine = null;
+            mMeterFrames = null;
+            mPreRoll = null;
+        } else {
+            mRecorder.stop();
+            mElapsedMillis = (SystemClock.elapsedRealtime() - mFileStartingTimeMillis);
+            mRecorder.release();
+            mRecorder = null;
+            measureLoudness(new File(mFilePath));
+        }
         isRecording = false;
-        mRecorder = null;
 
         // Communicate the file path to the connected Activity.
-        if (onRecordingStatusChangedListener != null) {
-            onRecordingStatusChangedListener.onRecordingStopped(mFilePath, mElapsedMillis);
-        }
+        mEvents.postRecordingStopped(mFilePath, mElapsedMillis);
 
         // Stop timer.
-        if (mIncrementTimerTask != null) {
-            mIncrementTimerTask.cancel();
-            mIncrementTimerTask = null;
+        if (mMeteringSession != null) {
+            mMeteringSession.cancel();
+            mMeteringSession = null;
+        }
+
+        if (mPreRollMillis > 0) {
+            arm();
         }
 
         if (onRecordingStatusChangedListener == null)
@@ -208,4 +811,27 @@ public class RecordingService extends Service {
     public boolean isRecording() {
         return isRecording;
     }
+
+    /**
+     * Spectra of the audio captured in PCM mode, one column per window of the FFT size, to be
+     * drained by a single reader (the spectrogram view). Nothing is queued in MediaRecorder mode.
+     */
+    public SpectrumQueue getSpectrumQueue() {
+        return mSpectrumColumns;
+    }
+
+    public int getPcmSampleRate() {
+        return PCM_SAMPLE_RATE;
+    }
+
+    // Metering ticks skipped because they ran late during the current (or last) recording.
+    public long getMissedMeteringTicks() {
+        return mMissedMeteringTicks;
+    }
+
+    // Blocks dropped by the PCM capture engine of the current recording.
+    public long getCaptureOverrunCount() {
+        CaptureEngine captureEngine = mCaptureEngine;
+        return captureEngine != null ? captureEngine.getOverrunCount() : 0;
+    }
 }
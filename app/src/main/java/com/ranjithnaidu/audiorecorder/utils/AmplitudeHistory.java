@@ -0,0 +1,91 @@
+package com.ranjithnaidu.audiorecorder.utils;
+
+/**
+ * The most recent amplitudes drawn by {@link AudioLevelView}, in a fixed capacity ring of
+ * primitive floats: appending is O(1) and evicts the oldest value once full.
+ * <p>
+ * The history is owned by the view model rather than the view, so it keeps growing while the
+ * view is being recreated and is drawn again as is after a rotation.
+ */
+public final class AmplitudeHistory {
+
+    private float[] values;
+    private int head = 0;
+    private int size = 0;
+    private long appendedCount = 0;
+    private int startSeconds = 0;
+
+    public AmplitudeHistory(int capacity) {
+        values = new float[Math.max(1, capacity)];
+    }
+
+    public void append(float amplitude) {
+        int capacity = values.length;
+        if (size == capacity) {
+            values[head] = amplitude;
+            head = head + 1 == capacity ? 0 : head + 1;
+        } else {
+            int tail = head + size;
+            values[tail >= capacity ? tail - capacity : tail] = amplitude;
+            size++;
+        }
+        appendedCount++;
+    }
+
+    // The i-th amplitude, 0 being the oldest kept.
+    public float get(int i) {
+        int index = head + i;
+        return values[index >= values.length ? index - values.length : index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    /**
+     * Changes the capacity, keeping the most recent amplitudes. Nothing is allocated if the
+     * capacity does not change.
+     */
+    public void setCapacity(int capacity) {
+        capacity = Math.max(1, capacity);
+        if (capacity == values.length) return;
+
+        float[] resized = new float[capacity];
+        int kept = Math.min(size, capacity);
+        for (int i = 0; i < kept; i++) {
+            resized[i] = get(size - kept + i);
+        }
+        values = resized;
+        head = 0;
+        size = kept;
+    }
+
+    // Amplitudes appended since the last reset, evicted ones included.
+    public long getAppendedCount() {
+        return appendedCount;
+    }
+
+    public long getEvictedCount() {
+        return appendedCount - size;
+    }
+
+    // Seconds of the recording at which the first amplitude was appended.
+    public int getStartSeconds() {
+        return startSeconds;
+    }
+
+    public void reset(int startSeconds) {
+        this.startSeconds = startSeconds;
+        head = 0;
+        size = 0;
+        appendedCount = 0;
+    }
+}
@@ -1,6 +1,7 @@
 package com.ranjithnaidu.audiorecorder.utils;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
@@ -10,10 +11,7 @@ import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
 
 public class AudioLevelView extends View {
     private static final String TAG = "AUDIO_RECORDER";
@@ -26,7 +24,7 @@ public class AudioLevelView extends View {
     private static final int TOP_PADDING = 12;
 
     private final Context context;
-    private List<Float> amplitudes = new ArrayList<>(); // amplitudes for line lengths
+    private AmplitudeHistory amplitudes = new AmplitudeHistory(1); // amplitudes for line lengths
     private boolean isRecording;
     private int startTime, start, secsPerMark, longMarksPerScreen;
     private int width, height;
@@ -36,6 +34,24 @@ public class AudioLevelView extends View {
     private Path horLinePath;
     private Paint numPaint;
 
+    // The time scale is drawn once into a bitmap covering the scroll range, then blitted at the
+    // current offset; it is redrawn only when the scale wraps around or the size changes.
+    private Bitmap gridBitmap;
+    private Canvas gridCanvas;
+    private int gridStart = -1;
+    private int gridStartTime = -1;
+    private final char[] label = new char[8];
+
+    // Reused end points of the amplitude lines, 4 floats per line.
+    private float[] linePoints = new float[0];
+
+    // Whole recording drawn from its peak file instead of the history, with the position on it.
+    private WaveformPeaks waveform;
+    private long waveformPositionMillis;
+    private int waveformColumns = -1;
+    private short[] columnMin = new short[0];
+    private short[] columnMax = new short[0];
+
     // constructor
     public AudioLevelView(Context context) {
         super(context); // call superclass constructor
@@ -55,6 +71,13 @@ public class AudioLevelView extends View {
         setup();
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        releaseGrid();
+    }
+
     // Initial setup of the view.
     private void setup() {
         float scale = getResources().getDisplayMetrics().density;
@@ -89,8 +112,8 @@ public class AudioLevelView extends View {
         longMarkPaint.setColor(Color.parseColor("#666666"));
         longMarkPaint.setStrokeWidth(lineWidth);
 
-        // Horizontal dotted line at the center of the view.
-        horLinePath = new Path();
+        // Horizontal dotted line at the center of the view, built when the size is known.
+        if (horLinePath == null) horLinePath = new Path();
         horLinePaint = new Paint();
         horLinePaint.setColor(Color.parseColor("#2DA9E0"));
         horLinePaint.setStrokeWidth(lineWidth);
@@ -104,12 +127,22 @@ public class AudioLevelView extends View {
         numPaint.setColor(Color.parseColor("#2DA9E0"));
         numPaint.setAntiAlias(true);
         numPaint.setTextAlign(Paint.Align.CENTER);
+
+        gridStart = -1; // the paints changed
+    }
+
+    /**
+     * Draws the given history, which is kept by the caller (e.g. a view model) so that it
+     * survives the view. The capacity of the history is set to what the view can display.
+     */
+    public void setAmplitudeHistory(AmplitudeHistory amplitudeHistory) {
+        amplitudes = amplitudeHistory;
+        updateHistoryCapacity();
+        invalidate();
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldWidth, int oldHeight) {
-        amplitudes = new ArrayList<>((int) (width / lineWidth * LINES_SPACE));
-
         width = w;
         height = h;
         startHeight = convertDpToPixel(TOP_PADDING); // padding at the top to show times
@@ -118,52 +151,90 @@ public class AudioLevelView extends View {
         longMarksPerScreen = (int) (width / (timeIntervalWidth * 4));
         timeScaleWidth = timeIntervalWidth * 4 * longMarksPerScreen * 2; // we draw a time scale 2 times the width of the screen and then move it to the left as times goes by
         boxRect = new Rect(0, (int) startHeight, width, height);
+        horLinePath.reset();
+        horLinePath.moveTo(0, centralHeight);
+        horLinePath.lineTo(width, centralHeight);
+        releaseGrid();
+        updateHistoryCapacity();
+        waveformColumns = -1;
+    }
+
+    // The lines fill the view up to the middle, where the red line is.
+    private void updateHistoryCapacity() {
+        float lineStep = lineWidth * LINES_SPACE;
+        if (lineStep > 0 && midWidth > 0) {
+            amplitudes.setCapacity((int) Math.ceil(midWidth / lineStep) - 1);
+        }
+        if (linePoints.length < amplitudes.getCapacity() * 4) {
+            linePoints = new float[amplitudes.getCapacity() * 4];
+        }
+    }
+
+    /**
+     * Draws the whole recording from its peaks, or the amplitude history again when null. The
+     * peaks are read once per size, the position moves a line over them.
+     */
+    public void setWaveform(WaveformPeaks waveform) {
+        this.waveform = waveform;
+        waveformColumns = -1;
+        invalidate();
+    }
+
+    public void setPlaybackPosition(long positionMillis) {
+        waveformPositionMillis = positionMillis;
+        if (waveform != null) invalidate();
     }
 
     // Start and stop recording.
     public void startRecording(int secondsElapsed) {
         setup();
-        amplitudes.clear();
-        startTime = secondsElapsed;
-        start = startTime;
+        // A history kept from before a rotation is drawn as it was.
+        if (amplitudes.isEmpty()) amplitudes.reset(secondsElapsed);
         isRecording = true;
         invalidate();
     }
 
+    // The history belongs to its owner, which clears it when the next recording starts.
     public void stopRecording() {
         setup();
-        amplitudes.clear();
-        startTime = 0;
-        start = startTime;
         isRecording = false;
         invalidate();
     }
 
-    // Add the given amplitude to the amplitudes ArrayList.
-    public void addAmplitude(float amplitude) {
-        amplitude = Math.min((float) (amplitude * 1.2), MAX_AMPLITUDE); // increase sensitivity
-        amplitude = amplitude < MIN_AMPLITUDE ? MIN_AMPLITUDE : amplitude + MIN_AMPLITUDE;
-
-        amplitudes.add(amplitude);
-        updateAmplitudesAndGrid();
+    // Call when amplitudes have been appended to the history by its owner.
+    public void onAmplitudesAdded() {
         invalidate();
     }
 
-    private void updateAmplitudesAndGrid() {
-        if (amplitudes.size() * (lineWidth * LINES_SPACE) >= midWidth) { // red lines reaches half view
-            amplitudes.remove(0); // remove oldest amplitude
-            // Start moving the grid left by 1 line.
-            startGrid -= lineWidth * LINES_SPACE;
-            if (startGrid <= -timeScaleWidth) {
-                startGrid = 0;
-                start += longMarksPerScreen * 2 * secsPerMark;
-            }
-        }
+    private static float scaleAmplitude(float amplitude) {
+        amplitude = Math.min((float) (amplitude * 1.2), MAX_AMPLITUDE); // increase sensitivity
+        return amplitude < MIN_AMPLITUDE ? MIN_AMPLITUDE : amplitude + MIN_AMPLITUDE;
+    }
+
+    // Once the red line reaches half view, the grid moves left by 1 line per evicted amplitude.
+    private void updateGrid() {
+        startTime = amplitudes.getStartSeconds();
+        start = startTime;
+        startGrid = 0;
+        if (timeScaleWidth <= 0) return;
+
+        float offset = amplitudes.getEvictedCount() * lineWidth * LINES_SPACE;
+        long scales = (long) (offset / timeScaleWidth);
+        startGrid = -(offset - scales * timeScaleWidth);
+        start += scales * longMarksPerScreen * 2 * secsPerMark;
     }
 
     // Draw the visualizer with scaled lines representing the amplitudes.
     @Override
     public void onDraw(Canvas canvas) {
+        if (waveform != null) {
+            canvas.drawRect(boxRect, boxPaint);
+            canvas.drawPath(horLinePath, horLinePaint);
+            drawWaveform(canvas);
+            return;
+        }
+
+        updateGrid();
         drawBox(canvas);
 
         if (isRecording)
@@ -176,40 +247,101 @@ public class AudioLevelView extends View {
         canvas.drawRect(boxRect, boxPaint);
 
         // Draw the time scale.
+        if (timeScaleWidth > 0) {
+            if (gridBitmap == null || gridStart != start || gridStartTime != startTime) drawGrid();
+            canvas.drawBitmap(gridBitmap, startGrid, 0, null);
+        }
+
+        // Draw dashed line at the middle.
+        canvas.drawPath(horLinePath, horLinePaint);
+    }
+
+    // Draws the marks and times of the scale starting at the start time, plus a screen to scroll.
+    private void drawGrid() {
+        if (gridBitmap == null) {
+            int gridHeight = (int) Math.max(height / 5, startHeight) + 1;
+            gridBitmap = Bitmap.createBitmap((int) (timeScaleWidth + width), gridHeight, Bitmap.Config.ARGB_8888);
+            gridCanvas = new Canvas(gridBitmap);
+        }
+        gridBitmap.eraseColor(Color.TRANSPARENT);
+
         int count = 0;
         int time;
-        for (float x = startGrid; x < timeScaleWidth; x += timeIntervalWidth, count++) {
+        float labelY = startHeight - convertDpToPixel(4);
+        for (float x = 0; x < timeScaleWidth + width; x += timeIntervalWidth, count++) {
             if (count % 5 == 0) { // long mark
-                canvas.drawLine(x, startHeight, x, height / 5, shortMarkPaint);
+                gridCanvas.drawLine(x, startHeight, x, height / 5, shortMarkPaint);
                 time = start + (count / 5) * secsPerMark;
                 if (count > 0 || start > startTime)
-                    canvas.drawText(formatDuration(time), x, startHeight - convertDpToPixel(4), numPaint);
+                    gridCanvas.drawText(label, 0, formatDuration(time), x, labelY, numPaint);
             } else { // short mark
-                canvas.drawLine(x, startHeight, x, height / 7, longMarkPaint);
+                gridCanvas.drawLine(x, startHeight, x, height / 7, longMarkPaint);
             }
         }
+        gridStart = start;
+        gridStartTime = startTime;
+    }
 
-        // Draw dashed line at the middle.
-        horLinePath.moveTo(0, centralHeight);
-        horLinePath.quadTo(width / 2, centralHeight, width, centralHeight);
-        canvas.drawPath(horLinePath, horLinePaint);
+    private void releaseGrid() {
+        if (gridBitmap != null) gridBitmap.recycle();
+        gridBitmap = null;
+        gridCanvas = null;
     }
 
     private void drawAmplitudes(Canvas canvas) {
-        // Draw the amplitudes.
+        // Draw the amplitudes, all the lines in one call.
+        int size = amplitudes.size();
+        if (size == 0) return;
+
+        float lineStep = lineWidth * LINES_SPACE;
         float curX = 0; // the x position where to draw the lines
-        for (float amplitude : amplitudes) {
+        for (int i = 0; i < size; i++) {
+            float amplitude = scaleAmplitude(amplitudes.get(i));
             float scaledHeight = (float) ((amplitude / MAX_AMPLITUDE) * centralHeight * 0.55);
-            curX += lineWidth * LINES_SPACE;
-            canvas.drawLine(curX, centralHeight + scaledHeight, curX, centralHeight
-                    - scaledHeight, linePaint);
+            curX += lineStep;
+            int point = i * 4;
+            linePoints[point] = curX;
+            linePoints[point + 1] = centralHeight + scaledHeight;
+            linePoints[point + 2] = curX;
+            linePoints[point + 3] = centralHeight - scaledHeight;
         }
+        canvas.drawLines(linePoints, 0, size * 4, linePaint);
 
         // Draw the red line at the end marking the current time.
-        if (amplitudes.size() > 0) {
-            curX += lineWidth * LINES_SPACE;
-            canvas.drawLine(curX, startHeight, curX, height, lineRedPaint);
+        curX += lineStep;
+        canvas.drawLine(curX, startHeight, curX, height, lineRedPaint);
+    }
+
+    private void drawWaveform(Canvas canvas) {
+        float lineStep = lineWidth * LINES_SPACE;
+        if (lineStep <= 0 || width <= 0) return;
+
+        if (waveformColumns < 0) {
+            int columns = (int) (width / lineStep);
+            if (columnMin.length < columns) {
+                columnMin = new short[columns];
+                columnMax = new short[columns];
+            }
+            if (linePoints.length < columns * 4) linePoints = new float[columns * 4];
+            waveform.render(0, waveform.getTotalFrames(), columns, columnMin, columnMax, null);
+
+            float scale = centralHeight * 0.55f / MAX_AMPLITUDE;
+            for (int i = 0; i < columns; i++) {
+                float x = i * lineStep + lineStep / 2;
+                int point = i * 4;
+                linePoints[point] = x;
+                linePoints[point + 1] = centralHeight - Math.max(columnMax[i] * scale, lineWidth);
+                linePoints[point + 2] = x;
+                linePoints[point + 3] = centralHeight - Math.min(columnMin[i] * scale, -lineWidth);
+            }
+            waveformColumns = columns;
         }
+        canvas.drawLines(linePoints, 0, waveformColumns * 4, linePaint);
+
+        // Draw the red line at the playback position.
+        long totalMillis = waveform.getTotalFrames() * 1000 / Math.max(1, waveform.getSampleRate());
+        float positionX = totalMillis > 0 ? Math.min(1f, (float) waveformPositionMillis / totalMillis) * width : 0;
+        canvas.drawLine(positionX, startHeight, positionX, height, lineRedPaint);
     }
 
     // Utility functions.
@@ -217,17 +349,22 @@ public class AudioLevelView extends View {
         return (int) (dp * context.getResources().getDisplayMetrics().density + 0.5f);
     }
 
-    // Format duration (hh:mm:ss).
-    private static String formatDuration(long duration) {
-        String hms;
-        if (TimeUnit.SECONDS.toHours(duration) > 0)
-            hms = String.format(Locale.getDefault(), "%02d:%02d:%02d", TimeUnit.MILLISECONDS.toHours(duration),
-                    TimeUnit.SECONDS.toMinutes(duration) % TimeUnit.HOURS.toMinutes(1),
-                    TimeUnit.SECONDS.toSeconds(duration) % TimeUnit.MINUTES.toSeconds(1));
-        else
-            hms = String.format(Locale.getDefault(), "%02d:%02d", TimeUnit.SECONDS.toMinutes(duration) % TimeUnit.HOURS.toMinutes(1),
-                    TimeUnit.SECONDS.toSeconds(duration) % TimeUnit.MINUTES.toSeconds(1));
+    // Format duration (hh:mm:ss) into label, without allocating; returns the number of chars.
+    private int formatDuration(int duration) {
+        int length = 0;
+        int hours = duration / 3600;
+        if (hours > 0) {
+            length = putTwoDigits(hours % 100, length);
+            label[length++] = ':';
+        }
+        length = putTwoDigits(duration / 60 % 60, length);
+        label[length++] = ':';
+        return putTwoDigits(duration % 60, length);
+    }
 
-        return hms;
+    private int putTwoDigits(int value, int position) {
+        label[position] = (char) ('0' + value / 10);
+        label[position + 1] = (char) ('0' + value % 10);
+        return position + 2;
     }
 }
@@ -0,0 +1,181 @@
+package com.ranjithnaidu.audiorecorder.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.core.view.ViewCompat;
+
+import com.ranjithnaidu.audiorecorder.record.metering.SpectrumAnalyzer;
+import com.ranjithnaidu.audiorecorder.record.metering.SpectrumQueue;
+
+/**
+ * Scrolling spectrogram of the audio being captured, to spot hum and interference: time goes
+ * from left to right, frequency from bottom to top on a log scale, and the level is a color.
+ * <p>
+ * The history is never redrawn. Each new spectrum is drawn as one pixel column into a bitmap
+ * the size of the view, used as a ring: the column after the newest one is the oldest, and the
+ * two parts of the ring are blitted in order. While a queue is set the view polls it once per
+ * display frame.
+ */
+public class SpectrogramView extends View {
+    private static final float MIN_FREQUENCY_HZ = 30;
+    private static final float MIN_LEVEL_DB = -100;
+    private static final float MAX_LEVEL_DB = -10;
+    // Columns read from the queue per display frame at most; the others wait for the next frame.
+    private static final int MAX_COLUMNS_PER_FRAME = 16;
+    private static final int[] PALETTE_STOPS = {
+            Color.BLACK, Color.parseColor("#0D2A6B"), Color.parseColor("#7B1FA2"),
+            Color.parseColor("#E00707"), Color.parseColor("#FFC107"), Color.WHITE};
+
+    private final int[] palette = new int[256];
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+
+    private SpectrumQueue queue;
+    private int sampleRate;
+    private float[] columns = new float[0];
+
+    private Bitmap bitmap;
+    private int[] columnPixels = new int[0];
+    // Bins [rowFirstBin[row], rowLastBin[row]] are drawn in the row, the top one being the highest.
+    private int[] rowFirstBin = new int[0];
+    private int[] rowLastBin = new int[0];
+    private int writeX;
+
+    public SpectrogramView(Context context) {
+        super(context);
+        init();
+    }
+
+    public SpectrogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        int segments = PALETTE_STOPS.length - 1;
+        for (int i = 0; i < palette.length; i++) {
+            float position = (float) i / (palette.length - 1) * segments;
+            int stop = Math.min(segments - 1, (int) position);
+            palette[i] = blend(PALETTE_STOPS[stop], PALETTE_STOPS[stop + 1], position - stop);
+        }
+    }
+
+    /**
+     * Starts drawing the columns of the queue, or stops with a null queue: the picture is kept
+     * until the next one.
+     */
+    public void setSpectrumQueue(SpectrumQueue queue, int sampleRate) {
+        boolean restart = queue != null && (queue != this.queue || sampleRate != this.sampleRate);
+        this.queue = queue;
+        this.sampleRate = sampleRate;
+        if (!restart) return;
+
+        queue.clear();
+        columns = new float[MAX_COLUMNS_PER_FRAME * queue.getBinCount()];
+        mapRows();
+        if (bitmap != null) bitmap.eraseColor(Color.BLACK);
+        writeX = 0;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        releaseBitmap();
+        mapRows();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        releaseBitmap();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        int width = getWidth();
+        int height = getHeight();
+        if (width == 0 || height == 0) return;
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.BLACK);
+            writeX = 0;
+        }
+
+        SpectrumQueue queue = this.queue;
+        if (queue != null) {
+            int count = queue.drain(columns, MAX_COLUMNS_PER_FRAME);
+            for (int column = 0; column < count; column++) drawColumn(column * queue.getBinCount());
+        }
+
+        // Oldest columns first, from the one after the newest to the right edge of the bitmap.
+        src.set(writeX, 0, width, height);
+        dst.set(0, 0, width - writeX, height);
+        canvas.drawBitmap(bitmap, src, dst, null);
+        if (writeX > 0) {
+            src.set(0, 0, writeX, height);
+            dst.set(width - writeX, 0, width, height);
+            canvas.drawBitmap(bitmap, src, dst, null);
+        }
+
+        if (queue != null) ViewCompat.postInvalidateOnAnimation(this);
+    }
+
+    private void drawColumn(int offset) {
+        int height = columnPixels.length;
+        float scale = (palette.length - 1) / (MAX_LEVEL_DB - MIN_LEVEL_DB);
+        for (int row = 0; row < height; row++) {
+            float level = SpectrumAnalyzer.FLOOR_DB;
+            for (int bin = rowFirstBin[row]; bin <= rowLastBin[row]; bin++) {
+                level = Math.max(level, columns[offset + bin]);
+            }
+            int index = (int) ((level - MIN_LEVEL_DB) * scale);
+            columnPixels[row] = palette[index < 0 ? 0 : Math.min(palette.length - 1, index)];
+        }
+        bitmap.setPixels(columnPixels, 0, 1, writeX, 0, 1, height);
+        writeX = writeX + 1 == bitmap.getWidth() ? 0 : writeX + 1;
+    }
+
+    // Log frequency scale from MIN_FREQUENCY_HZ to the Nyquist frequency.
+    private void mapRows() {
+        int height = getHeight();
+        if (queue == null || height == 0) return;
+        int bins = queue.getBinCount();
+        columnPixels = new int[height];
+        rowFirstBin = new int[height];
+        rowLastBin = new int[height];
+        float binHz = sampleRate / 2f / bins;
+        double ratio = sampleRate / 2.0 / MIN_FREQUENCY_HZ;
+        for (int row = 0; row < height; row++) {
+            double top = MIN_FREQUENCY_HZ * Math.pow(ratio, 1 - (double) row / height);
+            double bottom = MIN_FREQUENCY_HZ * Math.pow(ratio, 1 - (double) (row + 1) / height);
+            int first = Math.min(bins - 1, (int) Math.round(bottom / binHz));
+            rowFirstBin[row] = first;
+            rowLastBin[row] = Math.max(first, Math.min(bins - 1, (int) Math.round(top / binHz) - 1));
+        }
+    }
+
+    private void releaseBitmap() {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+    }
+
+    private static int blend(int from, int to, float fraction) {
+        return Color.rgb(
+                Math.round(Color.red(from) + (Color.red(to) - Color.red(from)) * fraction),
+                Math.round(Color.green(from) + (Color.green(to) - Color.green(from)) * fraction),
+                Math.round(Color.blue(from) + (Color.blue(to) - Color.blue(from)) * fraction));
+    }
+}
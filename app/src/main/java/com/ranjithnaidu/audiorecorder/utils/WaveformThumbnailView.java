@@ -0,0 +1,91 @@
+package com.ranjithnaidu.audiorecorder.utils;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
+
+/**
+ * Whole recording drawn as one line per pixel column, in the rows of the library. The columns are
+ * rendered from the peaks once per recording and size, so that scrolling only draws the lines.
+ */
+public class WaveformThumbnailView extends View {
+
+    private final Paint linePaint = new Paint();
+    private WaveformPeaks waveform;
+    private boolean rendered;
+    private short[] columnMin = new short[0];
+    private short[] columnMax = new short[0];
+    // Reused end points of the lines, 4 floats per column.
+    private float[] linePoints = new float[0];
+
+    public WaveformThumbnailView(Context context) {
+        super(context);
+        init();
+    }
+
+    public WaveformThumbnailView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        linePaint.setColor(Color.parseColor("#2DA9E0"));
+        linePaint.setStrokeWidth(1);
+    }
+
+    // Null while the peaks are loaded: only the middle line is drawn.
+    public void setWaveform(WaveformPeaks waveform) {
+        if (waveform == this.waveform) return;
+        this.waveform = waveform;
+        rendered = false;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        int columns = Math.max(0, w - getPaddingLeft() - getPaddingRight());
+        if (columns != columnMin.length) {
+            columnMin = new short[columns];
+            columnMax = new short[columns];
+            linePoints = new float[columns * 4];
+        }
+        rendered = false;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        int columns = columnMin.length;
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float halfHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / 2f;
+        float middle = top + halfHeight;
+        if (waveform == null || columns == 0) {
+            canvas.drawLine(left, middle, left + columns, middle, linePaint);
+            return;
+        }
+
+        if (!rendered) {
+            rendered = true;
+            waveform.render(0, waveform.getTotalFrames(), columns, columnMin, columnMax, null);
+            float scale = halfHeight / Short.MAX_VALUE;
+            for (int column = 0; column < columns; column++) {
+                float x = left + column + 0.5f;
+                int i = column * 4;
+                linePoints[i] = x;
+                linePoints[i + 1] = middle - Math.max(columnMax[column] * scale, 0.5f);
+                linePoints[i + 2] = x;
+                linePoints[i + 3] = middle - Math.min(columnMin[column] * scale, -0.5f);
+            }
+        }
+        canvas.drawLines(linePoints, 0, columns * 4, linePaint);
+    }
+}
@@ -0,0 +1,175 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of LibraryDataSource, with a fake store and executors run
+ * step by step.
+ */
+public class LibraryDataSourceTest {
+
+    private static final int PAGE_SIZE = 20;
+    private static final int PREFETCH_ROWS = 10;
+
+    private final QueueExecutor background = new QueueExecutor();
+    private final QueueExecutor main = new QueueExecutor();
+    private final FakeStore store = new FakeStore();
+    private final List<String> events = new ArrayList<>();
+    private final List<String> prefetched = new ArrayList<>();
+    private LibraryDataSource source;
+
+    @Before
+    public void setup() {
+        for (int i = 0; i < 1000; i++) store.add(i, "myrec" + (5000 - i), i);
+        source = new LibraryDataSource(store, PAGE_SIZE, PREFETCH_ROWS, 10, background, main);
+        source.setListener(new LibraryDataSource.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                events.add("+" + position + "x" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                events.add("-" + position + "x" + count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                events.add("~" + position + "x" + count);
+            }
+
+            @Override
+            public void onReset() {
+                events.add("reset");
+            }
+
+            @Override
+            public void onError(IOException e) {
+                events.add("error");
+            }
+        });
+        source.setThumbnailPrefetcher(entry -> prefetched.add(entry.getName()));
+    }
+
+    @Test
+    public void testOnlyPagesAroundTheVisibleRowsAreLoaded() {
+        source.refresh();
+        runAll();
+        assertEquals(Arrays.asList("reset"), events);
+        assertEquals(1000, source.size());
+        assertEquals(0, source.getPageLoads());
+
+        // Rows 100 to 109 are visible: pages 4 and 5 hold them and the prefetched rows around.
+        source.onVisibleRangeChanged(100, 109);
+        assertNull(source.get(100));
+        runAll();
+        assertEquals(2, source.getPageLoads());
+        assertEquals(Arrays.asList("reset", "~80x20", "~100x20"), events);
+        assertEquals("myrec4900", source.get(100).getName());
+        assertEquals(20, prefetched.size());
+        assertTrue(prefetched.contains("myrec4910"));
+        assertTrue(prefetched.contains("myrec4881"));
+        assertTrue(!prefetched.contains("myrec4895"));
+
+        // Bound without being announced: its page is loaded too.
+        assertNull(source.get(500));
+        runAll();
+        assertNotNull(source.get(500));
+        assertEquals(3, source.getPageLoads());
+    }
+
+    @Test
+    public void testRefreshUpdatesOnlyWhatChanged() {
+        source.refresh();
+        runAll();
+        source.onVisibleRangeChanged(0, 9);
+        runAll();
+        events.clear();
+
+        // Two new recordings at the top, one removed, one completed in place.
+        store.add(0, "myrec9001", 1);
+        store.add(0, "myrec9002", 2);
+        store.remove("myrec4990");
+        store.add(store.names.indexOf("myrec4995"), "myrec4995", 123);
+        source.refresh();
+        // The rows are still shown while the store is read.
+        assertEquals("myrec5000", source.get(0).getName());
+        runAll();
+
+        assertEquals(1001, source.size());
+        assertEquals("myrec9002", source.get(0).getName());
+        assertEquals(123, source.get(7).durationMillis);
+        assertEquals(Arrays.asList("-10x1", "+0x2", "~0x2", "~7x1"), events);
+    }
+
+    private void runAll() {
+        while (background.runOne() || main.runOne()) {
+            // Runs both queues until they are empty.
+        }
+    }
+
+    private static final class QueueExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        boolean runOne() {
+            Runnable task = tasks.poll();
+            if (task == null) return false;
+            task.run();
+            return true;
+        }
+    }
+
+    private static final class FakeStore implements LibraryStore {
+        final List<String> names = new ArrayList<>();
+        final Map<String, CatalogEntry> entries = new HashMap<>();
+
+        // Adds or replaces the recording.
+        void add(int position, String name, long duration) {
+            if (entries.put(name, new CatalogEntry(new File(name), duration, 0, 0, 0, 0, 0)) == null) {
+                names.add(position, name);
+            }
+        }
+
+        void remove(String name) {
+            names.remove(name);
+            entries.remove(name);
+        }
+
+        @Override
+        public boolean update() {
+            return false;
+        }
+
+        @Override
+        public String[] getNames() {
+            return names.toArray(new String[0]);
+        }
+
+        @Override
+        public CatalogEntry get(String name) {
+            return entries.get(name);
+        }
+    }
+}
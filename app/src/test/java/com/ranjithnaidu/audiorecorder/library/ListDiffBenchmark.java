@@ -0,0 +1,62 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of ListDiff on a library of 10k recordings, after a refresh that found a few new,
+ * removed and renamed recordings.
+ */
+public class ListDiffBenchmark {
+
+    private static final int RECORDINGS = 10000;
+    private static final int EDITS = 20;
+    private static final int ROUNDS = 50;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkRefresh() {
+        List<String> oldList = new ArrayList<>();
+        for (int i = 0; i < RECORDINGS; i++) oldList.add("myrec" + (1500000000000L + i * 60000L));
+        List<String> newList = new ArrayList<>(oldList);
+        Random random = new Random(3);
+        for (int i = 0; i < EDITS; i++) {
+            if (i % 2 == 0) {
+                newList.remove(random.nextInt(newList.size()));
+            } else {
+                newList.add(random.nextInt(newList.size()), "new" + i);
+            }
+        }
+        String[] oldKeys = oldList.toArray(new String[0]);
+        String[] newKeys = newList.toArray(new String[0]);
+        final int[] updates = new int[1];
+        ListDiff.Callback callback = new ListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates[0]++;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates[0]++;
+            }
+        };
+
+        for (int i = 0; i < ROUNDS; i++) ListDiff.diff(oldKeys, newKeys, 500, callback);
+        updates[0] = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) assertTrue(ListDiff.diff(oldKeys, newKeys, 500, callback));
+        long nanos = (System.nanoTime() - start) / ROUNDS;
+
+        System.out.println("ListDiff: " + RECORDINGS + " recordings, " + EDITS + " edits, "
+                + nanos / 1000 + " us per diff, " + updates[0] / ROUNDS + " range updates");
+        // Computed in the background, but well within a frame anyway.
+        assertTrue(nanos < 16000000);
+    }
+}
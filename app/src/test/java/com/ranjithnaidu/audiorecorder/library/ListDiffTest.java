@@ -0,0 +1,95 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of ListDiff: the updates reported, applied in order to the
+ * old list, must give the new one.
+ */
+public class ListDiffTest {
+
+    @Test
+    public void testRandomEdits() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            List<Object> oldList = new ArrayList<>();
+            for (int i = 0, size = random.nextInt(40); i < size; i++) oldList.add(i);
+            List<Object> newList = new ArrayList<>(oldList);
+            int next = 1000;
+            for (int edit = 0, edits = random.nextInt(10); edit < edits; edit++) {
+                if (!newList.isEmpty() && random.nextBoolean()) {
+                    newList.remove(random.nextInt(newList.size()));
+                } else {
+                    newList.add(random.nextInt(newList.size() + 1), next++);
+                }
+            }
+
+            final List<Object> applied = new ArrayList<>(oldList);
+            final List<Object> inserted = newList;
+            final int[] updates = new int[1];
+            assertTrue(ListDiff.diff(oldList.toArray(), newList.toArray(), 100, new ListDiff.Callback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    updates[0]++;
+                    for (int i = 0; i < count; i++) applied.add(position, "new");
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    updates[0]++;
+                    for (int i = 0; i < count; i++) applied.remove(position);
+                }
+            }));
+            assertEquals(newList.size(), applied.size());
+            for (int i = 0; i < applied.size(); i++) {
+                if (!"new".equals(applied.get(i))) assertEquals(inserted.get(i), applied.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testRangesAreMerged() {
+        final List<String> reported = new ArrayList<>();
+        ListDiff.Callback callback = new ListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                reported.add("+" + position + "x" + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                reported.add("-" + position + "x" + count);
+            }
+        };
+        Object[] library = new Object[10000];
+        for (int i = 0; i < library.length; i++) library[i] = "myrec" + i;
+        Object[] withNew = new Object[library.length + 3];
+        withNew[0] = "a";
+        withNew[1] = "b";
+        withNew[2] = "c";
+        System.arraycopy(library, 0, withNew, 3, library.length);
+        assertTrue(ListDiff.diff(library, withNew, 10, callback));
+        assertEquals(Arrays.asList("+0x3"), reported);
+
+        reported.clear();
+        Object[] withoutSome = Arrays.copyOfRange(library, 0, library.length);
+        List<Object> remaining = new ArrayList<>(Arrays.asList(withoutSome));
+        remaining.subList(500, 520).clear();
+        assertTrue(ListDiff.diff(library, remaining.toArray(), 100, callback));
+        assertEquals(Arrays.asList("-500x20"), reported);
+
+        // Too many edits.
+        reported.clear();
+        assertFalse(ListDiff.diff(library, new Object[0], 100, callback));
+        assertTrue(reported.isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of RecordingCatalog on a library of 10k recordings: cold listing (loading the
+ * index and reading the first page), a scan of the unchanged directory, and a scan after a new
+ * recording.
+ */
+public class RecordingCatalogBenchmark {
+
+    private static final int RECORDINGS = 10000;
+    private static final int PAGE_SIZE = 50;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkColdListing() throws IOException {
+        File directory = File.createTempFile("catalog_benchmark", "");
+        directory.delete();
+        directory.mkdir();
+        File indexFile = new File(directory.getPath() + ".index");
+        try {
+            for (int i = 0; i < RECORDINGS; i++) {
+                new File(directory, "myrec" + (1500000000000L + i * 60000L)).createNewFile();
+            }
+            directory.setLastModified(System.currentTimeMillis() - 10000);
+            new RecordingCatalog(indexFile, new RecordingCatalogTest.FakeProbe()).scan(directory);
+
+            long start = System.nanoTime();
+            RecordingCatalog catalog = new RecordingCatalog(indexFile, new RecordingCatalogTest.FakeProbe());
+            catalog.load();
+            List<CatalogEntry> page = catalog.getPage(0, PAGE_SIZE);
+            long coldNanos = System.nanoTime() - start;
+            assertEquals(RECORDINGS, catalog.size());
+            assertEquals(PAGE_SIZE, page.size());
+
+            start = System.nanoTime();
+            assertFalse(catalog.scan(directory));
+            long unchangedNanos = System.nanoTime() - start;
+
+            new File(directory, "myrec2000000000000").createNewFile();
+            directory.setLastModified(System.currentTimeMillis() - 10000);
+            start = System.nanoTime();
+            assertTrue(catalog.scan(directory));
+            long incrementalNanos = System.nanoTime() - start;
+            assertEquals(1, catalog.getProbeCount());
+            assertEquals("myrec2000000000000", catalog.getPage(0, 1).get(0).getName());
+
+            System.out.println("RecordingCatalog: " + RECORDINGS + " recordings, cold listing "
+                    + coldNanos / 1000000 + " ms, unchanged scan " + unchangedNanos / 1000 + " us, scan with "
+                    + "one new recording " + incrementalNanos / 1000000 + " ms (index of " + indexFile.length()
+                    + " bytes)");
+            // Well under a second on a phone, i.e. a few hundred milliseconds on the JVM at most.
+            assertTrue(coldNanos < 300000000L);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) file.delete();
+            }
+            directory.delete();
+            indexFile.delete();
+        }
+    }
+}
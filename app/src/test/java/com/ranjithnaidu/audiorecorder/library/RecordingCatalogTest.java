@@ -0,0 +1,134 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of RecordingCatalog, with a probe that reads the duration
+ * from the contents of fake recordings.
+ */
+public class RecordingCatalogTest {
+
+    private File directory;
+    private File indexFile;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("catalog", "");
+        directory.delete();
+        directory.mkdir();
+        indexFile = File.createTempFile("catalog", ".index");
+        indexFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void testScanIsIncremental() throws IOException {
+        for (int i = 0; i < 5; i++) write("myrec" + (1000 + i), i * 10);
+        write("myrec1000.peaks", 1);
+        RecordingCatalog catalog = new RecordingCatalog(indexFile, new FakeProbe());
+        assertTrue(catalog.scan(directory));
+        assertEquals(5, catalog.size());
+        assertEquals(6, catalog.getProbeCount());
+
+        // Directory unchanged: nothing is read.
+        age(directory);
+        assertFalse(catalog.scan(directory));
+        assertEquals(6, catalog.getProbeCount());
+
+        // One recording added, one removed: only the new one is probed.
+        write("myrec2000", 70);
+        new File(directory, "myrec1001").delete();
+        age(directory);
+        assertTrue(catalog.scan(directory));
+        assertEquals(7, catalog.getProbeCount());
+        assertEquals(5, catalog.size());
+        assertNull(catalog.get("myrec1001"));
+        assertEquals(70, catalog.get("myrec2000").durationMillis);
+
+        // A recording completed in place is probed by refresh().
+        write("myrec2000", 80);
+        catalog.refresh(new File(directory, "myrec2000"));
+        assertEquals(80, catalog.get("myrec2000").durationMillis);
+    }
+
+    @Test
+    public void testIndexIsPersisted() throws IOException {
+        for (int i = 0; i < 3; i++) write("myrec" + (1000 + i), i);
+        write("notes.txt", 1);
+        new RecordingCatalog(indexFile, new FakeProbe()).scan(directory);
+        age(directory);
+
+        RecordingCatalog reloaded = new RecordingCatalog(indexFile, new FakeProbe());
+        reloaded.load();
+        assertEquals(3, reloaded.size());
+        assertEquals(new File(directory, "myrec1002"), reloaded.getPage(0, 1).get(0).file);
+        // The directory is listed again, but neither the recordings nor the other file are probed.
+        directory.setLastModified(directory.lastModified() - 10000);
+        assertFalse(reloaded.scan(directory));
+        assertEquals(0, reloaded.getProbeCount());
+    }
+
+    @Test
+    public void testPagesAndOrders() throws IOException {
+        for (int i = 0; i < 25; i++) write("myrec" + (1000 + i), (i * 7) % 25);
+        RecordingCatalog catalog = new RecordingCatalog(indexFile, new FakeProbe());
+        catalog.scan(directory);
+
+        List<CatalogEntry> page = catalog.getPage(20, 10);
+        assertEquals(5, page.size());
+        assertEquals("myrec1004", page.get(0).getName());
+        assertEquals("myrec1000", page.get(4).getName());
+        assertTrue(catalog.getPage(25, 10).isEmpty());
+
+        int generation = catalog.getGeneration();
+        catalog.setOrder(RecordingCatalog.Order.LONGEST_FIRST);
+        assertTrue(catalog.getGeneration() != generation);
+        List<CatalogEntry> longest = catalog.getPage(0, 25);
+        for (int i = 1; i < longest.size(); i++) {
+            assertTrue(longest.get(i - 1).durationMillis >= longest.get(i).durationMillis);
+        }
+        catalog.setOrder(RecordingCatalog.Order.OLDEST_FIRST);
+        assertEquals("myrec1000", catalog.getPage(0, 1).get(0).getName());
+    }
+
+    private void write(String name, int durationMillis) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(directory, name));
+        out.write(new byte[durationMillis]);
+        out.close();
+    }
+
+    // Moves the modification time of the directory away from the time of the next scan.
+    private static void age(File directory) {
+        directory.setLastModified(System.currentTimeMillis() - 10000);
+    }
+
+    static final class FakeProbe implements RecordingProbe {
+
+        @Override
+        public CatalogEntry probe(File file, long sizeBytes, long modifiedMillis) {
+            String name = file.getName();
+            if (!name.startsWith("myrec") || name.contains(".")) return null;
+            long created = Long.parseLong(name.substring(5));
+            return new CatalogEntry(file, sizeBytes, sizeBytes, created, modifiedMillis, CatalogEntry.PEAK_UNKNOWN,
+                    CatalogEntry.LOUDNESS_UNKNOWN);
+        }
+    }
+}
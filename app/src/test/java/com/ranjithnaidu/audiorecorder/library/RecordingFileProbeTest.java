@@ -0,0 +1,73 @@
+package com.ranjithnaidu.audiorecorder.library;
+
+import com.ranjithnaidu.audiorecorder.record.metering.LoudnessSummary;
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Unit tests for the implementation of RecordingFileProbe.
+ */
+public class RecordingFileProbeTest {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("probe", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testWavRecording() throws IOException {
+        File file = new File(directory, "myrec1500000000000.wav");
+        WavWriter writer = new WavWriter(file, 8000, 1);
+        writer.write(new short[12000], 0, 12000);
+        writer.close();
+
+        CatalogEntry entry = new RecordingFileProbe().probe(file, file.length(), 1234);
+        assertEquals(1500, entry.durationMillis);
+        assertEquals(file.length(), entry.sizeBytes);
+        assertEquals(1500000000000L, entry.createdMillis);
+        assertEquals(1234, entry.modifiedMillis);
+        assertEquals(CatalogEntry.PEAK_UNKNOWN, entry.peak);
+        assertEquals(CatalogEntry.LOUDNESS_UNKNOWN, entry.loudness, 0f);
+    }
+
+    @Test
+    public void testLoudnessIsReadFromTheSummary() throws IOException {
+        File file = new File(directory, "myrec1500000000000.wav");
+        WavWriter writer = new WavWriter(file, 8000, 1);
+        writer.write(new short[8000], 0, 8000);
+        writer.close();
+        new LoudnessSummary(8000, 8000, -23f, 5f, -20f, -21f, -3f, -4f, 0).write(LoudnessSummary.fileFor(file));
+
+        CatalogEntry entry = new RecordingFileProbe().probe(file, file.length(), 0);
+        assertEquals(-23f, entry.loudness, 0f);
+    }
+
+    @Test
+    public void testSideFilesAreNotRecordings() throws IOException {
+        File file = new File(directory, "myrec1500000000000.wav.peaks");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[16]);
+        out.close();
+        assertNull(new RecordingFileProbe().probe(file, 16, 0));
+    }
+}
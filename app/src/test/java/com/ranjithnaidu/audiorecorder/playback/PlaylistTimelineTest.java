@@ -0,0 +1,40 @@
+package com.ranjithnaidu.audiorecorder.playback;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of PlaylistTimeline.
+ */
+public class PlaylistTimelineTest {
+
+    @Test
+    public void testPositionsMapToItems() {
+        PlaylistTimeline timeline = new PlaylistTimeline();
+        timeline.reset(new long[]{1000, 0, 2500, 500});
+        assertEquals(4000, timeline.getDuration());
+        assertEquals(0, timeline.indexAt(0));
+        assertEquals(0, timeline.indexAt(999));
+        // An empty item is never played at a position.
+        assertEquals(2, timeline.indexAt(1000));
+        assertEquals(2, timeline.indexAt(3499));
+        assertEquals(3, timeline.indexAt(3500));
+        assertEquals(3, timeline.indexAt(10000));
+        assertEquals(3500, timeline.getStart(3));
+    }
+
+    @Test
+    public void testDurationsAreCorrectedWhenKnown() {
+        PlaylistTimeline timeline = new PlaylistTimeline();
+        timeline.reset(new long[]{1000, 1000, 1000});
+        assertTrue(timeline.setDuration(0, 1200));
+        assertFalse(timeline.setDuration(0, 1200));
+        assertEquals(1200, timeline.getStart(1));
+        assertEquals(2200, timeline.getStart(2));
+        assertEquals(3200, timeline.getDuration());
+        assertEquals(1, timeline.indexAt(1200));
+    }
+}
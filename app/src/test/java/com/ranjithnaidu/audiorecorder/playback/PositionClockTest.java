@@ -0,0 +1,86 @@
+package com.ranjithnaidu.audiorecorder.playback;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of PositionClock.
+ */
+public class PositionClockTest {
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testPositionIsInterpolatedBetweenSyncs() {
+        PositionClock clock = new PositionClock(500);
+        assertTrue(clock.needsSync(0));
+        clock.sync(1000, millis(10), true);
+
+        // A frame every 16 ms reads the player only every 500 ms.
+        int syncs = 0;
+        long previous = -1;
+        for (long now = 10; now < 2010; now += 16) {
+            if (clock.needsSync(millis(now))) {
+                clock.sync(1000 + now - 10, millis(now), true);
+                syncs++;
+            }
+            long position = clock.positionAt(millis(now));
+            assertEquals(1000 + now - 10, position);
+            assertTrue(position > previous);
+            previous = position;
+        }
+        assertEquals(3, syncs);
+        assertEquals(4, clock.getSyncCount());
+    }
+
+    @Test
+    public void testJitterNeverMovesThePositionBack() {
+        PositionClock clock = new PositionClock(500);
+        clock.sync(0, 0, true);
+        // The player reports a position 30 ms behind the interpolated one.
+        clock.sync(470, millis(500), true);
+        assertEquals(500, clock.positionAt(millis(500)));
+        assertEquals(600, clock.positionAt(millis(600)));
+
+        // A seek backwards is followed.
+        clock.sync(100, millis(700), true);
+        assertEquals(100, clock.positionAt(millis(700)));
+        // And so is a position ahead.
+        clock.sync(5000, millis(800), true);
+        assertEquals(5100, clock.positionAt(millis(900)));
+    }
+
+    @Test
+    public void testPausedAndDuration() {
+        PositionClock clock = new PositionClock(500);
+        clock.setDuration(3000);
+        clock.sync(2900, 0, true);
+        assertEquals(2950, clock.positionAt(millis(50)));
+        assertEquals(3000, clock.positionAt(millis(400)));
+
+        clock.sync(1234, millis(1000), false);
+        assertFalse(clock.isRunning());
+        assertEquals(1234, clock.positionAt(millis(5000)));
+
+        clock.invalidate();
+        assertTrue(clock.needsSync(millis(1001)));
+    }
+
+    @Test
+    public void testRate() {
+        PositionClock clock = new PositionClock(500);
+        clock.sync(1000, 0, true);
+        assertEquals(1100, clock.positionAt(millis(100)));
+        // The speed changes at 200 ms: the position reached is kept, then advances faster.
+        clock.setRate(3f, millis(200));
+        assertEquals(1200, clock.positionAt(millis(200)));
+        assertEquals(1500, clock.positionAt(millis(300)));
+    }
+}
@@ -0,0 +1,72 @@
+package com.ranjithnaidu.audiorecorder.playback.stretch;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of WsolaTimeStretcher on 44.1 kHz stereo speech-like audio (two tones, a chirp
+ * and noise) played at 3x, in the 4096-frame blocks of the WAV reader.
+ */
+public class WsolaTimeStretcherBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final float SPEED = 3f;
+    private static final int SIGNAL_SECONDS = 60;
+    private static final int WARM_UP_RUNS = 3;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkRealTimeFactor() {
+        short[] signal = signal(SIGNAL_SECONDS * SAMPLE_RATE);
+        WsolaTimeStretcher stretcher = new WsolaTimeStretcher(SAMPLE_RATE, CHANNELS, BLOCK_FRAMES);
+        stretcher.setSpeed(SPEED);
+        short[] output = new short[stretcher.getStepSamples() * 8];
+
+        for (int i = 0; i < WARM_UP_RUNS; i++) run(stretcher, signal, output);
+        long produced = stretcher.getProducedFrames();
+        long start = System.nanoTime();
+        run(stretcher, signal, output);
+        long nanos = System.nanoTime() - start;
+        produced = stretcher.getProducedFrames() - produced;
+
+        double realTimeFactor = SIGNAL_SECONDS * 1e9 / nanos;
+        double durationRatio = produced * (double) SPEED / (SIGNAL_SECONDS * SAMPLE_RATE);
+        System.out.println("WsolaTimeStretcher: " + SIGNAL_SECONDS + " s at " + SPEED + "x in "
+                + nanos / 1000000 + " ms, " + String.format("%.0f", realTimeFactor)
+                + "x real time, duration ratio " + String.format("%.4f", durationRatio));
+        // Playing at 3x consumes three seconds of input per second: leave a wide margin on top.
+        assertTrue(realTimeFactor > SPEED * 10);
+        assertTrue(Math.abs(durationRatio - 1) < 0.01);
+    }
+
+    private static void run(WsolaTimeStretcher stretcher, short[] signal, short[] output) {
+        for (int offset = 0; offset < signal.length; ) {
+            offset += stretcher.putSamples(signal, offset, Math.min(BLOCK_FRAMES * CHANNELS, signal.length - offset));
+            while (stretcher.receiveSamples(output, 0, output.length) > 0) {
+                // Discarded: only the cost is measured.
+            }
+        }
+        stretcher.drain(output, 0);
+    }
+
+    private static short[] signal(int frames) {
+        Random random = new Random(1);
+        short[] samples = new short[frames * CHANNELS];
+        for (int frame = 0; frame < frames; frame++) {
+            double time = frame / (double) SAMPLE_RATE;
+            double value = 6000 * Math.sin(2 * Math.PI * 180 * time)
+                    + 3000 * Math.sin(2 * Math.PI * 1250 * time)
+                    + 3000 * Math.sin(2 * Math.PI * (200 + 400 * (time % 5)) * time)
+                    + 800 * random.nextGaussian();
+            samples[frame * CHANNELS] = (short) value;
+            samples[frame * CHANNELS + 1] = (short) (value * 0.8);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,109 @@
+package com.ranjithnaidu.audiorecorder.playback.stretch;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of WsolaTimeStretcher.
+ */
+public class WsolaTimeStretcherTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    public void testSpeedChangesDurationButNotPitch() {
+        short[] tone = tone(SAMPLE_RATE * 6, 1, 440);
+        for (float speed : new float[]{0.75f, 1.5f, 2f, 3f}) {
+            short[] output = stretch(tone, 1, speed, 1000);
+            double expectedFrames = tone.length / speed;
+            assertEquals("duration at " + speed, expectedFrames, output.length, expectedFrames * 0.02);
+            // Skip the start, then count the zero crossings: the pitch stays at 440 Hz.
+            assertEquals("pitch at " + speed, 440, frequency(output, 1, 0, SAMPLE_RATE), 440 * 0.02);
+        }
+    }
+
+    @Test
+    public void testSpeedOneLeavesTheInputUnchanged() {
+        short[] input = tone(SAMPLE_RATE * 2, 2, 300);
+        for (int i = 0; i < input.length; i++) input[i] += (short) ((i * 7919) % 2001 - 1000);
+        short[] output = stretch(input, 2, 1f, 777);
+        // The end held for the next step is lost without a drain.
+        assertTrue(output.length > input.length - SAMPLE_RATE / 10 * 2);
+        for (int i = 0; i < output.length; i++) {
+            assertEquals("sample " + i, input[i], output[i]);
+        }
+    }
+
+    @Test
+    public void testStereoSequencesJoinWithoutClicks() {
+        short[] input = tone(SAMPLE_RATE * 4, 2, 220);
+        short[] output = stretch(input, 2, 2.5f, 512);
+        // A badly aligned crossfade would leave steps far above the ones of the tone.
+        int maxInputStep = maxStep(input, 2);
+        int maxOutputStep = maxStep(output, 2);
+        assertTrue(maxInputStep + " vs " + maxOutputStep, maxOutputStep < maxInputStep * 1.5);
+        assertEquals(220, frequency(output, 2, 1, SAMPLE_RATE), 220 * 0.02);
+    }
+
+    static short[] tone(int frames, int channels, double frequency) {
+        short[] samples = new short[frames * channels];
+        for (int frame = 0; frame < frames; frame++) {
+            double value = 12000 * Math.sin(2 * Math.PI * frequency * frame / SAMPLE_RATE);
+            for (int channel = 0; channel < channels; channel++) {
+                samples[frame * channels + channel] = (short) (channel == 0 ? value : value / 2);
+            }
+        }
+        return samples;
+    }
+
+    static short[] stretch(short[] input, int channels, float speed, int blockFrames) {
+        WsolaTimeStretcher stretcher = new WsolaTimeStretcher(SAMPLE_RATE, channels, blockFrames);
+        stretcher.setSpeed(speed);
+        short[] output = new short[(int) (input.length / Math.min(1f, speed)) + 10 * stretcher.getStepSamples()];
+        short[] buffer = new short[stretcher.getStepSamples() * 4];
+        int written = 0;
+        for (int offset = 0; offset < input.length; ) {
+            int length = Math.min(blockFrames * channels, input.length - offset);
+            int put = stretcher.putSamples(input, offset, length);
+            offset += put;
+            int received;
+            while ((received = stretcher.receiveSamples(buffer, 0, buffer.length)) > 0) {
+                System.arraycopy(buffer, 0, output, written, received);
+                written += received;
+            }
+        }
+        written += stretcher.drain(output, written);
+        short[] result = new short[written / channels];
+        for (int i = 0; i < result.length; i++) result[i] = output[i * channels];
+        return channels == 1 ? result : java.util.Arrays.copyOf(output, written);
+    }
+
+    private static double frequency(short[] samples, int channels, int channel, int sampleRate) {
+        int frames = samples.length / channels;
+        int from = frames / 10;
+        int to = frames - frames / 10;
+        int first = -1;
+        int last = -1;
+        int crossings = 0;
+        for (int frame = from + 1; frame < to; frame++) {
+            short previous = samples[(frame - 1) * channels + channel];
+            short current = samples[frame * channels + channel];
+            if (previous < 0 && current >= 0) {
+                if (first < 0) first = frame;
+                last = frame;
+                crossings++;
+            }
+        }
+        return (crossings - 1) * (double) sampleRate / (last - first);
+    }
+
+    private static int maxStep(short[] samples, int channels) {
+        int max = 0;
+        for (int i = channels; i < samples.length; i++) {
+            max = Math.max(max, Math.abs(samples[i] - samples[i - channels]));
+        }
+        return max;
+    }
+}
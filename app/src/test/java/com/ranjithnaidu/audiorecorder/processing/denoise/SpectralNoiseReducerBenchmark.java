@@ -0,0 +1,80 @@
+package com.ranjithnaidu.audiorecorder.processing.denoise;
+
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Benchmark of SpectralNoiseReducer on 10 minutes of 44.1 kHz mono audio, file to file, on one
+ * worker and on as many workers as there are processors.
+ */
+public class SpectralNoiseReducerBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SIGNAL_SECONDS = 600;
+
+    private File wavFile;
+    private File outputFile;
+
+    @Before
+    public void setup() throws IOException {
+        wavFile = File.createTempFile("denoise_benchmark", ".wav");
+        outputFile = SpectralNoiseReducer.outputFileFor(wavFile);
+        Random random = new Random(1);
+        short[] second = new short[SAMPLE_RATE];
+        try (WavWriter writer = new WavWriter(wavFile, SAMPLE_RATE, 1)) {
+            for (int s = 0; s < SIGNAL_SECONDS; s++) {
+                for (int i = 0; i < SAMPLE_RATE; i++) {
+                    double voice = s % 3 == 0 ? 0 : 6000 * Math.sin(2 * Math.PI * (150 + s % 7 * 20) * i / SAMPLE_RATE);
+                    second[i] = (short) (voice + 300 * random.nextGaussian());
+                }
+                writer.write(second, 0, second.length);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        wavFile.delete();
+        outputFile.delete();
+    }
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkRealTimeFactor() throws IOException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        double single = realTimeFactor(1);
+        double parallel = realTimeFactor(processors);
+
+        System.out.println("SpectralNoiseReducer: " + SIGNAL_SECONDS + " s of audio, "
+                + String.format("%.0f", single) + "x real time on 1 worker, "
+                + String.format("%.0f", parallel) + "x on " + processors);
+        // An hour long take in about a minute on a single core, the workers dividing it further.
+        assertTrue(parallel > 50);
+    }
+
+    private double realTimeFactor(int workers) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            // The first run warms the JIT up.
+            new SpectralNoiseReducer(pool).reduce(wavFile, outputFile, progress -> {
+            });
+            long start = System.nanoTime();
+            new SpectralNoiseReducer(pool).reduce(wavFile, outputFile, progress -> {
+            });
+            return SIGNAL_SECONDS * 1e9 / (System.nanoTime() - start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
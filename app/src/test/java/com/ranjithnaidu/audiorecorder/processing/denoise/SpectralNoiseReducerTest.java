@@ -0,0 +1,143 @@
+package com.ranjithnaidu.audiorecorder.processing.denoise;
+
+import com.ranjithnaidu.audiorecorder.record.output.WavReader;
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Unit tests for the implementation of SpectralNoiseReducer, on a tone alternating with pauses
+ * over a constant hiss.
+ */
+public class SpectralNoiseReducerTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    private File wavFile;
+    private File outputFile;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setup() throws IOException {
+        wavFile = File.createTempFile("denoise", ".wav");
+        outputFile = SpectralNoiseReducer.outputFileFor(wavFile);
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        wavFile.delete();
+        outputFile.delete();
+    }
+
+    @Test
+    public void testHissIsReducedAndToneKept() throws IOException {
+        // 1 s of tone every other second, hiss at -40 dBFS throughout.
+        short[] samples = toneOverHiss(8 * SAMPLE_RATE, 1);
+        write(samples, 1);
+
+        long frames = new SpectralNoiseReducer(pool).reduce(wavFile, outputFile, progress -> {
+        });
+        short[] output = read(outputFile);
+
+        assertEquals(samples.length, frames);
+        assertEquals(samples.length, output.length);
+        for (int second = 1; second < 7; second++) {
+            double before = rms(samples, second * SAMPLE_RATE + SAMPLE_RATE / 4, SAMPLE_RATE / 2);
+            double after = rms(output, second * SAMPLE_RATE + SAMPLE_RATE / 4, SAMPLE_RATE / 2);
+            if (second % 2 == 0) {
+                assertEquals("tone in second " + second, 20 * Math.log10(before), 20 * Math.log10(after), 0.5);
+            } else {
+                assertTrue("hiss in second " + second, after < before / 5);
+            }
+        }
+    }
+
+    @Test
+    public void testChunksAreStitchedWithoutSeams() throws IOException {
+        short[] samples = toneOverHiss(5 * SAMPLE_RATE + 123, 2);
+        write(samples, 2);
+
+        new SpectralNoiseReducer(pool, 1000).reduce(wavFile, outputFile, progress -> {
+        });
+        short[] whole = read(outputFile);
+        new SpectralNoiseReducer(pool, 7).reduce(wavFile, outputFile, progress -> {
+        });
+        short[] chunked = read(outputFile);
+
+        assertEquals(samples.length, chunked.length);
+        for (int i = 0; i < whole.length; i++) {
+            assertEquals("sample " + i, whole[i], chunked[i], 1);
+        }
+    }
+
+    @Test
+    public void testProgressAndCancellation() throws IOException {
+        write(toneOverHiss(4 * SAMPLE_RATE, 1), 1);
+
+        final float[] last = {0};
+        new SpectralNoiseReducer(new ForkJoinPool(1), 16).reduce(wavFile, outputFile, progress -> {
+            assertTrue(progress > last[0]);
+            last[0] = progress;
+        });
+        assertEquals(1f, last[0], 1e-6f);
+
+        final SpectralNoiseReducer reducer = new SpectralNoiseReducer(new ForkJoinPool(1), 16);
+        try {
+            reducer.reduce(wavFile, outputFile, progress -> {
+                if (progress > 0.5f) reducer.cancel();
+            });
+            fail("the reduction was not cancelled");
+        } catch (InterruptedIOException expected) {
+            assertFalse(outputFile.exists());
+        }
+    }
+
+    private short[] toneOverHiss(int frames, int channels) {
+        Random random = new Random(5);
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            boolean tone = i / SAMPLE_RATE % 2 == 0;
+            for (int channel = 0; channel < channels; channel++) {
+                double value = random.nextGaussian() * 328;
+                if (tone) value += 8000 * Math.sin(2 * Math.PI * 440 * (channel + 1) * i / SAMPLE_RATE);
+                samples[i * channels + channel] = (short) Math.round(value);
+            }
+        }
+        return samples;
+    }
+
+    private static double rms(short[] samples, int from, int count) {
+        double sum = 0;
+        for (int i = from; i < from + count; i++) sum += (double) samples[i] * samples[i];
+        return Math.sqrt(sum / count);
+    }
+
+    private void write(short[] samples, int channels) throws IOException {
+        try (WavWriter writer = new WavWriter(wavFile, SAMPLE_RATE, channels)) {
+            writer.write(samples, 0, samples.length);
+        }
+    }
+
+    private static short[] read(File file) throws IOException {
+        try (WavReader reader = new WavReader(file)) {
+            short[] samples = new short[(int) reader.getFrameCount() * reader.getChannelCount()];
+            assertEquals(samples.length, Math.max(0, reader.read(samples, 0, samples.length)));
+            return samples;
+        }
+    }
+}
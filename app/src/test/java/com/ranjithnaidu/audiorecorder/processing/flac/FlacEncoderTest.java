@@ -0,0 +1,139 @@
+package com.ranjithnaidu.audiorecorder.processing.flac;
+
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Round trip tests for the implementation of FlacEncoder: every encoded file is decoded again and
+ * must match the original samples bit for bit.
+ */
+public class FlacEncoderTest {
+
+    private File wavFile;
+    private File flacFile;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setup() throws IOException {
+        wavFile = File.createTempFile("flac_encoder", ".wav");
+        flacFile = FlacEncoder.flacFileFor(wavFile);
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        wavFile.delete();
+        flacFile.delete();
+    }
+
+    @Test
+    public void testSilenceWithPartialLastFrame() throws IOException {
+        short[] samples = new short[3 * FlacEncoder.BLOCK_SIZE + 123];
+        FlacTestDecoder decoder = roundTrip(samples, 1, 8000);
+
+        assertEquals(4, decoder.frameCount);
+        assertEquals(8000, decoder.sampleRate);
+        assertTrue(flacFile.length() < 200);
+    }
+
+    @Test
+    public void testTonalSignalIsCompressed() throws IOException {
+        Random random = new Random(1);
+        short[] samples = new short[44100 * 3];
+        for (int i = 0; i < samples.length; i++) {
+            double tone = 9000 * Math.sin(2 * Math.PI * 440 * i / 44100.0)
+                    + 4000 * Math.sin(2 * Math.PI * 1234 * i / 44100.0);
+            samples[i] = (short) (tone + random.nextGaussian() * 30);
+        }
+        roundTrip(samples, 1, 44100);
+
+        assertTrue(flacFile.length() < wavFile.length() * 6 / 10);
+    }
+
+    @Test
+    public void testStereoNoiseAndExtremes() throws IOException {
+        Random random = new Random(2);
+        int frames = 5 * FlacEncoder.BLOCK_SIZE + 1;
+        short[] samples = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            int section = i / 2000 % 4;
+            if (section == 0) {
+                samples[2 * i] = (short) random.nextInt();
+                samples[2 * i + 1] = (short) random.nextInt();
+            } else if (section == 1) {
+                samples[2 * i] = (i & 1) == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+                samples[2 * i + 1] = Short.MIN_VALUE;
+            } else if (section == 2) {
+                samples[2 * i] = (short) (i * 37);
+                samples[2 * i + 1] = (short) -(i * 11);
+            } else {
+                samples[2 * i] = (short) (20000 * Math.sin(i * 0.001) + random.nextInt(5));
+                samples[2 * i + 1] = (short) random.nextInt(3);
+            }
+        }
+        FlacTestDecoder decoder = roundTrip(samples, 2, 48000);
+
+        assertEquals(2, decoder.channelCount);
+        assertEquals(6, decoder.frameCount);
+    }
+
+    @Test
+    public void testTinyAndEmptyFiles() throws IOException {
+        roundTrip(new short[0], 1, 16000);
+        roundTrip(new short[]{-5}, 1, 16000);
+        roundTrip(new short[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17}, 1, 16000);
+        roundTrip(new short[]{Short.MIN_VALUE, Short.MAX_VALUE, 0, -1}, 2, 16000);
+    }
+
+    @Test
+    public void testOutputDoesNotDependOnParallelism() throws IOException {
+        Random random = new Random(3);
+        short[] samples = new short[20 * FlacEncoder.BLOCK_SIZE];
+        double phase = 0;
+        for (int i = 0; i < samples.length; i++) {
+            phase += 0.01 + 0.05 * (i % 10000) / 10000.0;
+            samples[i] = (short) (8000 * Math.sin(phase) + random.nextGaussian() * 100);
+        }
+        roundTrip(samples, 1, 22050);
+        byte[] parallel = Files.readAllBytes(flacFile.toPath());
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            new FlacEncoder(single).encode(wavFile, flacFile);
+        } finally {
+            single.shutdown();
+        }
+        assertTrue(Arrays.equals(parallel, Files.readAllBytes(flacFile.toPath())));
+    }
+
+    private FlacTestDecoder roundTrip(short[] samples, int channelCount, int sampleRate)
+            throws IOException {
+        WavWriter writer = new WavWriter(wavFile, sampleRate, channelCount);
+        writer.write(samples, 0, samples.length);
+        writer.close();
+
+        long encoded = new FlacEncoder(pool).encode(wavFile, flacFile);
+        assertEquals(samples.length / channelCount, encoded);
+
+        FlacTestDecoder decoder = new FlacTestDecoder(Files.readAllBytes(flacFile.toPath()));
+        short[] decoded = decoder.decode();
+        assertEquals(16, decoder.bitsPerSample);
+        assertEquals(samples.length / channelCount, decoder.totalSamples);
+        assertTrue(Arrays.equals(samples, decoded));
+        return decoder;
+    }
+}
@@ -0,0 +1,221 @@
+package com.ranjithnaidu.audiorecorder.processing.flac;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Minimal FLAC decoder used to check that encoded files decode to the original samples. It
+ * supports what the encoder writes and fails on any checksum mismatch.
+ */
+final class FlacTestDecoder {
+
+    int sampleRate;
+    int channelCount;
+    int bitsPerSample;
+    long totalSamples;
+    int minFrameSize;
+    int maxFrameSize;
+    byte[] md5 = new byte[16];
+    int frameCount;
+
+    private final byte[] data;
+    private long bitPosition;
+
+    FlacTestDecoder(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @return the decoded samples, interleaved.
+     */
+    short[] decode() throws IOException {
+        if (readBits(32) != 0x664C6143) throw new IOException("Missing fLaC marker");
+        boolean last;
+        do {
+            last = readBits(1) == 1;
+            int type = (int) readBits(7);
+            int length = (int) readBits(24);
+            if (type == 0) {
+                readBits(16);
+                readBits(16);
+                minFrameSize = (int) readBits(24);
+                maxFrameSize = (int) readBits(24);
+                sampleRate = (int) readBits(20);
+                channelCount = (int) readBits(3) + 1;
+                bitsPerSample = (int) readBits(5) + 1;
+                totalSamples = readBits(36);
+                for (int i = 0; i < 16; i++) md5[i] = (byte) readBits(8);
+            } else {
+                bitPosition += 8L * length;
+            }
+        } while (!last);
+
+        short[] result = new short[(int) (totalSamples * channelCount)];
+        int decoded = 0;
+        while (bitPosition / 8 < data.length) {
+            decoded += decodeFrame(result, decoded);
+        }
+        if (decoded != totalSamples) throw new IOException("Decoded " + decoded + " of " + totalSamples);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            for (short sample : result) {
+                digest.update((byte) sample);
+                digest.update((byte) (sample >> 8));
+            }
+            if (!Arrays.equals(md5, digest.digest())) throw new IOException("MD5 mismatch");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        return result;
+    }
+
+    private int decodeFrame(short[] output, int firstSample) throws IOException {
+        int frameStart = (int) (bitPosition / 8);
+        if (readBits(14) != 0x3FFE) throw new IOException("Lost frame sync at " + frameStart);
+        readBits(2);
+        int blockSizeCode = (int) readBits(4);
+        int sampleRateCode = (int) readBits(4);
+        int channelAssignment = (int) readBits(4);
+        readBits(4);
+        long number = readUtf8();
+        if (number != frameCount) throw new IOException("Frame number " + number + " != " + frameCount);
+        int blockSize;
+        if (blockSizeCode == 6) blockSize = (int) readBits(8) + 1;
+        else if (blockSizeCode == 7) blockSize = (int) readBits(16) + 1;
+        else throw new IOException("Unsupported block size code " + blockSizeCode);
+        if (sampleRateCode != 0) throw new IOException("Unsupported sample rate code");
+        if (channelAssignment != channelCount - 1) throw new IOException("Unexpected channel assignment");
+        int headerLength = (int) (bitPosition / 8) - frameStart;
+        int crc8 = (int) readBits(8);
+        if (crc8 != FlacCrc.crc8(data, frameStart, headerLength)) throw new IOException("Header CRC mismatch");
+
+        int[] samples = new int[blockSize];
+        for (int c = 0; c < channelCount; c++) {
+            decodeSubframe(samples, blockSize);
+            for (int i = 0; i < blockSize; i++) {
+                output[(firstSample + i) * channelCount + c] = (short) samples[i];
+            }
+        }
+
+        bitPosition = (bitPosition + 7) & ~7L;
+        int frameLength = (int) (bitPosition / 8) - frameStart;
+        int crc16 = (int) readBits(16);
+        if (crc16 != FlacCrc.crc16(data, frameStart, frameLength)) throw new IOException("Frame CRC mismatch");
+        int frameSize = frameLength + 2;
+        if (frameSize < minFrameSize || frameSize > maxFrameSize) throw new IOException("Frame size out of range");
+        frameCount++;
+        return blockSize;
+    }
+
+    private void decodeSubframe(int[] x, int n) throws IOException {
+        if (readBits(1) != 0) throw new IOException("Bad subframe padding");
+        int type = (int) readBits(6);
+        if (readBits(1) != 0) throw new IOException("Unexpected wasted bits");
+
+        if (type == 0) {
+            int value = readSigned(bitsPerSample);
+            Arrays.fill(x, 0, n, value);
+        } else if (type == 1) {
+            for (int i = 0; i < n; i++) x[i] = readSigned(bitsPerSample);
+        } else if ((type & 0x38) == 0x08) {
+            int order = type & 0x07;
+            for (int i = 0; i < order; i++) x[i] = readSigned(bitsPerSample);
+            decodeResidual(x, n, order);
+            for (int i = order; i < n; i++) {
+                switch (order) {
+                    case 0:
+                        break;
+                    case 1:
+                        x[i] += x[i - 1];
+                        break;
+                    case 2:
+                        x[i] += 2 * x[i - 1] - x[i - 2];
+                        break;
+                    case 3:
+                        x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                        break;
+                    case 4:
+                        x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                        break;
+                    default:
+                        throw new IOException("Bad fixed order " + order);
+                }
+            }
+        } else if ((type & 0x20) != 0) {
+            int order = (type & 0x1F) + 1;
+            for (int i = 0; i < order; i++) x[i] = readSigned(bitsPerSample);
+            int precision = (int) readBits(4) + 1;
+            int shift = readSigned(5);
+            int[] coefficients = new int[order];
+            for (int i = 0; i < order; i++) coefficients[i] = readSigned(precision);
+            decodeResidual(x, n, order);
+            for (int i = order; i < n; i++) {
+                long prediction = 0;
+                for (int j = 0; j < order; j++) prediction += (long) coefficients[j] * x[i - 1 - j];
+                x[i] += (int) (prediction >> shift);
+            }
+        } else {
+            throw new IOException("Reserved subframe type " + type);
+        }
+    }
+
+    // Stores the residual in x[order..n).
+    private void decodeResidual(int[] x, int n, int order) throws IOException {
+        int method = (int) readBits(2);
+        int parameterBits = method == 0 ? 4 : 5;
+        int partitionOrder = (int) readBits(4);
+        int partitions = 1 << partitionOrder;
+        int partitionSize = n >> partitionOrder;
+        int i = order;
+        for (int p = 0; p < partitions; p++) {
+            int parameter = (int) readBits(parameterBits);
+            int end = (p + 1) * partitionSize;
+            if (parameter == (1 << parameterBits) - 1) {
+                int bits = (int) readBits(5);
+                for (; i < end; i++) x[i] = readSigned(bits);
+            } else {
+                for (; i < end; i++) {
+                    long quotient = 0;
+                    while (readBits(1) == 0) quotient++;
+                    long folded = (quotient << parameter) | readBits(parameter);
+                    x[i] = (int) ((folded >>> 1) ^ -(folded & 1));
+                }
+            }
+        }
+    }
+
+    private long readUtf8() throws IOException {
+        int first = (int) readBits(8);
+        if ((first & 0x80) == 0) return first;
+        int extra = 0;
+        while ((first & (0x40 >> extra)) != 0) extra++;
+        long value = first & (0x3F >> extra);
+        for (int i = 0; i < extra; i++) {
+            int next = (int) readBits(8);
+            if ((next & 0xC0) != 0x80) throw new IOException("Bad UTF-8 continuation");
+            value = (value << 6) | (next & 0x3F);
+        }
+        return value;
+    }
+
+    private int readSigned(int bits) throws IOException {
+        if (bits == 0) return 0;
+        long value = readBits(bits);
+        return (int) (value << (64 - bits) >> (64 - bits));
+    }
+
+    private long readBits(int count) throws IOException {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (int) (bitPosition >>> 3);
+            if (index >= data.length) throw new IOException("Unexpected end of stream");
+            int bit = (data[index] >> (7 - (bitPosition & 7))) & 1;
+            value = (value << 1) | bit;
+            bitPosition++;
+        }
+        return value;
+    }
+}
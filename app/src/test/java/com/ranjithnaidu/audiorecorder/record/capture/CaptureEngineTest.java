@@ -0,0 +1,254 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Unit tests for CaptureEngine and PcmRingBuffer, driven by a synthetic sample source.
+ */
+public class CaptureEngineTest {
+
+    private static final int BLOCK_FRAMES = 256;
+
+    @Test
+    public void testEveryConsumerReceivesEverySampleInOrder() throws Exception {
+        int totalBlocks = 500;
+        RampSource source = new RampSource(totalBlocks * BLOCK_FRAMES);
+        CaptureEngine engine = new CaptureEngine(source, BLOCK_FRAMES);
+        SequenceChecker first = new SequenceChecker();
+        SequenceChecker second = new SequenceChecker();
+        engine.addConsumer(first);
+        engine.addConsumer(second);
+
+        engine.start();
+        waitForEndOfStream(engine);
+        engine.stop();
+
+        assertNull(engine.getConsumerError());
+        assertEquals(totalBlocks * BLOCK_FRAMES, engine.getCapturedFrames());
+        long delivered = totalBlocks * BLOCK_FRAMES - engine.getOverrunCount() * BLOCK_FRAMES;
+        assertEquals(delivered, first.samples);
+        assertEquals(delivered, second.samples);
+        assertTrue(first.stopped && second.stopped);
+    }
+
+    @Test
+    public void testSlowConsumerCausesCountedOverrunsInsteadOfBlocking() throws Exception {
+        int totalBlocks = 100;
+        int ringBlocks = 4;
+        RampSource source = new RampSource(totalBlocks * BLOCK_FRAMES);
+        CaptureEngine engine = new CaptureEngine(source, BLOCK_FRAMES, ringBlocks, null);
+        CountDownLatch release = new CountDownLatch(1);
+        BlockedConsumer blocked = new BlockedConsumer(release);
+        engine.addConsumer(blocked);
+
+        engine.start();
+        // The source reaches the end even though the consumer is stuck on the first block.
+        waitForEndOfStream(engine);
+        release.countDown();
+        engine.stop();
+
+        assertEquals(totalBlocks * BLOCK_FRAMES, engine.getCapturedFrames());
+        assertEquals(totalBlocks - ringBlocks, engine.getOverrunCount());
+        assertEquals(ringBlocks, blocked.blocks);
+    }
+
+    @Test
+    public void testReadErrorEndsTheCaptureAndFailedConsumersAreStopped() throws Exception {
+        RampSource source = new RampSource(100 * BLOCK_FRAMES);
+        source.errorAfter = 10 * BLOCK_FRAMES;
+        CaptureEngine engine = new CaptureEngine(source, BLOCK_FRAMES);
+        SequenceChecker checker = new SequenceChecker();
+        FailingConsumer failing = new FailingConsumer();
+        engine.addConsumer(checker);
+        engine.addConsumer(failing);
+
+        engine.start();
+        waitForEndOfStream(engine);
+        assertFalse(engine.isRunning());
+        engine.stop();
+
+        assertEquals(1, engine.getReadErrorCount());
+        assertNotNull(engine.getCaptureError());
+        assertEquals(10 * BLOCK_FRAMES, checker.samples);
+        assertTrue(checker.stopped);
+        assertNotNull(engine.getConsumerError());
+        assertTrue(failing.stopped);
+    }
+
+    @Test
+    public void testConsumersAreStoppedWhenTheSourceFailsToStart() {
+        RampSource source = new RampSource(0);
+        source.startFails = true;
+        CaptureEngine engine = new CaptureEngine(source, BLOCK_FRAMES);
+        SequenceChecker checker = new SequenceChecker();
+        engine.addConsumer(checker);
+
+        try {
+            engine.start();
+            fail("start() did not fail");
+        } catch (IOException expected) {
+            assertTrue(checker.stopped);
+            assertFalse(engine.isRunning());
+        }
+    }
+
+    @Test
+    public void testRingRefusesClaimWhenReaderIsFullRingBehind() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(2, 8);
+        PcmRingBuffer.Reader reader = ring.newReader();
+
+        short[] block = ring.claim();
+        for (int i = 0; i < 8; i++) block[i] = (short) i;
+        ring.publish(8);
+        block = ring.claim();
+        for (int i = 0; i < 8; i++) block[i] = (short) (8 + i);
+        ring.publish(8);
+        assertNull(ring.claim());
+        assertEquals(2, reader.available());
+
+        SequenceChecker checker = new SequenceChecker();
+        reader.drain(checker);
+        assertEquals(16, checker.samples);
+        assertEquals(0, reader.available());
+        assertTrue(ring.claim() != null);
+
+        // A removed reader no longer holds the producer back.
+        ring.publish(8);
+        ring.claim();
+        ring.publish(8);
+        ring.removeReader(reader);
+        assertTrue(ring.claim() != null);
+    }
+
+    private static void waitForEndOfStream(CaptureEngine engine) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (engine.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    // Produces the sample sequence 0, 1, 2... wrapping at 16 bits.
+    private static final class RampSource implements PcmSource {
+        private final long total;
+        private long produced;
+        long errorAfter = -1;
+        boolean startFails;
+
+        RampSource(long total) {
+            this.total = total;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return 44100;
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public void start() throws IOException {
+            if (startFails) throw new IOException("no microphone");
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int length) {
+            if (produced == errorAfter) return -3;
+            int count = (int) Math.min(length, total - produced);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (short) (produced++);
+            }
+            return count;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    private static final class SequenceChecker implements BlockConsumer {
+        long samples;
+        boolean stopped;
+        private short expected;
+        private boolean first = true;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+            for (int i = 0; i < length; i++) {
+                // Dropped blocks leave gaps, but samples inside a block are always contiguous.
+                if (!first && i > 0 && block[i] != expected) {
+                    throw new AssertionError("Unexpected sample " + block[i] + ", expected " + expected);
+                }
+                first = false;
+                expected = (short) (block[i] + 1);
+            }
+            samples += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    private static final class FailingConsumer implements BlockConsumer {
+        boolean stopped;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+
+    private static final class BlockedConsumer implements BlockConsumer {
+        private final CountDownLatch release;
+        int blocks;
+
+        BlockedConsumer(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) throws IOException {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            blocks++;
+        }
+
+        @Override
+        public void onStop() {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.ranjithnaidu.audiorecorder.record.capture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of PreRollBuffer.
+ */
+public class PreRollBufferTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    @Test
+    public void testRecordingStartsWithTheBufferedAudio() throws Exception {
+        PreRollBuffer preRoll = new PreRollBuffer(500); // 4000 frames
+        preRoll.onStart(SAMPLE_RATE, 2);
+        int next = feed(preRoll, 0, 20000, 300);
+
+        CollectingConsumer output = new CollectingConsumer();
+        preRoll.attachOutput(output);
+        assertTrue(output.started);
+        next = feed(preRoll, next, 6000, 300);
+        preRoll.onStop();
+
+        assertTrue(output.stopped);
+        assertEquals(4000, preRoll.getPreRollFrames());
+        assertEquals(4000 + 3000, preRoll.getForwardedFrames());
+        // The output holds the last 4000 buffered frames, then everything after, without gaps.
+        List<Short> samples = output.samples;
+        assertEquals(14000, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals((short) (next - 14000 + i), (short) samples.get(i));
+        }
+        assertTrue(output.maxBlock <= 2048);
+    }
+
+    @Test
+    public void testBlocksLargerThanTheBufferAndShortCaptures() throws Exception {
+        PreRollBuffer preRoll = new PreRollBuffer(10); // 80 frames
+        preRoll.onStart(SAMPLE_RATE, 1);
+        int next = feed(preRoll, 0, 50, 50);
+        next = feed(preRoll, next, 500, 500);
+
+        CollectingConsumer output = new CollectingConsumer();
+        preRoll.attachOutput(output);
+        // Stopped before any other block: the buffered audio is still delivered.
+        preRoll.onStop();
+
+        assertEquals(80, output.samples.size());
+        assertEquals((short) (next - 80), (short) output.samples.get(0));
+        assertEquals((short) (next - 1), (short) output.samples.get(79));
+    }
+
+    @Test
+    public void testNothingIsWrittenWhileArmed() throws Exception {
+        PreRollBuffer preRoll = new PreRollBuffer(100);
+        preRoll.onStart(SAMPLE_RATE, 1);
+        feed(preRoll, 0, 5000, 256);
+        preRoll.onStop();
+
+        assertFalse(preRoll.isOutputAttached());
+        assertEquals(0, preRoll.getForwardedFrames());
+    }
+
+    // Feeds a ramp of the given number of samples in blocks, returns the next ramp value.
+    private static int feed(PreRollBuffer preRoll, int first, int samples, int blockSize) throws Exception {
+        short[] block = new short[blockSize];
+        int value = first;
+        for (int done = 0; done < samples; done += blockSize) {
+            int length = Math.min(blockSize, samples - done);
+            for (int i = 0; i < length; i++) block[i] = (short) value++;
+            preRoll.onBlock(block, length);
+        }
+        return value;
+    }
+
+    private static class CollectingConsumer implements BlockConsumer {
+
+        final List<Short> samples = new ArrayList<>();
+        boolean started;
+        boolean stopped;
+        int maxBlock;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+            started = true;
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+            maxBlock = Math.max(maxBlock, length);
+            for (int i = 0; i < length; i++) samples.add(block[i]);
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of the whole conditioning chain (high-pass, noise gate, gain control and
+ * limiter) on the blocks used by RecordingService: 1024 mono frames at 44.1 kHz, i.e. 23 ms of
+ * audio per block.
+ */
+public class DspChainBenchmark {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int WARM_UP_BLOCKS = 20000;
+    private static final int MEASURED_BLOCKS = 50000;
+
+    private long samples;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkBlockCost() throws IOException {
+        short[] block = new short[BLOCK_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < block.length; i++) block[i] = (short) (random.nextGaussian() * 4000);
+
+        DspChain chain = new DspChain(new BlockConsumer() {
+            @Override
+            public void onStart(int sampleRate, int channelCount) {
+            }
+
+            @Override
+            public void onBlock(short[] block, int length) {
+                samples += length;
+            }
+
+            @Override
+            public void onStop() {
+            }
+        }, DspChainTest.voiceChain());
+        chain.onStart(44100, 1);
+        for (int i = 0; i < WARM_UP_BLOCKS; i++) chain.onBlock(block, BLOCK_SIZE);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_BLOCKS; i++) chain.onBlock(block, BLOCK_SIZE);
+        long nanosPerBlock = (System.nanoTime() - start) / MEASURED_BLOCKS;
+        double realTime = BLOCK_SIZE * 1e9 / 44100 / nanosPerBlock;
+
+        System.out.println("DspChain: " + nanosPerBlock + " ns per " + BLOCK_SIZE + " sample block ("
+                + (long) realTime + "x real time), " + samples + " samples out");
+        // A block carries 23 ms of audio: the chain must use a small fraction of one core.
+        assertTrue(nanosPerBlock < 2000000);
+    }
+}
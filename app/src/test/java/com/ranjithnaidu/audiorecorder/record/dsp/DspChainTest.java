@@ -0,0 +1,241 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the DSP stages and DspChain, on synthetic signals.
+ */
+public class DspChainTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BLOCK = 1024;
+
+    private final Random random = new Random(5);
+
+    @Test
+    public void testHighPassRemovesRumbleAndKeepsVoice() {
+        // One second of each, the first half letting the filter settle.
+        assertTrue(gainDb(new BiquadHighPass(80), sine(30, 0.5f, SAMPLE_RATE, 2), 2) < -15);
+        assertEquals(-3, gainDb(new BiquadHighPass(80), sine(80, 0.5f, SAMPLE_RATE, 2), 2), 0.2);
+        assertEquals(0, gainDb(new BiquadHighPass(80), sine(1000, 0.5f, SAMPLE_RATE, 2), 2), 0.05);
+
+        float[] dc = new float[SAMPLE_RATE * 2];
+        Arrays.fill(dc, 0.25f);
+        process(new BiquadHighPass(80), dc, 2);
+        assertEquals(0, peak(dc, SAMPLE_RATE, SAMPLE_RATE), 1e-4);
+    }
+
+    @Test
+    public void testNoiseGateLowersNoiseBetweenPhrases() {
+        NoiseGate gate = new NoiseGate(-40, 20, 1, 50, 100);
+        gate.prepare(SAMPLE_RATE, 1);
+        // Noise at -60 dBFS, a phrase at -20 dBFS, then noise again.
+        float[] noise = noise(0.001f, SAMPLE_RATE);
+        float[] quiet = noise.clone();
+        processBlocks(gate, quiet);
+        assertFalse(gate.isOpen());
+        assertEquals(-20, Decibels.toDecibels(rms(quiet, SAMPLE_RATE / 2, SAMPLE_RATE) / rms(noise, SAMPLE_RATE / 2, SAMPLE_RATE)), 0.5);
+
+        float[] phrase = sine(440, 0.1f, SAMPLE_RATE, 1);
+        float[] gated = phrase.clone();
+        processBlocks(gate, gated);
+        assertTrue(gate.isOpen());
+        // Fully open within a few milliseconds.
+        assertEquals(0, Decibels.toDecibels(rms(gated, SAMPLE_RATE / 100, SAMPLE_RATE) / rms(phrase, SAMPLE_RATE / 100, SAMPLE_RATE)), 0.05);
+
+        float[] after = noise.clone();
+        processBlocks(gate, after);
+        assertFalse(gate.isOpen());
+        assertTrue(peak(after, SAMPLE_RATE / 2, SAMPLE_RATE) < 0.001f * 0.15f * 5);
+    }
+
+    @Test
+    public void testGainControlReachesTargetAndHoldsInSilence() {
+        AutomaticGainControl agc = new AutomaticGainControl(-20, 30, -50);
+        agc.prepare(SAMPLE_RATE, 1);
+        // A distant voice, 23 dB below the target.
+        float[] distant = sine(440, Decibels.toGain(-40) * (float) Math.sqrt(2), SAMPLE_RATE, 10);
+        processBlocks(agc, distant);
+        assertEquals(-20, Decibels.toDecibels(rms(distant, SAMPLE_RATE * 9, SAMPLE_RATE * 10)), 1);
+        float gain = agc.getGainDb();
+        assertEquals(20, gain, 1);
+
+        float[] silence = new float[SAMPLE_RATE * 5];
+        processBlocks(agc, silence);
+        assertEquals(gain, agc.getGainDb(), 1);
+
+        // A close voice is lowered quickly, within the allowed range.
+        float[] close = sine(440, Decibels.toGain(-6) * (float) Math.sqrt(2), SAMPLE_RATE, 2);
+        processBlocks(agc, close);
+        assertEquals(-12, agc.getGainDb(), 0.5);
+        assertEquals(-18, Decibels.toDecibels(rms(close, SAMPLE_RATE, SAMPLE_RATE * 2)), 0.5);
+    }
+
+    @Test
+    public void testLimiterKeepsPeaksUnderTheCeiling() {
+        LookAheadLimiter limiter = new LookAheadLimiter(-1, 5, 50);
+        limiter.prepare(SAMPLE_RATE, 2);
+        assertEquals(Math.round(SAMPLE_RATE * 5 / 1000f), limiter.getLatencyFrames());
+
+        // Stereo noise with bursts up to 12 dB over full scale, on one channel at a time.
+        float[] samples = new float[SAMPLE_RATE * 2 * 4];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) random.nextGaussian() * 0.1f;
+            if ((i / 2) % 5000 < 300 && i % 2 == (i / 10000) % 2) samples[i] *= 40;
+        }
+        processBlocks(limiter, samples);
+        float ceiling = Decibels.toGain(-1);
+        for (float sample : samples) assertTrue(Math.abs(sample) <= ceiling * 1.00001f);
+
+        // Below the ceiling the signal is only delayed.
+        limiter.prepare(SAMPLE_RATE, 1);
+        float[] quiet = sine(440, 0.5f, SAMPLE_RATE, 1);
+        float[] delayed = quiet.clone();
+        processBlocks(limiter, delayed);
+        int latency = limiter.getLatencyFrames();
+        for (int i = latency; i < delayed.length; i++) assertEquals(quiet[i - latency], delayed[i], 1e-6f);
+    }
+
+    @Test
+    public void testChainKeepsTheLengthAndAlignment() throws IOException {
+        // Below the ceiling, the limiter alone gives back the input exactly.
+        Sink sink = new Sink(SAMPLE_RATE * 3);
+        DspChain chain = new DspChain(sink, new LookAheadLimiter(-1, 5, 50));
+        chain.onStart(SAMPLE_RATE, 1);
+        short[] input = new short[SAMPLE_RATE * 2];
+        for (int i = 0; i < input.length; i++) input[i] = (short) (20000 * Math.sin(i * 0.01) + random.nextInt(100));
+        short[] block = new short[3000];
+        for (int offset = 0; offset < input.length; ) {
+            int length = Math.min(input.length - offset, 1 + random.nextInt(block.length));
+            System.arraycopy(input, offset, block, 0, length);
+            chain.onBlock(block, length);
+            offset += length;
+        }
+        chain.onStop();
+        assertTrue(sink.stopped);
+        assertEquals(input.length, sink.length);
+        for (int i = 0; i < input.length; i++) assertEquals(input[i], sink.samples[i]);
+        assertTrue(chain.getAverageBlockNanos() > 0);
+
+        // A recording shorter than the latency.
+        sink = new Sink(100);
+        chain = new DspChain(sink, new LookAheadLimiter(-1, 5, 50));
+        chain.onStart(SAMPLE_RATE, 1);
+        chain.onBlock(input, 10);
+        chain.onStop();
+        assertEquals(10, sink.length);
+        for (int i = 0; i < 10; i++) assertEquals(input[i], sink.samples[i]);
+    }
+
+    @Test
+    public void testVoiceChainOutputIsLimited() throws IOException {
+        Sink sink = new Sink(SAMPLE_RATE * 4 + BLOCK);
+        DspChain chain = new DspChain(sink, voiceChain());
+        chain.onStart(SAMPLE_RATE, 1);
+        short[] block = new short[BLOCK];
+        int frames = 0;
+        while (frames < SAMPLE_RATE * 4) {
+            for (int i = 0; i < BLOCK; i++, frames++) {
+                // Hum, rumble and a clipping voice, in turn with silence.
+                double t = (double) frames / SAMPLE_RATE;
+                double voice = (frames / (SAMPLE_RATE / 2)) % 2 == 0 ? 32767 * Math.sin(2 * Math.PI * 300 * t) : 0;
+                block[i] = (short) Math.max(-32768, Math.min(32767,
+                        voice + 3000 * Math.sin(2 * Math.PI * 20 * t) + random.nextGaussian() * 10));
+            }
+            chain.onBlock(block, BLOCK);
+        }
+        chain.onStop();
+        assertEquals(frames, sink.length);
+        short ceiling = (short) (32768 * Decibels.toGain(-1) + 1);
+        for (int i = 0; i < sink.length; i++) assertTrue(Math.abs(sink.samples[i]) <= ceiling);
+    }
+
+    // The settings of RecordingService.
+    static DspStage[] voiceChain() {
+        return new DspStage[]{new BiquadHighPass(80), new NoiseGate(-50, 15, 2, 200, 150),
+                new AutomaticGainControl(-20, 18, -45), new LookAheadLimiter(-1, 5, 60)};
+    }
+
+    private static float gainDb(DspStage stage, float[] samples, int seconds) {
+        float[] input = samples.clone();
+        process(stage, samples, 1);
+        int from = SAMPLE_RATE * (seconds - 1);
+        return Decibels.toDecibels(rms(samples, from, samples.length) / rms(input, from, samples.length));
+    }
+
+    private static void process(DspStage stage, float[] samples, int channelCount) {
+        stage.prepare(SAMPLE_RATE, channelCount);
+        processBlocks(stage, samples);
+    }
+
+    private static void processBlocks(DspStage stage, float[] samples) {
+        float[] block = new float[BLOCK];
+        for (int offset = 0; offset < samples.length; offset += BLOCK) {
+            int length = Math.min(BLOCK, samples.length - offset);
+            System.arraycopy(samples, offset, block, 0, length);
+            stage.process(block, length);
+            System.arraycopy(block, 0, samples, offset, length);
+        }
+    }
+
+    private static float[] sine(double frequency, float amplitude, int sampleRate, int seconds) {
+        float[] samples = new float[sampleRate * seconds];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        return samples;
+    }
+
+    private float[] noise(float rms, int length) {
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) samples[i] = (float) random.nextGaussian() * rms;
+        return samples;
+    }
+
+    private static float rms(float[] samples, int from, int to) {
+        double squares = 0;
+        for (int i = from; i < to; i++) squares += samples[i] * samples[i];
+        return (float) Math.sqrt(squares / (to - from));
+    }
+
+    private static float peak(float[] samples, int from, int to) {
+        float peak = 0;
+        for (int i = from; i < to; i++) peak = Math.max(peak, Math.abs(samples[i]));
+        return peak;
+    }
+
+    private static final class Sink implements BlockConsumer {
+        final short[] samples;
+        int length;
+        boolean stopped;
+
+        Sink(int capacity) {
+            samples = new short[capacity];
+        }
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+            System.arraycopy(block, 0, samples, this.length, length);
+            this.length += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Throughput of RealFft (window, transform and power spectrum) for the sizes a spectrogram uses,
+ * in transforms and in seconds of 44.1 kHz audio per second.
+ */
+public class RealFftBenchmark {
+
+    private static final int[] SIZES = {256, 1024, 4096};
+    private static final long WARM_UP_SAMPLES = 20000000;
+    private static final long MEASURED_SAMPLES = 50000000;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkThroughput() {
+        Random random = new Random(1);
+        for (int size : SIZES) {
+            RealFft fft = new RealFft(size);
+            float[] samples = new float[size];
+            for (int i = 0; i < size; i++) samples[i] = (float) random.nextGaussian();
+            float[] data = new float[size];
+            float[] power = new float[size / 2];
+
+            float sink = 0;
+            for (long i = 0; i < WARM_UP_SAMPLES / size; i++) sink += transform(fft, samples, data, power);
+            long transforms = MEASURED_SAMPLES / size;
+            long start = System.nanoTime();
+            for (long i = 0; i < transforms; i++) sink += transform(fft, samples, data, power);
+            long nanos = System.nanoTime() - start;
+
+            long nanosPerTransform = nanos / transforms;
+            double realTime = (double) MEASURED_SAMPLES / 44100 / (nanos / 1e9);
+            System.out.println("RealFft: size " + size + ", " + nanosPerTransform + " ns per transform, "
+                    + (long) (transforms * 1e9 / nanos) + " transforms/s, " + (long) realTime
+                    + "x real time (" + (sink != 0 ? "ok" : "") + ")");
+            // A spectrogram column per 1024 samples is 43 transforms per second: far below this.
+            assertTrue(realTime > 100);
+        }
+    }
+
+    private static float transform(RealFft fft, float[] samples, float[] data, float[] power) {
+        System.arraycopy(samples, 0, data, 0, samples.length);
+        fft.window(data);
+        fft.forward(data);
+        fft.powerSpectrum(data, power);
+        return power[1];
+    }
+}
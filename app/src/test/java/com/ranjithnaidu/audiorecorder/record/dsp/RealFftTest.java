@@ -0,0 +1,96 @@
+package com.ranjithnaidu.audiorecorder.record.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Unit tests for the implementation of RealFft, against a naive DFT in double precision.
+ */
+public class RealFftTest {
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void testMatchesNaiveDft() {
+        for (int size = 4; size <= 2048; size <<= 1) {
+            RealFft fft = new RealFft(size);
+            float[] samples = new float[size];
+            for (int i = 0; i < size; i++) samples[i] = (float) random.nextGaussian();
+            double[][] expected = dft(samples);
+
+            float[] data = samples.clone();
+            fft.forward(data);
+            // Errors grow with log(size) and the magnitude of the bins, about sqrt(size) here.
+            double tolerance = 1e-5 * size;
+            assertEquals(expected[0][0], data[0], tolerance);
+            assertEquals(expected[0][size / 2], data[1], tolerance);
+            for (int k = 1; k < size / 2; k++) {
+                assertEquals("re " + k + " of " + size, expected[0][k], data[2 * k], tolerance);
+                assertEquals("im " + k + " of " + size, expected[1][k], data[2 * k + 1], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testInverseGivesTheSamplesBack() {
+        for (int size = 4; size <= 4096; size <<= 1) {
+            RealFft fft = new RealFft(size);
+            float[] samples = new float[size];
+            for (int i = 0; i < size; i++) samples[i] = (float) random.nextGaussian();
+
+            float[] data = samples.clone();
+            fft.forward(data);
+            fft.inverse(data);
+            for (int i = 0; i < size; i++) assertEquals("sample " + i + " of " + size, samples[i], data[i], 1e-5);
+        }
+    }
+
+    @Test
+    public void testWindowedSineFallsInItsBin() {
+        int size = 1024;
+        RealFft fft = new RealFft(size);
+        float[] data = new float[size];
+        int bin = 37;
+        for (int i = 0; i < size; i++) data[i] = (float) (0.5 * Math.sin(2 * Math.PI * bin * i / size));
+        fft.window(data);
+        fft.forward(data);
+        float[] power = new float[size / 2];
+        fft.powerSpectrum(data, power);
+
+        // The Hann window halves the amplitude and spreads it on the two neighbouring bins.
+        assertEquals(0.5 * size / 4, Math.sqrt(power[bin]), 1e-3);
+        assertEquals(0.5 * size / 8, Math.sqrt(power[bin - 1]), 1e-3);
+        assertEquals(0.5 * size / 8, Math.sqrt(power[bin + 1]), 1e-3);
+        for (int k = 0; k < size / 2; k++) {
+            if (Math.abs(k - bin) > 1) assertTrue(power[k] < 1e-6);
+        }
+    }
+
+    @Test
+    public void testSizeMustBeAPowerOfTwo() {
+        try {
+            new RealFft(1000);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static double[][] dft(float[] samples) {
+        int n = samples.length;
+        double[][] spectrum = new double[2][n / 2 + 1];
+        for (int k = 0; k <= n / 2; k++) {
+            for (int i = 0; i < n; i++) {
+                double angle = -2 * Math.PI * ((long) k * i % n) / n;
+                spectrum[0][k] += samples[i] * Math.cos(angle);
+                spectrum[1][k] += samples[i] * Math.sin(angle);
+            }
+        }
+        return spectrum;
+    }
+}
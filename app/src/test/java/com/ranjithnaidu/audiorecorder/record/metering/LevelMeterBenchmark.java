@@ -0,0 +1,42 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of the LevelMeter inner loop on the blocks used by RecordingService (1024
+ * mono frames at 44.1 kHz, i.e. 23 ms of audio per block).
+ */
+public class LevelMeterBenchmark {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int WARM_UP_BLOCKS = 50000;
+    private static final int MEASURED_BLOCKS = 200000;
+
+    private long frameCount;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkBlockCost() {
+        short[] block = new short[BLOCK_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < block.length; i++) block[i] = (short) random.nextInt();
+
+        LevelMeter meter = new LevelMeter(50, (frameIndex, peak, rms, clippedSamples) -> frameCount++);
+        meter.onStart(44100, 1);
+        for (int i = 0; i < WARM_UP_BLOCKS; i++) meter.onBlock(block, BLOCK_SIZE);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_BLOCKS; i++) meter.onBlock(block, BLOCK_SIZE);
+        long nanosPerBlock = (System.nanoTime() - start) / MEASURED_BLOCKS;
+
+        System.out.println("LevelMeter: " + nanosPerBlock + " ns per " + BLOCK_SIZE + " sample block, "
+                + frameCount + " meter frames");
+        // A block carries 23 ms of audio: metering must stay a negligible fraction of it.
+        assertTrue(nanosPerBlock < 1000000);
+    }
+}
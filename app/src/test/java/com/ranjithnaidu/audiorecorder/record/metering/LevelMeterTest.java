@@ -0,0 +1,85 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit tests for the implementation of LevelMeter and MeterFrameQueue.
+ */
+public class LevelMeterTest {
+
+    private final List<float[]> frames = new ArrayList<>();
+    private final LevelMeter.Listener collector = (frameIndex, peak, rms, clippedSamples) -> {
+        assertEquals(frames.size(), frameIndex);
+        frames.add(new float[]{peak, rms, clippedSamples});
+    };
+
+    @Test
+    public void testFrameRateIsExactWhateverTheBlockSize() {
+        LevelMeter meter = new LevelMeter(30, collector);
+        meter.onStart(44100, 2);
+        short[] block = new short[1024];
+        int samples = 0;
+        for (int length = 1; samples < 44100 * 2 * 3; length = length % 999 + 7) { // 3 seconds
+            int count = Math.min(length, 44100 * 2 * 3 - samples);
+            meter.onBlock(block, count);
+            samples += count;
+        }
+        meter.onStop();
+
+        assertEquals(90, frames.size());
+    }
+
+    @Test
+    public void testLevelsOfKnownSignals() {
+        LevelMeter meter = new LevelMeter(10, collector);
+        meter.onStart(8000, 1);
+        short[] block = new short[800];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) Math.round(16384 * Math.sin(2 * Math.PI * 100 * i / 8000.0));
+        }
+        meter.onBlock(block, block.length);
+        for (int i = 0; i < block.length; i++) {
+            block[i] = i % 2 == 0 ? Short.MIN_VALUE : Short.MAX_VALUE;
+        }
+        meter.onBlock(block, block.length);
+        meter.onBlock(new short[]{100, -200, 50}, 3);
+        meter.onStop();
+
+        assertEquals(3, frames.size());
+        assertEquals(0.5f, frames.get(0)[0], 1e-4f);
+        assertEquals(0.5f / (float) Math.sqrt(2), frames.get(0)[1], 1e-3f);
+        assertEquals(0f, frames.get(0)[2]);
+        assertEquals(1f, frames.get(1)[0], 1e-4f);
+        assertEquals(1f, frames.get(1)[1], 1e-4f);
+        assertEquals(800f, frames.get(1)[2]);
+        // The partial window left at the end is still reported.
+        assertEquals(200 / 32768f, frames.get(2)[0], 1e-6f);
+    }
+
+    @Test
+    public void testQueueKeepsOrderAndCountsDroppedFrames() {
+        MeterFrameQueue queue = new MeterFrameQueue(8);
+        for (int i = 0; i < 10; i++) {
+            queue.onMeterFrame(i, i / 10f, 0, i);
+        }
+        assertEquals(8, queue.size());
+        assertEquals(2, queue.getDroppedFrames());
+
+        long[] indices = new long[8];
+        float[] peaks = new float[8];
+        int[] clips = new int[8];
+        assertEquals(5, queue.drain(indices, peaks, null, clips, 5));
+        assertEquals(4, indices[4]);
+        assertEquals(0.4f, peaks[4]);
+        queue.onMeterFrame(10, 1, 0, 10);
+        assertEquals(4, queue.drain(indices, null, null, clips, 8));
+        assertEquals(5, indices[0]);
+        assertEquals(10, clips[3]);
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,43 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of the LoudnessMeter on the blocks used by RecordingService (1024 mono frames
+ * at 44.1 kHz, i.e. 23 ms of audio per block): K-weighting, gating and the 4 times oversampled
+ * true peak.
+ */
+public class LoudnessMeterBenchmark {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int WARM_UP_BLOCKS = 20000;
+    private static final int MEASURED_BLOCKS = 50000;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkBlockCost() {
+        short[] block = new short[BLOCK_SIZE];
+        Random random = new Random(1);
+        for (int i = 0; i < block.length; i++) block[i] = (short) (random.nextGaussian() * 3000);
+
+        LoudnessMeter meter = new LoudnessMeter();
+        meter.onStart(44100, 1);
+        for (int i = 0; i < WARM_UP_BLOCKS; i++) meter.onBlock(block, BLOCK_SIZE);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_BLOCKS; i++) meter.onBlock(block, BLOCK_SIZE);
+        long nanosPerBlock = (System.nanoTime() - start) / MEASURED_BLOCKS;
+        meter.onStop();
+
+        long realTime = 1000000000L * BLOCK_SIZE / 44100 / nanosPerBlock;
+        System.out.println("LoudnessMeter: " + nanosPerBlock + " ns per " + BLOCK_SIZE + " sample block ("
+                + realTime + "x real time), " + meter.getSummary());
+        // Runs on a consumer thread for the whole recording, and as a post-pass over long files.
+        assertTrue(realTime > 50);
+    }
+}
@@ -0,0 +1,174 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+import com.ranjithnaidu.audiorecorder.record.waveform.WavPcmDecoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of LoudnessMeter and LoudnessSummary, on the test signals
+ * of EBU Tech 3341 and 3342 (48 kHz stereo, 1 kHz sines in both channels).
+ */
+public class LoudnessMeterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    private final LoudnessMeter meter = new LoudnessMeter();
+    private double phase;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("loudness", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        LoudnessSummary.fileFor(file).delete();
+    }
+
+    @Test
+    public void testSineReadsItsLevelAtEveryTimeScale() {
+        meter.onStart(SAMPLE_RATE, 2);
+        feedSine(-23, 1000, 20);
+        assertEquals(-23f, meter.getMomentaryLoudness(), 0.1f);
+        assertEquals(-23f, meter.getShortTermLoudness(), 0.1f);
+        meter.onStop();
+
+        LoudnessSummary summary = meter.getSummary();
+        assertEquals(-23f, summary.integratedLoudness, 0.1f);
+        assertEquals(-23f, summary.maxMomentaryLoudness, 0.1f);
+        assertEquals(-23f, summary.maxShortTermLoudness, 0.1f);
+        assertEquals(0f, summary.loudnessRange, 0.1f);
+        assertEquals(20L * SAMPLE_RATE, summary.frameCount);
+
+        // A mono sine 3 dB louder reads the same.
+        meter.onStart(44100, 1);
+        phase = 0;
+        feedSine(-20, 1000, 10, 44100, 1);
+        meter.onStop();
+        assertEquals(-23f, meter.getSummary().integratedLoudness, 0.1f);
+    }
+
+    @Test
+    public void testIntegratedLoudnessGatesQuietParts() {
+        // Tech 3341, cases 3 and 4.
+        meter.onStart(SAMPLE_RATE, 2);
+        feedSine(-36, 1000, 10);
+        feedSine(-23, 1000, 60);
+        feedSine(-36, 1000, 10);
+        meter.onStop();
+        assertEquals(-23f, meter.getSummary().integratedLoudness, 0.1f);
+
+        meter.onStart(SAMPLE_RATE, 2);
+        feedSine(-72, 1000, 10);
+        feedSine(-36, 1000, 10);
+        feedSine(-23, 1000, 60);
+        feedSine(-36, 1000, 10);
+        feedSine(-72, 1000, 10);
+        meter.onStop();
+        assertEquals(-23f, meter.getSummary().integratedLoudness, 0.1f);
+
+        meter.onStart(SAMPLE_RATE, 2);
+        meter.onBlock(new short[SAMPLE_RATE * 2], SAMPLE_RATE * 2);
+        meter.onStop();
+        assertEquals(LoudnessMeter.NO_LOUDNESS, meter.getSummary().integratedLoudness);
+        assertEquals(LoudnessMeter.NO_LOUDNESS, meter.getSummary().truePeak);
+    }
+
+    @Test
+    public void testLoudnessRange() {
+        // Tech 3342, cases 1 to 3.
+        float[][] cases = {{-20, -30, 10}, {-20, -15, 5}, {-40, -20, 20}};
+        for (float[] levels : cases) {
+            meter.onStart(SAMPLE_RATE, 2);
+            feedSine(levels[0], 1000, 20);
+            feedSine(levels[1], 1000, 20);
+            meter.onStop();
+            assertEquals(levels[2], meter.getSummary().loudnessRange, 0.1f);
+        }
+    }
+
+    @Test
+    public void testTruePeakAndClipping() {
+        // A quarter of the rate sampled 45 degrees off its crests: the samples are 3 dB under the peak.
+        meter.onStart(SAMPLE_RATE, 1);
+        phase = Math.PI / 4;
+        feedSine(-6.02f, SAMPLE_RATE / 4f, 1, SAMPLE_RATE, 1);
+        meter.onStop();
+        LoudnessSummary summary = meter.getSummary();
+        assertEquals(-9.03f, summary.samplePeak, 0.05f);
+        assertEquals(-6.02f, summary.truePeak, 0.2f);
+        assertEquals(0, summary.clippedSamples);
+
+        meter.onStart(SAMPLE_RATE, 1);
+        meter.onBlock(new short[]{0, 1000, Short.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, 1000, 0}, 7);
+        meter.onStop();
+        summary = meter.getSummary();
+        assertEquals(3, summary.clippedSamples);
+        assertEquals(0f, summary.samplePeak, 0.01f);
+        assertTrue(summary.truePeak > 0.5f);
+    }
+
+    @Test
+    public void testSummaryOfARecordingIsSavedNextToIt() throws IOException {
+        short[] block = new short[4800 * 2];
+        try (WavWriter writer = new WavWriter(file, SAMPLE_RATE, 2)) {
+            for (int second = 0; second < 5; second++) {
+                for (int part = 0; part < 10; part++) {
+                    fillSine(block, -23, 1000, SAMPLE_RATE, 2);
+                    writer.write(block, 0, block.length);
+                }
+            }
+        }
+
+        LoudnessSummary measured = LoudnessSummary.measure(file, new WavPcmDecoder());
+        LoudnessSummary read = LoudnessSummary.read(LoudnessSummary.fileFor(file));
+
+        assertEquals(-23f, measured.integratedLoudness, 0.1f);
+        assertEquals(measured.integratedLoudness, read.integratedLoudness);
+        assertEquals(measured.loudnessRange, read.loudnessRange);
+        assertEquals(measured.maxMomentaryLoudness, read.maxMomentaryLoudness);
+        assertEquals(measured.maxShortTermLoudness, read.maxShortTermLoudness);
+        assertEquals(measured.truePeak, read.truePeak);
+        assertEquals(measured.samplePeak, read.samplePeak);
+        assertEquals(measured.clippedSamples, read.clippedSamples);
+        assertEquals(5L * SAMPLE_RATE, read.frameCount);
+        assertEquals(SAMPLE_RATE, read.sampleRate);
+    }
+
+    private void feedSine(float levelDb, float frequency, int seconds) {
+        feedSine(levelDb, frequency, seconds, SAMPLE_RATE, 2);
+    }
+
+    // Fed in blocks of odd sizes, which do not line up with the 100 ms steps.
+    private void feedSine(float levelDb, float frequency, int seconds, int sampleRate, int channels) {
+        short[] block = new short[997 * channels];
+        long remaining = (long) seconds * sampleRate;
+        while (remaining > 0) {
+            int frames = (int) Math.min(997, remaining);
+            fillSine(block, levelDb, frequency, sampleRate, channels);
+            meter.onBlock(block, frames * channels);
+            remaining -= frames;
+        }
+    }
+
+    private void fillSine(short[] block, float levelDb, float frequency, int sampleRate, int channels) {
+        double amplitude = 32767 * Math.pow(10, levelDb / 20);
+        double step = 2 * Math.PI * frequency / sampleRate;
+        for (int frame = 0; frame < block.length / channels; frame++) {
+            short value = (short) Math.round(amplitude * Math.sin(phase));
+            for (int channel = 0; channel < channels; channel++) block[frame * channels + channel] = value;
+            phase += step;
+        }
+    }
+}
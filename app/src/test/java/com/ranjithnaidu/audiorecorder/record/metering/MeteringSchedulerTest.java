@@ -0,0 +1,111 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of MeteringScheduler.
+ */
+public class MeteringSchedulerTest {
+
+    private static final long PERIOD_MILLIS = 20;
+
+    @Test
+    public void testTicksStayOnGridAndLateTicksAreReported() throws InterruptedException {
+        MeteringScheduler scheduler = new MeteringScheduler(PERIOD_MILLIS, "TestMetering");
+        final long period = scheduler.getPeriodNanos();
+        final List<long[]> ticks = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        MeteringScheduler.Session session = scheduler.start((elapsedNanos, missedTicks) -> {
+            synchronized (ticks) {
+                ticks.add(new long[]{elapsedNanos, missedTicks});
+                if (ticks.size() == 5) sleep(5 * PERIOD_MILLIS + PERIOD_MILLIS / 2);
+                if (ticks.size() == 30) done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        session.cancel();
+
+        synchronized (ticks) {
+            long slot = 0;
+            long missed = 0;
+            for (long[] tick : ticks) {
+                slot += tick[1];
+                missed += tick[1];
+                // Never before its slot, and late ones are skipped rather than accumulated.
+                assertTrue(tick[0] >= slot * period);
+                assertTrue(tick[0] < (slot + 1) * period + TimeUnit.MILLISECONDS.toNanos(PERIOD_MILLIS / 2) * 3);
+                slot++;
+            }
+            assertTrue(missed >= 4 && missed <= 6);
+            assertEquals(missed, session.getMissedTickCount());
+        }
+    }
+
+    @Test
+    public void testThreadStopsWhenIdleAcrossManySessions() throws InterruptedException {
+        MeteringScheduler scheduler = new MeteringScheduler(PERIOD_MILLIS, "TestMetering");
+        int threadsBefore = Thread.activeCount();
+        for (int i = 0; i < 300; i++) {
+            final CountDownLatch ticked = new CountDownLatch(1);
+            MeteringScheduler.Session session = scheduler.start((elapsedNanos, missedTicks) -> ticked.countDown());
+            assertTrue(ticked.await(1, TimeUnit.SECONDS));
+            session.cancel();
+            waitForIdle(scheduler);
+            assertFalse(scheduler.isThreadRunning());
+        }
+        assertEquals(300, scheduler.getThreadStarts());
+        // The last thread may still be unwinding after it gave up its role.
+        for (int i = 0; i < 1000 && Thread.activeCount() > threadsBefore; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(threadsBefore, Thread.activeCount());
+    }
+
+    @Test
+    public void testConcurrentSessionsShareOneThread() throws InterruptedException {
+        MeteringScheduler scheduler = new MeteringScheduler(PERIOD_MILLIS, "TestMetering");
+        final CountDownLatch ticks = new CountDownLatch(10);
+        final List<String> threads = new ArrayList<>();
+        MeteringScheduler.Client client = (elapsedNanos, missedTicks) -> {
+            synchronized (threads) {
+                threads.add(Thread.currentThread().getName() + Thread.currentThread().getId());
+            }
+            ticks.countDown();
+        };
+        MeteringScheduler.Session first = scheduler.start(client);
+        MeteringScheduler.Session second = scheduler.start(client);
+        assertTrue(ticks.await(2, TimeUnit.SECONDS));
+        first.cancel();
+        assertTrue(scheduler.isThreadRunning());
+        second.cancel();
+        waitForIdle(scheduler);
+
+        assertEquals(1, scheduler.getThreadStarts());
+        synchronized (threads) {
+            for (String thread : threads) assertEquals(threads.get(0), thread);
+        }
+    }
+
+    private static void waitForIdle(MeteringScheduler scheduler) throws InterruptedException {
+        for (int i = 0; i < 1000 && scheduler.isThreadRunning(); i++) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
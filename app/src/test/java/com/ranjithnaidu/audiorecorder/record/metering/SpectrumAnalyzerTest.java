@@ -0,0 +1,66 @@
+package com.ranjithnaidu.audiorecorder.record.metering;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of SpectrumAnalyzer and SpectrumQueue.
+ */
+public class SpectrumAnalyzerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FFT_SIZE = 1024;
+
+    @Test
+    public void testHumIsFoundInItsBin() {
+        SpectrumQueue queue = new SpectrumQueue(16, FFT_SIZE / 2);
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(FFT_SIZE, queue);
+        analyzer.onStart(SAMPLE_RATE, 2);
+        // Stereo 50 Hz hum at -20 dBFS plus a full scale 5 kHz tone on one channel, in odd blocks.
+        short[] block = new short[2 * 700];
+        int frame = 0;
+        while (frame < FFT_SIZE * 3) {
+            int frames = Math.min(block.length / 2, FFT_SIZE * 3 - frame);
+            for (int i = 0; i < frames; i++, frame++) {
+                double hum = 3277 * Math.sin(2 * Math.PI * 50 * frame / SAMPLE_RATE);
+                block[2 * i] = (short) Math.round(hum + 16383 * Math.sin(2 * Math.PI * 5000.0 * frame / SAMPLE_RATE));
+                block[2 * i + 1] = (short) Math.round(hum - 16383 * Math.sin(2 * Math.PI * 5000.0 * frame / SAMPLE_RATE));
+            }
+            analyzer.onBlock(block, frames * 2);
+        }
+
+        float[] columns = new float[4 * FFT_SIZE / 2];
+        assertEquals(3, queue.drain(columns, 4));
+        assertEquals(0, queue.drain(columns, 4));
+        float binHz = (float) SAMPLE_RATE / FFT_SIZE;
+        int humBin = Math.round(50 / binHz);
+        int toneBin = Math.round(5000 / binHz);
+        for (int column = 0; column < 3; column++) {
+            int offset = column * FFT_SIZE / 2;
+            // The hum falls between bins: the window loses up to 1.5 dB.
+            assertEquals(-20, columns[offset + humBin], 2);
+            // The tone cancels out in the mix.
+            assertTrue(columns[offset + toneBin] < -60);
+            assertTrue(columns[offset + FFT_SIZE / 4] < -60);
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsColumns() {
+        SpectrumQueue queue = new SpectrumQueue(4, 8);
+        float[] levels = new float[8];
+        for (int i = 0; i < 6; i++) {
+            levels[0] = i;
+            queue.onSpectrum(i * 16, levels, 8);
+        }
+        assertEquals(2, queue.getDroppedColumns());
+        float[] out = new float[3 * 8];
+        assertEquals(3, queue.drain(out, 10));
+        assertEquals(0f, out[0]);
+        assertEquals(2f, out[16]);
+        assertEquals(1, queue.drain(out, 10));
+        assertEquals(3f, out[0]);
+    }
+}
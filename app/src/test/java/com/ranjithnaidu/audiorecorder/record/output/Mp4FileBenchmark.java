@@ -0,0 +1,55 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Microbenchmark of Mp4File.open() on one-hour AAC recordings with the movie box at the end, as
+ * written by MediaRecorder (155k samples per file).
+ */
+public class Mp4FileBenchmark {
+
+    private static final int FILES = 10;
+    private static final int SAMPLES = 60 * 60 * 44100 / 1024;
+    private static final int WARM_UP_OPENS = 500;
+    private static final int MEASURED_OPENS = 2000;
+
+    @Ignore("Benchmark: timings depend on the machine, run it by hand")
+    @Test
+    public void benchmarkOpen() throws IOException {
+        File[] files = new File[FILES];
+        try {
+            int[] sizes = new int[SAMPLES];
+            for (int i = 0; i < sizes.length; i++) sizes[i] = 8 + i % 5;
+            for (int i = 0; i < files.length; i++) {
+                files[i] = File.createTempFile("mp4_benchmark", ".mp4");
+                Mp4FileTest.Fixture fixture = new Mp4FileTest.Fixture(44100, 1, sizes);
+                fixture.moovFirst = false;
+                fixture.averageBitrate = 96000;
+                fixture.samplesToChunk = new int[]{1, 44, 1};
+                fixture.write(files[i]);
+            }
+
+            long durations = 0;
+            for (int i = 0; i < WARM_UP_OPENS; i++) durations += Mp4File.open(files[i % FILES]).getDurationMillis();
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_OPENS; i++) durations += Mp4File.open(files[i % FILES]).getDurationMillis();
+            long nanosPerOpen = (System.nanoTime() - start) / MEASURED_OPENS;
+
+            System.out.println("Mp4File: " + nanosPerOpen / 1000 + " us per open of a one hour recording");
+            assertEquals((WARM_UP_OPENS + MEASURED_OPENS) * (SAMPLES * 1024L * 1000 / 44100), durations);
+            // Thousands of recordings are listed in a few seconds at most.
+            assertTrue(nanosPerOpen < 1000000);
+        } finally {
+            for (File file : files) {
+                if (file != null) file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Unit tests for the implementation of Mp4File, on files generated the way MediaRecorder and
+ * other muxers lay them out.
+ */
+public class Mp4FileTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("mp4_file", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testMovieAfterMediaData() throws IOException {
+        int[] sizes = new int[100];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = 200 + i % 7;
+        // Five chunks of 10 samples, then chunks of 5.
+        Fixture fixture = new Fixture(44100, 1, sizes);
+        fixture.samplesToChunk = new int[]{1, 10, 1, 6, 5, 1};
+        fixture.averageBitrate = 96000;
+        fixture.moovFirst = false;
+        fixture.write(file);
+
+        Mp4File mp4 = Mp4File.open(file);
+        assertEquals("mp4a", mp4.getCodec());
+        assertEquals(44100, mp4.getSampleRate());
+        assertEquals(1, mp4.getChannelCount());
+        assertEquals(96000, mp4.getBitrate());
+        assertEquals(100 * 1024 * 1000L / 44100, mp4.getDurationMillis());
+        assertEquals(100, mp4.getSampleCount());
+        assertEquals(15, mp4.getChunkCount());
+        assertEquals(51 * 1024, mp4.getSampleTime(51));
+
+        // Each sample is filled with its index: its offset must point to it.
+        RandomAccessFile data = new RandomAccessFile(file, "r");
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                assertEquals(sizes[i], mp4.getSampleSize(i));
+                data.seek(mp4.getSampleOffset(i));
+                assertEquals("sample " + i, i, data.read());
+                data.seek(mp4.getSampleOffset(i) + sizes[i] - 1);
+                assertEquals("end of sample " + i, i, data.read());
+            }
+        } finally {
+            data.close();
+        }
+    }
+
+    @Test
+    public void testLargeOffsetsAndVersionOneHeaders() throws IOException {
+        int[] sizes = new int[40];
+        java.util.Arrays.fill(sizes, 300);
+        Fixture fixture = new Fixture(48000, 2, sizes);
+        fixture.fixedSize = true;
+        fixture.largeOffsets = true;
+        fixture.versionOne = true;
+        fixture.videoTrackFirst = true;
+        fixture.write(file);
+
+        Mp4File mp4 = Mp4File.open(file);
+        assertEquals(48000, mp4.getSampleRate());
+        assertEquals(2, mp4.getChannelCount());
+        assertEquals(40 * 1024 * 1000L / 48000, mp4.getDurationMillis());
+        assertEquals(40 * 300L, mp4.getDataSize());
+        // No declared bitrate: measured on the sample sizes.
+        assertEquals(40 * 300L * 8000 / mp4.getDurationMillis(), mp4.getBitrate());
+
+        RandomAccessFile data = new RandomAccessFile(file, "r");
+        try {
+            data.seek(mp4.getSampleOffset(39));
+            assertEquals(39, data.read());
+        } finally {
+            data.close();
+        }
+    }
+
+    @Test
+    public void testNotAnMp4File() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("RIFF....WAVEfmt ".getBytes(Charset.forName("US-ASCII")));
+        out.close();
+        try {
+            Mp4File.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        // A recording interrupted before the movie box was written.
+        new Fixture(44100, 1, new int[10]).write(file);
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(truncated.length() - 20);
+        truncated.close();
+        try {
+            Mp4File.open(file);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(file.getName()));
+        }
+    }
+
+    /**
+     * Writes an MP4 file with one AAC track of 1024-frame samples, each filled with its index.
+     */
+    static final class Fixture {
+
+        final int sampleRate;
+        final int channels;
+        final int[] sizes;
+        int[] samplesToChunk = {1, 1, 1};
+        long averageBitrate;
+        boolean moovFirst = true;
+        boolean fixedSize;
+        boolean largeOffsets;
+        boolean versionOne;
+        boolean videoTrackFirst;
+
+        Fixture(int sampleRate, int channels, int[] sizes) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.sizes = sizes;
+        }
+
+        void write(File file) throws IOException {
+            byte[] ftyp = box("ftyp", bytes("isom", 0, "isommp42"));
+            byte[] mdatPayload = mediaData();
+            // The chunk offsets depend on where the media data lands: the movie is built twice.
+            byte[] moov = movie(0);
+            long dataOffset = moovFirst ? ftyp.length + moov.length + 8 : ftyp.length + 8;
+            moov = movie(dataOffset);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(ftyp);
+                if (moovFirst) out.write(moov);
+                out.write(box("mdat", mdatPayload));
+                if (!moovFirst) out.write(moov);
+            } finally {
+                out.close();
+            }
+        }
+
+        int chunkCount() {
+            int chunks = 0;
+            int sample = 0;
+            int entries = samplesToChunk.length / 3;
+            for (int entry = 0; entry < entries; entry++) {
+                int perChunk = samplesToChunk[entry * 3 + 1];
+                int lastChunk = entry + 1 < entries ? samplesToChunk[(entry + 1) * 3] - 1 : Integer.MAX_VALUE;
+                while (chunks < lastChunk && sample < sizes.length) {
+                    sample += perChunk;
+                    chunks++;
+                }
+            }
+            return chunks;
+        }
+
+        private byte[] mediaData() {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int i = 0; i < sizes.length; i++) {
+                for (int j = 0; j < sizes[i]; j++) data.write(i);
+            }
+            return data.toByteArray();
+        }
+
+        private byte[] movie(long dataOffset) throws IOException {
+            long duration = sizes.length * 1024L;
+            byte[] mvhd = versionOne
+                    ? fullBox("mvhd", 1, bytes(0L, 0L, 1000, duration * 1000 / sampleRate), new byte[80])
+                    : fullBox("mvhd", 0, bytes(0, 0, 1000, (int) (duration * 1000 / sampleRate)), new byte[80]);
+            byte[] audio = box("trak", box("mdia", concat(
+                    versionOne ? fullBox("mdhd", 1, bytes(0L, 0L, sampleRate, duration, 0))
+                            : fullBox("mdhd", 0, bytes(0, 0, sampleRate, (int) duration, 0)),
+                    fullBox("hdlr", 0, bytes(0, "soun", 0, 0, 0), new byte[1]),
+                    box("minf", box("stbl", concat(sampleDescription(), timeToSample(),
+                            sampleToChunk(), sampleSizes(), chunkOffsets(dataOffset)))))));
+            byte[] video = box("trak", box("mdia", fullBox("hdlr", 0, bytes(0, "vide", 0, 0, 0), new byte[1])));
+            return box("moov", videoTrackFirst ? concat(mvhd, video, audio) : concat(mvhd, audio));
+        }
+
+        private byte[] sampleDescription() throws IOException {
+            ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(entry);
+            out.write(new byte[6]);
+            out.writeShort(1);
+            out.write(new byte[8]);
+            out.writeShort(channels);
+            out.writeShort(16);
+            out.writeInt(0);
+            out.writeInt(sampleRate << 16);
+            // Elementary stream descriptor: ES, then decoder configuration with the bitrates.
+            ByteArrayOutputStream esds = new ByteArrayOutputStream();
+            DataOutputStream es = new DataOutputStream(esds);
+            es.writeByte(0x03);
+            es.write(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, 25});
+            es.writeShort(1);
+            es.writeByte(0);
+            es.writeByte(0x04);
+            es.writeByte(17);
+            es.writeByte(0x40);
+            es.writeByte(0x15);
+            es.write(new byte[3]);
+            es.writeInt((int) averageBitrate);
+            es.writeInt((int) averageBitrate);
+            es.writeByte(0x05);
+            es.writeByte(2);
+            es.writeShort(0x1208);
+            out.write(fullBox("esds", 0, esds.toByteArray()));
+            return fullBox("stsd", 0, bytes(1), box("mp4a", entry.toByteArray()));
+        }
+
+        private byte[] timeToSample() throws IOException {
+            return fullBox("stts", 0, bytes(1, sizes.length, 1024));
+        }
+
+        private byte[] sampleToChunk() throws IOException {
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(table);
+            out.writeInt(samplesToChunk.length / 3);
+            for (int value : samplesToChunk) out.writeInt(value);
+            return fullBox("stsc", 0, table.toByteArray());
+        }
+
+        private byte[] sampleSizes() throws IOException {
+            if (fixedSize) return fullBox("stsz", 0, bytes(sizes[0], sizes.length));
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(table);
+            out.writeInt(0);
+            out.writeInt(sizes.length);
+            for (int size : sizes) out.writeInt(size);
+            return fullBox("stsz", 0, table.toByteArray());
+        }
+
+        private byte[] chunkOffsets(long dataOffset) throws IOException {
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(table);
+            out.writeInt(chunkCount());
+            int sample = 0;
+            long offset = dataOffset;
+            int entries = samplesToChunk.length / 3;
+            int chunk = 0;
+            for (int entry = 0; entry < entries; entry++) {
+                int perChunk = samplesToChunk[entry * 3 + 1];
+                int lastChunk = entry + 1 < entries ? samplesToChunk[(entry + 1) * 3] - 1 : Integer.MAX_VALUE;
+                for (; chunk < lastChunk && sample < sizes.length; chunk++) {
+                    if (largeOffsets) out.writeLong(offset);
+                    else out.writeInt((int) offset);
+                    for (int i = 0; i < perChunk && sample < sizes.length; i++) offset += sizes[sample++];
+                }
+            }
+            return fullBox(largeOffsets ? "co64" : "stco", 0, table.toByteArray());
+        }
+
+        private static byte[] fullBox(String type, int version, byte[]... payloads) throws IOException {
+            return box(type, concat(bytes(version << 24), concat(payloads)));
+        }
+
+        private static byte[] box(String type, byte[]... payloads) {
+            byte[] payload = concat(payloads);
+            byte[] box = new byte[payload.length + 8];
+            int size = box.length;
+            box[0] = (byte) (size >>> 24);
+            box[1] = (byte) (size >>> 16);
+            box[2] = (byte) (size >>> 8);
+            box[3] = (byte) size;
+            System.arraycopy(type.getBytes(Charset.forName("US-ASCII")), 0, box, 4, 4);
+            System.arraycopy(payload, 0, box, 8, payload.length);
+            return box;
+        }
+
+        // Big endian ints, longs and four character codes.
+        private static byte[] bytes(Object... values) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                for (Object value : values) {
+                    if (value instanceof Long) out.writeLong((Long) value);
+                    else if (value instanceof Integer) out.writeInt((Integer) value);
+                    else out.write(((String) value).getBytes(Charset.forName("US-ASCII")));
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static byte[] concat(byte[]... parts) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] part : parts) out.write(part, 0, part.length);
+            return out.toByteArray();
+        }
+    }
+}
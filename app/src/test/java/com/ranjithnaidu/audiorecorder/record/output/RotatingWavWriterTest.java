@@ -0,0 +1,126 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeakWriter;
+import com.ranjithnaidu.audiorecorder.record.waveform.WaveformPeaks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Unit tests for the implementation of RotatingWavWriter.
+ */
+public class RotatingWavWriterTest {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("rotation", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testFilesRollOverWithoutLosingSamples() throws IOException {
+        final List<Long> rotatedFrames = Collections.synchronizedList(new ArrayList<>());
+        File first = new File(directory, "take.wav");
+        // 250 ms per file at 8 kHz: 2000 frames.
+        RotatingWavWriter writer = new RotatingWavWriter(first, 0, 250,
+                (completedFile, frameCount, sampleRate) -> rotatedFrames.add(frameCount));
+        writer.onStart(8000, 1);
+        short[] block = new short[333];
+        int written = 0;
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < block.length; j++) block[j] = (short) written++;
+            writer.onBlock(block, block.length);
+        }
+        writer.onStop();
+
+        // 9990 frames: four full files and a last one of 1990 frames.
+        assertEquals(4, rotatedFrames.size());
+        assertFalse(RotatingWavWriter.fileAt(first, 5).exists());
+        int expected = 0;
+        for (int n = 0; n < 5; n++) {
+            short[] samples = readSamples(RotatingWavWriter.fileAt(first, n));
+            assertEquals(n < 4 ? 2000 : 1990, samples.length);
+            for (short sample : samples) assertEquals((short) expected++, sample);
+        }
+    }
+
+    @Test
+    public void testStopOnARolloverBoundaryReportsEveryFileOnce() throws IOException {
+        final List<File> rotatedFiles = Collections.synchronizedList(new ArrayList<>());
+        File first = new File(directory, "take.wav");
+        RotatingWavWriter writer = new RotatingWavWriter(first, 0, 250,
+                (completedFile, frameCount, sampleRate) -> rotatedFiles.add(completedFile));
+        writer.onStart(8000, 1);
+        writer.onBlock(new short[4000], 4000);
+        writer.onStop();
+
+        // The second file is full but the last one: it is left to the end of the recording.
+        assertEquals(Collections.singletonList(first), rotatedFiles);
+        assertEquals(RotatingWavWriter.fileAt(first, 1), writer.getCurrentFile());
+        assertEquals(2000, writer.getCurrentFrameCount());
+        assertFalse(RotatingWavWriter.fileAt(first, 2).exists());
+    }
+
+    @Test
+    public void testEveryFileGetsItsOwnPeaks() throws IOException {
+        File first = new File(directory, "take.wav");
+        RotatingWavWriter writer = new RotatingWavWriter(first, 0, 250, null,
+                file -> new WaveformPeakWriter(WaveformPeaks.fileFor(file)));
+        writer.onStart(8000, 1);
+        short[] block = new short[333];
+        for (int i = 0; i < 15; i++) writer.onBlock(block, block.length);
+        writer.onStop();
+
+        // 4995 frames: two full files and a last one of 995 frames.
+        for (int n = 0; n < 3; n++) {
+            WaveformPeaks peaks = WaveformPeaks.open(WaveformPeaks.fileFor(RotatingWavWriter.fileAt(first, n)));
+            assertEquals(n < 2 ? 2000 : 995, peaks.getTotalFrames());
+        }
+        assertFalse(WaveformPeaks.fileFor(RotatingWavWriter.fileAt(first, 3)).exists());
+    }
+
+    @Test
+    public void testSizeLimitIncludesTheHeader() throws IOException {
+        File first = new File(directory, "take.wav");
+        RotatingWavWriter writer = new RotatingWavWriter(first, WavWriter.HEADER_SIZE + 4000, 0, null);
+        writer.onStart(8000, 2);
+        writer.onBlock(new short[2500], 2500);
+        writer.onStop();
+
+        assertEquals(WavWriter.HEADER_SIZE + 4000, first.length());
+        assertEquals(WavWriter.HEADER_SIZE + 1000, RotatingWavWriter.fileAt(first, 1).length());
+    }
+
+    private static short[] readSamples(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) in.length() - WavWriter.HEADER_SIZE];
+            in.seek(WavWriter.HEADER_SIZE);
+            in.readFully(bytes);
+            short[] samples = new short[bytes.length / 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+            }
+            return samples;
+        }
+    }
+}
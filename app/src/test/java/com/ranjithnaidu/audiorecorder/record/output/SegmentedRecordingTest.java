@@ -0,0 +1,114 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for SegmentedRecordingWriter, SegmentedRecordingReader and SegmentIndex recovery.
+ */
+public class SegmentedRecordingTest {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK = 1000;
+
+    private File sessionDir;
+
+    @Before
+    public void setup() throws IOException {
+        sessionDir = File.createTempFile("recording", SegmentIndex.SESSION_SUFFIX);
+        sessionDir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = sessionDir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        sessionDir.delete();
+    }
+
+    @Test
+    public void testSessionReadsBackAsOneStream() throws IOException {
+        // 1 second segments, 3.5 seconds of audio.
+        SegmentedRecordingWriter writer = new SegmentedRecordingWriter(sessionDir, 1000);
+        writer.onStart(SAMPLE_RATE, 1);
+        short[] block = new short[BLOCK];
+        int written = 0;
+        for (int i = 0; i < 28; i++) {
+            for (int j = 0; j < BLOCK; j++) block[j] = (short) (written++ * 7);
+            writer.onBlock(block, BLOCK);
+        }
+        writer.onStop();
+
+        assertTrue(SegmentIndex.isSession(sessionDir));
+        SegmentedRecordingReader reader = new SegmentedRecordingReader(sessionDir);
+        assertEquals(4, reader.getSegments().size());
+        assertEquals(written, reader.getFrameCount());
+        assertEquals(-1, reader.verify());
+
+        short[] all = new short[written];
+        int total = 0;
+        int read;
+        while ((read = reader.read(all, total, Math.min(777, written - total))) > 0) {
+            total += read;
+        }
+        assertEquals(written, total);
+        for (int i = 0; i < written; i++) assertEquals((short) (i * 7), all[i]);
+
+        reader.seekToFrame(12345);
+        reader.read(all, 0, 1);
+        assertEquals((short) (12345 * 7), all[0]);
+        reader.close();
+    }
+
+    @Test
+    public void testRecoveryKeepsCompletedSegmentsOnly() throws IOException {
+        SegmentedRecordingWriter writer = new SegmentedRecordingWriter(sessionDir, 1000);
+        writer.onStart(SAMPLE_RATE, 1);
+        short[] block = new short[BLOCK];
+        for (int i = 0; i < 20; i++) { // 2.5 segments
+            writer.onBlock(block, BLOCK);
+        }
+        // The process dies here: no onStop(), and half a record reaches the index.
+        try (FileOutputStream index = new FileOutputStream(new File(sessionDir, SegmentIndex.FILE_NAME), true)) {
+            index.write(new byte[]{1, 0, 0, 0, 2, 0, 0});
+        }
+        assertFalse(SegmentIndex.read(sessionDir).complete);
+
+        SegmentIndex.Contents recovered = SegmentIndex.recover(sessionDir);
+        assertTrue(recovered.complete);
+        assertEquals(2, recovered.segments.size());
+        assertEquals(2 * SAMPLE_RATE, recovered.getFrameCount());
+        assertFalse(SegmentIndex.segmentFile(sessionDir, 2).exists());
+
+        SegmentedRecordingReader reader = new SegmentedRecordingReader(sessionDir);
+        assertEquals(2 * SAMPLE_RATE, reader.getFrameCount());
+        assertEquals(-1, reader.verify());
+        reader.close();
+    }
+
+    @Test
+    public void testCorruptedSegmentIsDetected() throws IOException {
+        SegmentedRecordingWriter writer = new SegmentedRecordingWriter(sessionDir, 1000);
+        writer.onStart(SAMPLE_RATE, 1);
+        writer.onBlock(new short[SAMPLE_RATE * 2], SAMPLE_RATE * 2);
+        writer.onStop();
+
+        try (RandomAccessFile segment = new RandomAccessFile(SegmentIndex.segmentFile(sessionDir, 1), "rw")) {
+            segment.seek(WavWriter.HEADER_SIZE + 100);
+            segment.write(42);
+        }
+        assertEquals(1, new SegmentedRecordingReader(sessionDir).verify());
+    }
+}
@@ -0,0 +1,85 @@
+package com.ranjithnaidu.audiorecorder.record.output;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit tests for the implementation of WavWriter.
+ */
+public class WavWriterTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("wav_writer", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testHeaderIsPatchedWithFinalSizes() throws IOException {
+        short[] block = new short[1000];
+        WavWriter writer = new WavWriter(file, 44100, 2);
+        for (int i = 0; i < 300; i++) { // more than the staging capacity
+            writer.write(block, 0, block.length);
+        }
+        writer.close();
+
+        ByteBuffer wav = readFile();
+        long dataBytes = 300 * 1000 * 2;
+        assertEquals(WavWriter.HEADER_SIZE + dataBytes, file.length());
+        assertEquals(0x46464952, wav.getInt(0)); // "RIFF"
+        assertEquals(36 + dataBytes, wav.getInt(4));
+        assertEquals(1, wav.getShort(20)); // PCM
+        assertEquals(2, wav.getShort(22));
+        assertEquals(44100, wav.getInt(24));
+        assertEquals(44100 * 4, wav.getInt(28));
+        assertEquals(4, wav.getShort(32));
+        assertEquals(16, wav.getShort(34));
+        assertEquals(dataBytes, wav.getInt(40));
+        assertEquals(300 * 500, writer.getFrameCount());
+    }
+
+    @Test
+    public void testSamplesFromArraysAndDirectBuffersKeepTheirOrder() throws IOException {
+        WavWriter writer = new WavWriter(file, 8000, 1);
+        short[] samples = new short[50000];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) i;
+        writer.write(samples, 0, 30000);
+
+        ByteBuffer[] direct = new ByteBuffer[2];
+        for (int i = 0; i < direct.length; i++) {
+            direct[i] = ByteBuffer.allocateDirect(10000 * 2).order(ByteOrder.LITTLE_ENDIAN);
+            direct[i].asShortBuffer().put(samples, 30000 + i * 10000, 10000);
+        }
+        writer.write(direct, 0, direct.length);
+        writer.close();
+
+        ByteBuffer wav = readFile();
+        assertEquals(samples.length * 2, wav.getInt(40));
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i], wav.getShort(WavWriter.HEADER_SIZE + i * 2));
+        }
+    }
+
+    private ByteBuffer readFile() throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.ranjithnaidu.audiorecorder.record.vad;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for VoiceActivityDetector, VoiceActivityGate and SilenceTimeline.
+ */
+public class VoiceActivityGateTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 320; // 20 ms
+
+    private final Random random = new Random(42);
+    private File timelineFile;
+
+    @Before
+    public void setup() throws IOException {
+        timelineFile = File.createTempFile("gate", SilenceTimeline.SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        timelineFile.delete();
+    }
+
+    @Test
+    public void testDetectorSeparatesToneFromNoise() {
+        VoiceActivityDetector detector = new VoiceActivityDetector(0);
+        short[] block = new short[BLOCK];
+        for (int i = 0; i < 50; i++) {
+            fillNoise(block);
+            assertFalse(detector.process(block, BLOCK, 1));
+        }
+        fillTone(block, 0);
+        assertTrue(detector.process(block, BLOCK, 1));
+        fillNoise(block);
+        assertFalse(detector.process(block, BLOCK, 1));
+    }
+
+    @Test
+    public void testSilenceIsSkippedAndTimelineRestoresWallClock() throws IOException {
+        // 2 s of noise, 1 s of tone, 2 s of noise, 0.5 s of tone, 1 s of noise.
+        int[] seconds2 = {4, 2, 4, 1, 2}; // in half seconds
+        boolean[] tone = {false, true, false, true, false};
+        CountingConsumer sink = new CountingConsumer();
+        VoiceActivityGate gate = new VoiceActivityGate(sink, timelineFile, 200, 300);
+        gate.onStart(SAMPLE_RATE, 1);
+
+        short[] block = new short[BLOCK];
+        long wallFrames = 0;
+        long firstToneWallFrame = -1;
+        for (int part = 0; part < tone.length; part++) {
+            int blocks = seconds2[part] * SAMPLE_RATE / 2 / BLOCK;
+            for (int i = 0; i < blocks; i++) {
+                if (tone[part]) {
+                    if (firstToneWallFrame < 0) firstToneWallFrame = wallFrames;
+                    fillTone(block, wallFrames);
+                } else {
+                    fillNoise(block);
+                }
+                gate.onBlock(block, BLOCK);
+                wallFrames += BLOCK;
+            }
+        }
+        gate.onStop();
+
+        // 1.5 s of tone plus pre-roll and hangover, instead of 6.5 s.
+        assertTrue(sink.stopped);
+        assertEquals(wallFrames, gate.getStoredFrames() + gate.getSkippedFrames());
+        assertEquals(sink.frames, gate.getStoredFrames());
+        assertTrue(sink.frames < wallFrames / 2);
+        assertTrue(sink.frames >= 3 * SAMPLE_RATE / 2);
+        assertTrue(gate.getAverageDetectorNanos() > 0);
+
+        SilenceTimeline timeline = SilenceTimeline.read(timelineFile);
+        assertEquals(SAMPLE_RATE, timeline.getSampleRate());
+        assertEquals(3, timeline.getSpanCount());
+        assertEquals(gate.getSkippedFrames(), timeline.getSilentFrames());
+        // The stored audio starts with the 200 ms pre-roll of the first tone.
+        assertEquals(firstToneWallFrame, timeline.toWallClockFrame(SAMPLE_RATE / 5));
+        assertEquals(SAMPLE_RATE / 5, timeline.toStoredFrame(firstToneWallFrame));
+        assertEquals(0, timeline.toStoredFrame(100));
+    }
+
+    @Test
+    public void testTimelineLookupsMatchAWalkOverTheSpans() throws IOException {
+        SilenceTimeline.Writer writer = new SilenceTimeline.Writer(timelineFile, SAMPLE_RATE);
+        long[] stored = new long[1000];
+        long[] silent = new long[stored.length];
+        long storedFrame = 0;
+        for (int i = 0; i < stored.length; i++) {
+            storedFrame += random.nextInt(SAMPLE_RATE);
+            stored[i] = storedFrame;
+            silent[i] = 1 + random.nextInt(SAMPLE_RATE);
+            writer.appendSilence(stored[i], silent[i]);
+        }
+        writer.close();
+        SilenceTimeline timeline = SilenceTimeline.read(timelineFile);
+
+        for (int i = 0; i < 10000; i++) {
+            long frame = random.nextInt((int) (storedFrame * 2));
+            long wallClockFrame = frame;
+            for (int span = 0; span < stored.length && stored[span] <= frame; span++) {
+                wallClockFrame += silent[span];
+            }
+            assertEquals(wallClockFrame, timeline.toWallClockFrame(frame));
+
+            long expectedStoredFrame = -1;
+            long removed = 0;
+            for (int span = 0; span < stored.length && expectedStoredFrame < 0; span++) {
+                long spanStart = stored[span] + removed;
+                if (frame < spanStart) break;
+                if (frame < spanStart + silent[span]) expectedStoredFrame = stored[span];
+                removed += silent[span];
+            }
+            if (expectedStoredFrame < 0) expectedStoredFrame = frame - removed;
+            assertEquals(expectedStoredFrame, timeline.toStoredFrame(frame));
+        }
+    }
+
+    private void fillNoise(short[] block) {
+        for (int i = 0; i < block.length; i++) block[i] = (short) (random.nextGaussian() * 30);
+    }
+
+    private static void fillTone(short[] block, long frame) {
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * (frame + i) / SAMPLE_RATE));
+        }
+    }
+
+    private static final class CountingConsumer implements BlockConsumer {
+        long frames;
+        boolean stopped;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+            frames += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+}
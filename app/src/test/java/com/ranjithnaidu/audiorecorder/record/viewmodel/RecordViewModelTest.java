@@ -18,6 +18,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -80,6 +81,122 @@ public class RecordViewModelTest {
         assertTrue(recordViewModel.serviceRecording.get());
     }
 
+    @Test
+    public void testStartLongRecording() {
+        recordViewModel.longRecording.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setRotationLimits(0, 30 * 60 * 1000);
+        Mockito.verify(recordingService).startRecording(0);
+        assertTrue(recordViewModel.serviceRecording.get());
+    }
+
+    @Test
+    public void testMediaRecorderIsTheDefaultCaptureMode() {
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setCaptureMode(RecordingService.CAPTURE_MODE_MEDIA_RECORDER);
+    }
+
+    @Test
+    public void testPcmCaptureIsChosenByTheUser() {
+        recordViewModel.pcmRecording.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setCaptureMode(RecordingService.CAPTURE_MODE_PCM);
+    }
+
+    @Test
+    public void testCrashSafeRecordingNeedsPcmCapture() {
+        recordViewModel.crashSafeRecording.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setSegmentedOutput(false);
+
+        recordViewModel.pcmRecording.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setSegmentedOutput(true);
+    }
+
+    @Test
+    public void testSkippingSilenceNeedsPcmCapture() {
+        recordViewModel.skipSilence.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setVoiceActivityGating(false);
+
+        recordViewModel.pcmRecording.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setVoiceActivityGating(true);
+    }
+
+    @Test
+    public void testFlacArchivingNeedsPcmCapture() {
+        recordViewModel.flacArchiving.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setFlacArchiving(false);
+    }
+
+    @Test
+    public void testVoiceConditioningNeedsPcmCapture() {
+        recordViewModel.voiceConditioning.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setSignalConditioning(false);
+
+        recordViewModel.pcmRecording.set(true);
+        recordViewModel.startRecording();
+        Mockito.verify(recordingService).setSignalConditioning(true);
+    }
+
+    @Test
+    public void testPreRollIsOffByDefault() {
+        recordViewModel.pcmRecording.set(true);
+        recordViewModel.setPreRollWanted(true);
+        Mockito.verify(recordingService, Mockito.never()).armPreRoll(ArgumentMatchers.anyLong());
+    }
+
+    @Test
+    public void testPreRollFollowsTheScreenAndTheCaptureMode() {
+        recordViewModel.pcmRecording.set(true);
+        recordViewModel.preRoll.set(true);
+        recordViewModel.setPreRollWanted(true);
+        Mockito.verify(recordingService).armPreRoll(3000);
+        recordViewModel.pcmRecording.set(false);
+        Mockito.verify(recordingService).disarmPreRoll();
+    }
+
+    @Test
+    public void testFileRotationsAreCollected() {
+        recordViewModel.connectService(intent);
+        Mockito.verify(context).bindService(ArgumentMatchers.eq(intent), serviceConnectionArgumentCaptor.capture(), ArgumentMatchers.eq(BIND_AUTO_CREATE));
+        serviceConnectionArgumentCaptor.getValue().onServiceConnected(componentName, iBinder);
+        Mockito.verify(recordingService).setOnRecordingStatusChangedListener(onRecordingStatusChangedListenerArgumentCaptor.capture());
+
+        recordViewModel.longRecording.set(true);
+        recordViewModel.startRecording();
+        onRecordingStatusChangedListenerArgumentCaptor.getValue().onRecordingStarted();
+        onRecordingStatusChangedListenerArgumentCaptor.getValue().onFileRotated("file_path", 1800000L);
+        onRecordingStatusChangedListenerArgumentCaptor.getValue().onRecordingStopped("file_path_2", 1000L);
+
+        assertEquals(2, recordViewModel.getRecordingParts().size());
+        assertEquals("file_path", recordViewModel.getRecordingParts().get(0).getPath());
+        assertEquals("file_path_2", recordViewModel.recording.getPath());
+    }
+
+    @Test
+    public void testEveryAmplitudeOfABatchIsDelivered() {
+        recordViewModel.connectService(intent);
+        Mockito.verify(context).bindService(ArgumentMatchers.eq(intent), serviceConnectionArgumentCaptor.capture(), ArgumentMatchers.eq(BIND_AUTO_CREATE));
+        serviceConnectionArgumentCaptor.getValue().onServiceConnected(componentName, iBinder);
+        Mockito.verify(recordingService).setOnRecordingStatusChangedListener(onRecordingStatusChangedListenerArgumentCaptor.capture());
+
+        Observer<Integer> observer = Mockito.mock(Observer.class);
+        recordViewModel.getAmplitudeLive().observe(TestUtils.TEST_OBSERVER, observer);
+        onRecordingStatusChangedListenerArgumentCaptor.getValue().onAmplitudeInfo(new int[]{0, 100, 200, 300}, 1, 3);
+
+        InOrder inOrder = Mockito.inOrder(observer);
+        inOrder.verify(observer).onChanged(100);
+        inOrder.verify(observer).onChanged(200);
+        inOrder.verify(observer).onChanged(300);
+        assertEquals(3, recordViewModel.getAmplitudeHistory().size());
+        assertEquals(300f, recordViewModel.getAmplitudeHistory().get(2));
+    }
+
     @Test
     public void testStopRecording() {
         recordViewModel.stopRecording();
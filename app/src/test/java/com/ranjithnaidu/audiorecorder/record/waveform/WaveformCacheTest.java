@@ -0,0 +1,306 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+import com.ranjithnaidu.audiorecorder.record.output.WavWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of WaveformCache.
+ */
+public class WaveformCacheTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    private File directory;
+    private File cacheDirectory;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("recordings", "");
+        directory.delete();
+        directory.mkdir();
+        cacheDirectory = new File(directory, "waveforms");
+        executor = WaveformCache.newExtractionExecutor(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        delete(directory);
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneDecode() throws Exception {
+        File recording = recording("a.wav", 40000);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingDecoder decoder = new CountingDecoder(release);
+        WaveformCache cache = new WaveformCache(cacheDirectory, 1 << 20, 1 << 20, decoder, executor);
+
+        Results results = new Results(3);
+        cache.load(recording, results);
+        cache.load(recording, results);
+        cache.load(recording, results);
+        release.countDown();
+        results.await();
+
+        assertEquals(1, decoder.decodes);
+        assertEquals(1, cache.getDecodes());
+        assertEquals(2, cache.getMergedRequests());
+        assertEquals(3, results.loaded.size());
+        assertSame(results.loaded.get(0), results.loaded.get(1));
+        assertEquals(40000, results.loaded.get(0).getTotalFrames());
+
+        // Later requests for the same version are answered from memory, on the calling thread.
+        Results again = new Results(1);
+        cache.load(recording, recording.lastModified(), again);
+        assertEquals(1, again.loaded.size());
+        assertEquals(1, cache.getMemoryHits());
+    }
+
+    @Test
+    public void testRequestsArePrioritizedCancellableAndBounded() throws Exception {
+        ExecutorService single = WaveformCache.newExtractionExecutor(1);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            OrderDecoder decoder = new OrderDecoder(release);
+            WaveformCache cache = new WaveformCache(cacheDirectory, 1 << 20, 1 << 20, decoder, single);
+            File busy = recording("busy.wav", 8000);
+            cache.load(busy, new Results(1));
+            assertTrue(decoder.started.await(10, TimeUnit.SECONDS));
+
+            File prefetched = recording("prefetched.wav", 8000);
+            File older = recording("older.wav", 8000);
+            File newer = recording("newer.wav", 8000);
+            File cancelled = recording("cancelled.wav", 8000);
+            File played = recording("played.wav", 8000);
+            cache.prefetch(prefetched, prefetched.lastModified());
+            Results results = new Results(3);
+            cache.load(older, results);
+            cache.load(newer, results);
+            Results cancelledResults = new Results(1);
+            cache.load(cancelled, cancelledResults);
+            cache.cancel(cancelled, cancelledResults);
+            cache.loadFirst(played, results);
+            release.countDown();
+            results.await();
+
+            // The prefetch comes last, after the requests it was queued before.
+            assertTrue(waitForDecodes(decoder, 5));
+            assertEquals("[busy.wav, played.wav, newer.wav, older.wav, prefetched.wav]", decoder.order.toString());
+            assertTrue(cancelledResults.loaded.isEmpty() && cancelledResults.error == null);
+        } finally {
+            single.shutdownNow();
+        }
+
+        // A full queue fails its last request.
+        ExecutorService blocked = WaveformCache.newExtractionExecutor(1);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            OrderDecoder decoder = new OrderDecoder(release);
+            WaveformCache cache = new WaveformCache(cacheDirectory, 1 << 20, 1 << 20, decoder, blocked);
+            cache.load(recording("busy.wav", 8000), new Results(1));
+            assertTrue(decoder.started.await(10, TimeUnit.SECONDS));
+            Results first = new Results(1);
+            cache.load(new File(directory, "first.wav"), first);
+            for (int i = 0; i < WaveformCache.MAX_PENDING_REQUESTS; i++) {
+                cache.load(new File(directory, i + ".wav"), new Results(1));
+            }
+            first.await();
+            assertNotNull(first.error);
+            release.countDown();
+        } finally {
+            blocked.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDiskTierOutlivesTheMemoryTierAndIsBounded() throws Exception {
+        File first = recording("first.wav", 200000);
+        File second = recording("second.wav", 200000);
+        CountingDecoder decoder = new CountingDecoder(null);
+        WaveformCache cache = new WaveformCache(cacheDirectory, 0, 1 << 20, decoder, executor);
+        load(cache, first);
+        load(cache, second);
+        assertEquals(2, decoder.decodes);
+        assertEquals(0, cache.getMemoryBytes());
+        long peakBytes = cache.getDiskBytes() / 2;
+
+        // A new cache, as after a restart: nothing is decoded again.
+        cache = new WaveformCache(cacheDirectory, 0, 1 << 20, decoder, executor);
+        assertEquals(200000, load(cache, first).getTotalFrames());
+        assertEquals(2, decoder.decodes);
+        assertEquals(1, cache.getDiskHits());
+
+        // Room for two files: the third evicts the least recently used one, second.
+        cache = new WaveformCache(cacheDirectory, 0, peakBytes * 2 + peakBytes / 2, decoder, executor);
+        load(cache, first);
+        load(cache, recording("third.wav", 200000));
+        assertEquals(3, decoder.decodes);
+        assertTrue(cache.getDiskBytes() <= peakBytes * 2 + peakBytes / 2);
+        assertFalse(new File(cacheDirectory, WaveformCache.keyFor(second) + WaveformPeaks.EXTENSION).exists());
+        assertTrue(new File(cacheDirectory, WaveformCache.keyFor(first) + WaveformPeaks.EXTENSION).exists());
+        load(cache, second);
+        assertEquals(4, decoder.decodes);
+    }
+
+    @Test
+    public void testPeakFilesAndFailures() throws Exception {
+        // A recording with its own peak file is never decoded.
+        File recording = recording("peaks.wav", 30000);
+        WaveformPeakWriter writer = new WaveformPeakWriter(new CountingConsumer(), WaveformPeaks.fileFor(recording));
+        new WavPcmDecoder().decode(recording, writer);
+        CountingDecoder decoder = new CountingDecoder(null);
+        WaveformCache cache = new WaveformCache(cacheDirectory, 1 << 20, 1 << 20, decoder, executor);
+        assertEquals(30000, load(cache, recording).getTotalFrames());
+        assertEquals(0, decoder.decodes);
+
+        // A file that cannot be decoded is reported, and leaves nothing behind.
+        File broken = new File(directory, "broken.wav");
+        assertTrue(broken.createNewFile());
+        Results results = new Results(1);
+        cache.load(broken, results);
+        results.await();
+        assertNotNull(results.error);
+        String[] left = cacheDirectory.list();
+        assertTrue(left == null || left.length == 0);
+    }
+
+    private File recording(String name, int frames) throws IOException {
+        File file = new File(directory, name);
+        WavWriter writer = new WavWriter(file, SAMPLE_RATE, 1);
+        short[] block = new short[1000];
+        for (int written = 0; written < frames; written += block.length) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (short) ((written + i) % 2000 - 1000);
+            }
+            writer.write(block, 0, Math.min(block.length, frames - written));
+        }
+        writer.close();
+        return file;
+    }
+
+    private static WaveformPeaks load(WaveformCache cache, File recording) throws Exception {
+        Results results = new Results(1);
+        cache.load(recording, results);
+        results.await();
+        assertEquals(1, results.loaded.size());
+        return results.loaded.get(0);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    private static class Results implements WaveformCache.Callback {
+        final List<WaveformPeaks> loaded = new ArrayList<>();
+        final CountDownLatch done;
+        IOException error;
+
+        Results(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void onWaveformLoaded(File recording, WaveformPeaks peaks) {
+            loaded.add(peaks);
+            done.countDown();
+        }
+
+        @Override
+        public synchronized void onWaveformFailed(File recording, IOException e) {
+            error = e;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static class CountingDecoder implements PcmDecoder {
+        final CountDownLatch release;
+        volatile int decodes;
+
+        CountingDecoder(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void decode(File file, BlockConsumer consumer) throws IOException {
+            decodes++;
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            new WavPcmDecoder().decode(file, consumer);
+        }
+    }
+
+    private static boolean waitForDecodes(OrderDecoder decoder, int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && decoder.order.size() < count; i++) Thread.sleep(10);
+        return decoder.order.size() == count;
+    }
+
+    // Records the order of the decodes, the first one waiting for the release.
+    private static class OrderDecoder implements PcmDecoder {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release;
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        OrderDecoder(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void decode(File file, BlockConsumer consumer) throws IOException {
+            order.add(file.getName());
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            new WavPcmDecoder().decode(file, consumer);
+        }
+    }
+
+    private static class CountingConsumer implements BlockConsumer {
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+        }
+
+        @Override
+        public void onStop() {
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ranjithnaidu.audiorecorder.record.waveform;
+
+import com.ranjithnaidu.audiorecorder.record.capture.BlockConsumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of WaveformPeakWriter and WaveformPeaks.
+ */
+public class WaveformPeaksTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("waveform", WaveformPeaks.EXTENSION);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRenderMatchesTheSamplesAtEveryLevel() throws Exception {
+        short[] samples = signal(1_000_003, 2);
+        CountingConsumer downstream = new CountingConsumer();
+        WaveformPeakWriter writer = new WaveformPeakWriter(downstream, file);
+        write(writer, samples, 2, 777);
+        assertNull(writer.getError());
+        assertEquals(samples.length, downstream.samples);
+        assertTrue(downstream.stopped);
+
+        WaveformPeaks peaks = WaveformPeaks.open(file);
+        assertEquals(SAMPLE_RATE, peaks.getSampleRate());
+        assertEquals(samples.length / 2, peaks.getTotalFrames());
+        assertEquals(WaveformPeaks.LEVEL_COUNT, peaks.getLevelCount());
+        long frames = samples.length / 2;
+        for (int level = 0; level < peaks.getLevelCount(); level++) {
+            long bucket = peaks.getBucketFrames(level);
+            assertEquals((frames + bucket - 1) / bucket, peaks.getBucketCount(level));
+        }
+
+        // Columns spanning whole buckets of each level read exactly the samples' extremes.
+        for (int level = 0; level < 4; level++) {
+            long bucket = peaks.getBucketFrames(level);
+            int columns = 20;
+            long start = 3 * bucket;
+            long end = start + columns * bucket;
+            short[] min = new short[columns];
+            short[] max = new short[columns];
+            short[] rms = new short[columns];
+            assertEquals(level, peaks.render(start, end, columns, min, max, rms));
+            for (int column = 0; column < columns; column++) {
+                int from = (int) (start + column * bucket) * 2;
+                int to = (int) (start + (column + 1) * bucket) * 2;
+                int expectedMin = Short.MAX_VALUE;
+                int expectedMax = Short.MIN_VALUE;
+                double squares = 0;
+                for (int i = from; i < to; i++) {
+                    expectedMin = Math.min(expectedMin, samples[i]);
+                    expectedMax = Math.max(expectedMax, samples[i]);
+                    squares += (double) samples[i] * samples[i];
+                }
+                assertEquals(expectedMin, min[column]);
+                assertEquals(expectedMax, max[column]);
+                assertEquals(Math.sqrt(squares / (to - from)), rms[column], 0.02 * rms[column] + 2);
+            }
+        }
+
+        // The whole recording on a screen width comes from a coarse level.
+        short[] min = new short[400];
+        short[] max = new short[400];
+        assertEquals(1, peaks.render(0, frames, 400, min, max, null));
+        assertEquals(-30000, min[200], 1000);
+        assertEquals(30000, max[200], 1000);
+        // Columns past the end of the recording are empty.
+        peaks.render(frames, frames * 2, 400, min, max, null);
+        assertEquals(0, max[399]);
+    }
+
+    @Test
+    public void testUnfinishedFileKeepsItsFinestLevel() throws Exception {
+        short[] samples = signal(3_000_000, 1); // more buckets than the writer stages
+        WaveformPeakWriter writer = new WaveformPeakWriter(new CountingConsumer(), file);
+        writer.onStart(SAMPLE_RATE, 1);
+        writer.onBlock(samples, samples.length);
+        // The process dies here: only the flushed part of the finest level reached the file.
+        long written = file.length();
+        assertTrue(written > WaveformPeaks.HEADER_SIZE);
+        RandomAccessFile copy = new RandomAccessFile(file, "r");
+        byte[] bytes = new byte[(int) written];
+        copy.readFully(bytes);
+        copy.close();
+
+        File crashed = File.createTempFile("crashed", WaveformPeaks.EXTENSION);
+        try {
+            RandomAccessFile out = new RandomAccessFile(crashed, "rw");
+            out.write(bytes);
+            out.close();
+            WaveformPeaks peaks = WaveformPeaks.open(crashed);
+            assertEquals(1, peaks.getLevelCount());
+            assertEquals((written - WaveformPeaks.HEADER_SIZE) / WaveformPeaks.ENTRY_SIZE,
+                    peaks.getBucketCount(0));
+            short[] min = new short[1];
+            short[] max = new short[1];
+            peaks.render(0, WaveformPeaks.BUCKET_FRAMES, 1, min, max, null);
+            assertTrue(max[0] > 0);
+        } finally {
+            writer.onStop();
+            crashed.delete();
+        }
+    }
+
+    @Test
+    public void testWriteFailureDoesNotStopTheRecording() throws Exception {
+        File directory = new File(file.getPath() + ".dir");
+        assertTrue(directory.mkdir());
+        try {
+            CountingConsumer downstream = new CountingConsumer();
+            WaveformPeakWriter writer = new WaveformPeakWriter(downstream, directory);
+            write(writer, signal(10_000, 1), 1, 1000);
+            assertTrue(writer.getError() != null);
+            assertEquals(10_000, downstream.samples);
+            assertTrue(downstream.stopped);
+        } finally {
+            directory.delete();
+        }
+    }
+
+    /** A 50 Hz tone under a slow envelope that peaks at 30000 in the middle. */
+    private static short[] signal(int frames, int channels) {
+        short[] samples = new short[frames * channels];
+        for (int frame = 0; frame < frames; frame++) {
+            double envelope = Math.sin(Math.PI * frame / frames);
+            double value = 30000 * envelope * Math.sin(2 * Math.PI * 50 * frame / SAMPLE_RATE);
+            for (int channel = 0; channel < channels; channel++) {
+                samples[frame * channels + channel] = (short) (channel == 0 ? value : -value / 2);
+            }
+        }
+        return samples;
+    }
+
+    private static void write(WaveformPeakWriter writer, short[] samples, int channels,
+                              int blockFrames) throws Exception {
+        writer.onStart(SAMPLE_RATE, channels);
+        short[] block = new short[blockFrames * channels];
+        for (int offset = 0; offset < samples.length; offset += block.length) {
+            int length = Math.min(block.length, samples.length - offset);
+            System.arraycopy(samples, offset, block, 0, length);
+            writer.onBlock(block, length);
+        }
+        writer.onStop();
+    }
+
+    private static class CountingConsumer implements BlockConsumer {
+        long samples;
+        boolean stopped;
+
+        @Override
+        public void onStart(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public void onBlock(short[] block, int length) {
+            samples += length;
+        }
+
+        @Override
+        public void onStop() {
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.ranjithnaidu.audiorecorder.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Unit tests for the implementation of RecordingEventChannel, with a main thread simulated by a
+ * queue of tasks run on demand.
+ */
+public class RecordingEventChannelTest {
+
+    private final List<Runnable> mainThreadTasks = new ArrayList<>();
+    private final List<String> received = new ArrayList<>();
+    private final RecordingEventChannel channel = new RecordingEventChannel(mainThreadTasks::add, 8);
+
+    private final RecordingService.OnRecordingStatusChangedListener listener =
+            new RecordingService.OnRecordingStatusChangedListener() {
+                @Override
+                public void onRecordingStarted() {
+                    received.add("started");
+                }
+
+                @Override
+                public void onTimerChanged(int seconds) {
+                    received.add("timer " + seconds);
+                }
+
+                @Override
+                public void onAmplitudeInfo(int[] amplitudes, int offset, int count) {
+                    for (int i = offset; i < offset + count; i++) received.add("amplitude " + amplitudes[i]);
+                }
+
+                @Override
+                public void onRecordingStopped(String filePath, Long elapsedMillis) {
+                    received.add("stopped " + filePath + " " + elapsedMillis);
+                }
+
+                @Override
+                public void onFileRotated(String filePath, long elapsedMillis) {
+                    received.add("rotated " + filePath + " " + elapsedMillis);
+                }
+            };
+
+    @Test
+    public void testEventsOfABusyPeriodArriveInOneOrderedBatch() {
+        channel.setListener(listener);
+        channel.postRecordingStarted();
+        channel.postTimerChanged(0);
+        channel.postAmplitude(10);
+        channel.postTimerChanged(1);
+        channel.postAmplitude(11);
+        channel.postFileRotated("a", 1000);
+        channel.postAmplitude(12);
+        channel.postRecordingStopped("b", 2000L);
+        assertEquals(1, mainThreadTasks.size());
+        runMainThread();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("started");
+        expected.add("timer 1");
+        expected.add("amplitude 10");
+        expected.add("amplitude 11");
+        expected.add("rotated a 1000");
+        expected.add("amplitude 12");
+        expected.add("stopped b 2000");
+        assertEquals(expected, received);
+        assertEquals(8, channel.getPostCount());
+        assertEquals(1, channel.getDispatchCount());
+        assertEquals(1, channel.getCoalescedTimerCount());
+    }
+
+    @Test
+    public void testEveryAmplitudeIsDeliveredAcrossBatches() {
+        channel.setListener(listener);
+        int next = 0;
+        for (int batch = 0; batch < 20; batch++) {
+            for (int i = 0; i < batch % 8; i++) channel.postAmplitude(next++);
+            runMainThread();
+        }
+
+        assertEquals(next, received.size());
+        for (int i = 0; i < next; i++) assertEquals("amplitude " + i, received.get(i));
+        assertEquals(0, channel.getDroppedAmplitudeCount());
+        assertEquals(17, channel.getDispatchCount()); // batches with no amplitude cost nothing
+    }
+
+    @Test
+    public void testOverflowingAmplitudesAreCountedAndStateIsKept() {
+        channel.setListener(listener);
+        for (int i = 0; i < 10; i++) channel.postAmplitude(i);
+        channel.postRecordingStopped("c", 5L);
+        runMainThread();
+
+        assertEquals(2, channel.getDroppedAmplitudeCount());
+        assertEquals(9, received.size());
+        assertEquals("amplitude 7", received.get(7));
+        assertEquals("stopped c 5", received.get(8));
+    }
+
+    private void runMainThread() {
+        List<Runnable> tasks = new ArrayList<>(mainThreadTasks);
+        mainThreadTasks.clear();
+        for (Runnable task : tasks) task.run();
+    }
+}
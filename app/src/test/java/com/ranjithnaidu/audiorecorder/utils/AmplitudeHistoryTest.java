@@ -0,0 +1,56 @@
+package com.ranjithnaidu.audiorecorder.utils;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of AmplitudeHistory.
+ */
+public class AmplitudeHistoryTest {
+
+    @Test
+    public void testAppendEvictsTheOldestOnceFull() {
+        AmplitudeHistory history = new AmplitudeHistory(4);
+        for (int i = 0; i < 10; i++) history.append(i);
+
+        assertEquals(4, history.size());
+        assertEquals(10, history.getAppendedCount());
+        assertEquals(6, history.getEvictedCount());
+        for (int i = 0; i < 4; i++) assertEquals(6f + i, history.get(i));
+    }
+
+    @Test
+    public void testCapacityChangesKeepTheMostRecentAmplitudes() {
+        AmplitudeHistory history = new AmplitudeHistory(8);
+        for (int i = 0; i < 11; i++) history.append(i);
+
+        history.setCapacity(3);
+        assertEquals(3, history.size());
+        assertEquals(8f, history.get(0));
+        assertEquals(10f, history.get(2));
+        assertEquals(8, history.getEvictedCount());
+
+        history.setCapacity(6);
+        history.append(11);
+        history.append(12);
+        assertEquals(5, history.size());
+        assertEquals(8f, history.get(0));
+        assertEquals(12f, history.get(4));
+    }
+
+    @Test
+    public void testResetKeepsTheCapacity() {
+        AmplitudeHistory history = new AmplitudeHistory(5);
+        for (int i = 0; i < 7; i++) history.append(i);
+        history.reset(12);
+
+        assertTrue(history.isEmpty());
+        assertEquals(0, history.getAppendedCount());
+        assertEquals(12, history.getStartSeconds());
+        assertEquals(5, history.getCapacity());
+        history.append(1);
+        assertEquals(1f, history.get(0));
+    }
+}